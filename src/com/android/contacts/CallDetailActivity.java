@@ -18,9 +18,12 @@ package com.android.contacts;
 
 import com.android.contacts.BackScrollManager.ScrollableHeader;
 import com.android.contacts.calllog.CallDetailHistoryAdapter;
+import com.android.contacts.calllog.CallStatistics;
+import com.android.contacts.calllog.CallStatisticsEngine;
 import com.android.contacts.calllog.CallTypeHelper;
 import com.android.contacts.calllog.ContactInfo;
 import com.android.contacts.calllog.ContactInfoHelper;
+import com.android.contacts.calllog.NumberWithCountryIso;
 import com.android.contacts.calllog.PhoneNumberHelper;
 import com.android.contacts.util.AsyncTaskExecutor;
 import com.android.contacts.util.AsyncTaskExecutors;
@@ -28,6 +31,7 @@ import com.android.contacts.voicemail.VoicemailPlaybackFragment;
 import com.android.contacts.voicemail.VoicemailStatusHelper;
 import com.android.contacts.voicemail.VoicemailStatusHelper.StatusMessage;
 import com.android.contacts.voicemail.VoicemailStatusHelperImpl;
+import com.google.common.collect.Maps;
 
 import android.app.ActionBar;
 import android.app.Activity;
@@ -62,7 +66,10 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Displays the details of a specific call log entry.
@@ -107,6 +114,20 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
     private String mNumber = null;
     private String mDefaultCountryIso;
 
+    /** The totals of the calls with each contact and number. */
+    private CallStatisticsEngine mCallStatisticsEngine;
+    /** The adapter of the history list, or null if the calls are not shown yet. */
+    private CallDetailHistoryAdapter mCallHistoryAdapter;
+    /** The details of the first call shown, whose contact or number the totals are shown for. */
+    private PhoneCallDetails mCallStatisticsDetails;
+    private final CallStatisticsEngine.Listener mCallStatisticsListener =
+            new CallStatisticsEngine.Listener() {
+                @Override
+                public void onCallStatisticsChanged() {
+                    updateCallStatistics();
+                }
+            };
+
     /* package */ LayoutInflater mInflater;
     /* package */ Resources mResources;
     /** Helper to load contact photos. */
@@ -188,6 +209,7 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
         CallLog.Calls.TYPE,
         CallLog.Calls.COUNTRY_ISO,
         CallLog.Calls.GEOCODED_LOCATION,
+        CallLog.Calls._ID,
     };
 
     static final int DATE_COLUMN_INDEX = 0;
@@ -196,6 +218,10 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
     static final int CALL_TYPE_COLUMN_INDEX = 3;
     static final int COUNTRY_ISO_COLUMN_INDEX = 4;
     static final int GEOCODED_LOCATION_COLUMN_INDEX = 5;
+    static final int ID_COLUMN_INDEX = 6;
+
+    /** The number of calls shown before the details of the other calls in a group are ready. */
+    private static final int FIRST_DETAILS_BATCH_SIZE = 10;
 
     private final View.OnClickListener mPrimaryActionListener = new View.OnClickListener() {
         @Override
@@ -239,6 +265,7 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
         mContactPhotoManager = ContactPhotoManager.getInstance(this);
         mProximitySensorManager = new ProximitySensorManager(this, mProximitySensorListener);
         mContactInfoHelper = new ContactInfoHelper(this, ContactsUtils.getCurrentCountryIso(this));
+        mCallStatisticsEngine = CallStatisticsEngine.getInstance(this);
         configureActionBar();
         optionallyHandleVoicemail();
     }
@@ -246,9 +273,27 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
     @Override
     public void onResume() {
         super.onResume();
+        mCallStatisticsEngine.addListener(mCallStatisticsListener);
         updateData(getCallLogEntryUris());
     }
 
+    /** Shows the totals of the calls with the contact or number of the calls shown. */
+    private void updateCallStatistics() {
+        if (mCallHistoryAdapter == null || mCallStatisticsDetails == null) {
+            return;
+        }
+        CallStatistics statistics = null;
+        if (mCallStatisticsDetails.contactUri != null) {
+            statistics = mCallStatisticsEngine.getStatisticsForContact(
+                    mCallStatisticsDetails.contactUri);
+        }
+        if (statistics == null) {
+            statistics = mCallStatisticsEngine.getStatisticsForNumber(
+                    mCallStatisticsDetails.number.toString(), mCallStatisticsDetails.countryIso);
+        }
+        mCallHistoryAdapter.setCallStatistics(statistics);
+    }
+
     /**
      * Handle voicemail playback or hide voicemail ui.
      * <p>
@@ -352,25 +397,60 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
      * @param callUris URIs into {@link CallLog.Calls} of the calls to be displayed
      */
     private void updateData(final Uri... callUris) {
-        class UpdateContactDetailsTask extends AsyncTask<Void, Void, PhoneCallDetails[]> {
+        class UpdateContactDetailsTask
+                extends AsyncTask<Void, PhoneCallDetails[], PhoneCallDetails[]> {
+            /** The adapter of the history list, once the first calls are shown. */
+            private CallDetailHistoryAdapter mHistoryAdapter;
+
             @Override
             public PhoneCallDetails[] doInBackground(Void... params) {
-                // TODO: All phone calls correspond to the same person, so we can make a single
-                // lookup.
                 final int numCalls = callUris.length;
                 PhoneCallDetails[] details = new PhoneCallDetails[numCalls];
+                // All phone calls correspond to the same person, so each number is only looked up
+                // once.
+                final Map<NumberWithCountryIso, ContactInfo> contactInfos = Maps.newHashMap();
+                Cursor callCursor = null;
                 try {
+                    // A single call, e.g., from the intent data, is read directly from its URI.
+                    callCursor = numCalls > 1 ? queryCallLogEntries(callUris) : null;
+                    final Map<Long, Integer> positions =
+                            callCursor == null ? null : getPositionsById(callCursor);
                     for (int index = 0; index < numCalls; ++index) {
-                        details[index] = getPhoneCallDetailsForUri(callUris[index]);
+                        if (callCursor == null) {
+                            details[index] =
+                                    getPhoneCallDetailsForUri(callUris[index], contactInfos);
+                        } else {
+                            final Integer position =
+                                    positions.get(ContentUris.parseId(callUris[index]));
+                            if (position == null || !callCursor.moveToPosition(position)) {
+                                throw new IllegalArgumentException(
+                                        "Cannot find content: " + callUris[index]);
+                            }
+                            details[index] = getPhoneCallDetails(callCursor, contactInfos);
+                        }
+                        if (index + 1 == FIRST_DETAILS_BATCH_SIZE
+                                && numCalls > FIRST_DETAILS_BATCH_SIZE) {
+                            // Show the first calls while the others are processed.
+                            publishProgress(Arrays.copyOf(details, index + 1));
+                        }
                     }
                     return details;
                 } catch (IllegalArgumentException e) {
                     // Something went wrong reading in our primary data.
                     Log.w(TAG, "invalid URI starting call details", e);
                     return null;
+                } finally {
+                    if (callCursor != null) {
+                        callCursor.close();
+                    }
                 }
             }
 
+            @Override
+            public void onProgressUpdate(PhoneCallDetails[]... values) {
+                showDetails(values[0]);
+            }
+
             @Override
             public void onPostExecute(PhoneCallDetails[] details) {
                 if (details == null) {
@@ -380,7 +460,16 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
                     finish();
                     return;
                 }
+                if (mHistoryAdapter != null) {
+                    // The header is already shown, only the list of calls needs updating.
+                    mHistoryAdapter.setPhoneCallDetails(details);
+                    return;
+                }
+                showDetails(details);
+            }
 
+            /** Shows the header, the actions and the history list for the given calls. */
+            private void showDetails(PhoneCallDetails[] details) {
                 // We know that all calls are from the same number and the same contact, so pick the
                 // first.
                 PhoneCallDetails firstDetails = details[0];
@@ -507,10 +596,13 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
                 invalidateOptionsMenu();
 
                 ListView historyList = (ListView) findViewById(R.id.history);
-                historyList.setAdapter(
-                        new CallDetailHistoryAdapter(CallDetailActivity.this, mInflater,
-                                mCallTypeHelper, details, hasVoicemail(), canPlaceCallsTo,
-                                findViewById(R.id.controls)));
+                mHistoryAdapter = new CallDetailHistoryAdapter(CallDetailActivity.this, mInflater,
+                        mCallTypeHelper, details, hasVoicemail(), canPlaceCallsTo,
+                        findViewById(R.id.controls));
+                historyList.setAdapter(mHistoryAdapter);
+                mCallHistoryAdapter = mHistoryAdapter;
+                mCallStatisticsDetails = firstDetails;
+                updateCallStatistics();
                 BackScrollManager.bind(
                         new ScrollableHeader() {
                             private View mControls = findViewById(R.id.controls);
@@ -544,64 +636,132 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
         mAsyncTaskExecutor.submit(Tasks.UPDATE_PHONE_CALL_DETAILS, new UpdateContactDetailsTask());
     }
 
-    /** Return the phone call details for a given call log URI. */
-    private PhoneCallDetails getPhoneCallDetailsForUri(Uri callUri) {
+    /**
+     * Returns the call log entries for the given URIs, read with a single query, or null if
+     * some of the URIs do not identify a call log entry by id.
+     * <p>
+     * The entries are not in the same order as the URIs: use {@link #getPositionsById(Cursor)}.
+     */
+    private Cursor queryCallLogEntries(Uri[] callUris) {
+        final StringBuilder selection = new StringBuilder();
+        selection.append(Calls._ID).append(" IN (");
+        for (int index = 0; index < callUris.length; ++index) {
+            final long id;
+            try {
+                id = ContentUris.parseId(callUris[index]);
+            } catch (NumberFormatException e) {
+                return null;
+            } catch (UnsupportedOperationException e) {
+                return null;
+            }
+            if (id < 0) {
+                return null;
+            }
+            if (index > 0) {
+                selection.append(',');
+            }
+            selection.append(id);
+        }
+        selection.append(')');
+        final Cursor callCursor = getContentResolver().query(Calls.CONTENT_URI_WITH_VOICEMAIL,
+                CALL_LOG_PROJECTION, selection.toString(), null, null);
+        if (callCursor == null) {
+            throw new IllegalArgumentException("Cannot find content: " + selection);
+        }
+        return callCursor;
+    }
+
+    /** Returns the position of each call log entry in the cursor, by id. */
+    private static Map<Long, Integer> getPositionsById(Cursor callCursor) {
+        final HashMap<Long, Integer> positions = Maps.newHashMap();
+        callCursor.moveToPosition(-1);
+        while (callCursor.moveToNext()) {
+            positions.put(callCursor.getLong(ID_COLUMN_INDEX), callCursor.getPosition());
+        }
+        return positions;
+    }
+
+    /**
+     * Return the phone call details for a given call log URI.
+     *
+     * @param contactInfos the contact info already looked up for each number, updated with
+     *        the contact info looked up by this method
+     */
+    private PhoneCallDetails getPhoneCallDetailsForUri(Uri callUri,
+            Map<NumberWithCountryIso, ContactInfo> contactInfos) {
         ContentResolver resolver = getContentResolver();
         Cursor callCursor = resolver.query(callUri, CALL_LOG_PROJECTION, null, null, null);
         try {
             if (callCursor == null || !callCursor.moveToFirst()) {
                 throw new IllegalArgumentException("Cannot find content: " + callUri);
             }
-
-            // Read call log specifics.
-            String number = callCursor.getString(NUMBER_COLUMN_INDEX);
-            long date = callCursor.getLong(DATE_COLUMN_INDEX);
-            long duration = callCursor.getLong(DURATION_COLUMN_INDEX);
-            int callType = callCursor.getInt(CALL_TYPE_COLUMN_INDEX);
-            String countryIso = callCursor.getString(COUNTRY_ISO_COLUMN_INDEX);
-            final String geocode = callCursor.getString(GEOCODED_LOCATION_COLUMN_INDEX);
-
-            if (TextUtils.isEmpty(countryIso)) {
-                countryIso = mDefaultCountryIso;
+            return getPhoneCallDetails(callCursor, contactInfos);
+        } finally {
+            if (callCursor != null) {
+                callCursor.close();
             }
+        }
+    }
+
+    /**
+     * Returns the phone call details for the current row of the given cursor, which uses
+     * {@link #CALL_LOG_PROJECTION}.
+     *
+     * @param contactInfos the contact info already looked up for each number, updated with
+     *        the contact info looked up by this method
+     */
+    private PhoneCallDetails getPhoneCallDetails(Cursor callCursor,
+            Map<NumberWithCountryIso, ContactInfo> contactInfos) {
+        // Read call log specifics.
+        String number = callCursor.getString(NUMBER_COLUMN_INDEX);
+        long date = callCursor.getLong(DATE_COLUMN_INDEX);
+        long duration = callCursor.getLong(DURATION_COLUMN_INDEX);
+        int callType = callCursor.getInt(CALL_TYPE_COLUMN_INDEX);
+        String countryIso = callCursor.getString(COUNTRY_ISO_COLUMN_INDEX);
+        final String geocode = callCursor.getString(GEOCODED_LOCATION_COLUMN_INDEX);
+
+        if (TextUtils.isEmpty(countryIso)) {
+            countryIso = mDefaultCountryIso;
+        }
 
-            // Formatted phone number.
-            final CharSequence formattedNumber;
-            // Read contact specifics.
-            final CharSequence nameText;
-            final int numberType;
-            final CharSequence numberLabel;
-            final Uri photoUri;
-            final Uri lookupUri;
-            // If this is not a regular number, there is no point in looking it up in the contacts.
-            ContactInfo info =
-                    mPhoneNumberHelper.canPlaceCallsTo(number)
+        // Formatted phone number.
+        final CharSequence formattedNumber;
+        // Read contact specifics.
+        final CharSequence nameText;
+        final int numberType;
+        final CharSequence numberLabel;
+        final Uri photoUri;
+        final Uri lookupUri;
+        // If this is not a regular number, there is no point in looking it up in the contacts.
+        final NumberWithCountryIso key = new NumberWithCountryIso(number, countryIso);
+        ContactInfo info;
+        if (contactInfos.containsKey(key)) {
+            info = contactInfos.get(key);
+        } else {
+            info = mPhoneNumberHelper.canPlaceCallsTo(number)
                     && !mPhoneNumberHelper.isVoicemailNumber(number)
                             ? mContactInfoHelper.lookupNumber(number, countryIso)
                             : null;
-            if (info == null) {
-                formattedNumber = mPhoneNumberHelper.getDisplayNumber(number, null);
-                nameText = "";
-                numberType = 0;
-                numberLabel = "";
-                photoUri = null;
-                lookupUri = null;
-            } else {
-                formattedNumber = info.formattedNumber;
-                nameText = info.name;
-                numberType = info.type;
-                numberLabel = info.label;
-                photoUri = info.photoUri;
-                lookupUri = info.lookupUri;
-            }
-            return new PhoneCallDetails(number, formattedNumber, countryIso, geocode,
-                    new int[]{ callType }, date, duration,
-                    nameText, numberType, numberLabel, lookupUri, photoUri);
-        } finally {
-            if (callCursor != null) {
-                callCursor.close();
-            }
+            contactInfos.put(key, info);
+        }
+        if (info == null) {
+            formattedNumber = mPhoneNumberHelper.getDisplayNumber(number, null);
+            nameText = "";
+            numberType = 0;
+            numberLabel = "";
+            photoUri = null;
+            lookupUri = null;
+        } else {
+            formattedNumber = info.formattedNumber;
+            nameText = info.name;
+            numberType = info.type;
+            numberLabel = info.label;
+            photoUri = info.photoUri;
+            lookupUri = info.lookupUri;
         }
+        return new PhoneCallDetails(number, formattedNumber, countryIso, geocode,
+                new int[]{ callType }, date, duration,
+                nameText, numberType, numberLabel, lookupUri, photoUri);
     }
 
     /** Load the contact photos and places them in the corresponding views. */
@@ -815,6 +975,7 @@ public class CallDetailActivity extends Activity implements ProximitySensorAware
         // Immediately stop the proximity sensor.
         disableProximitySensor(false);
         mProximitySensorListener.clearPendingRequests();
+        mCallStatisticsEngine.removeListener(mCallStatisticsListener);
         super.onPause();
     }
 
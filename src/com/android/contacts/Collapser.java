@@ -16,6 +16,7 @@
 
 package com.android.contacts;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
@@ -41,10 +42,34 @@ public final class Collapser {
         public boolean shouldCollapseWith(T t);
     }
 
+    /*
+     * Interface implemented by collapsible data types that can provide a key for some of their
+     * items, so that the items with the same key are collapsed without being compared pairwise.
+     */
+    public interface KeyedCollapsible<T> extends Collapsible<T> {
+        /**
+         * Returns the collapse key of this item, or null if it cannot provide one. The items with
+         * equal keys must collapse with each other, and with the same other items, so the key is
+         * usually made of all the fields {@link #shouldCollapseWith} depends on.
+         */
+        public Object getCollapseKey();
+
+        /**
+         * Returns true if this item only collapses with the items which have the same collapse
+         * key, so that it does not need to be compared with the other items. This is not the case
+         * of phone numbers, for example, which also collapse with other formats of the same number.
+         */
+        public boolean isCollapseKeyExact();
+    }
+
     /**
      * Collapses a list of Collapsible items into a list of collapsed items. Items are collapsed
      * if {@link Collapsible#shouldCollapseWith(Object)} returns true, and are collapsed
      * through the {@Link Collapsible#collapseWith(Object)} function implemented by the data item.
+     * <p>
+     * The {@link KeyedCollapsible} items which have a collapse key are first collapsed with the
+     * previous item with the same key, in linear time. Only the remaining items whose key is not
+     * exact, or which do not have one, are then compared pairwise.
      *
      * @param list List of Objects of type <T extends Collapsible<T>> to be collapsed.
      */
@@ -52,12 +77,39 @@ public final class Collapser {
 
         int listSize = list.size();
 
+        // Collapse the items with the same key
+        final HashMap<Object, T> itemsByKey = new HashMap<Object, T>();
+        final boolean[] comparePairwise = new boolean[listSize];
+        for (int i = 0; i < listSize; i++) {
+            T item = list.get(i);
+            if (item == null) {
+                continue;
+            }
+            final KeyedCollapsible<?> keyedItem =
+                    item instanceof KeyedCollapsible ? (KeyedCollapsible<?>) item : null;
+            final Object key = keyedItem == null ? null : keyedItem.getCollapseKey();
+            if (key == null) {
+                comparePairwise[i] = true;
+                continue;
+            }
+            T keyItem = itemsByKey.get(key);
+            if (keyItem == null) {
+                itemsByKey.put(key, item);
+                comparePairwise[i] = !keyedItem.isCollapseKeyExact();
+            } else if (keyItem.collapseWith(item)) {
+                list.set(i, null);
+            } else {
+                comparePairwise[i] = true;
+            }
+        }
+
+        // Compare the other items pairwise
         for (int i = 0; i < listSize; i++) {
             T iItem = list.get(i);
-            if (iItem != null) {
+            if (iItem != null && comparePairwise[i]) {
                 for (int j = i + 1; j < listSize; j++) {
                     T jItem = list.get(j);
-                    if (jItem != null) {
+                    if (jItem != null && comparePairwise[j]) {
                         if (iItem.shouldCollapseWith(jItem)) {
                             iItem.collapseWith(jItem);
                             list.set(j, null);
@@ -21,6 +21,7 @@ import com.android.contacts.model.AccountTypeManager;
 import com.android.contacts.model.AccountTypeWithDataSet;
 import com.android.contacts.util.ContactLoaderUtils;
 import com.android.contacts.util.DataStatus;
+import com.android.contacts.util.ExpirableCache;
 import com.android.contacts.util.StreamItemEntry;
 import com.android.contacts.util.StreamItemPhotoEntry;
 import com.google.android.collect.Lists;
@@ -28,6 +29,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
@@ -43,6 +45,8 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Process;
+import android.os.RemoteException;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
 import android.provider.ContactsContract.CommonDataKinds.Photo;
@@ -62,11 +66,22 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Loads a single Contact and all it constituent RawContacts.
@@ -79,10 +94,74 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
     private boolean mLoadGroupMetaData;
     private boolean mLoadStreamItems;
     private final boolean mLoadInvitableAccountTypes;
+    private final boolean mDeliverPartialResults;
+    private final boolean mUseCache;
+    /** Whether the contact is only loaded into the cache, see {@link #forPrefetch}. */
+    private final boolean mPrefetch;
     private Result mContact;
     private ForceLoadContentObserver mObserver;
     private boolean mDestroyed;
     private final Set<Long> mNotifiedRawContactIds = Sets.newHashSet();
+    private LoadContactTask mLoadContactTask;
+    /** Whether the next load is caused by a change of the contact. */
+    private boolean mReloadForChange;
+    private LoadMoreStreamItemsTask mLoadMoreStreamItemsTask;
+
+    /** The number of stream items loaded at once, newest first. */
+    private static final int STREAM_ITEM_PAGE_SIZE = 20;
+    /** The maximum number of stream items whose photos are loaded with a single query. */
+    private static final int STREAM_ITEM_PHOTO_BATCH_SIZE = 100;
+
+    /** The maximum number of threads running the stages of the loads in parallel. */
+    private static final int MAX_STAGE_THREADS = 4;
+    /** The time after which the idle threads running the stages are stopped. */
+    private static final int STAGE_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    /**
+     * Runs the stages of the loads which only depend on the contact entities concurrently with the
+     * loading thread, see {@link LoadContactTask#loadAdditionalData}.
+     * <p>
+     * When all its threads are busy, a stage is run on the loading thread instead, so that the
+     * loads never wait for each other.
+     */
+    private static final ThreadPoolExecutor STAGE_EXECUTOR = new ThreadPoolExecutor(
+            0, MAX_STAGE_THREADS, STAGE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread("ContactLoader stage #" + mCount.getAndIncrement()) {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    };
+                }
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    /**
+     * Runs the prefetching loads, one at a time and at the lowest priority, so that they never
+     * compete with the loads of the contacts being shown, see {@link #forPrefetch}.
+     */
+    private static final ThreadPoolExecutor PREFETCH_EXECUTOR = new ThreadPoolExecutor(
+            0, 1, STAGE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread("ContactLoader prefetch") {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                            runnable.run();
+                        }
+                    };
+                }
+            });
 
     public interface Listener {
         public void onContactLoaded(Result contact);
@@ -131,6 +210,10 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
 
         private boolean mLoadingPhoto;
         private byte[] mPhotoBinaryData;
+        /** Whether more parts of the contact are still loading, see {@link #isPartial()}. */
+        private boolean mPartial;
+        /** Whether the contact has older stream items than the loaded ones. */
+        private boolean mHasMoreStreamItems;
         private final boolean mSendToVoicemail;
         private final String mCustomRingtone;
         private final boolean mIsUserProfile;
@@ -213,48 +296,124 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
             mIsUserProfile = isUserProfile;
         }
 
+        /**
+         * Creates a copy of the given result.
+         * <p>
+         * The lists which are filled by the stages of a load, i.e., the stream items, the groups
+         * and the invitable account types, are copied, so that the copy is not affected by the
+         * stages still loading into the original.
+         */
         private Result(Result from) {
-            mStatus = from.mStatus;
-            mException = from.mException;
-            mRequestedUri = from.mRequestedUri;
-            mLookupUri = from.mLookupUri;
-            mUri = from.mUri;
-            mDirectoryId = from.mDirectoryId;
-            mLookupKey = from.mLookupKey;
-            mId = from.mId;
-            mNameRawContactId = from.mNameRawContactId;
-            mDisplayNameSource = from.mDisplayNameSource;
-            mPhotoId = from.mPhotoId;
-            mPhotoUri = from.mPhotoUri;
-            mDisplayName = from.mDisplayName;
-            mAltDisplayName = from.mAltDisplayName;
-            mPhoneticName = from.mPhoneticName;
-            mStarred = from.mStarred;
-            mPresence = from.mPresence;
-            mEntities = from.mEntities;
-            mStreamItems = from.mStreamItems;
-            mStatuses = from.mStatuses;
-            mInvitableAccountTypes = from.mInvitableAccountTypes;
-
-            mDirectoryDisplayName = from.mDirectoryDisplayName;
-            mDirectoryType = from.mDirectoryType;
-            mDirectoryAccountType = from.mDirectoryAccountType;
-            mDirectoryAccountName = from.mDirectoryAccountName;
-            mDirectoryExportSupport = from.mDirectoryExportSupport;
-
-            mGroups = from.mGroups;
-
-            mLoadingPhoto = from.mLoadingPhoto;
-            mPhotoBinaryData = from.mPhotoBinaryData;
-            mSendToVoicemail = from.mSendToVoicemail;
-            mCustomRingtone = from.mCustomRingtone;
-            mIsUserProfile = from.mIsUserProfile;
+            this(from.mRequestedUri, from);
+        }
+
+        /**
+         * Creates a copy of the given result for the given requested URI.
+         *
+         * @see #Result(Result)
+         */
+        private Result(Uri requestedUri, Result from) {
+            this(requestedUri, from, from.mEntities, from.mPresence, from.mStatuses);
+        }
+
+        /**
+         * Creates a copy of the given result for the given requested URI which does not share its
+         * entities and statuses with it either, so that a result kept in
+         * {@link ContactLoaderCache} is not affected by the loaders using it, and vice versa.
+         *
+         * @see #Result(Result)
+         */
+        /*package*/ static Result copyOf(Uri requestedUri, Result from) {
+            return new Result(requestedUri, from, new ArrayList<Entity>(from.mEntities),
+                    from.mPresence, new HashMap<Long, DataStatus>(from.mStatuses));
+        }
+
+        /**
+         * Creates a copy of the given result for the given requested URI, with the given
+         * entities, presence and statuses.
+         *
+         * @see #Result(Result)
+         */
+        private Result(Uri requestedUri, Result from, ArrayList<Entity> entities,
+                Integer presence, HashMap<Long, DataStatus> statuses) {
+            synchronized (from) {
+                mStatus = from.mStatus;
+                mException = from.mException;
+                mRequestedUri = requestedUri;
+                mLookupUri = from.mLookupUri;
+                mUri = from.mUri;
+                mDirectoryId = from.mDirectoryId;
+                mLookupKey = from.mLookupKey;
+                mId = from.mId;
+                mNameRawContactId = from.mNameRawContactId;
+                mDisplayNameSource = from.mDisplayNameSource;
+                mPhotoId = from.mPhotoId;
+                mPhotoUri = from.mPhotoUri;
+                mDisplayName = from.mDisplayName;
+                mAltDisplayName = from.mAltDisplayName;
+                mPhoneticName = from.mPhoneticName;
+                mStarred = from.mStarred;
+                mPresence = presence;
+                mEntities = entities;
+                mStreamItems = new ArrayList<StreamItemEntry>(from.mStreamItems);
+                mStatuses = statuses;
+                mInvitableAccountTypes = from.mInvitableAccountTypes == null
+                        ? null : new ArrayList<AccountType>(from.mInvitableAccountTypes);
+
+                mDirectoryDisplayName = from.mDirectoryDisplayName;
+                mDirectoryType = from.mDirectoryType;
+                mDirectoryAccountType = from.mDirectoryAccountType;
+                mDirectoryAccountName = from.mDirectoryAccountName;
+                mDirectoryExportSupport = from.mDirectoryExportSupport;
+
+                mGroups = from.mGroups == null ? null : new ArrayList<GroupMetaData>(from.mGroups);
+
+                mLoadingPhoto = from.mLoadingPhoto;
+                mPhotoBinaryData = from.mPhotoBinaryData;
+                mPartial = from.mPartial;
+                mHasMoreStreamItems = from.mHasMoreStreamItems;
+                mSendToVoicemail = from.mSendToVoicemail;
+                mCustomRingtone = from.mCustomRingtone;
+                mIsUserProfile = from.mIsUserProfile;
+            }
+        }
+
+        /**
+         * Returns a copy of this result to deliver while the other parts of the contact are still
+         * loading.
+         *
+         * @param loadingPhoto whether the photo is still loading
+         */
+        private synchronized Result partialCopy(boolean loadingPhoto) {
+            final Result copy = new Result(this);
+            copy.mPartial = true;
+            copy.mLoadingPhoto = loadingPhoto;
+            return copy;
+        }
+
+        /**
+         * Creates a loaded result for the given contact, with an empty raw contact for each of the
+         * given ids.
+         */
+        @VisibleForTesting
+        /*package*/ static Result createForTesting(Uri lookupUri, long directoryId,
+                boolean partial, long... rawContactIds) {
+            final Result result = new Result(lookupUri, lookupUri, lookupUri, directoryId, null,
+                    -1, -1, DisplayNameSources.UNDEFINED, 0, null, null, null, null, false, null,
+                    false, null, false);
+            for (long rawContactId : rawContactIds) {
+                final ContentValues values = new ContentValues();
+                values.put(RawContacts._ID, rawContactId);
+                result.mEntities.add(new Entity(values));
+            }
+            result.mPartial = partial;
+            return result;
         }
 
         /**
          * @param exportSupport See {@link Directory#EXPORT_SUPPORT}.
          */
-        private void setDirectoryMetaData(String displayName, String directoryType,
+        private synchronized void setDirectoryMetaData(String displayName, String directoryType,
                 String accountType, String accountName, int exportSupport) {
             mDirectoryDisplayName = displayName;
             mDirectoryType = directoryType;
@@ -263,11 +422,11 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
             mDirectoryExportSupport = exportSupport;
         }
 
-        private void setLoadingPhoto(boolean flag) {
+        private synchronized void setLoadingPhoto(boolean flag) {
             mLoadingPhoto = flag;
         }
 
-        private void setPhotoBinaryData(byte[] photoBinaryData) {
+        private synchronized void setPhotoBinaryData(byte[] photoBinaryData) {
             mPhotoBinaryData = photoBinaryData;
         }
 
@@ -383,10 +542,23 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
             return mEntities;
         }
 
+        /**
+         * Returns the loaded stream items of the contact, newest first. These are only the newest
+         * ones, see {@link #hasMoreStreamItems()}.
+         */
         public ArrayList<StreamItemEntry> getStreamItems() {
             return mStreamItems;
         }
 
+        /**
+         * Returns true if the contact has older stream items than the ones returned by
+         * {@link #getStreamItems()}, which can be loaded with
+         * {@link ContactLoader#loadMoreStreamItems()}.
+         */
+        public boolean hasMoreStreamItems() {
+            return mHasMoreStreamItems;
+        }
+
         public HashMap<Long, DataStatus> getStatuses() {
             return mStatuses;
         }
@@ -428,6 +600,17 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
             return mPhotoBinaryData;
         }
 
+        /**
+         * Returns true if this result only contains some parts of the contact, and the loader
+         * will deliver a more complete one.
+         * <p>
+         * The header and the entities are always loaded; the group and directory meta-data, the
+         * stream items, the photo and the invitable account types might not be yet.
+         */
+        public boolean isPartial() {
+            return mPartial;
+        }
+
         public ArrayList<ContentValues> getContentValues() {
             if (mEntities.size() != 1) {
                 throw new IllegalStateException(
@@ -459,11 +642,27 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
             return result;
         }
 
-        private void addGroupMetaData(GroupMetaData group) {
+        private synchronized void addGroupMetaData(List<GroupMetaData> groups) {
             if (mGroups == null) {
                 mGroups = new ArrayList<GroupMetaData>();
             }
-            mGroups.add(group);
+            mGroups.addAll(groups);
+        }
+
+        private synchronized void addStreamItems(List<StreamItemEntry> streamItems,
+                boolean hasMore) {
+            mStreamItems.addAll(streamItems);
+            mHasMoreStreamItems = hasMore;
+        }
+
+        private synchronized void addInvitableAccountTypes(Collection<AccountType> types) {
+            mInvitableAccountTypes.addAll(types);
+        }
+
+        /** Removes the stream items of the contact, to load them again. */
+        private synchronized void clearStreamItems() {
+            mStreamItems.clear();
+            mHasMoreStreamItems = false;
         }
 
         public List<GroupMetaData> getGroupMetaData() {
@@ -676,35 +875,395 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
         public final static int FAVORITES = 7;
     }
 
-    private final class LoadContactTask extends AsyncTask<Void, Void, Result> {
+    /**
+     * Projection used to check whether the columns of the contact itself changed, see
+     * {@link LoadContactTask#loadChangedStatuses}.
+     */
+    private static class ContactChangeQuery {
+        final static String[] COLUMNS = new String[] {
+            Contacts.LOOKUP_KEY,
+            Contacts.NAME_RAW_CONTACT_ID,
+            Contacts.DISPLAY_NAME,
+            Contacts.PHOTO_ID,
+            Contacts.PHOTO_URI,
+            Contacts.STARRED,
+            Contacts.SEND_TO_VOICEMAIL,
+            Contacts.CUSTOM_RINGTONE,
+            Contacts.CONTACT_PRESENCE,
+        };
+
+        public final static int LOOKUP_KEY = 0;
+        public final static int NAME_RAW_CONTACT_ID = 1;
+        public final static int DISPLAY_NAME = 2;
+        public final static int PHOTO_ID = 3;
+        public final static int PHOTO_URI = 4;
+        public final static int STARRED = 5;
+        public final static int SEND_TO_VOICEMAIL = 6;
+        public final static int CUSTOM_RINGTONE = 7;
+        public final static int CONTACT_PRESENCE = 8;
+    }
+
+    private static class RawContactVersionQuery {
+        final static String[] COLUMNS = new String[] {
+            RawContacts._ID,
+            RawContacts.VERSION,
+        };
+
+        public final static int ID = 0;
+        public final static int VERSION = 1;
+    }
+
+    private static class StreamItemChangeQuery {
+        final static String[] COLUMNS = new String[] {
+            StreamItems._ID,
+            StreamItems.TIMESTAMP,
+        };
+
+        public final static int ID = 0;
+        public final static int TIMESTAMP = 1;
+    }
+
+    /**
+     * Projection used to load the presence and statuses of the data of a contact, see
+     * {@link DataStatus}.
+     */
+    private static class StatusQuery {
+        final static String[] COLUMNS = new String[] {
+            Data._ID,
+            Data.PRESENCE,
+            Data.STATUS,
+            Data.STATUS_TIMESTAMP,
+            Data.STATUS_RES_PACKAGE,
+            Data.STATUS_ICON,
+            Data.STATUS_LABEL,
+        };
+
+        public final static int ID = 0;
+        public final static int PRESENCE = 1;
+        public final static int STATUS = 2;
+    }
+
+    private final class LoadContactTask extends AsyncTask<Void, Result, Result> {
+        /** Whether to deliver the parts of the contact as soon as they are loaded. */
+        private final boolean mDeliverPartialResults;
+        /** The maximum number of stream items to load. */
+        private final int mStreamItemLimit;
+        /** The contact loaded before it changed, if it is reloaded because of the change. */
+        private final Result mPrevious;
+
+        public LoadContactTask(boolean deliverPartialResults, int streamItemLimit,
+                Result previous) {
+            mDeliverPartialResults = deliverPartialResults;
+            mStreamItemLimit = streamItemLimit;
+            mPrevious = previous;
+        }
 
         @Override
         protected Result doInBackground(Void... args) {
             try {
                 final ContentResolver resolver = getContext().getContentResolver();
+                if (mPrevious != null) {
+                    final Result patched = loadChangedStatuses(resolver, mPrevious);
+                    if (patched != null) {
+                        // The stream items can change without changing the versions of the raw
+                        // contacts, so they are loaded again if they changed.
+                        if (mLoadStreamItems && streamItemsChanged(resolver, patched)) {
+                            patched.clearStreamItems();
+                            loadStreamItems(patched, null, mStreamItemLimit);
+                        }
+                        return patched;
+                    }
+                }
                 final Uri uriCurrentFormat = ContactLoaderUtils.ensureIsContactUri(
                         resolver, mLookupUri);
                 Result result = loadContactEntity(resolver, uriCurrentFormat);
-                if (!result.isNotFound()) {
-                    if (result.isDirectoryEntry()) {
+                if (!result.isNotFound() && !isCancelled()) {
+                    if (mDeliverPartialResults) {
+                        // Show the header and the data of the contact right away.
+                        publishProgress(result.partialCopy(true));
+                    }
+                    loadAdditionalData(result);
+                }
+                return result;
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading the contact: " + mLookupUri, e);
+                return Result.forError(mRequestedUri, e);
+            }
+        }
+
+        /**
+         * Loads the parts of the contact which only depend on its entities: the directory or
+         * group meta-data, the stream items, the photo and the invitable account types.
+         * <p>
+         * These are independent from each other, so they are run concurrently, and this method
+         * returns once all of them completed. Each of them sets different fields of the result.
+         * <p>
+         * If partial results are delivered, a copy of the result is published as each of them
+         * completes, except the last one: the complete result is delivered by
+         * {@link #onPostExecute}.
+         */
+        private void loadAdditionalData(final Result result) throws Exception {
+            final AtomicBoolean photoLoaded = new AtomicBoolean(false);
+            final List<Callable<Void>> stages = Lists.newArrayList();
+            if (result.isDirectoryEntry()) {
+                stages.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
                         loadDirectoryMetaData(result);
-                    } else if (mLoadGroupMetaData) {
+                        return null;
+                    }
+                });
+            } else if (mLoadGroupMetaData) {
+                stages.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
                         loadGroupMetaData(result);
+                        return null;
                     }
-                    if (mLoadStreamItems) {
-                        loadStreamItems(result);
+                });
+            }
+            if (mLoadStreamItems) {
+                stages.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        loadStreamItems(result, null, mStreamItemLimit);
+                        return null;
                     }
-                    loadPhotoBinaryData(result);
-
-                    // Note ME profile should never have "Add connection"
-                    if (mLoadInvitableAccountTypes && !result.isUserProfile()) {
+                });
+            }
+            stages.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    if (mPrevious != null && mPrevious.getPhotoBinaryData() != null
+                            && mPrevious.getPhotoId() == result.getPhotoId()
+                            && TextUtils.equals(mPrevious.getPhotoUri(), result.getPhotoUri())) {
+                        // The photo did not change.
+                        result.setPhotoBinaryData(mPrevious.getPhotoBinaryData());
+                    } else {
+                        loadPhotoBinaryData(result);
+                    }
+                    photoLoaded.set(true);
+                    return null;
+                }
+            });
+            // Note ME profile should never have "Add connection"
+            if (mLoadInvitableAccountTypes && !result.isUserProfile()) {
+                stages.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
                         loadInvitableAccountTypes(result);
+                        return null;
                     }
+                });
+            }
+            if (mPrefetch) {
+                // Keep all of the prefetching on its low priority thread.
+                for (Callable<Void> stage : stages) {
+                    stage.call();
                 }
-                return result;
-            } catch (Exception e) {
-                Log.e(TAG, "Error loading the contact: " + mLookupUri, e);
-                return Result.forError(mRequestedUri, e);
+                return;
+            }
+            if (!mDeliverPartialResults) {
+                runConcurrently(stages);
+                return;
+            }
+
+            final AtomicInteger remainingStages = new AtomicInteger(stages.size());
+            final List<Callable<Void>> deliveringStages = Lists.newArrayList();
+            for (final Callable<Void> stage : stages) {
+                deliveringStages.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        stage.call();
+                        if (remainingStages.decrementAndGet() > 0) {
+                            // Publish under the lock of the result, so that the copies are
+                            // delivered in the order they were made.
+                            synchronized (result) {
+                                publishProgress(result.partialCopy(!photoLoaded.get()));
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            runConcurrently(deliveringStages);
+        }
+
+        /**
+         * Runs the given stages, the first one on the calling thread and the others on
+         * {@link #STAGE_EXECUTOR}, and waits for all of them to complete.
+         *
+         * @throws Exception the exception thrown by the first stage which failed, if any
+         */
+        private void runConcurrently(List<Callable<Void>> stages) throws Exception {
+            final List<Future<Void>> futures = Lists.newArrayList();
+            try {
+                for (int i = 1; i < stages.size(); i++) {
+                    futures.add(STAGE_EXECUTOR.submit(stages.get(i)));
+                }
+                stages.get(0).call();
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        final Throwable cause = e.getCause();
+                        if (cause instanceof Exception) {
+                            throw (Exception) cause;
+                        }
+                        throw e;
+                    }
+                }
+            } finally {
+                // Do not leave stages running if one of them failed.
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        /**
+         * Returns a copy of the given contact with its presence and statuses loaded again, if they
+         * are the only parts of it which changed since it was loaded, or null if it must be loaded
+         * again entirely.
+         * <p>
+         * The raw contacts get a new version whenever their data change, but not when their
+         * presence or statuses do, so comparing the versions, along with the columns of the
+         * contact itself, tells the presence updates, which are by far the most frequent changes
+         * of a contact, from the other ones. Only three small queries are needed for them,
+         * instead of loading the entities of the contact and its photo again.
+         * <p>
+         * The returned copy keeps the photo, the groups, the invitable account types and the
+         * stream items of the given contact: the groups and the account types only depend on the
+         * raw contacts, but the stream items do not, see {@link #streamItemsChanged}.
+         */
+        private Result loadChangedStatuses(ContentResolver resolver, Result previous) {
+            if (previous.isUserProfile()) {
+                // The raw contacts and data of the profile cannot be queried by contact id.
+                return null;
+            }
+            final String[] contactIdArgs = new String[] { String.valueOf(previous.getId()) };
+
+            final Integer presence;
+            Cursor cursor = resolver.query(
+                    ContentUris.withAppendedId(Contacts.CONTENT_URI, previous.getId()),
+                    ContactChangeQuery.COLUMNS, null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                if (!cursor.moveToFirst()
+                        || !TextUtils.equals(previous.getLookupKey(),
+                                cursor.getString(ContactChangeQuery.LOOKUP_KEY))
+                        || previous.getNameRawContactId()
+                                != cursor.getLong(ContactChangeQuery.NAME_RAW_CONTACT_ID)
+                        || !TextUtils.equals(previous.getDisplayName(),
+                                cursor.getString(ContactChangeQuery.DISPLAY_NAME))
+                        || previous.getPhotoId() != cursor.getLong(ContactChangeQuery.PHOTO_ID)
+                        || !TextUtils.equals(previous.getPhotoUri(),
+                                cursor.getString(ContactChangeQuery.PHOTO_URI))
+                        || previous.getStarred()
+                                != (cursor.getInt(ContactChangeQuery.STARRED) != 0)
+                        || previous.isSendToVoicemail()
+                                != (cursor.getInt(ContactChangeQuery.SEND_TO_VOICEMAIL) == 1)
+                        || !TextUtils.equals(previous.getCustomRingtone(),
+                                cursor.getString(ContactChangeQuery.CUSTOM_RINGTONE))) {
+                    return null;
+                }
+                presence = cursor.isNull(ContactChangeQuery.CONTACT_PRESENCE)
+                        ? null
+                        : cursor.getInt(ContactChangeQuery.CONTACT_PRESENCE);
+            } finally {
+                cursor.close();
+            }
+
+            final HashMap<Long, Long> versions = new HashMap<Long, Long>();
+            for (Entity entity : previous.getEntities()) {
+                final ContentValues values = entity.getEntityValues();
+                versions.put(values.getAsLong(RawContacts._ID),
+                        values.getAsLong(RawContacts.VERSION));
+            }
+            cursor = resolver.query(RawContacts.CONTENT_URI, RawContactVersionQuery.COLUMNS,
+                    RawContacts.CONTACT_ID + "=? AND " + RawContacts.DELETED + "=0",
+                    contactIdArgs, null);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                if (cursor.getCount() != versions.size()) {
+                    return null;
+                }
+                while (cursor.moveToNext()) {
+                    final Long version = versions.get(cursor.getLong(RawContactVersionQuery.ID));
+                    if (version == null
+                            || version != cursor.getLong(RawContactVersionQuery.VERSION)) {
+                        return null;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            final HashMap<Long, DataStatus> statuses = new HashMap<Long, DataStatus>();
+            cursor = resolver.query(Data.CONTENT_URI, StatusQuery.COLUMNS,
+                    Data.CONTACT_ID + "=?", contactIdArgs, null);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    if (!cursor.isNull(StatusQuery.PRESENCE)
+                            || !cursor.isNull(StatusQuery.STATUS)) {
+                        statuses.put(cursor.getLong(StatusQuery.ID), new DataStatus(cursor));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            return new Result(mRequestedUri, previous, previous.mEntities, presence, statuses);
+        }
+
+        /**
+         * Returns true if the most recent stream items of the given contact are not the ones it
+         * has, e.g., because stream items were added or removed.
+         * <p>
+         * Only the ids and timestamps of one more stream item than the contact has are queried,
+         * which is much cheaper than loading them again with their photos.
+         */
+        private boolean streamItemsChanged(ContentResolver resolver, Result contact) {
+            final List<StreamItemEntry> streamItems = contact.getStreamItems();
+            final Map<Long, Long> timestamps = Maps.newHashMap();
+            for (StreamItemEntry streamItem : streamItems) {
+                timestamps.put(streamItem.getId(), streamItem.getTimestamp());
+            }
+            final Cursor cursor = resolver.query(
+                    Contacts.CONTENT_LOOKUP_URI.buildUpon()
+                            .appendPath(contact.getLookupKey())
+                            .appendPath(Contacts.StreamItems.CONTENT_DIRECTORY)
+                            .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY,
+                                    String.valueOf(streamItems.size() + 1))
+                            .build(),
+                    StreamItemChangeQuery.COLUMNS, null, null,
+                    StreamItems.TIMESTAMP + " DESC, " + StreamItems._ID + " DESC");
+            if (cursor == null) {
+                return true;
+            }
+            try {
+                if (cursor.getCount()
+                        != streamItems.size() + (contact.hasMoreStreamItems() ? 1 : 0)) {
+                    return true;
+                }
+                for (int i = 0; i < streamItems.size() && cursor.moveToNext(); i++) {
+                    final Long timestamp =
+                            timestamps.get(cursor.getLong(StreamItemChangeQuery.ID));
+                    if (timestamp == null
+                            || timestamp != cursor.getLong(StreamItemChangeQuery.TIMESTAMP)) {
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                cursor.close();
             }
         }
 
@@ -831,7 +1390,7 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
             }
 
             // Set to mInvitableAccountTypes
-            contactData.mInvitableAccountTypes.addAll(result.values());
+            contactData.addInvitableAccountTypes(result.values());
         }
 
         /**
@@ -908,6 +1467,7 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
             ContentValues cv = new ContentValues();
 
             cv.put(Data._ID, cursor.getLong(ContactQuery.DATA_ID));
+            cv.put(Data.RAW_CONTACT_ID, cursor.getLong(ContactQuery.RAW_CONTACT_ID));
 
             cursorColumnToContentValues(cursor, cv, ContactQuery.DATA1);
             cursorColumnToContentValues(cursor, cv, ContactQuery.DATA2);
@@ -1026,6 +1586,7 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
                     selection.append(")");
                 }
             }
+            final List<GroupMetaData> groups = Lists.newArrayList();
             Cursor cursor = getContext().getContentResolver().query(Groups.CONTENT_URI,
                     GroupQuery.COLUMNS, selection.toString(), selectionArgs.toArray(new String[0]),
                     null);
@@ -1043,88 +1604,25 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
                             ? false
                             : cursor.getInt(GroupQuery.FAVORITES) != 0;
 
-                    result.addGroupMetaData(new GroupMetaData(
+                    groups.add(new GroupMetaData(
                             accountName, accountType, dataSet, groupId, title, defaultGroup,
                             favorites));
                 }
             } finally {
                 cursor.close();
             }
+            result.addGroupMetaData(groups);
         }
 
-        /**
-         * Loads all stream items and stream item photos belonging to this contact.
-         */
-        private void loadStreamItems(Result result) {
-            Cursor cursor = getContext().getContentResolver().query(
-                    Contacts.CONTENT_LOOKUP_URI.buildUpon()
-                            .appendPath(result.getLookupKey())
-                            .appendPath(Contacts.StreamItems.CONTENT_DIRECTORY).build(),
-                    null, null, null, null);
-            Map<Long, StreamItemEntry> streamItemsById = new HashMap<Long, StreamItemEntry>();
-            ArrayList<StreamItemEntry> streamItems = new ArrayList<StreamItemEntry>();
-            try {
-                while (cursor.moveToNext()) {
-                    StreamItemEntry streamItem = new StreamItemEntry(cursor);
-                    streamItemsById.put(streamItem.getId(), streamItem);
-                    streamItems.add(streamItem);
-                }
-            } finally {
-                cursor.close();
-            }
-
-            // Now retrieve any photo records associated with the stream items.
-            if (!streamItems.isEmpty()) {
-                if (result.isUserProfile()) {
-                    // If the stream items we're loading are for the profile, we can't bulk-load the
-                    // stream items with a custom selection.
-                    for (StreamItemEntry entry : streamItems) {
-                        Cursor siCursor = getContext().getContentResolver().query(
-                                Uri.withAppendedPath(
-                                        ContentUris.withAppendedId(
-                                                StreamItems.CONTENT_URI, entry.getId()),
-                                        StreamItems.StreamItemPhotos.CONTENT_DIRECTORY),
-                                null, null, null, null);
-                        try {
-                            while (siCursor.moveToNext()) {
-                                entry.addPhoto(new StreamItemPhotoEntry(siCursor));
-                            }
-                        } finally {
-                            siCursor.close();
-                        }
-                    }
-                } else {
-                    String[] streamItemIdArr = new String[streamItems.size()];
-                    StringBuilder streamItemPhotoSelection = new StringBuilder();
-                    streamItemPhotoSelection.append(StreamItemPhotos.STREAM_ITEM_ID + " IN (");
-                    for (int i = 0; i < streamItems.size(); i++) {
-                        if (i > 0) {
-                            streamItemPhotoSelection.append(",");
-                        }
-                        streamItemPhotoSelection.append("?");
-                        streamItemIdArr[i] = String.valueOf(streamItems.get(i).getId());
-                    }
-                    streamItemPhotoSelection.append(")");
-                    Cursor sipCursor = getContext().getContentResolver().query(
-                            StreamItems.CONTENT_PHOTO_URI,
-                            null, streamItemPhotoSelection.toString(), streamItemIdArr,
-                            StreamItemPhotos.STREAM_ITEM_ID);
-                    try {
-                        while (sipCursor.moveToNext()) {
-                            long streamItemId = sipCursor.getLong(
-                                    sipCursor.getColumnIndex(StreamItemPhotos.STREAM_ITEM_ID));
-                            StreamItemEntry streamItem = streamItemsById.get(streamItemId);
-                            streamItem.addPhoto(new StreamItemPhotoEntry(sipCursor));
-                        }
-                    } finally {
-                        sipCursor.close();
-                    }
-                }
+        @Override
+        protected void onProgressUpdate(Result... partialResults) {
+            // The creator isn't interested in any further updates
+            if (mDestroyed) {
+                return;
             }
 
-            // Set the sorted stream items on the result.
-            Collections.sort(streamItems);
-            result.mStreamItems.addAll(streamItems);
+            mContact = partialResults[0];
+            deliverResult(mContact);
         }
 
         @Override
@@ -1138,6 +1636,12 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
 
             mContact = result;
 
+            if (mPrefetch) {
+                putInCache(mContact);
+                deliverResult(mContact);
+                return;
+            }
+
             if (result.isLoaded()) {
                 mLookupUri = result.getLookupUri();
 
@@ -1154,6 +1658,7 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
                     mContact.setLoadingPhoto(true);
                     new AsyncPhotoLoader().execute(mContact.getPhotoUri());
                 }
+                putInCache(mContact);
 
                 // inform the source of the data that this contact is being looked at
                 postViewNotificationToSyncAdapter();
@@ -1236,11 +1741,209 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
                 mContact = new Result(mContact);
                 mContact.setPhotoBinaryData(data);
                 mContact.setLoadingPhoto(false);
+                putInCache(mContact);
                 deliverResult(mContact);
             }
         }
     }
 
+    /**
+     * Loads a page of the stream items of the given contact, newest first, with their photos, and
+     * adds them to the contact.
+     *
+     * @param after the oldest stream item of the contact already loaded, to load the ones which
+     *        follow it, or null to load the newest ones
+     * @param limit the maximum number of stream items to load
+     */
+    private void loadStreamItems(Result result, StreamItemEntry after, int limit) {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (after != null) {
+            final String timestamp = String.valueOf(after.getTimestamp());
+            selection = StreamItems.TIMESTAMP + "<? OR (" + StreamItems.TIMESTAMP + "=? AND "
+                    + StreamItems._ID + "<?)";
+            selectionArgs = new String[] { timestamp, timestamp, String.valueOf(after.getId()) };
+        }
+
+        // One more stream item than needed is queried to know whether there are more of them.
+        Cursor cursor = getContext().getContentResolver().query(
+                Contacts.CONTENT_LOOKUP_URI.buildUpon()
+                        .appendPath(result.getLookupKey())
+                        .appendPath(Contacts.StreamItems.CONTENT_DIRECTORY)
+                        .appendQueryParameter(
+                                ContactsContract.LIMIT_PARAM_KEY, String.valueOf(limit + 1))
+                        .build(),
+                null, selection, selectionArgs,
+                StreamItems.TIMESTAMP + " DESC, " + StreamItems._ID + " DESC");
+        ArrayList<StreamItemEntry> streamItems = new ArrayList<StreamItemEntry>();
+        boolean hasMore = false;
+        try {
+            while (cursor.moveToNext()) {
+                if (streamItems.size() == limit) {
+                    hasMore = true;
+                    break;
+                }
+                streamItems.add(new StreamItemEntry(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        loadStreamItemPhotos(result, streamItems);
+
+        // Set the sorted stream items on the result.
+        Collections.sort(streamItems);
+        result.addStreamItems(streamItems, hasMore);
+    }
+
+    /**
+     * Loads the photos of the given stream items of the given contact.
+     */
+    private void loadStreamItemPhotos(Result result, List<StreamItemEntry> streamItems) {
+        if (streamItems.isEmpty()) {
+            return;
+        }
+        final ContentResolver resolver = getContext().getContentResolver();
+        if (result.isUserProfile()) {
+            // If the stream items we're loading are for the profile, we can't bulk-load the
+            // stream item photos with a custom selection, so query them one stream item at a
+            // time, but all with the same connection to the provider.
+            final ContentProviderClient client =
+                    resolver.acquireContentProviderClient(ContactsContract.AUTHORITY);
+            if (client == null) {
+                return;
+            }
+            try {
+                for (StreamItemEntry entry : streamItems) {
+                    Cursor siCursor = client.query(
+                            Uri.withAppendedPath(
+                                    ContentUris.withAppendedId(
+                                            StreamItems.CONTENT_URI, entry.getId()),
+                                    StreamItems.StreamItemPhotos.CONTENT_DIRECTORY),
+                            null, null, null, null);
+                    if (siCursor == null) {
+                        continue;
+                    }
+                    try {
+                        while (siCursor.moveToNext()) {
+                            entry.addPhoto(new StreamItemPhotoEntry(siCursor));
+                        }
+                    } finally {
+                        siCursor.close();
+                    }
+                }
+            } catch (RemoteException e) {
+                Log.e(TAG, "Cannot load the stream item photos of the profile", e);
+            } finally {
+                client.release();
+            }
+            return;
+        }
+
+        final Map<Long, StreamItemEntry> streamItemsById = new HashMap<Long, StreamItemEntry>();
+        for (StreamItemEntry entry : streamItems) {
+            streamItemsById.put(entry.getId(), entry);
+        }
+        for (int start = 0; start < streamItems.size(); start += STREAM_ITEM_PHOTO_BATCH_SIZE) {
+            final List<StreamItemEntry> batch = streamItems.subList(start,
+                    Math.min(start + STREAM_ITEM_PHOTO_BATCH_SIZE, streamItems.size()));
+            String[] streamItemIdArr = new String[batch.size()];
+            StringBuilder streamItemPhotoSelection = new StringBuilder();
+            streamItemPhotoSelection.append(StreamItemPhotos.STREAM_ITEM_ID + " IN (");
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) {
+                    streamItemPhotoSelection.append(",");
+                }
+                streamItemPhotoSelection.append("?");
+                streamItemIdArr[i] = String.valueOf(batch.get(i).getId());
+            }
+            streamItemPhotoSelection.append(")");
+            Cursor sipCursor = resolver.query(StreamItems.CONTENT_PHOTO_URI,
+                    null, streamItemPhotoSelection.toString(), streamItemIdArr,
+                    StreamItemPhotos.STREAM_ITEM_ID);
+            try {
+                while (sipCursor.moveToNext()) {
+                    long streamItemId = sipCursor.getLong(
+                            sipCursor.getColumnIndex(StreamItemPhotos.STREAM_ITEM_ID));
+                    StreamItemEntry streamItem = streamItemsById.get(streamItemId);
+                    streamItem.addPhoto(new StreamItemPhotoEntry(sipCursor));
+                }
+            } finally {
+                sipCursor.close();
+            }
+        }
+    }
+
+    /**
+     * Loads the next page of the stream items of the contact, if it has more, and then delivers
+     * the contact with them. Does nothing if they are already being loaded.
+     */
+    public void loadMoreStreamItems() {
+        if (mContact == null || !mContact.hasMoreStreamItems()
+                || mLoadMoreStreamItemsTask != null) {
+            return;
+        }
+        mLoadMoreStreamItemsTask = new LoadMoreStreamItemsTask(mContact);
+        mLoadMoreStreamItemsTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
+    }
+
+    private final class LoadMoreStreamItemsTask extends AsyncTask<Void, Void, Result> {
+        /** The contact whose stream items are loaded. */
+        private final Result mFrom;
+
+        public LoadMoreStreamItemsTask(Result from) {
+            mFrom = from;
+        }
+
+        @Override
+        protected Result doInBackground(Void... args) {
+            try {
+                final Result result = new Result(mFrom);
+                final List<StreamItemEntry> streamItems = result.getStreamItems();
+                loadStreamItems(result,
+                        streamItems.isEmpty() ? null : streamItems.get(streamItems.size() - 1),
+                        STREAM_ITEM_PAGE_SIZE);
+                return result;
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading the stream items: " + mLookupUri, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Result result) {
+            mLoadMoreStreamItemsTask = null;
+
+            // Drop the page if the contact changed meanwhile, it is loaded again on the next
+            // request.
+            if (mDestroyed || result == null || mContact != mFrom) {
+                return;
+            }
+            mContact = result;
+            putInCache(mContact);
+            deliverResult(mContact);
+        }
+    }
+
+    /**
+     * Shares a complete result with the other loaders through {@link ContactLoaderCache}, if this
+     * loader uses the cache.
+     */
+    private void putInCache(Result result) {
+        final ContactLoaderCache cache = getCache();
+        if (cache != null) {
+            cache.put(result, mLoadGroupMetaData, mLoadStreamItems, mLoadInvitableAccountTypes);
+        }
+    }
+
+    /**
+     * Returns the cache shared with the other loaders, or null if this loader neither delivers
+     * cached contacts nor prefetches them, so that it does not create the cache.
+     */
+    private ContactLoaderCache getCache() {
+        return mUseCache || mPrefetch ? ContactLoaderCache.getInstance(getContext()) : null;
+    }
+
     private void unregisterObserver() {
         if (mObserver != null) {
             getContext().getContentResolver().unregisterContentObserver(mObserver);
@@ -1254,12 +1957,48 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
 
     public ContactLoader(Context context, Uri lookupUri, boolean loadGroupMetaData,
             boolean loadStreamItems, boolean loadInvitableAccountTypes) {
+        this(context, lookupUri, loadGroupMetaData, loadStreamItems, loadInvitableAccountTypes,
+                false, false);
+    }
+
+    /**
+     * @param deliverPartialResults whether to deliver the header and the data of the contact as
+     *        soon as they are loaded, followed by more complete results as the other parts of the
+     *        contact load, see {@link Result#isPartial()}. This is only done for the first load,
+     *        the reloads only deliver complete results.
+     * @param useCache whether to deliver the contact from {@link ContactLoaderCache} right away,
+     *        if it is there, before loading it again in case it changed
+     */
+    public ContactLoader(Context context, Uri lookupUri, boolean loadGroupMetaData,
+            boolean loadStreamItems, boolean loadInvitableAccountTypes,
+            boolean deliverPartialResults, boolean useCache) {
+        this(context, lookupUri, loadGroupMetaData, loadStreamItems, loadInvitableAccountTypes,
+                deliverPartialResults, useCache, false);
+    }
+
+    private ContactLoader(Context context, Uri lookupUri, boolean loadGroupMetaData,
+            boolean loadStreamItems, boolean loadInvitableAccountTypes,
+            boolean deliverPartialResults, boolean useCache, boolean prefetch) {
         super(context);
         mLookupUri = lookupUri;
         mRequestedUri = lookupUri;
         mLoadGroupMetaData = loadGroupMetaData;
         mLoadStreamItems = loadStreamItems;
         mLoadInvitableAccountTypes = loadInvitableAccountTypes;
+        mDeliverPartialResults = deliverPartialResults;
+        mUseCache = useCache;
+        mPrefetch = prefetch;
+    }
+
+    /**
+     * Creates a loader which loads the given contact with all its parts into
+     * {@link ContactLoaderCache} ahead of it being shown, see {@link ContactPrefetcher}.
+     * <p>
+     * The contact is loaded at the lowest priority, without its high resolution photo, and it is
+     * not observed for changes. Resetting the loader cancels the load if it has not started yet.
+     */
+    /*package*/ static ContactLoader forPrefetch(Context context, Uri lookupUri) {
+        return new ContactLoader(context, lookupUri, true, true, true, false, false, true);
     }
 
     public Uri getLookupUri() {
@@ -1268,23 +2007,61 @@ public class ContactLoader extends Loader<ContactLoader.Result> {
 
     @Override
     protected void onStartLoading() {
+        boolean fromCache = false;
+        if (mContact == null && mUseCache) {
+            final ExpirableCache.CachedValue<ContactLoaderCache.Entry> cachedValue =
+                    getCache().get(mLookupUri,
+                            mLoadGroupMetaData, mLoadStreamItems, mLoadInvitableAccountTypes);
+            if (cachedValue != null) {
+                mContact = Result.copyOf(mRequestedUri, cachedValue.getValue().result);
+                fromCache = true;
+            }
+        }
+
         if (mContact != null) {
             deliverResult(mContact);
         }
 
-        if (takeContentChanged() || mContact == null) {
+        // A cached contact is loaded again in the background, in case it changed.
+        if (takeContentChanged() || mContact == null || fromCache) {
             forceLoad();
         }
     }
 
+    @Override
+    public void onContentChanged() {
+        // The contacts cached with any of the raw contacts of this one are out of date, e.g., if
+        // it has been joined with another contact.
+        final ContactLoaderCache cache = getCache();
+        if (cache != null) {
+            cache.invalidateRawContacts(mNotifiedRawContactIds);
+        }
+        mReloadForChange = true;
+        super.onContentChanged();
+    }
+
     @Override
     protected void onForceLoad() {
-        final LoadContactTask task = new LoadContactTask();
-        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[])null);
+        // Once a contact is shown, replacing it with a partial one would hide some of its parts,
+        // and as many stream items as it shows are loaded again.
+        final int streamItemLimit = mContact == null ? STREAM_ITEM_PAGE_SIZE
+                : Math.max(STREAM_ITEM_PAGE_SIZE, mContact.getStreamItems().size());
+        // When the contact changed, only the parts of it which changed are loaded again.
+        final Result previous = mReloadForChange && mContact != null && mContact.isLoaded()
+                && !mContact.isDirectoryEntry() ? mContact : null;
+        mReloadForChange = false;
+        mLoadContactTask = new LoadContactTask(
+                mDeliverPartialResults && mContact == null, streamItemLimit, previous);
+        mLoadContactTask.executeOnExecutor(
+                mPrefetch ? PREFETCH_EXECUTOR : AsyncTask.THREAD_POOL_EXECUTOR, (Void[])null);
     }
 
     @Override
     protected void onReset() {
+        if (mLoadContactTask != null) {
+            mLoadContactTask.cancel(false);
+            mLoadContactTask = null;
+        }
         unregisterObserver();
         mContact = null;
         mDestroyed = true;
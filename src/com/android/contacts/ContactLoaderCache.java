@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.contacts;
+
+import com.android.contacts.util.ExpirableCache;
+import com.android.contacts.util.ExpirableCache.CachedValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import android.content.Context;
+import android.content.Entity;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Directory;
+import android.provider.ContactsContract.RawContacts;
+import android.util.LruCache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A process-wide cache of the contacts most recently loaded by {@link ContactLoader}, keyed by
+ * lookup key, so that opening a contact again shows it right away while it is reloaded.
+ * <p>
+ * The cache does not observe the contacts provider: it notifies every change the same way,
+ * presence updates included, so that the cached contacts would be out of date all the time. A
+ * cached contact is loaded again whenever it is shown anyway, and when a loader is notified that
+ * its contact changed, the cached contacts which share raw contacts with it, e.g., the contacts it
+ * was joined with or split from, are removed, see {@link #invalidateRawContacts(Collection)}.
+ * <p>
+ * Only complete results of contacts from the local directory are cached. The cached results do
+ * not share their entities and statuses with the results of the loaders.
+ */
+@ThreadSafe
+/*package*/ final class ContactLoaderCache {
+    /** The maximum number of contacts in the cache. */
+    private static final int MAX_SIZE = 16;
+
+    private static ContactLoaderCache sInstance;
+
+    /** A cached contact, with the parts of the contact it was loaded with. */
+    @Immutable
+    public static final class Entry {
+        public final ContactLoader.Result result;
+        public final boolean groupMetaData;
+        public final boolean streamItems;
+        public final boolean invitableAccountTypes;
+        /** The ids of the raw contacts of the contact. */
+        public final Set<Long> rawContactIds;
+        /** When the contact was added to the cache, as in {@link SystemClock#elapsedRealtime()}. */
+        public final long loadTimeMillis;
+
+        public Entry(ContactLoader.Result result, boolean groupMetaData, boolean streamItems,
+                boolean invitableAccountTypes) {
+            this.result = ContactLoader.Result.copyOf(result.getRequestedUri(), result);
+            this.groupMetaData = groupMetaData;
+            this.streamItems = streamItems;
+            this.invitableAccountTypes = invitableAccountTypes;
+            final Set<Long> ids = Sets.newHashSet();
+            for (Entity entity : result.getEntities()) {
+                ids.add(entity.getEntityValues().getAsLong(RawContacts._ID));
+            }
+            this.rawContactIds = ids;
+            this.loadTimeMillis = SystemClock.elapsedRealtime();
+        }
+
+        /** Returns true if the contact was loaded with at least the given parts. */
+        public boolean includes(boolean needsGroupMetaData, boolean needsStreamItems,
+                boolean needsInvitableAccountTypes) {
+            return (groupMetaData || !needsGroupMetaData)
+                    && (streamItems || !needsStreamItems)
+                    && (invitableAccountTypes || !needsInvitableAccountTypes);
+        }
+    }
+
+    private final ExpirableCache<String, Entry> mCache;
+
+    /** The lookup key of the cached contact each raw contact belongs to. */
+    @GuardedBy("this")
+    private final HashMap<Long, String> mLookupKeysByRawContactId = Maps.newHashMap();
+
+    /** Returns the process-wide instance of the cache. */
+    public static synchronized ContactLoaderCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ContactLoaderCache();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    /*package*/ ContactLoaderCache() {
+        mCache = ExpirableCache.create(new LruCache<String, CachedValue<Entry>>(MAX_SIZE) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, CachedValue<Entry> oldValue,
+                    CachedValue<Entry> newValue) {
+                onEntryRemoved(key, oldValue.getValue());
+            }
+        });
+    }
+
+    /**
+     * Returns the cached contact for the given URI if it was loaded with at least the given parts,
+     * or null.
+     */
+    public CachedValue<Entry> get(Uri lookupUri, boolean groupMetaData, boolean streamItems,
+            boolean invitableAccountTypes) {
+        final String lookupKey = getLookupKey(lookupUri);
+        if (lookupKey == null) {
+            return null;
+        }
+        final CachedValue<Entry> cachedValue = mCache.getCachedValue(lookupKey);
+        if (cachedValue == null
+                || !cachedValue.getValue().includes(
+                        groupMetaData, streamItems, invitableAccountTypes)) {
+            return null;
+        }
+        return cachedValue;
+    }
+
+    /** Adds a contact which has been loaded with the given parts to the cache. */
+    public void put(ContactLoader.Result result, boolean groupMetaData, boolean streamItems,
+            boolean invitableAccountTypes) {
+        if (!result.isLoaded() || result.isPartial() || result.isDirectoryEntry()) {
+            return;
+        }
+        final String lookupKey = getLookupKey(result.getLookupUri());
+        if (lookupKey == null) {
+            return;
+        }
+        final Entry entry = new Entry(result, groupMetaData, streamItems, invitableAccountTypes);
+        synchronized (this) {
+            // This removes the raw contacts of the entry it replaces from the index.
+            mCache.put(lookupKey, entry);
+            for (Long rawContactId : entry.rawContactIds) {
+                mLookupKeysByRawContactId.put(rawContactId, lookupKey);
+            }
+        }
+    }
+
+    /** Removes the cached contacts which contain any of the given raw contacts. */
+    public synchronized void invalidateRawContacts(Collection<Long> rawContactIds) {
+        for (Long rawContactId : rawContactIds) {
+            final String lookupKey = mLookupKeysByRawContactId.get(rawContactId);
+            if (lookupKey != null) {
+                mCache.remove(lookupKey);
+            }
+        }
+    }
+
+    private synchronized void onEntryRemoved(String lookupKey, Entry entry) {
+        for (Long rawContactId : entry.rawContactIds) {
+            if (lookupKey.equals(mLookupKeysByRawContactId.get(rawContactId))) {
+                mLookupKeysByRawContactId.remove(rawContactId);
+            }
+        }
+    }
+
+    /**
+     * Returns the lookup key in the given URI of a contact of the local directory, or null if it
+     * does not contain one.
+     */
+    @VisibleForTesting
+    /*package*/ static String getLookupKey(Uri uri) {
+        if (uri == null || !ContactsContract.AUTHORITY.equals(uri.getAuthority())) {
+            return null;
+        }
+        final String directory = uri.getQueryParameter(ContactsContract.DIRECTORY_PARAM_KEY);
+        if (directory != null && !String.valueOf(Directory.DEFAULT).equals(directory)) {
+            return null;
+        }
+        final List<String> segments = uri.getPathSegments();
+        final List<String> lookupSegments = Contacts.CONTENT_LOOKUP_URI.getPathSegments();
+        if (segments.size() <= lookupSegments.size()
+                || !segments.subList(0, lookupSegments.size()).equals(lookupSegments)) {
+            return null;
+        }
+        return segments.get(lookupSegments.size());
+    }
+}
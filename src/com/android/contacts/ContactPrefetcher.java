@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.contacts;
+
+import com.android.contacts.util.ExpirableCache.CachedValue;
+import com.google.common.collect.Maps;
+
+import android.content.Context;
+import android.content.Loader;
+import android.content.Loader.OnLoadCompleteListener;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the contacts the user is likely to open next, e.g., the neighbors of the selected contact
+ * in a list, into the cache used by {@link ContactLoader}, so that they are shown right away.
+ * <p>
+ * The contacts are loaded in the background, one at a time and at the lowest priority, with the
+ * same parts as the ones the contact detail screen shows. The contacts which were cached recently
+ * are not loaded again: the cache is not notified of all the changes of the contacts, but they
+ * are reloaded anyway when they are shown.
+ * <p>
+ * This class must be used on the main thread.
+ */
+public final class ContactPrefetcher {
+    /** How long a cached contact is not prefetched again after it was loaded. */
+    private static final long RECENT_LOAD_MILLIS = 5 * 60 * 1000;
+
+    private final Context mContext;
+
+    /** The loaders of the contacts being prefetched, by lookup URI. */
+    private final HashMap<Uri, ContactLoader> mLoaders = Maps.newHashMap();
+
+    public ContactPrefetcher(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Prefetches the given contacts, in the given order, and cancels the prefetching of any
+     * other contact.
+     */
+    public void prefetch(List<Uri> lookupUris) {
+        cancelAllBut(lookupUris);
+
+        final ContactLoaderCache cache = ContactLoaderCache.getInstance(mContext);
+        for (final Uri lookupUri : lookupUris) {
+            if (lookupUri == null || mLoaders.containsKey(lookupUri)
+                    || ContactLoaderCache.getLookupKey(lookupUri) == null) {
+                continue;
+            }
+            final CachedValue<ContactLoaderCache.Entry> cachedValue =
+                    cache.get(lookupUri, true, true, true);
+            if (cachedValue != null
+                    && SystemClock.elapsedRealtime() - cachedValue.getValue().loadTimeMillis
+                            < RECENT_LOAD_MILLIS) {
+                continue;
+            }
+
+            final ContactLoader loader = ContactLoader.forPrefetch(mContext, lookupUri);
+            loader.registerListener(0, new OnLoadCompleteListener<ContactLoader.Result>() {
+                @Override
+                public void onLoadComplete(Loader<ContactLoader.Result> completedLoader,
+                        ContactLoader.Result data) {
+                    // The contact is in the cache now.
+                    if (mLoaders.get(lookupUri) == completedLoader) {
+                        mLoaders.remove(lookupUri);
+                    }
+                    completedLoader.unregisterListener(this);
+                    completedLoader.reset();
+                }
+            });
+            mLoaders.put(lookupUri, loader);
+            loader.startLoading();
+        }
+    }
+
+    /** Cancels the prefetching of all the contacts. */
+    public void cancel() {
+        cancelAllBut(Collections.<Uri>emptyList());
+    }
+
+    private void cancelAllBut(Collection<Uri> lookupUris) {
+        final Iterator<Map.Entry<Uri, ContactLoader>> iterator = mLoaders.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Uri, ContactLoader> entry = iterator.next();
+            if (!lookupUris.contains(entry.getKey())) {
+                entry.getValue().reset();
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.android.contacts;
 
 import com.android.contacts.list.ContactListFilterController;
 import com.android.contacts.model.AccountTypeManager;
+import com.android.contacts.quickcontact.ResolveCache;
 import com.android.contacts.test.InjectedServices;
 import com.android.contacts.util.Constants;
 import com.google.common.annotations.VisibleForTesting;
@@ -124,6 +125,10 @@ public final class ContactsApplication extends Application {
         Context context = getApplicationContext();
         PreferenceManager.getDefaultSharedPreferences(context);
         AccountTypeManager.getInstance(context);
+
+        // Resolve the QuickContact actions before they are needed
+        ResolveCache.getInstance(context).warmUpInBackground();
+
         if (ENABLE_FRAGMENT_LOG) FragmentManager.enableDebugLogging(true);
         if (ENABLE_LOADER_LOG) LoaderManager.enableDebugLogging(true);
 
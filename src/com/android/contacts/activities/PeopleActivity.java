@@ -386,6 +386,9 @@ public class PeopleActivity extends ContactsActivity
         mFavoritesFragment.setListener(mFavoritesFragmentListener);
 
         mAllFragment.setOnContactListActionListener(new ContactBrowserActionListener());
+        // The contact details are shown next to the list: load the neighbors of the selected
+        // contact ahead, so that moving through the list shows them without a loading state.
+        mAllFragment.setPrefetchEnabled(isUsingTwoPanes);
 
         mGroupsFragment.setListener(new GroupBrowserActionListener());
 
@@ -425,6 +428,15 @@ public class PeopleActivity extends ContactsActivity
             mContactDetailLayoutController = new ContactDetailLayoutController(this, savedState,
                     getFragmentManager(), findViewById(R.id.contact_detail_container),
                     new ContactDetailFragmentListener());
+            mContactDetailLayoutController.setUpdatesFragmentListener(
+                    new ContactDetailUpdatesFragment.Listener() {
+                @Override
+                public void onLoadMoreStreamItems() {
+                    if (mContactDetailLoaderFragment != null) {
+                        mContactDetailLoaderFragment.loadMoreStreamItems();
+                    }
+                }
+            });
         }
         transaction.commitAllowingStateLoss();
         fragmentManager.executePendingTransactions();
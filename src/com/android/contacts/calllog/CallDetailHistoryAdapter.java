@@ -20,6 +20,7 @@ import com.android.contacts.PhoneCallDetails;
 import com.android.contacts.R;
 
 import android.content.Context;
+import android.content.res.Resources;
 import android.provider.CallLog.Calls;
 import android.text.format.DateUtils;
 import android.view.LayoutInflater;
@@ -36,11 +37,15 @@ public class CallDetailHistoryAdapter extends BaseAdapter {
     private static final int VIEW_TYPE_HEADER = 0;
     /** Each history item shows the detail of a call. */
     private static final int VIEW_TYPE_HISTORY_ITEM = 1;
+    /** The totals of all the calls, shown above the history items. */
+    private static final int VIEW_TYPE_STATISTICS = 2;
 
     private final Context mContext;
     private final LayoutInflater mLayoutInflater;
     private final CallTypeHelper mCallTypeHelper;
-    private final PhoneCallDetails[] mPhoneCallDetails;
+    private PhoneCallDetails[] mPhoneCallDetails;
+    /** The totals of all the calls with the contact or number, or null if not shown. */
+    private CallStatistics mCallStatistics;
     /** Whether the voicemail controls are shown. */
     private final boolean mShowVoicemail;
     /** Whether the call and SMS controls are shown. */
@@ -71,30 +76,47 @@ public class CallDetailHistoryAdapter extends BaseAdapter {
         mControls = controls;
     }
 
+    /** Replaces the calls shown in the history, e.g., once the details of all calls are loaded. */
+    public void setPhoneCallDetails(PhoneCallDetails[] phoneCallDetails) {
+        mPhoneCallDetails = phoneCallDetails;
+        notifyDataSetChanged();
+    }
+
+    /** Sets the totals of all the calls with the contact or number, or null to hide them. */
+    public void setCallStatistics(CallStatistics callStatistics) {
+        mCallStatistics = callStatistics;
+        notifyDataSetChanged();
+    }
+
+    /** Returns the position of the first history item. */
+    private int getFirstCallPosition() {
+        return mCallStatistics == null ? 1 : 2;
+    }
+
     @Override
     public int getCount() {
-        return mPhoneCallDetails.length + 1;
+        return mPhoneCallDetails.length + getFirstCallPosition();
     }
 
     @Override
     public Object getItem(int position) {
-        if (position == 0) {
+        if (position < getFirstCallPosition()) {
             return null;
         }
-        return mPhoneCallDetails[position - 1];
+        return mPhoneCallDetails[position - getFirstCallPosition()];
     }
 
     @Override
     public long getItemId(int position) {
-        if (position == 0) {
-            return -1;
+        if (position < getFirstCallPosition()) {
+            return -1 - position;
         }
-        return position - 1;
+        return position - getFirstCallPosition();
     }
 
     @Override
     public int getViewTypeCount() {
-        return 2;
+        return 3;
     }
 
     @Override
@@ -102,6 +124,9 @@ public class CallDetailHistoryAdapter extends BaseAdapter {
         if (position == 0) {
             return VIEW_TYPE_HEADER;
         }
+        if (position < getFirstCallPosition()) {
+            return VIEW_TYPE_STATISTICS;
+        }
         return VIEW_TYPE_HISTORY_ITEM;
     }
 
@@ -121,13 +146,21 @@ public class CallDetailHistoryAdapter extends BaseAdapter {
             header.setOnFocusChangeListener(mHeaderFocusChangeListener);
             return header;
         }
+        if (position < getFirstCallPosition()) {
+            final View statistics = convertView == null
+                    ? mLayoutInflater.inflate(
+                            R.layout.call_detail_history_statistics, parent, false)
+                    : convertView;
+            bindCallStatistics(statistics);
+            return statistics;
+        }
 
         // Make sure we have a valid convertView to start with
         final View result  = convertView == null
                 ? mLayoutInflater.inflate(R.layout.call_detail_history_item, parent, false)
                 : convertView;
 
-        PhoneCallDetails details = mPhoneCallDetails[position - 1];
+        PhoneCallDetails details = mPhoneCallDetails[position - getFirstCallPosition()];
         CallTypeIconsView callTypeIconView =
                 (CallTypeIconsView) result.findViewById(R.id.call_type_icon);
         TextView callTypeTextView = (TextView) result.findViewById(R.id.call_type_text);
@@ -154,6 +187,27 @@ public class CallDetailHistoryAdapter extends BaseAdapter {
         return result;
     }
 
+    private void bindCallStatistics(View view) {
+        final Resources resources = mContext.getResources();
+        final int callCount = mCallStatistics.getCallCount();
+        TextView countView = (TextView) view.findViewById(R.id.call_statistics_count);
+        countView.setText(resources.getQuantityString(
+                R.plurals.call_statistics_count, callCount, callCount));
+        TextView typesView = (TextView) view.findViewById(R.id.call_statistics_types);
+        typesView.setText(resources.getString(R.string.call_statistics_types,
+                mCallStatistics.outgoingCount, mCallStatistics.incomingCount,
+                mCallStatistics.missedCount + mCallStatistics.voicemailCount));
+        TextView durationView = (TextView) view.findViewById(R.id.call_statistics_duration);
+        durationView.setText(resources.getString(R.string.call_statistics_duration,
+                DateUtils.formatElapsedTime(mCallStatistics.totalDuration),
+                DateUtils.formatElapsedTime(mCallStatistics.getAverageDuration())));
+        TextView lastCallView = (TextView) view.findViewById(R.id.call_statistics_last_call);
+        lastCallView.setText(resources.getString(R.string.call_statistics_last_call,
+                DateUtils.getRelativeTimeSpanString(mCallStatistics.lastCallDate,
+                        System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS,
+                        DateUtils.FORMAT_ABBREV_RELATIVE)));
+    }
+
     private String formatDuration(long elapsedSeconds) {
         long minutes = 0;
         long seconds = 0;
@@ -24,6 +24,8 @@ import com.android.contacts.R;
 import com.android.contacts.util.ExpirableCache;
 import com.android.contacts.util.UriUtils;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -40,60 +42,46 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 
-import java.util.LinkedList;
-
-import libcore.util.Objects;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Adapter class to fill in data for the Call Log.
  */
 /*package*/ class CallLogAdapter extends GroupingListAdapter
-        implements Runnable, ViewTreeObserver.OnPreDrawListener, CallLogGroupBuilder.GroupCreator {
+        implements ViewTreeObserver.OnPreDrawListener, CallLogGroupBuilder.GroupCreator {
     /** Interface used to initiate a refresh of the content. */
     public interface CallFetcher {
         public void fetchCalls();
     }
 
-    /**
-     * Stores a phone number of a call with the country code where it originally occurred.
-     * <p>
-     * Note the country does not necessarily specifies the country of the phone number itself, but
-     * it is the country in which the user was in when the call was placed or received.
-     */
-    private static final class NumberWithCountryIso {
-        public final String number;
-        public final String countryIso;
-
-        public NumberWithCountryIso(String number, String countryIso) {
-            this.number = number;
-            this.countryIso = countryIso;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (o == null) return false;
-            if (!(o instanceof NumberWithCountryIso)) return false;
-            NumberWithCountryIso other = (NumberWithCountryIso) o;
-            return TextUtils.equals(number, other.number)
-                    && TextUtils.equals(countryIso, other.countryIso);
-        }
-
-        @Override
-        public int hashCode() {
-            return (number == null ? 0 : number.hashCode())
-                    ^ (countryIso == null ? 0 : countryIso.hashCode());
-        }
-    }
-
     /** The time in millis to delay starting the thread processing requests. */
     private static final int START_PROCESSING_REQUESTS_DELAY_MILLIS = 1000;
 
     /** The size of the cache of contact info. */
     private static final int CONTACT_INFO_CACHE_SIZE = 100;
 
+    /**
+     * The maximum number of pending requests for contact info.
+     * <p>
+     * Beyond this, the requests for the rows bound the longest time ago are dropped: they will be
+     * enqueued again if the rows are shown again.
+     */
+    private static final int MAX_PENDING_REQUESTS = 2 * CONTACT_INFO_CACHE_SIZE;
+
+    /** The number of threads looking up contact info in parallel. */
+    private static final int CALLER_ID_THREAD_POOL_SIZE = 2;
+
+    /** The maximum number of requests for contact info resolved together by a worker. */
+    private static final int LOOKUP_BATCH_SIZE = 20;
+
     private final Context mContext;
     private final ContactInfoHelper mContactInfoHelper;
     private final CallFetcher mCallFetcher;
+    /** Writes the refreshed contact info back into the call log. */
+    private final CallLogContactInfoWriter mCallLogWriter;
 
     /**
      * A cache of the contact details for the phone numbers in the call log.
@@ -106,67 +94,27 @@ import libcore.util.Objects;
     private ExpirableCache<NumberWithCountryIso, ContactInfo> mContactInfoCache;
 
     /**
-     * A request for contact details for the given number.
-     */
-    private static final class ContactInfoRequest {
-        /** The number to look-up. */
-        public final String number;
-        /** The country in which a call to or from this number was placed or received. */
-        public final String countryIso;
-        /** The cached contact information stored in the call log. */
-        public final ContactInfo callLogInfo;
-
-        public ContactInfoRequest(String number, String countryIso, ContactInfo callLogInfo) {
-            this.number = number;
-            this.countryIso = countryIso;
-            this.callLogInfo = callLogInfo;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) return true;
-            if (obj == null) return false;
-            if (!(obj instanceof ContactInfoRequest)) return false;
-
-            ContactInfoRequest other = (ContactInfoRequest) obj;
-
-            if (!TextUtils.equals(number, other.number)) return false;
-            if (!TextUtils.equals(countryIso, other.countryIso)) return false;
-            if (!Objects.equal(callLogInfo, other.callLogInfo)) return false;
-
-            return true;
-        }
-
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + ((callLogInfo == null) ? 0 : callLogInfo.hashCode());
-            result = prime * result + ((countryIso == null) ? 0 : countryIso.hashCode());
-            result = prime * result + ((number == null) ? 0 : number.hashCode());
-            return result;
-        }
-    }
-
-    /**
-     * List of requests to update contact details.
+     * Queue of requests to update contact details.
      * <p>
      * Each request is made of a phone number to look up, and the contact info currently stored in
      * the call log for this number.
      * <p>
-     * The requests are added when displaying the contacts and are processed by a background
-     * thread.
+     * The requests are added when displaying the contacts and are processed by a pool of
+     * background threads, see {@link CallerIdWorker}.
      */
-    private final LinkedList<ContactInfoRequest> mRequests;
+    private final ContactInfoRequestQueue mRequests;
+
+    /** Set by the workers when the cache has been updated and the list should be redrawn. */
+    private final AtomicBoolean mNeedsRedraw = new AtomicBoolean(false);
 
-    private volatile boolean mDone;
     private boolean mLoading = true;
     private ViewTreeObserver.OnPreDrawListener mPreDrawListener;
     private static final int REDRAW = 1;
     private static final int START_THREAD = 2;
 
     private boolean mFirst;
-    private Thread mCallerIdThread;
+    /** The workers processing the requests, or null if they are not running. */
+    private CallerIdWorker[] mCallerIdWorkers;
 
     /** Instance of helper class for managing views. */
     private final CallLogListItemHelper mCallLogViewsHelper;
@@ -178,6 +126,17 @@ import libcore.util.Objects;
     /** Helper to group call log entries. */
     private final CallLogGroupBuilder mCallLogGroupBuilder;
 
+    /**
+     * The groups computed in the background for {@link #mPrecomputedGroupsCursor}, used instead of
+     * grouping the cursor again in {@link #addGroups(Cursor)}.
+     */
+    private CallLogGroupBuilder.GroupTable mPrecomputedGroups;
+    /** The cursor {@link #mPrecomputedGroups} were computed for. */
+    private Cursor mPrecomputedGroupsCursor;
+
+    /** The counters of the caller-id pipeline, see {@link CallLogFragment#dump}. */
+    private final CallerIdStatistics mStatistics = CallerIdStatistics.getInstance();
+
     /** Can be set to true by tests to disable processing of requests. */
     private volatile boolean mRequestProcessingDisabled = false;
 
@@ -217,6 +176,7 @@ import libcore.util.Objects;
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case REDRAW:
+                    mStatistics.onRedraw();
                     notifyDataSetChanged();
                     break;
                 case START_THREAD:
@@ -233,9 +193,13 @@ import libcore.util.Objects;
         mContext = context;
         mCallFetcher = callFetcher;
         mContactInfoHelper = contactInfoHelper;
+        mCallLogWriter = CallLogContactInfoWriter.getInstance(context);
 
-        mContactInfoCache = ExpirableCache.create(CONTACT_INFO_CACHE_SIZE);
-        mRequests = new LinkedList<ContactInfoRequest>();
+        // The rows being bound read the cache while the workers fill it: spread the numbers over
+        // several independently locked segments so that they rarely wait for each other.
+        mContactInfoCache = ExpirableCache.createStriped(CONTACT_INFO_CACHE_SIZE,
+                CALLER_ID_THREAD_POOL_SIZE + 1, ExpirableCache.NO_TIME_TO_LIVE);
+        mRequests = new ContactInfoRequestQueue(MAX_PENDING_REQUESTS);
         mPreDrawListener = null;
 
         Resources resources = mContext.getResources();
@@ -274,14 +238,16 @@ import libcore.util.Objects;
     }
 
     private void startRequestProcessing() {
-        if (mRequestProcessingDisabled) {
+        if (mRequestProcessingDisabled || mCallerIdWorkers != null) {
             return;
         }
 
-        mDone = false;
-        mCallerIdThread = new Thread(this, "CallLogContactLookup");
-        mCallerIdThread.setPriority(Thread.MIN_PRIORITY);
-        mCallerIdThread.start();
+        mCallerIdWorkers = new CallerIdWorker[CALLER_ID_THREAD_POOL_SIZE];
+        for (int i = 0; i < mCallerIdWorkers.length; ++i) {
+            mCallerIdWorkers[i] = new CallerIdWorker("CallLogContactLookup-" + i);
+            mCallerIdWorkers[i].setPriority(Thread.MIN_PRIORITY);
+            mCallerIdWorkers[i].start();
+        }
     }
 
     /**
@@ -294,12 +260,25 @@ import libcore.util.Objects;
     public void stopRequestProcessing() {
         // Remove any pending requests to start the processing thread.
         mHandler.removeMessages(START_THREAD);
-        mDone = true;
-        if (mCallerIdThread != null) mCallerIdThread.interrupt();
+        if (mCallerIdWorkers != null) {
+            for (CallerIdWorker worker : mCallerIdWorkers) {
+                worker.quit();
+            }
+            mCallerIdWorkers = null;
+        }
+        // Do not keep the updates to the call log waiting while we are not shown.
+        mCallLogWriter.flushSoon();
+    }
+
+    /** Returns the statistics of the cache of contact info. */
+    public ExpirableCache.Stats getContactInfoCacheStats() {
+        return mContactInfoCache.getStats();
     }
 
     public void invalidateCache() {
         mContactInfoCache.expireAll();
+        // The rows are looked up again once shown, drop the requests of the ones which are not.
+        mRequests.clear();
         // Let it restart the thread after next draw
         mPreDrawListener = null;
     }
@@ -312,17 +291,15 @@ import libcore.util.Objects;
      * If the {@code immediate} parameter is true, it will start immediately the thread that looks
      * up the contact information (if it has not been already started). Otherwise, it will be
      * started with a delay. See {@link #START_PROCESSING_REQUESTS_DELAY_MILLIS}.
+     * <p>
+     * Enqueuing a request which is already pending moves it to the front of the queue, so that
+     * the rows being displayed are looked up first.
      */
     @VisibleForTesting
     void enqueueRequest(String number, String countryIso, ContactInfo callLogInfo,
             boolean immediate) {
-        ContactInfoRequest request = new ContactInfoRequest(number, countryIso, callLogInfo);
-        synchronized (mRequests) {
-            if (!mRequests.contains(request)) {
-                mRequests.add(request);
-                mRequests.notifyAll();
-            }
-        }
+        mRequests.offer(new ContactInfoRequest(number, countryIso, callLogInfo), immediate);
+        mStatistics.onRequestEnqueued(mRequests.size());
         if (mFirst && immediate) {
             startRequestProcessing();
             mFirst = false;
@@ -330,72 +307,131 @@ import libcore.util.Objects;
     }
 
     /**
-     * Queries the appropriate content provider for the contact associated with the number.
+     * Queries the appropriate content providers for the contacts associated with the numbers of
+     * the given requests.
      * <p>
-     * Upon completion it also updates the cache in the call log, if it is different from
-     * {@code callLogInfo}.
+     * The numbers are resolved together, see {@link ContactInfoHelper#lookupNumbers}. Upon
+     * completion it also updates the cache in the call log for each request, if it is different
+     * from the {@link ContactInfoRequest#callLogInfo}.
      * <p>
-     * The number might be either a SIP address or a phone number.
+     * The numbers might be either SIP addresses or phone numbers.
      * <p>
      * It returns true if it updated the content of the cache and we should therefore tell the
      * view to update its content.
      */
-    private boolean queryContactInfo(String number, String countryIso, ContactInfo callLogInfo) {
-        final ContactInfo info = mContactInfoHelper.lookupNumber(number, countryIso);
-
-        if (info == null) {
-            // The lookup failed, just return without requesting to update the view.
-            return false;
+    private boolean queryContactInfo(List<ContactInfoRequest> requests) {
+        final Set<NumberWithCountryIso> numbers = Sets.newHashSet();
+        for (ContactInfoRequest request : requests) {
+            numbers.add(new NumberWithCountryIso(request.number, request.countryIso));
         }
+        final Map<NumberWithCountryIso, ContactInfo> infos =
+                mContactInfoHelper.lookupNumbers(numbers);
+
+        boolean updated = false;
+        for (ContactInfoRequest request : requests) {
+            NumberWithCountryIso numberCountryIso =
+                    new NumberWithCountryIso(request.number, request.countryIso);
+            final ContactInfo info = infos.get(numberCountryIso);
+            mStatistics.onRequestResolved(request.enqueueTimeMillis, info != null);
+            if (info == null) {
+                // The lookup failed, just skip it without requesting to update the view.
+                continue;
+            }
 
-        // Check the existing entry in the cache: only if it has changed we should update the
-        // view.
-        NumberWithCountryIso numberCountryIso = new NumberWithCountryIso(number, countryIso);
-        ContactInfo existingInfo = mContactInfoCache.getPossiblyExpired(numberCountryIso);
-        boolean updated = !info.equals(existingInfo);
-        // Store the data in the cache so that the UI thread can use to display it. Store it
-        // even if it has not changed so that it is marked as not expired.
-        mContactInfoCache.put(numberCountryIso, info);
-        // Update the call log even if the cache it is up-to-date: it is possible that the cache
-        // contains the value from a different call log entry.
-        updateCallLogContactInfoCache(number, countryIso, info, callLogInfo);
+            // Check the existing entry in the cache: only if it has changed we should update the
+            // view.
+            ContactInfo existingInfo = mContactInfoCache.getPossiblyExpired(numberCountryIso);
+            updated |= !info.equals(existingInfo);
+            // Store the data in the cache so that the UI thread can use to display it. Store it
+            // even if it has not changed so that it is marked as not expired.
+            mContactInfoCache.put(numberCountryIso, info);
+            // Update the call log even if the cache it is up-to-date: it is possible that the
+            // cache contains the value from a different call log entry.
+            updateCallLogContactInfoCache(
+                    request.number, request.countryIso, info, request.callLogInfo);
+        }
         return updated;
     }
-    /*
-     * Handles requests for contact name and number type
-     * @see java.lang.Runnable#run()
+
+    /**
+     * A background thread processing the requests for contact details.
+     * <p>
+     * Several workers share the same {@link #mRequests} queue, each taking up to
+     * {@link #LOOKUP_BATCH_SIZE} requests at a time. Once the queue has been drained,
+     * the list is redrawn if any of the requests updated the cache.
      */
-    @Override
-    public void run() {
-        boolean needNotify = false;
-        while (!mDone) {
-            ContactInfoRequest request = null;
-            synchronized (mRequests) {
-                if (!mRequests.isEmpty()) {
-                    request = mRequests.removeFirst();
-                } else {
-                    if (needNotify) {
-                        needNotify = false;
+    private final class CallerIdWorker extends Thread {
+        private volatile boolean mDone;
+
+        public CallerIdWorker(String name) {
+            super(name);
+        }
+
+        /** Stops this worker once the request it is currently processing, if any, completes. */
+        public void quit() {
+            mDone = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            final List<ContactInfoRequest> batch = Lists.newArrayList();
+            while (!mDone) {
+                ContactInfoRequest request = mRequests.poll();
+                if (request == null) {
+                    // The queue is drained: refresh the list if anything changed, then wait.
+                    if (mNeedsRedraw.getAndSet(false)) {
                         mHandler.sendEmptyMessage(REDRAW);
                     }
-                    try {
-                        mRequests.wait(1000);
-                    } catch (InterruptedException ie) {
-                        // Ignore and continue processing requests
-                        Thread.currentThread().interrupt();
+                    request = mRequests.take();
+                    if (request == null) {
+                        // Interrupted while waiting, check whether we should quit.
+                        continue;
+                    }
+                }
+                batch.clear();
+                batch.add(request);
+                mRequests.drainTo(batch, LOOKUP_BATCH_SIZE - 1);
+                mStatistics.onRequestsDequeued(mRequests.size());
+                try {
+                    if (!mDone && queryContactInfo(batch)) {
+                        mNeedsRedraw.set(true);
+                    }
+                } finally {
+                    for (ContactInfoRequest processed : batch) {
+                        mRequests.finish(processed);
                     }
                 }
-            }
-            if (!mDone && request != null
-                    && queryContactInfo(request.number, request.countryIso, request.callLogInfo)) {
-                needNotify = true;
             }
         }
     }
 
+    /**
+     * Changes the underlying cursor, using the given groups if they are not null instead of
+     * computing them again on the main thread.
+     *
+     * @param groups the groups in the cursor, as computed by
+     *        {@link CallLogGroupBuilder#buildGroupTable(Cursor)}
+     */
+    public void changeCursor(Cursor cursor, CallLogGroupBuilder.GroupTable groups) {
+        mPrecomputedGroups = groups;
+        mPrecomputedGroupsCursor = cursor;
+        try {
+            changeCursor(cursor);
+        } finally {
+            mPrecomputedGroups = null;
+            mPrecomputedGroupsCursor = null;
+        }
+    }
+
     @Override
     protected void addGroups(Cursor cursor) {
-        mCallLogGroupBuilder.addGroups(cursor);
+        if (mPrecomputedGroups != null && cursor == mPrecomputedGroupsCursor
+                && cursor.getCount() == mPrecomputedGroups.getRowCount()) {
+            mPrecomputedGroups.addTo(this);
+        } else {
+            mCallLogGroupBuilder.addGroups(cursor);
+        }
     }
 
     @Override
@@ -509,6 +545,8 @@ import libcore.util.Objects;
         ExpirableCache.CachedValue<ContactInfo> cachedInfo =
                 mContactInfoCache.getCachedValue(numberCountryIso);
         ContactInfo info = cachedInfo == null ? null : cachedInfo.getValue();
+        mStatistics.onCacheLookup(
+                cachedInfo != null, cachedInfo != null && cachedInfo.isExpired());
         if (!mPhoneNumberHelper.canPlaceCallsTo(number)
                 || mPhoneNumberHelper.isVoicemailNumber(number)) {
             // If this is a number that cannot be dialed, there is no point in looking up a contact
@@ -527,6 +565,10 @@ import libcore.util.Objects;
                 // The contact info is no longer up to date, we should request it. However, we
                 // do not need to request them immediately.
                 enqueueRequest(number, countryIso, cachedContactInfo, false);
+            } else if (info == ContactInfo.EMPTY) {
+                // The lookup is still pending, or it was dropped or failed: (re-)enqueue it so
+                // that, since the row is being shown, it is processed first.
+                enqueueRequest(number, countryIso, cachedContactInfo, true);
             } else  if (!callLogInfoMatches(cachedContactInfo, info)) {
                 // The call log information does not match the one we have, look it up again.
                 // We could simply update the call log directly, but that needs to be done in a
@@ -592,7 +634,11 @@ import libcore.util.Objects;
                 && TextUtils.equals(callLogInfo.label, info.label);
     }
 
-    /** Stores the updated contact info in the call log if it is different from the current one. */
+    /**
+     * Stores the updated contact info in the call log if it is different from the current one.
+     * <p>
+     * The call log is not updated synchronously, see {@link CallLogContactInfoWriter}.
+     */
     private void updateCallLogContactInfoCache(String number, String countryIso,
             ContactInfo updatedInfo, ContactInfo callLogInfo) {
         final ContentValues values = new ContentValues();
@@ -650,15 +696,8 @@ import libcore.util.Objects;
             return;
         }
 
-        if (countryIso == null) {
-            mContext.getContentResolver().update(Calls.CONTENT_URI_WITH_VOICEMAIL, values,
-                    Calls.NUMBER + " = ? AND " + Calls.COUNTRY_ISO + " IS NULL",
-                    new String[]{ number });
-        } else {
-            mContext.getContentResolver().update(Calls.CONTENT_URI_WITH_VOICEMAIL, values,
-                    Calls.NUMBER + " = ? AND " + Calls.COUNTRY_ISO + " = ?",
-                    new String[]{ number, countryIso });
-        }
+        // The update is batched with the others and written later.
+        mCallLogWriter.update(number, countryIso, values);
     }
 
     /** Returns the contact information as stored in the call log. */
@@ -711,6 +750,34 @@ import libcore.util.Objects;
         mRequestProcessingDisabled = true;
     }
 
+    /**
+     * Processes the pending requests on the calling thread, in batches as the workers do, and
+     * returns the number of requests processed.
+     * <p>
+     * This method should only be called in tests, with the processing of requests disabled.
+     */
+    @VisibleForTesting
+    int processPendingRequestsForTest() {
+        final List<ContactInfoRequest> batch = Lists.newArrayList();
+        int processed = 0;
+        ContactInfoRequest request;
+        while ((request = mRequests.poll()) != null) {
+            batch.clear();
+            batch.add(request);
+            mRequests.drainTo(batch, LOOKUP_BATCH_SIZE - 1);
+            mStatistics.onRequestsDequeued(mRequests.size());
+            try {
+                queryContactInfo(batch);
+            } finally {
+                for (ContactInfoRequest done : batch) {
+                    mRequests.finish(done);
+                }
+            }
+            processed += batch.size();
+        }
+        return processed;
+    }
+
     @VisibleForTesting
     void injectContactInfoForTest(String number, String countryIso, ContactInfo contactInfo) {
         NumberWithCountryIso numberCountryIso = new NumberWithCountryIso(number, countryIso);
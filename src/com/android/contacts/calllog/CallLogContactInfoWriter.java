@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import com.android.contacts.util.Constants;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.RemoteException;
+import android.provider.CallLog;
+import android.provider.CallLog.Calls;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Writes the contact info looked up for the numbers in the call log back into the call log.
+ * <p>
+ * Updates are not written immediately: they are collected and coalesced per number, so that
+ * several updates of the same number result in a single write, and then written together with a
+ * single {@link ContentResolver#applyBatch} call. The pending updates are flushed on a background
+ * thread either {@link #FLUSH_DELAY_MILLIS} after the first of them was added, or as soon as there
+ * are {@link #MAX_PENDING_UPDATES} of them.
+ * <p>
+ * The number of updates requested and of the writes actually performed are logged with the
+ * {@link Constants#PERFORMANCE_TAG} tag.
+ */
+@ThreadSafe
+/*package*/ final class CallLogContactInfoWriter implements Handler.Callback {
+    private static final String TAG = "CallLogContactInfoWriter";
+
+    /** The maximum time in millis an update waits before being written. */
+    private static final long FLUSH_DELAY_MILLIS = 2000;
+
+    /** The number of pending updates which triggers an immediate flush. */
+    @VisibleForTesting
+    /*package*/ static final int MAX_PENDING_UPDATES = 50;
+
+    /** The message used to flush the pending updates. */
+    private static final int MESSAGE_FLUSH = 1;
+
+    /** The singleton instance of the writer. */
+    private static CallLogContactInfoWriter sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final Handler mHandler;
+
+    /** The values to write for each number, in the order they were first added. */
+    @GuardedBy("this")
+    private LinkedHashMap<NumberWithCountryIso, ContentValues> mPendingUpdates =
+            Maps.newLinkedHashMap();
+
+    /** The number of updates requested. */
+    private final AtomicInteger mRequestedUpdates = new AtomicInteger();
+    /** The number of updates merged into a pending update for the same number. */
+    private final AtomicInteger mCoalescedUpdates = new AtomicInteger();
+    /** The number of update operations applied by the call log provider. */
+    private final AtomicInteger mWrites = new AtomicInteger();
+    /** The number of batches applied by the call log provider. */
+    private final AtomicInteger mBatches = new AtomicInteger();
+    /** The number of batches which the call log provider failed to apply. */
+    private final AtomicInteger mFailedBatches = new AtomicInteger();
+
+    /** Returns the process-wide instance of the writer. */
+    public static synchronized CallLogContactInfoWriter getInstance(Context context) {
+        if (sInstance == null) {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new CallLogContactInfoWriter(
+                    context.getApplicationContext().getContentResolver(), thread);
+        }
+        return sInstance;
+    }
+
+    /** Returns the process-wide instance of the writer, or null if it has not been created. */
+    public static synchronized CallLogContactInfoWriter peekInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    /*package*/ CallLogContactInfoWriter(ContentResolver contentResolver, HandlerThread thread) {
+        mContentResolver = contentResolver;
+        mHandler = new Handler(thread.getLooper(), this);
+    }
+
+    /**
+     * Adds an update of the call log entries for the given number.
+     * <p>
+     * If there is already a pending update for the same number, the values are merged into it,
+     * with the given ones taking precedence.
+     */
+    public void update(String number, String countryIso, ContentValues values) {
+        mRequestedUpdates.incrementAndGet();
+        final boolean flushNow;
+        synchronized (this) {
+            NumberWithCountryIso key = new NumberWithCountryIso(number, countryIso);
+            ContentValues pendingValues = mPendingUpdates.get(key);
+            if (pendingValues != null) {
+                mCoalescedUpdates.incrementAndGet();
+                pendingValues.putAll(values);
+            } else {
+                mPendingUpdates.put(key, new ContentValues(values));
+            }
+            flushNow = mPendingUpdates.size() >= MAX_PENDING_UPDATES;
+        }
+        if (flushNow) {
+            mHandler.removeMessages(MESSAGE_FLUSH);
+            mHandler.sendEmptyMessage(MESSAGE_FLUSH);
+        } else if (!mHandler.hasMessages(MESSAGE_FLUSH)) {
+            mHandler.sendEmptyMessageDelayed(MESSAGE_FLUSH, FLUSH_DELAY_MILLIS);
+        }
+    }
+
+    /** Requests the pending updates to be written as soon as possible. */
+    public void flushSoon() {
+        mHandler.removeMessages(MESSAGE_FLUSH);
+        mHandler.sendEmptyMessage(MESSAGE_FLUSH);
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        if (msg.what == MESSAGE_FLUSH) {
+            flush();
+            return true;
+        }
+        return false;
+    }
+
+    /** Writes all the pending updates with a single batch. */
+    private void flush() {
+        final LinkedHashMap<NumberWithCountryIso, ContentValues> updates;
+        synchronized (this) {
+            if (mPendingUpdates.isEmpty()) {
+                return;
+            }
+            updates = mPendingUpdates;
+            mPendingUpdates = Maps.newLinkedHashMap();
+        }
+
+        final ArrayList<ContentProviderOperation> operations =
+                Lists.newArrayListWithCapacity(updates.size());
+        for (Map.Entry<NumberWithCountryIso, ContentValues> entry : updates.entrySet()) {
+            final NumberWithCountryIso key = entry.getKey();
+            final ContentProviderOperation.Builder builder =
+                    ContentProviderOperation.newUpdate(Calls.CONTENT_URI_WITH_VOICEMAIL)
+                            .withValues(entry.getValue());
+            if (key.countryIso == null) {
+                builder.withSelection(Calls.NUMBER + " = ? AND " + Calls.COUNTRY_ISO + " IS NULL",
+                        new String[]{ key.number });
+            } else {
+                builder.withSelection(Calls.NUMBER + " = ? AND " + Calls.COUNTRY_ISO + " = ?",
+                        new String[]{ key.number, key.countryIso });
+            }
+            operations.add(builder.build());
+        }
+
+        boolean written = false;
+        try {
+            mContentResolver.applyBatch(CallLog.AUTHORITY, operations);
+            mWrites.addAndGet(operations.size());
+            mBatches.incrementAndGet();
+            written = true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to update the call log", e);
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "Failed to update the call log", e);
+        }
+        if (!written) {
+            mFailedBatches.incrementAndGet();
+        }
+
+        if (Log.isLoggable(Constants.PERFORMANCE_TAG, Log.DEBUG)) {
+            Log.d(Constants.PERFORMANCE_TAG, "CallLogContactInfoWriter: "
+                    + (written ? "wrote " : "failed to write ")
+                    + operations.size() + " updates; totals: requested=" + mRequestedUpdates.get()
+                    + " coalesced=" + mCoalescedUpdates.get() + " writes=" + mWrites.get()
+                    + " batches=" + mBatches.get() + " failedBatches=" + mFailedBatches.get());
+        }
+    }
+
+    /** Returns the number of updates requested. */
+    public int getRequestedUpdateCount() {
+        return mRequestedUpdates.get();
+    }
+
+    /** Returns the number of updates merged into a pending update for the same number. */
+    public int getCoalescedUpdateCount() {
+        return mCoalescedUpdates.get();
+    }
+
+    /** Returns the number of update operations applied by the call log provider. */
+    public int getWriteCount() {
+        return mWrites.get();
+    }
+
+    /** Returns the number of batches applied by the call log provider. */
+    public int getBatchCount() {
+        return mBatches.get();
+    }
+
+    /** Returns the number of batches which the call log provider failed to apply. */
+    public int getFailedBatchCount() {
+        return mFailedBatches.get();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * A view of the calls shown in the call log which only includes some of them, e.g., the results
+ * of a search.
+ * <p>
+ * Closing this cursor does not close the underlying one, which is owned by
+ * {@link CallLogFragment}, so that the adapter can switch from one view of the calls to another.
+ */
+/*package*/ final class CallLogFilterCursor extends CursorWrapper {
+    /** The positions in the underlying cursor of the rows, or null to include all of them. */
+    private final int[] mPositions;
+    /** The position in this cursor, only used if {@link #mPositions} is not null. */
+    private int mPosition = -1;
+
+    /**
+     * Creates a view of the given cursor.
+     *
+     * @param positions the positions of the rows to include, in increasing order, or null to
+     *        include all the rows
+     */
+    public CallLogFilterCursor(Cursor cursor, int[] positions) {
+        super(cursor);
+        mPositions = positions;
+    }
+
+    @Override
+    public void close() {
+        // The underlying cursor is closed by its owner.
+    }
+
+    @Override
+    public int getCount() {
+        return mPositions == null ? super.getCount() : mPositions.length;
+    }
+
+    @Override
+    public int getPosition() {
+        return mPositions == null ? super.getPosition() : mPosition;
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        if (mPositions == null) {
+            return super.moveToPosition(position);
+        }
+        final int count = mPositions.length;
+        if (position < 0) {
+            mPosition = -1;
+            return false;
+        }
+        if (position >= count) {
+            mPosition = count;
+            return false;
+        }
+        mPosition = position;
+        return super.moveToPosition(mPositions[position]);
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(getPosition() + offset);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(getCount() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(getPosition() + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(getPosition() - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return getCount() != 0 && getPosition() == 0;
+    }
+
+    @Override
+    public boolean isLast() {
+        final int count = getCount();
+        return count != 0 && getPosition() == count - 1;
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return getCount() == 0 || getPosition() == -1;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return getCount() == 0 || getPosition() == getCount();
+    }
+}
@@ -48,9 +48,15 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ListView;
+import android.widget.SearchView;
+import android.widget.SearchView.OnQueryTextListener;
 import android.widget.TextView;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 
 /**
@@ -65,10 +71,30 @@ public class CallLogFragment extends ListFragment implements ViewPagerVisibility
      */
     private static final int EMPTY_LOADER_ID = 0;
 
+    /** How close to the end of the list to start fetching the next page of calls, in rows. */
+    private static final int FETCH_MORE_CALLS_THRESHOLD = 20;
+
+    /** The number of calls in each page fetched while searching, to index the whole call log. */
+    private static final int SEARCH_FETCH_PAGE_SIZE = 1000;
+
     private CallLogAdapter mAdapter;
     private CallLogQueryHandler mCallLogQueryHandler;
     private boolean mScrollToTop;
 
+    /**
+     * The calls last fetched, or null if none.
+     * <p>
+     * The adapter is only given views of this cursor, so that it can show either all of the calls
+     * or the results of a search: this fragment closes it once it is replaced.
+     */
+    private Cursor mCallsCursor;
+    /** The groups of {@link #mCallsCursor}, or null if they have not been computed. */
+    private CallLogGroupBuilder.GroupTable mCallsGroups;
+    /** The index used to search the calls. */
+    private CallLogSearchIndex mSearchIndex;
+    /** The current search query, or null if not searching. */
+    private String mSearchQuery;
+
     private boolean mShowOptionsMenu;
     /** Whether there is at least one voicemail source installed. */
     private boolean mVoicemailSourcesAvailable = false;
@@ -97,14 +123,30 @@ public class CallLogFragment extends ListFragment implements ViewPagerVisibility
 
     /** Called by the CallLogQueryHandler when the list of calls has been fetched or updated. */
     @Override
-    public void onCallsFetched(Cursor cursor) {
+    public void onCallsFetched(Cursor cursor, CallLogGroupBuilder.GroupTable groups,
+            int unchangedRowCount) {
         if (getActivity() == null || getActivity().isFinishing()) {
+            MoreCloseables.closeQuietly(cursor);
             return;
         }
         mAdapter.setLoading(false);
-        mAdapter.changeCursor(cursor);
-        // This will update the state of the "Clear call log" menu item.
-        getActivity().invalidateOptionsMenu();
+        final boolean wasEmpty = mAdapter.isEmpty();
+        final Cursor previousCursor = mCallsCursor;
+        mCallsCursor = cursor;
+        mCallsGroups = groups;
+        if (mSearchQuery != null) {
+            // Only the calls not already in the index are read.
+            mSearchIndex.update(cursor, unchangedRowCount);
+            fetchCallsToSearch();
+        }
+        showCalls();
+        if (previousCursor != null && previousCursor != cursor) {
+            previousCursor.close();
+        }
+        if (wasEmpty != mAdapter.isEmpty()) {
+            // This will update the state of the "Clear call log" menu item.
+            getActivity().invalidateOptionsMenu();
+        }
         if (mScrollToTop) {
             final ListView listView = getListView();
             if (listView.getFirstVisiblePosition() > 5) {
@@ -117,6 +159,64 @@ public class CallLogFragment extends ListFragment implements ViewPagerVisibility
         destroyEmptyLoaderIfAllDataFetched();
     }
 
+    /**
+     * Shows the calls last fetched in the list: all of them, or only those matching the search
+     * query.
+     */
+    private void showCalls() {
+        if (mCallsCursor == null) {
+            return;
+        }
+        if (TextUtils.isEmpty(mSearchQuery)) {
+            final Cursor cursor = new CallLogFilterCursor(mCallsCursor, null);
+            mAdapter.changeCursor(cursor, mCallsGroups);
+        } else {
+            // The matching calls are few enough for the adapter to group them itself.
+            mAdapter.changeCursor(
+                    new CallLogFilterCursor(mCallsCursor, mSearchIndex.search(mSearchQuery)));
+        }
+    }
+
+    /** Starts searching the calls, showing all of them until there is a query. */
+    private void startSearch() {
+        if (mSearchQuery != null) {
+            return;
+        }
+        mSearchQuery = "";
+        if (mCallsCursor != null) {
+            mSearchIndex.update(mCallsCursor);
+        }
+    }
+
+    /** Shows the calls matching the given query. */
+    private void setSearchQuery(String query) {
+        if (mSearchQuery == null || mSearchQuery.equals(query)) {
+            return;
+        }
+        mSearchQuery = query;
+        fetchCallsToSearch();
+        showCalls();
+    }
+
+    /** Stops searching the calls and shows all of them again. */
+    private void stopSearch() {
+        if (mSearchQuery == null) {
+            return;
+        }
+        final boolean hadQuery = !TextUtils.isEmpty(mSearchQuery);
+        mSearchQuery = null;
+        if (hadQuery) {
+            showCalls();
+        }
+    }
+
+    /** Fetches the calls not fetched yet, if any, so that the search covers the whole call log. */
+    private void fetchCallsToSearch() {
+        if (!TextUtils.isEmpty(mSearchQuery)) {
+            mCallLogQueryHandler.fetchMoreOldCalls(SEARCH_FETCH_PAGE_SIZE);
+        }
+    }
+
     /**
      * Called by {@link CallLogQueryHandler} after a successful query to voicemail status provider.
      */
@@ -169,8 +269,23 @@ public class CallLogFragment extends ListFragment implements ViewPagerVisibility
         String currentCountryIso = ContactsUtils.getCurrentCountryIso(getActivity());
         mAdapter = new CallLogAdapter(getActivity(), this,
                 new ContactInfoHelper(getActivity(), currentCountryIso));
+        mSearchIndex = new CallLogSearchIndex(getActivity());
         setListAdapter(mAdapter);
         getListView().setItemsCanFocus(true);
+        getListView().setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                if (totalItemCount > 0 && firstVisibleItem + visibleItemCount
+                        >= totalItemCount - FETCH_MORE_CALLS_THRESHOLD) {
+                    mCallLogQueryHandler.fetchMoreOldCalls();
+                }
+            }
+        });
     }
 
     @Override
@@ -238,15 +353,29 @@ public class CallLogFragment extends ListFragment implements ViewPagerVisibility
         super.onDestroy();
         mAdapter.stopRequestProcessing();
         mAdapter.changeCursor(null);
+        MoreCloseables.closeQuietly(mCallsCursor);
+        mCallsCursor = null;
     }
 
+    /**
+     * Also prints the statistics of the caller-id lookups, for instance with
+     * {@code adb shell dumpsys activity com.android.contacts/.activities.DialtactsActivity}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        CallerIdStatistics.getInstance().dump(prefix, writer);
+        writer.print(prefix); writer.print("  contact info cache: ");
+        writer.println(mAdapter.getContactInfoCacheStats());
+    }
+
+    /**
+     * Called by the adapter when the call log changes: only the calls added since the last fetch
+     * are fetched, unless the whole list needs to be fetched again.
+     */
     @Override
     public void fetchCalls() {
-        if (mShowingVoicemailOnly) {
-            mCallLogQueryHandler.fetchVoicemailOnly();
-        } else {
-            mCallLogQueryHandler.fetchAllCalls();
-        }
+        mCallLogQueryHandler.refreshCalls();
     }
 
     public void startCallsQuery() {
@@ -267,7 +396,45 @@ public class CallLogFragment extends ListFragment implements ViewPagerVisibility
         super.onCreateOptionsMenu(menu, inflater);
         if (mShowOptionsMenu) {
             inflater.inflate(R.menu.call_log_options, menu);
+            prepareSearchMenuItem(menu.findItem(R.id.search_calls));
+        }
+    }
+
+    /** Binds the search view of the given menu item to the search of the calls. */
+    private void prepareSearchMenuItem(MenuItem searchItem) {
+        final SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.hint_findCalls));
+        // The menu may be created again while searching: keep searching.
+        final String searchQuery = mSearchQuery;
+        if (searchQuery != null) {
+            searchItem.expandActionView();
+            searchView.setQuery(searchQuery, false);
         }
+        searchView.setOnQueryTextListener(new OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                setSearchQuery(newText);
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                startSearch();
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                stopSearch();
+                return true;
+            }
+        });
     }
 
     @Override
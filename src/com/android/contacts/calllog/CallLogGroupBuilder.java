@@ -23,6 +23,8 @@ import android.database.Cursor;
 import android.provider.CallLog.Calls;
 import android.telephony.PhoneNumberUtils;
 
+import java.util.Arrays;
+
 /**
  * Groups together calls in the call log.
  * <p>
@@ -33,6 +35,191 @@ public class CallLogGroupBuilder {
         public void addGroup(int cursorPosition, int size, boolean expanded);
     }
 
+    /**
+     * The groups of adjacent entries found in a cursor.
+     * <p>
+     * All groups are unexpanded.
+     * <p>
+     * Instances are not modified once returned by {@link CallLogGroupBuilder}, so they can be
+     * safely handed over to another thread.
+     */
+    public static final class GroupTable {
+        /** The number of rows in the cursor the groups were computed for. */
+        private int mRowCount;
+        /** The position of the first entry of each group. */
+        private int[] mPositions;
+        /** The size of each group. */
+        private int[] mSizes;
+        /** The number of groups. */
+        private int mGroupCount;
+        /**
+         * The position of the first entry of the last run of entries that could be grouped
+         * together: it might still grow if more rows are added at the end of the cursor.
+         */
+        private int mLastRunStart;
+        /**
+         * The number of the first entry of the last run, which the rows added at the end of the
+         * cursor are compared with, or null if the last run is empty.
+         */
+        private NumberKey mLastRunNumber;
+        /** The type of the first call of the last run. */
+        private int mLastRunCallType;
+
+        private GroupTable() {
+            mPositions = new int[16];
+            mSizes = new int[16];
+        }
+
+        /** Returns a copy of this table without the groups starting at or after the position. */
+        private GroupTable copyBefore(int position) {
+            GroupTable copy = new GroupTable();
+            copy.mPositions = Arrays.copyOf(mPositions, mPositions.length);
+            copy.mSizes = Arrays.copyOf(mSizes, mSizes.length);
+            copy.mGroupCount = mGroupCount;
+            while (copy.mGroupCount > 0 && copy.mPositions[copy.mGroupCount - 1] >= position) {
+                copy.mGroupCount--;
+            }
+            return copy;
+        }
+
+        private void add(int cursorPosition, int size) {
+            if (mGroupCount == mPositions.length) {
+                mPositions = Arrays.copyOf(mPositions, mGroupCount * 2);
+                mSizes = Arrays.copyOf(mSizes, mGroupCount * 2);
+            }
+            mPositions[mGroupCount] = cursorPosition;
+            mSizes[mGroupCount] = size;
+            mGroupCount++;
+        }
+
+        /**
+         * Returns the position of the first row of the run of rows containing the given one,
+         * i.e., the position of the group it belongs to, or the row itself if it is not grouped.
+         */
+        private int getRunStart(int position) {
+            // Find the last group starting at or before the position.
+            int low = 0;
+            int high = mGroupCount - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (mPositions[middle] <= position) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            if (high >= 0 && position < mPositions[high] + mSizes[high]) {
+                return mPositions[high];
+            }
+            return position;
+        }
+
+        /** Returns the number of rows in the cursor these groups were computed for. */
+        public int getRowCount() {
+            return mRowCount;
+        }
+
+        /** Returns the number of groups. */
+        public int getGroupCount() {
+            return mGroupCount;
+        }
+
+        /**
+         * Creates the groups on the given {@link GroupCreator}.
+         *
+         * @see CallLogAdapter#addGroup(int, int, boolean)
+         */
+        public void addTo(GroupCreator groupCreator) {
+            for (int i = 0; i < mGroupCount; ++i) {
+                groupCreator.addGroup(mPositions[i], mSizes[i], false);
+            }
+        }
+    }
+
+    /**
+     * A number from the call log, with the information needed to compare it cheaply with other
+     * numbers.
+     * <p>
+     * Comparing two phone numbers with {@link PhoneNumberUtils#compare(String, String)} is
+     * expensive. Instead, the dialable characters of each number are extracted once: numbers with
+     * the same dialable characters are always equal, and numbers whose last {@link #MIN_MATCH}
+     * dialable characters differ never are. Only the remaining pairs, e.g., the same number with
+     * and without the country code, are compared with
+     * {@link PhoneNumberUtils#compare(String, String)}.
+     * <p>
+     * This does not hold for the numbers with post-dial characters, which
+     * {@link PhoneNumberUtils#compare(String, String)} ignores, or with wildcards, which match any
+     * digit: these are always compared with {@link PhoneNumberUtils#compare(String, String)}.
+     */
+    private static final class NumberKey {
+        /**
+         * The minimum number of trailing dialable characters which must match for two phone
+         * numbers to be considered equal, as in {@link PhoneNumberUtils#compare(String, String)}.
+         */
+        private static final int MIN_MATCH = 7;
+
+        private final String mNumber;
+        private final boolean mIsSipAddress;
+        /** The dialable characters of the number, null for SIP addresses and null numbers. */
+        private final String mDialable;
+        /** The last {@link #MIN_MATCH} characters of {@link #mDialable}. */
+        private final String mTail;
+        /** Whether the number has pause, wait or wildcard characters. */
+        private final boolean mHasSpecialCharacters;
+
+        public NumberKey(String number) {
+            mNumber = number;
+            mIsSipAddress = PhoneNumberUtils.isUriNumber(number);
+            if (number == null || mIsSipAddress) {
+                mDialable = null;
+                mTail = null;
+                mHasSpecialCharacters = false;
+            } else {
+                final int length = number.length();
+                final StringBuilder dialable = new StringBuilder(length);
+                boolean hasSpecialCharacters = false;
+                for (int i = 0; i < length; ++i) {
+                    final char c = number.charAt(i);
+                    if (c == PhoneNumberUtils.PAUSE || c == PhoneNumberUtils.WAIT
+                            || c == PhoneNumberUtils.WILD) {
+                        hasSpecialCharacters = true;
+                    }
+                    if (PhoneNumberUtils.isDialable(c)) {
+                        dialable.append(c);
+                    }
+                }
+                mDialable = dialable.toString();
+                mTail = mDialable.substring(Math.max(0, mDialable.length() - MIN_MATCH));
+                mHasSpecialCharacters = hasSpecialCharacters;
+            }
+        }
+
+        /** Returns true if the two numbers should be considered the same for grouping. */
+        public boolean matches(NumberKey other) {
+            if (mNumber == null || other.mNumber == null) {
+                return mNumber == other.mNumber;
+            }
+            if (mNumber.length() == 0 || other.mNumber.length() == 0) {
+                // As in PhoneNumberUtils#compare, an empty number does not match any number, so
+                // that private and unknown calls are not grouped.
+                return false;
+            }
+            if (mIsSipAddress || other.mIsSipAddress) {
+                return compareSipAddressesInternal(mNumber, other.mNumber);
+            }
+            if (mHasSpecialCharacters || other.mHasSpecialCharacters) {
+                return PhoneNumberUtils.compare(mNumber, other.mNumber);
+            }
+            if (mDialable.equals(other.mDialable)) {
+                return true;
+            }
+            if (!mTail.equals(other.mTail)) {
+                return false;
+            }
+            return PhoneNumberUtils.compare(mNumber, other.mNumber);
+        }
+    }
+
     /** The object on which the groups are created. */
     private final GroupCreator mGroupCreator;
 
@@ -52,28 +239,241 @@ public class CallLogGroupBuilder {
      * @see GroupingListAdapter#addGroups(Cursor)
      */
     public void addGroups(Cursor cursor) {
+        buildGroupTable(cursor).addTo(mGroupCreator);
+    }
+
+    /**
+     * Finds all groups of adjacent entries in the call log which should be grouped together.
+     * <p>
+     * This does not need a {@link GroupCreator}, so it can run on a background thread before the
+     * cursor is handed to the adapter, which then only has to replay the groups with
+     * {@link GroupTable#addTo(GroupCreator)}.
+     * <p>
+     * Each number is converted once into a {@link NumberKey}, which makes comparing it with the
+     * number of the first entry in the current group cheap in most cases.
+     * <p>
+     * It assumes that the cursor will not change during its execution.
+     */
+    public static GroupTable buildGroupTable(Cursor cursor) {
+        final GroupTable groups = new GroupTable();
+        addGroups(groups, cursor, 0, 0, null);
+        return groups;
+    }
+
+    /**
+     * Extends the groups computed for a cursor to the same rows followed by additional ones, such
+     * as the next page of the call log.
+     * <p>
+     * Only the additional rows are read: the last run of entries of the previous cursor, which
+     * might continue in them, is known from the groups. This makes it possible to extend the
+     * groups on a background thread while the previous cursor is in use on the main thread.
+     *
+     * @param groups the groups computed for the previous rows; it is not modified
+     * @param addedRows the rows following the previous ones
+     * @return the groups for the previous rows followed by the added ones, whose positions
+     *         start at {@link GroupTable#getRowCount()} of {@code groups}
+     */
+    public static GroupTable extendGroupTable(GroupTable groups, Cursor addedRows) {
+        final GroupTable extended = groups.copyBefore(groups.mLastRunStart);
+        if (groups.mLastRunNumber == null) {
+            addGroups(extended, addedRows, groups.mRowCount, 0, null);
+        } else {
+            addedRows.moveToPosition(-1);
+            continueGroups(extended, addedRows, groups.mRowCount, groups.mLastRunNumber,
+                    groups.mLastRunCallType, groups.mRowCount - groups.mLastRunStart, null);
+        }
+        return extended;
+    }
+
+    /**
+     * Updates the groups computed for a cursor to a new cursor containing the same rows with
+     * additional ones inserted at the given positions, such as new calls at the top of each
+     * section.
+     * <p>
+     * Only the rows around each insertion are examined: the groups are recomputed from the start
+     * of the run of rows preceding the inserted ones until a run of rows starts at the same row as
+     * before the insertion, after which the previous groups are simply shifted.
+     *
+     * @param groups the groups computed for the cursor before the insertions; it is not modified
+     * @param cursor the cursor with the inserted rows
+     * @param positions the position in {@code cursor} of the first row of each insertion, in
+     *        increasing order
+     * @param counts the number of rows of each insertion
+     * @return the groups for the whole cursor
+     */
+    public static GroupTable insertRows(GroupTable groups, Cursor cursor, int[] positions,
+            int[] counts) {
+        final Insertions insertions = new Insertions(groups, positions, counts);
+        final GroupTable result = new GroupTable();
+        // The position, in the new cursor, up to which the groups are known.
+        int position = 0;
+        // The index of the next previous group to copy.
+        int groupIndex = 0;
+        for (int i = 0; i < positions.length; ++i) {
+            if (positions[i] + counts[i] <= position) {
+                // Already recomputed with a previous insertion.
+                continue;
+            }
+            final int dirtyStart = Math.max(position, insertions.getDirtyStart(i));
+            // The rows before are unchanged, only shifted by the rows inserted before them.
+            while (groupIndex < groups.mGroupCount
+                    && insertions.toNewPosition(groups.mPositions[groupIndex]) < dirtyStart) {
+                if (insertions.toNewPosition(groups.mPositions[groupIndex]) >= position) {
+                    result.add(insertions.toNewPosition(groups.mPositions[groupIndex]),
+                            groups.mSizes[groupIndex]);
+                }
+                groupIndex++;
+            }
+            position = addGroups(result, cursor, 0, dirtyStart, insertions.after(i));
+        }
         final int count = cursor.getCount();
-        if (count == 0) {
-            return;
+        if (position < count) {
+            // Copy the groups after the last recomputed run, which are unchanged.
+            for (; groupIndex < groups.mGroupCount; ++groupIndex) {
+                final int groupPosition = insertions.toNewPosition(groups.mPositions[groupIndex]);
+                if (groupPosition >= position) {
+                    result.add(groupPosition, groups.mSizes[groupIndex]);
+                }
+            }
+            result.mRowCount = count;
+            result.mLastRunStart = insertions.toNewPosition(groups.mLastRunStart);
+            result.mLastRunNumber = groups.mLastRunNumber;
+            result.mLastRunCallType = groups.mLastRunCallType;
         }
+        return result;
+    }
+
+    /** Decides where the grouping of rows may stop because the following groups are known. */
+    private interface StopCondition {
+        /** Returns true if the groups starting at the given position are known. */
+        public boolean canStopAt(int position);
+    }
+
+    /** Maps the rows of a cursor to the rows of a cursor with additional rows inserted. */
+    private static final class Insertions {
+        private final GroupTable mGroups;
+        private final int[] mPositions;
+        private final int[] mCounts;
 
-        int currentGroupSize = 1;
-        cursor.moveToFirst();
-        // The number of the first entry in the group.
-        String firstNumber = cursor.getString(CallLogQuery.NUMBER);
-        // This is the type of the first call in the group.
-        int firstCallType = cursor.getInt(CallLogQuery.CALL_TYPE);
+        public Insertions(GroupTable groups, int[] positions, int[] counts) {
+            if (positions.length != counts.length) {
+                throw new IllegalArgumentException("positions and counts differ in length");
+            }
+            mGroups = groups;
+            mPositions = positions;
+            mCounts = counts;
+        }
+
+        /** Returns the position of a previous row after the insertions. */
+        public int toNewPosition(int oldPosition) {
+            int shift = 0;
+            for (int i = 0; i < mPositions.length && mPositions[i] <= oldPosition + shift; ++i) {
+                shift += mCounts[i];
+            }
+            return oldPosition + shift;
+        }
+
+        /**
+         * Returns the position of a row after the insertions before it, or -1 if the row is one
+         * of the inserted rows.
+         */
+        public int toOldPosition(int newPosition) {
+            int shift = 0;
+            for (int i = 0; i < mPositions.length && mPositions[i] <= newPosition; ++i) {
+                if (newPosition < mPositions[i] + mCounts[i]) {
+                    return -1;
+                }
+                shift += mCounts[i];
+            }
+            return newPosition - shift;
+        }
+
+        /**
+         * Returns the position from which the groups must be recomputed for the given insertion,
+         * i.e., the start of the run of previous rows just before it.
+         */
+        public int getDirtyStart(int insertion) {
+            final int position = mPositions[insertion];
+            if (position == 0) {
+                return 0;
+            }
+            final int oldPosition = toOldPosition(position - 1);
+            if (oldPosition == -1) {
+                // Just after another insertion.
+                return position;
+            }
+            return toNewPosition(mGroups.getRunStart(oldPosition));
+        }
+
+        /**
+         * Returns the condition to stop recomputing groups after the given insertion: a previous
+         * row, after the insertion, which was the first of its run of rows.
+         */
+        public StopCondition after(final int insertion) {
+            final int end = mPositions[insertion] + mCounts[insertion];
+            return new StopCondition() {
+                @Override
+                public boolean canStopAt(int position) {
+                    if (position < end) {
+                        return false;
+                    }
+                    final int oldPosition = toOldPosition(position);
+                    return oldPosition != -1 && mGroups.getRunStart(oldPosition) == oldPosition;
+                }
+            };
+        }
+    }
+
+    /**
+     * Finds the groups of adjacent entries in the cursor starting at the given position, which is
+     * assumed to be the first of its group, and adds them to the table.
+     *
+     * @param offset the position of the first row of the cursor among the rows being grouped
+     * @param stopCondition if not null, the grouping stops at the first row starting a run of rows
+     *        for which it is true, without updating the row count of the table
+     * @return the position at which the grouping stopped, among the rows being grouped
+     */
+    private static int addGroups(GroupTable groups, Cursor cursor, int offset, int startPosition,
+            StopCondition stopCondition) {
+        final int count = cursor.getCount();
+        if (count <= startPosition) {
+            groups.mRowCount = offset + count;
+            groups.mLastRunStart = offset + startPosition;
+            groups.mLastRunNumber = null;
+            return offset + count;
+        }
+
+        cursor.moveToPosition(startPosition);
+        return continueGroups(groups, cursor, offset,
+                new NumberKey(cursor.getString(CallLogQuery.NUMBER)),
+                cursor.getInt(CallLogQuery.CALL_TYPE), 1, stopCondition);
+    }
+
+    /**
+     * Finds the groups of adjacent entries in the cursor after its current position, which is the
+     * last row of the current run of entries, and adds them to the table.
+     *
+     * @param offset the position of the first row of the cursor among the rows being grouped
+     * @param firstNumber the number of the first entry of the current run
+     * @param firstCallType the type of the first call of the current run
+     * @param currentGroupSize the number of entries in the current run so far
+     * @param stopCondition if not null, the grouping stops at the first row starting a run of rows
+     *        for which it is true, without updating the row count of the table
+     * @return the position at which the grouping stopped, among the rows being grouped
+     */
+    private static int continueGroups(GroupTable groups, Cursor cursor, int offset,
+            NumberKey firstNumber, int firstCallType, int currentGroupSize,
+            StopCondition stopCondition) {
         while (cursor.moveToNext()) {
             // The number of the current row in the cursor.
-            final String currentNumber = cursor.getString(CallLogQuery.NUMBER);
+            final NumberKey currentNumber = new NumberKey(cursor.getString(CallLogQuery.NUMBER));
             final int callType = cursor.getInt(CallLogQuery.CALL_TYPE);
-            final boolean sameNumber = equalNumbers(firstNumber, currentNumber);
             final boolean shouldGroup;
 
             if (CallLogQuery.isSectionHeader(cursor)) {
                 // Cannot group headers.
                 shouldGroup = false;
-            } else if (!sameNumber) {
+            } else if (!firstNumber.matches(currentNumber)) {
                 // Should only group with calls from the same number.
                 shouldGroup = false;
             } else if (firstCallType == Calls.VOICEMAIL_TYPE
@@ -92,8 +492,12 @@ public class CallLogGroupBuilder {
             } else {
                 // Create a group for the previous set of calls, excluding the current one, but do
                 // not create a group for a single call.
+                final int position = offset + cursor.getPosition();
                 if (currentGroupSize > 1) {
-                    addGroup(cursor.getPosition() - currentGroupSize, currentGroupSize);
+                    groups.add(position - currentGroupSize, currentGroupSize);
+                }
+                if (stopCondition != null && stopCondition.canStopAt(position)) {
+                    return position;
                 }
                 // Start a new group; it will include at least the current call.
                 currentGroupSize = 1;
@@ -102,34 +506,29 @@ public class CallLogGroupBuilder {
                 firstCallType = callType;
             }
         }
+        final int count = offset + cursor.getCount();
         // If the last set of calls at the end of the call log was itself a group, create it now.
         if (currentGroupSize > 1) {
-            addGroup(count - currentGroupSize, currentGroupSize);
+            groups.add(count - currentGroupSize, currentGroupSize);
         }
-    }
-
-    /**
-     * Creates a group of items in the cursor.
-     * <p>
-     * The group is always unexpanded.
-     *
-     * @see CallLogAdapter#addGroup(int, int, boolean)
-     */
-    private void addGroup(int cursorPosition, int size) {
-        mGroupCreator.addGroup(cursorPosition, size, false);
+        groups.mRowCount = count;
+        groups.mLastRunStart = count - currentGroupSize;
+        groups.mLastRunNumber = firstNumber;
+        groups.mLastRunCallType = firstCallType;
+        return count;
     }
 
     @VisibleForTesting
     boolean equalNumbers(String number1, String number2) {
-        if (PhoneNumberUtils.isUriNumber(number1) || PhoneNumberUtils.isUriNumber(number2)) {
-            return compareSipAddresses(number1, number2);
-        } else {
-            return PhoneNumberUtils.compare(number1, number2);
-        }
+        return new NumberKey(number1).matches(new NumberKey(number2));
     }
 
     @VisibleForTesting
     boolean compareSipAddresses(String number1, String number2) {
+        return compareSipAddressesInternal(number1, number2);
+    }
+
+    private static boolean compareSipAddressesInternal(String number1, String number2) {
         if (number1 == null || number2 == null) return number1 == number2;
 
         int index1 = number1.indexOf('@');
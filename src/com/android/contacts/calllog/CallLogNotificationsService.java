@@ -16,11 +16,17 @@
 
 package com.android.contacts.calllog;
 
+import android.app.AlarmManager;
 import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
+import javax.annotation.concurrent.GuardedBy;
+
 /**
  * Provides operations for managing notifications.
  * <p>
@@ -32,6 +38,12 @@ import android.util.Log;
  * may include an optional extra {@link #EXTRA_NEW_VOICEMAIL_URI}, containing the URI of the new
  * voicemail that has triggered this update (if any).</li>
  * </ul>
+ * <p>
+ * Updates of the notifications are coalesced: all the requests received while an update is
+ * waiting to run are served by that single update, and the notification is rebuilt at most once
+ * every {@link #UPDATE_NOTIFICATIONS_DEBOUNCE_MILLIS}. A request received sooner than that is
+ * served by an update scheduled with an alarm at the end of the interval, so that the worker
+ * thread is not blocked in the meantime.
  */
 public class CallLogNotificationsService extends IntentService {
     private static final String TAG = "CallLogNotificationsService";
@@ -56,8 +68,25 @@ public class CallLogNotificationsService extends IntentService {
      */
     public static final String EXTRA_NEW_VOICEMAIL_URI = "NEW_VOICEMAIL_URI";
 
+    /** The minimum time in millis between two updates of the notifications. */
+    private static final long UPDATE_NOTIFICATIONS_DEBOUNCE_MILLIS = 1000;
+
     private CallLogQueryHandler mCallLogQueryHandler;
 
+    /** Guards the state of the pending updates of the notifications. */
+    private final Object mUpdateLock = new Object();
+    /** The number of update requests received so far. */
+    @GuardedBy("mUpdateLock")
+    private int mRequestedUpdates;
+    /** The number of update requests received before the start of the last update. */
+    @GuardedBy("mUpdateLock")
+    private int mServedUpdates;
+    /** The URI of the most recent new voicemail not yet notified about, or null. */
+    @GuardedBy("mUpdateLock")
+    private Uri mPendingVoicemailUri;
+    /** The time of the last update of the notifications, only used on the worker thread. */
+    private long mLastUpdateTimeMillis;
+
     public CallLogNotificationsService() {
         super("CallLogNotificationsService");
     }
@@ -68,15 +97,86 @@ public class CallLogNotificationsService extends IntentService {
         mCallLogQueryHandler = new CallLogQueryHandler(getContentResolver(), null /*listener*/);
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Record the request as soon as it is received, so that an update which is already queued
+        // also serves it.
+        if (intent != null && ACTION_UPDATE_NOTIFICATIONS.equals(intent.getAction())) {
+            Uri voicemailUri = (Uri) intent.getParcelableExtra(EXTRA_NEW_VOICEMAIL_URI);
+            synchronized (mUpdateLock) {
+                ++mRequestedUpdates;
+                if (voicemailUri != null) {
+                    mPendingVoicemailUri = voicemailUri;
+                }
+            }
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
         if (ACTION_MARK_NEW_VOICEMAILS_AS_OLD.equals(intent.getAction())) {
             mCallLogQueryHandler.markNewVoicemailsAsOld();
         } else if (ACTION_UPDATE_NOTIFICATIONS.equals(intent.getAction())) {
-            Uri voicemailUri = (Uri) intent.getParcelableExtra(EXTRA_NEW_VOICEMAIL_URI);
-            DefaultVoicemailNotifier.getInstance(this).updateNotification(voicemailUri);
+            updateNotifications();
         } else {
             Log.d(TAG, "onHandleIntent: could not handle: " + intent);
         }
     }
+
+    /**
+     * Updates the notifications, unless this request was already served by a previous update, or
+     * schedules the update if the last one is too recent.
+     * <p>
+     * Called on the worker thread.
+     */
+    private void updateNotifications() {
+        synchronized (mUpdateLock) {
+            if (mServedUpdates == mRequestedUpdates) {
+                return;
+            }
+        }
+
+        final long delayMillis = mLastUpdateTimeMillis + UPDATE_NOTIFICATIONS_DEBOUNCE_MILLIS
+                - SystemClock.elapsedRealtime();
+        if (delayMillis > 0) {
+            // Update at the end of the debounce window instead: the requests received in the
+            // meantime are served by that update.
+            final Uri voicemailUri;
+            synchronized (mUpdateLock) {
+                mServedUpdates = mRequestedUpdates;
+                voicemailUri = mPendingVoicemailUri;
+            }
+            scheduleUpdate(delayMillis, voicemailUri);
+            return;
+        }
+
+        final Uri voicemailUri;
+        synchronized (mUpdateLock) {
+            mServedUpdates = mRequestedUpdates;
+            voicemailUri = mPendingVoicemailUri;
+            mPendingVoicemailUri = null;
+        }
+        mLastUpdateTimeMillis = SystemClock.elapsedRealtime();
+        DefaultVoicemailNotifier.getInstance(this).updateNotification(voicemailUri);
+    }
+
+    /**
+     * Schedules an update of the notifications after the given delay.
+     * <p>
+     * The alarm replaces any alarm previously scheduled, and carries the URI of the most recent
+     * new voicemail not yet notified about, if any, in case the service is stopped until then.
+     */
+    private void scheduleUpdate(long delayMillis, Uri voicemailUri) {
+        Intent intent = new Intent(ACTION_UPDATE_NOTIFICATIONS, null, this,
+                CallLogNotificationsService.class);
+        if (voicemailUri != null) {
+            intent.putExtra(EXTRA_NEW_VOICEMAIL_URI, voicemailUri);
+        }
+        PendingIntent pendingIntent =
+                PendingIntent.getService(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + delayMillis, pendingIntent);
+    }
 }
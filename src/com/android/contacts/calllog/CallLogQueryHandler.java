@@ -24,6 +24,7 @@ import android.content.AsyncQueryHandler;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.database.MatrixCursor;
 import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabaseCorruptException;
@@ -38,12 +39,26 @@ import android.provider.VoicemailContract.Status;
 import android.util.Log;
 
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.concurrent.GuardedBy;
 
-/** Handles asynchronous queries to the call log. */
+/**
+ * Handles asynchronous queries to the call log.
+ * <p>
+ * The call log is loaded in pages: the new calls and the first {@link #OLD_CALLS_PAGE_SIZE} old
+ * calls are fetched first, and further pages of old calls are fetched with
+ * {@link #fetchMoreOldCalls()}, using the date and id of the last old call fetched so far as the
+ * starting point of the next page. Each page is appended to the cursor passed to the
+ * {@link Listener}, and the groups of calls are only extended, not recomputed.
+ * <p>
+ * When the call log changes, {@link #refreshCalls()} fetches the calls passed to the listener
+ * again, and compares them with those on the worker thread. Nothing is passed to the listener if
+ * none of them changed, and the groups are only updated around the calls added at the top of
+ * their section. They are only recomputed if calls were removed or moved to another section.
+ */
 /*package*/ class CallLogQueryHandler extends AsyncQueryHandler {
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
@@ -62,6 +77,19 @@ import javax.annotation.concurrent.GuardedBy;
 
     /** The token for the query to fetch voicemail status messages. */
     private static final int QUERY_VOICEMAIL_STATUS_TOKEN = 58;
+    /** The token for the query to fetch the next page of old entries from the call log. */
+    private static final int QUERY_MORE_OLD_CALLS_TOKEN = 59;
+    /** The token for the query to fetch the new entries again when the call log changes. */
+    private static final int QUERY_REFRESHED_NEW_CALLS_TOKEN = 60;
+    /** The token for the query to fetch the old entries fetched so far again. */
+    private static final int QUERY_REFRESHED_OLD_CALLS_TOKEN = 61;
+
+    /** The number of old calls fetched by each query. */
+    private static final int OLD_CALLS_PAGE_SIZE = 100;
+
+    /** The sort order of the old calls, which must match the selection used to page them. */
+    private static final String OLD_CALLS_SORT_ORDER =
+            Calls.DEFAULT_SORT_ORDER + ", " + Calls._ID + " DESC";
 
     /**
      * The time window from the current time within which an unread entry will be added to the new
@@ -76,6 +104,198 @@ import javax.annotation.concurrent.GuardedBy;
     /** The cursor containing the old calls, or null if they have not yet been fetched. */
     @GuardedBy("this") private Cursor mOldCallsCursor;
 
+    /**
+     * The handler running on the worker thread of this query handler.
+     * <p>
+     * It is set in {@link #createHandler(Looper)}, which is called by the super-class constructor,
+     * therefore it must not have an initializer.
+     */
+    private Handler mWorkerHandler;
+
+    /**
+     * Identifies the current fetch: it is incremented every time a new fetch starts, so that the
+     * results of a previous one can be discarded.
+     * <p>
+     * Only accessed from the main thread.
+     */
+    private int mFetchId;
+
+    /** Whether the current fetch only includes voicemails. Only accessed from the main thread. */
+    private boolean mVoicemailOnly;
+    /** The maximum number of old calls in the first page of the current fetch. */
+    @GuardedBy("this") private int mOldCallsLimit;
+    /** Whether there might be old calls after the last one fetched. */
+    @GuardedBy("this") private boolean mHasMoreOldCalls;
+    /** Whether a page of old calls is being fetched, until it is appended. */
+    @GuardedBy("this") private boolean mFetchingMoreOldCalls;
+    /** The maximum number of old calls in the page being fetched. */
+    @GuardedBy("this") private int mMoreOldCallsLimit;
+    /** The date of the last old call fetched. */
+    @GuardedBy("this") private long mLastOldCallDate;
+    /** The id of the last old call fetched. */
+    @GuardedBy("this") private long mLastOldCallId;
+
+    /**
+     * The cursor last passed to the listener, or null if it has been closed.
+     * <p>
+     * Its parts are shared with the cursor built when the next page is fetched.
+     */
+    @GuardedBy("this") private CallsCursor mDeliveredCursor;
+
+    /**
+     * Identifies the current refresh, so that the results of a previous one can be discarded.
+     * <p>
+     * Only accessed from the main thread.
+     */
+    private int mRefreshId;
+    /** The cursor the current refresh compares the calls it fetches with. */
+    @GuardedBy("this") private CallsCursor mRefreshedCursor;
+    /** The new calls fetched by the current refresh, or null if not yet fetched. */
+    @GuardedBy("this") private Cursor mRefreshedNewCallsCursor;
+    /** The old calls fetched by the current refresh, or null if not yet fetched. */
+    @GuardedBy("this") private Cursor mRefreshedOldCallsCursor;
+
+    /**
+     * A cursor which does not close the cursor it wraps, because it is shared by several
+     * {@link CallsCursor}s.
+     */
+    private static final class SharedCursor extends CursorWrapper {
+        public SharedCursor(Cursor cursor) {
+            super(cursor);
+        }
+
+        @Override
+        public void close() {
+            // The cursor is closed by the CallsCursor owning it.
+        }
+    }
+
+    /**
+     * The cursor passed to the listener, made of the headers and pages of calls fetched so far.
+     * <p>
+     * When the next page is fetched, a new cursor is created with the same pages and the new
+     * one: the pages are only closed once no cursor passed to the listener uses them.
+     */
+    private final class CallsCursor extends MergeCursor {
+        /** The fetch this cursor belongs to. */
+        public final int fetchId;
+        /** The pages of new calls, most recent first. */
+        public final List<Cursor> newCalls;
+        /** The pages of old calls, most recent first. */
+        public final List<Cursor> oldCalls;
+        /** The headers and pages of calls making up this cursor. */
+        public final List<Cursor> parts;
+        /** The number of new calls in this cursor. */
+        public final int newCallCount;
+        /** The number of old calls in this cursor. */
+        public final int oldCallCount;
+        /** The summary of the new calls in this cursor, or null if it is not known. */
+        public CallsSummary newCallsSummary;
+        /** The summary of the old calls in this cursor, or null if it is not known. */
+        public CallsSummary oldCallsSummary;
+        /** The groups of calls in this cursor, or null if they are not known. */
+        public CallLogGroupBuilder.GroupTable groups;
+
+        public CallsCursor(int fetchId, List<Cursor> newCalls, List<Cursor> oldCalls,
+                int newCallCount, int oldCallCount, List<Cursor> parts) {
+            super(wrap(parts));
+            this.fetchId = fetchId;
+            this.newCalls = newCalls;
+            this.oldCalls = oldCalls;
+            this.parts = parts;
+            this.newCallCount = newCallCount;
+            this.oldCallCount = oldCallCount;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            onCallsCursorClosed(this);
+        }
+    }
+
+    private static Cursor[] wrap(List<Cursor> parts) {
+        final Cursor[] cursors = new Cursor[parts.size()];
+        for (int i = 0; i < cursors.length; ++i) {
+            cursors[i] = new SharedCursor(parts.get(i));
+        }
+        return cursors;
+    }
+
+    /** Returns the total number of rows in the given cursors. */
+    private static int getCount(List<Cursor> cursors) {
+        int count = 0;
+        for (Cursor cursor : cursors) {
+            count += cursor.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * The ids of the calls in a section of a {@link CallsCursor}, in order, and a hash of their
+     * content, which tell a refresh whether, and how, the section changed.
+     * <p>
+     * It is immutable, so that it can be used on the worker thread while the cursor is in use.
+     */
+    private static final class CallsSummary {
+        public static final CallsSummary EMPTY = new CallsSummary(new long[0], 0);
+
+        private final long[] mIds;
+        private final int mContentHash;
+
+        private CallsSummary(long[] ids, int contentHash) {
+            mIds = ids;
+            mContentHash = contentHash;
+        }
+
+        /** Returns the summary of the calls in the given pages. */
+        public static CallsSummary of(List<Cursor> pages) {
+            CallsSummary summary = EMPTY;
+            for (Cursor page : pages) {
+                summary = summary.append(page);
+            }
+            return summary;
+        }
+
+        /** Returns the summary of these calls followed by those in the given cursor. */
+        public CallsSummary append(Cursor calls) {
+            final long[] ids = Arrays.copyOf(mIds, mIds.length + calls.getCount());
+            int contentHash = mContentHash;
+            calls.moveToPosition(-1);
+            while (calls.moveToNext()) {
+                ids[mIds.length + calls.getPosition()] = calls.getLong(CallLogQuery.ID);
+                for (int column = 0; column < CallLogQuery._PROJECTION.length; ++column) {
+                    final String value = calls.getString(column);
+                    contentHash = 31 * contentHash + (value == null ? 0 : value.hashCode());
+                }
+            }
+            return new CallsSummary(ids, contentHash);
+        }
+
+        /** Returns true if the given summary, which can be null, is of the same calls. */
+        public boolean isSameAs(CallsSummary other) {
+            return other != null && mContentHash == other.mContentHash
+                    && Arrays.equals(mIds, other.mIds);
+        }
+
+        /**
+         * Returns the number of calls before those of the given summary, or -1 if these calls
+         * are not the given ones with calls added at the top.
+         */
+        public int getAddedCountBefore(CallsSummary previous) {
+            if (previous == null || mIds.length < previous.mIds.length) {
+                return -1;
+            }
+            final int addedCount = mIds.length - previous.mIds.length;
+            for (int i = 0; i < previous.mIds.length; ++i) {
+                if (mIds[addedCount + i] != previous.mIds[i]) {
+                    return -1;
+                }
+            }
+            return addedCount;
+        }
+    }
+
     /**
      * Simple handler that wraps background calls to catch
      * {@link SQLiteException}, such as when the disk is full.
@@ -103,7 +323,8 @@ import javax.annotation.concurrent.GuardedBy;
     @Override
     protected Handler createHandler(Looper looper) {
         // Provide our special handler that catches exceptions
-        return new CatchingWorkerHandler(looper);
+        mWorkerHandler = new CatchingWorkerHandler(looper);
+        return mWorkerHandler;
     }
 
     public CallLogQueryHandler(ContentResolver contentResolver, Listener listener) {
@@ -140,10 +361,7 @@ import javax.annotation.concurrent.GuardedBy;
      * It will asynchronously update the content of the list view when the fetch completes.
      */
     public void fetchAllCalls() {
-        cancelFetch();
-        invalidate();
-        fetchCalls(QUERY_NEW_CALLS_TOKEN, true /*isNew*/, false /*voicemailOnly*/);
-        fetchCalls(QUERY_OLD_CALLS_TOKEN, false /*isNew*/, false /*voicemailOnly*/);
+        fetchCalls(false /*voicemailOnly*/);
     }
 
     /**
@@ -152,27 +370,148 @@ import javax.annotation.concurrent.GuardedBy;
      * It will asynchronously update the content of the list view when the fetch completes.
      */
     public void fetchVoicemailOnly() {
-        cancelFetch();
-        invalidate();
-        fetchCalls(QUERY_NEW_CALLS_TOKEN, true /*isNew*/, true /*voicemailOnly*/);
-        fetchCalls(QUERY_OLD_CALLS_TOKEN, false /*isNew*/, true /*voicemailOnly*/);
+        fetchCalls(true /*voicemailOnly*/);
     }
 
+    /**
+     * Fetches the next page of old calls, if any, and appends it to the calls passed to the
+     * listener.
+     * <p>
+     * It does nothing if the last old call has already been fetched, or if a page or the whole
+     * list of calls is already being fetched.
+     */
+    public void fetchMoreOldCalls() {
+        fetchMoreOldCalls(OLD_CALLS_PAGE_SIZE);
+    }
+
+    /**
+     * Fetches the next page of old calls, as {@link #fetchMoreOldCalls()}, but with the given
+     * number of calls, e.g., to bring in the whole call log faster.
+     */
+    public synchronized void fetchMoreOldCalls(int pageSize) {
+        if (!mHasMoreOldCalls || mFetchingMoreOldCalls || mDeliveredCursor == null
+                || mDeliveredCursor.fetchId != mFetchId) {
+            return;
+        }
+        mFetchingMoreOldCalls = true;
+        mMoreOldCallsLimit = pageSize;
+        fetchOldCalls(QUERY_MORE_OLD_CALLS_TOKEN, mVoicemailOnly, pageSize, true);
+    }
+
+    /**
+     * Updates the calls passed to the listener after the call log has changed.
+     * <p>
+     * The new calls, and the old calls up to the last one passed to the listener, are fetched
+     * again, so that the calls already passed to the listener are updated as well as the calls
+     * added to the call log. If no calls have been passed to the listener yet, the whole list is
+     * fetched again, as by {@link #fetchAllCalls()} or {@link #fetchVoicemailOnly()}.
+     */
+    public void refreshCalls() {
+        final CallsCursor refreshedCursor;
+        synchronized (this) {
+            refreshedCursor = mDeliveredCursor;
+        }
+        if (refreshedCursor == null || refreshedCursor.fetchId != mFetchId
+                || refreshedCursor.groups == null) {
+            fetchCalls(mVoicemailOnly);
+            return;
+        }
+        cancelRefresh();
+        resetRefresh();
+        synchronized (this) {
+            mRefreshedCursor = refreshedCursor;
+        }
+
+        List<String> selectionArgs = Lists.newArrayList();
+        String selection = createSelection(true /*isNew*/, mVoicemailOnly, selectionArgs);
+        startQuery(QUERY_REFRESHED_NEW_CALLS_TOKEN, mRefreshId, Calls.CONTENT_URI_WITH_VOICEMAIL,
+                CallLogQuery._PROJECTION, selection, selectionArgs.toArray(EMPTY_STRING_ARRAY),
+                Calls.DEFAULT_SORT_ORDER);
+        selectionArgs = Lists.newArrayList();
+        selection = createSelection(false /*isNew*/, mVoicemailOnly, selectionArgs);
+        synchronized (this) {
+            if (mHasMoreOldCalls) {
+                // Only the old calls up to the last one fetched.
+                selection = String.format("(%s) AND (%s > ? OR (%s = ? AND %s >= ?))",
+                        selection, Calls.DATE, Calls.DATE, Calls._ID);
+                selectionArgs.add(Long.toString(mLastOldCallDate));
+                selectionArgs.add(Long.toString(mLastOldCallDate));
+                selectionArgs.add(Long.toString(mLastOldCallId));
+            }
+        }
+        startQuery(QUERY_REFRESHED_OLD_CALLS_TOKEN, mRefreshId, Calls.CONTENT_URI_WITH_VOICEMAIL,
+                CallLogQuery._PROJECTION, selection, selectionArgs.toArray(EMPTY_STRING_ARRAY),
+                OLD_CALLS_SORT_ORDER);
+    }
 
     public void fetchVoicemailStatus() {
         startQuery(QUERY_VOICEMAIL_STATUS_TOKEN, null, Status.CONTENT_URI,
                 VoicemailStatusHelperImpl.PROJECTION, null, null, null);
     }
 
-    /** Fetches the list of calls in the call log, either the new one or the old ones. */
-    private void fetchCalls(int token, boolean isNew, boolean voicemailOnly) {
+    /** Fetches the new calls and the first page of old calls. */
+    private void fetchCalls(boolean voicemailOnly) {
+        // When refreshing the same list, fetch at least as many old calls as are already shown,
+        // so that the list does not shrink under the user.
+        int limit = OLD_CALLS_PAGE_SIZE;
+        synchronized (this) {
+            if (voicemailOnly == mVoicemailOnly && mDeliveredCursor != null) {
+                limit = Math.max(limit, mDeliveredCursor.oldCallCount);
+            }
+        }
+        cancelFetch();
+        cancelRefresh();
+        invalidate();
+        mVoicemailOnly = voicemailOnly;
+        synchronized (this) {
+            mOldCallsLimit = limit;
+        }
+        final List<String> selectionArgs = Lists.newArrayList();
+        final String selection = createSelection(true /*isNew*/, voicemailOnly, selectionArgs);
+        startQuery(QUERY_NEW_CALLS_TOKEN, mFetchId, Calls.CONTENT_URI_WITH_VOICEMAIL,
+                CallLogQuery._PROJECTION, selection, selectionArgs.toArray(EMPTY_STRING_ARRAY),
+                Calls.DEFAULT_SORT_ORDER);
+        fetchOldCalls(QUERY_OLD_CALLS_TOKEN, voicemailOnly, limit, false);
+    }
+
+    /**
+     * Fetches a page of old calls.
+     *
+     * @param limit the maximum number of calls to fetch
+     * @param afterLastOldCall whether to only fetch the calls after the last old call fetched
+     */
+    private void fetchOldCalls(int token, boolean voicemailOnly, int limit,
+            boolean afterLastOldCall) {
+        final List<String> selectionArgs = Lists.newArrayList();
+        String selection = createSelection(false /*isNew*/, voicemailOnly, selectionArgs);
+        if (afterLastOldCall) {
+            // Calls are sorted by date, then id, so this is where the previous page stopped.
+            selection = String.format("(%s) AND (%s < ? OR (%s = ? AND %s < ?))",
+                    selection, Calls.DATE, Calls.DATE, Calls._ID);
+            synchronized (this) {
+                selectionArgs.add(Long.toString(mLastOldCallDate));
+                selectionArgs.add(Long.toString(mLastOldCallDate));
+                selectionArgs.add(Long.toString(mLastOldCallId));
+            }
+        }
+        // The call log provider appends the sort order to its query as is.
+        startQuery(token, mFetchId, Calls.CONTENT_URI_WITH_VOICEMAIL, CallLogQuery._PROJECTION,
+                selection, selectionArgs.toArray(EMPTY_STRING_ARRAY),
+                OLD_CALLS_SORT_ORDER + " LIMIT " + limit);
+    }
+
+    /**
+     * Returns the selection for either the new calls or the old ones, adding its arguments to
+     * the given list.
+     */
+    private String createSelection(boolean isNew, boolean voicemailOnly,
+            List<String> selectionArgs) {
         // We need to check for NULL explicitly otherwise entries with where READ is NULL
         // may not match either the query or its negation.
         // We consider the calls that are not yet consumed (i.e. IS_READ = 0) as "new".
         String selection = String.format("%s IS NOT NULL AND %s = 0 AND %s > ?",
                 Calls.IS_READ, Calls.IS_READ, Calls.DATE);
-        List<String> selectionArgs = Lists.newArrayList(
-                Long.toString(System.currentTimeMillis() - NEW_SECTION_TIME_WINDOW));
+        selectionArgs.add(Long.toString(System.currentTimeMillis() - NEW_SECTION_TIME_WINDOW));
         if (!isNew) {
             // Negate the query.
             selection = String.format("NOT (%s)", selection);
@@ -182,15 +521,20 @@ import javax.annotation.concurrent.GuardedBy;
             selection = String.format("(%s) AND (%s = ?)", selection, Calls.TYPE);
             selectionArgs.add(Integer.toString(Calls.VOICEMAIL_TYPE));
         }
-        startQuery(token, null, Calls.CONTENT_URI_WITH_VOICEMAIL,
-                CallLogQuery._PROJECTION, selection, selectionArgs.toArray(EMPTY_STRING_ARRAY),
-                Calls.DEFAULT_SORT_ORDER);
+        return selection;
+    }
+
+    /** Cancel any pending refresh request. */
+    private void cancelRefresh() {
+        cancelOperation(QUERY_REFRESHED_NEW_CALLS_TOKEN);
+        cancelOperation(QUERY_REFRESHED_OLD_CALLS_TOKEN);
     }
 
     /** Cancel any pending fetch request. */
     private void cancelFetch() {
         cancelOperation(QUERY_NEW_CALLS_TOKEN);
         cancelOperation(QUERY_OLD_CALLS_TOKEN);
+        cancelOperation(QUERY_MORE_OLD_CALLS_TOKEN);
     }
 
     /** Updates all new calls to mark them as old. */
@@ -244,22 +588,59 @@ import javax.annotation.concurrent.GuardedBy;
      * This method is synchronized because it must close the cursors and reset them atomically.
      */
     private synchronized void invalidate() {
+        mFetchId++;
         MoreCloseables.closeQuietly(mNewCallsCursor);
         MoreCloseables.closeQuietly(mOldCallsCursor);
         mNewCallsCursor = null;
         mOldCallsCursor = null;
+        mHasMoreOldCalls = false;
+        mFetchingMoreOldCalls = false;
+        resetRefresh();
+    }
+
+    /** Discards the results of the current refresh, if any. */
+    private synchronized void resetRefresh() {
+        mRefreshId++;
+        MoreCloseables.closeQuietly(mRefreshedNewCallsCursor);
+        MoreCloseables.closeQuietly(mRefreshedOldCallsCursor);
+        mRefreshedNewCallsCursor = null;
+        mRefreshedOldCallsCursor = null;
+        mRefreshedCursor = null;
     }
 
     @Override
     protected synchronized void onQueryComplete(int token, Object cookie, Cursor cursor) {
+        final boolean isCallsQuery = token == QUERY_NEW_CALLS_TOKEN
+                || token == QUERY_OLD_CALLS_TOKEN || token == QUERY_MORE_OLD_CALLS_TOKEN;
+        if (isCallsQuery && !Integer.valueOf(mFetchId).equals(cookie)) {
+            // The results of a previous fetch, which has been superseded.
+            MoreCloseables.closeQuietly(cursor);
+            return;
+        }
+        final boolean isRefreshQuery = token == QUERY_REFRESHED_NEW_CALLS_TOKEN
+                || token == QUERY_REFRESHED_OLD_CALLS_TOKEN;
+        if (isRefreshQuery) {
+            if (!Integer.valueOf(mRefreshId).equals(cookie)) {
+                // The results of a previous refresh, which has been superseded.
+                MoreCloseables.closeQuietly(cursor);
+                return;
+            }
+            onRefreshQueryComplete(token, cursor);
+            return;
+        }
+
         if (token == QUERY_NEW_CALLS_TOKEN) {
             // Store the returned cursor.
             mNewCallsCursor = new ExtendedCursor(
                     cursor, CallLogQuery.SECTION_NAME, CallLogQuery.SECTION_NEW_ITEM);
         } else if (token == QUERY_OLD_CALLS_TOKEN) {
+            updateOldCallsPaging(cursor, mOldCallsLimit);
             // Store the returned cursor.
             mOldCallsCursor = new ExtendedCursor(
                     cursor, CallLogQuery.SECTION_NAME, CallLogQuery.SECTION_OLD_ITEM);
+        } else if (token == QUERY_MORE_OLD_CALLS_TOKEN) {
+            appendOldCalls(cursor);
+            return;
         } else if (token == QUERY_VOICEMAIL_STATUS_TOKEN) {
             updateVoicemailStatus(cursor);
             return;
@@ -269,33 +650,326 @@ import javax.annotation.concurrent.GuardedBy;
         }
 
         if (mNewCallsCursor != null && mOldCallsCursor != null) {
-            updateAdapterData(createMergedCursor());
+            groupAndUpdateAdapterData(createMergedCursor());
+        }
+    }
+
+    /** Stores the result of one of the refresh queries, and applies the refresh once complete. */
+    @GuardedBy("this")
+    private void onRefreshQueryComplete(int token, Cursor cursor) {
+        if (cursor == null) {
+            // The query failed: fall back to fetching the whole list.
+            resetRefresh();
+            fetchCalls(mVoicemailOnly);
+            return;
+        }
+        if (token == QUERY_REFRESHED_NEW_CALLS_TOKEN) {
+            mRefreshedNewCallsCursor = new ExtendedCursor(
+                    cursor, CallLogQuery.SECTION_NAME, CallLogQuery.SECTION_NEW_ITEM);
+        } else {
+            mRefreshedOldCallsCursor = new ExtendedCursor(
+                    cursor, CallLogQuery.SECTION_NAME, CallLogQuery.SECTION_OLD_ITEM);
+        }
+        if (mRefreshedNewCallsCursor != null && mRefreshedOldCallsCursor != null) {
+            final CallsCursor previous = mRefreshedCursor;
+            final Cursor newCalls = mRefreshedNewCallsCursor;
+            final Cursor oldCalls = mRefreshedOldCallsCursor;
+            // The cursors are now owned by the worker thread.
+            mRefreshedNewCallsCursor = null;
+            mRefreshedOldCallsCursor = null;
+            resetRefresh();
+            groupRefreshedCalls(previous, newCalls, oldCalls);
+        }
+    }
+
+    /**
+     * Compares the calls fetched by a refresh with those of the given cursor and groups them on
+     * the worker thread, then passes them to the listener on the main thread if they changed.
+     */
+    private void groupRefreshedCalls(final CallsCursor previous, final Cursor newCalls,
+            final Cursor oldCalls) {
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                CallsCursor callsCursor;
+                try {
+                    callsCursor = createRefreshedCursor(previous, newCalls, oldCalls);
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "Exception on background worker thread", e);
+                    MoreCloseables.closeQuietly(newCalls);
+                    MoreCloseables.closeQuietly(oldCalls);
+                    callsCursor = null;
+                }
+                final CallsCursor finalCallsCursor = callsCursor;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCallsRefreshed(previous, finalCallsCursor);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Creates the cursor made of the calls fetched by a refresh, and computes its groups.
+     * <p>
+     * This runs on the worker thread, so the given cursor, which is in use on the main thread,
+     * is only known through its summaries and groups.
+     *
+     * @return the refreshed cursor, or the given one if none of its calls changed
+     */
+    private CallsCursor createRefreshedCursor(CallsCursor previous, Cursor newCalls,
+            Cursor oldCalls) {
+        final CallsSummary newCallsSummary = CallsSummary.EMPTY.append(newCalls);
+        final CallsSummary oldCallsSummary = CallsSummary.EMPTY.append(oldCalls);
+        if (newCallsSummary.isSameAs(previous.newCallsSummary)
+                && oldCallsSummary.isSameAs(previous.oldCallsSummary)) {
+            newCalls.close();
+            oldCalls.close();
+            return previous;
+        }
+        final CallsCursor callsCursor =
+                createCallsCursor(previous.fetchId, pagesOf(newCalls), pagesOf(oldCalls));
+        callsCursor.newCallsSummary = newCallsSummary;
+        callsCursor.oldCallsSummary = oldCallsSummary;
+
+        final int addedNewCount = newCallsSummary.getAddedCountBefore(previous.newCallsSummary);
+        final int addedOldCount = oldCallsSummary.getAddedCountBefore(previous.oldCallsSummary);
+        final boolean hadNewCalls = previous.newCallCount != 0;
+        final boolean hadOldCalls = previous.oldCallCount != 0;
+        final boolean canSplice =
+                // No call was removed or moved to a different section.
+                addedNewCount != -1 && addedOldCount != -1
+                // The headers do not change.
+                && (hadNewCalls || addedNewCount == 0)
+                && (!hadNewCalls || hadOldCalls || addedOldCount == 0);
+        if (!canSplice) {
+            callsCursor.groups = CallLogGroupBuilder.buildGroupTable(callsCursor);
+            return callsCursor;
+        }
+        if (addedNewCount == 0 && addedOldCount == 0) {
+            // Only the content of some calls changed, e.g., their cached contact info, which
+            // does not affect the groups.
+            callsCursor.groups = previous.groups;
+            return callsCursor;
+        }
+
+        // The new calls are after the new calls header, the old calls after the old calls header
+        // if there are new calls, otherwise at the very top.
+        final int addedNewPosition = 1;
+        final int addedOldPosition =
+                hadNewCalls ? 1 + addedNewCount + previous.newCallCount + 1 : 0;
+        final int[] positions;
+        final int[] counts;
+        if (addedNewCount == 0) {
+            positions = new int[]{ addedOldPosition };
+            counts = new int[]{ addedOldCount };
+        } else if (addedOldCount == 0) {
+            positions = new int[]{ addedNewPosition };
+            counts = new int[]{ addedNewCount };
+        } else {
+            positions = new int[]{ addedNewPosition, addedOldPosition };
+            counts = new int[]{ addedNewCount, addedOldCount };
+        }
+        callsCursor.groups =
+                CallLogGroupBuilder.insertRows(previous.groups, callsCursor, positions, counts);
+        return callsCursor;
+    }
+
+    /**
+     * Passes the calls refreshed by {@link #groupRefreshedCalls} to the listener.
+     *
+     * @param callsCursor the refreshed cursor, the previous one if none of its calls changed, or
+     *        null if the refreshed calls could not be read
+     */
+    private synchronized void onCallsRefreshed(CallsCursor previous, CallsCursor callsCursor) {
+        if (callsCursor == previous) {
+            // Nothing changed.
+            return;
+        }
+        if (previous.fetchId != mFetchId || mDeliveredCursor == null) {
+            // A new fetch has started, or the calls are no longer shown.
+            if (callsCursor != null) {
+                discard(callsCursor);
+            }
+            return;
+        }
+        if (callsCursor == null) {
+            fetchCalls(mVoicemailOnly);
+            return;
+        }
+        if (previous != mDeliveredCursor) {
+            // Calls were passed to the listener in the meantime, refresh those instead.
+            discard(callsCursor);
+            refreshCalls();
+            return;
+        }
+        updateAdapterData(callsCursor, callsCursor.groups, 0);
+    }
+
+    /** Returns the given cursor as a list of pages, closing it if it is empty. */
+    private static List<Cursor> pagesOf(Cursor calls) {
+        final List<Cursor> pages = Lists.newArrayList();
+        if (calls.getCount() != 0) {
+            pages.add(calls);
+        } else {
+            calls.close();
+        }
+        return pages;
+    }
+
+    /**
+     * Records where the given page of old calls ends, and whether there might be more after it.
+     */
+    @GuardedBy("this")
+    private void updateOldCallsPaging(Cursor cursor, int limit) {
+        final int count = cursor == null ? 0 : cursor.getCount();
+        mHasMoreOldCalls = count >= limit;
+        if (count > 0 && cursor.moveToLast()) {
+            mLastOldCallDate = cursor.getLong(CallLogQuery.DATE);
+            mLastOldCallId = cursor.getLong(CallLogQuery.ID);
         }
     }
 
+    /** Appends a page of old calls to the cursor last passed to the listener. */
+    @GuardedBy("this")
+    private void appendOldCalls(Cursor cursor) {
+        final CallsCursor previous = mDeliveredCursor;
+        if (previous == null || previous.fetchId != mFetchId) {
+            mFetchingMoreOldCalls = false;
+            MoreCloseables.closeQuietly(cursor);
+            return;
+        }
+        if (cursor == null || cursor.getCount() == 0) {
+            mFetchingMoreOldCalls = false;
+            updateOldCallsPaging(cursor, mMoreOldCallsLimit);
+            MoreCloseables.closeQuietly(cursor);
+            return;
+        }
+        // If there are more old calls, the previous cursor already has some, and therefore the
+        // old calls header, if needed.
+        groupAndAppendOldCalls(previous, new ExtendedCursor(
+                cursor, CallLogQuery.SECTION_NAME, CallLogQuery.SECTION_OLD_ITEM));
+    }
+
+    /**
+     * Extends the groups of the given cursor with a page of old calls on the worker thread, then
+     * appends the page to the cursor and passes it to the listener on the main thread.
+     * <p>
+     * Only the page is read on the worker thread: the calls of the previous cursor, which is in
+     * use on the main thread, are only known through its groups. The paging is only updated once
+     * the page is appended, so that a refresh in the meantime does not include it.
+     */
+    private void groupAndAppendOldCalls(final CallsCursor previous, final Cursor page) {
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                CallsSummary oldCallsSummary = null;
+                CallLogGroupBuilder.GroupTable groups = null;
+                try {
+                    if (previous.groups != null) {
+                        oldCallsSummary = previous.oldCallsSummary.append(page);
+                        groups = CallLogGroupBuilder.extendGroupTable(previous.groups, page);
+                    }
+                } catch (SQLiteException e) {
+                    // The adapter will compute the groups itself.
+                    Log.w(TAG, "Exception on background worker thread", e);
+                    oldCallsSummary = null;
+                    groups = null;
+                }
+                final CallsSummary finalOldCallsSummary = oldCallsSummary;
+                final CallLogGroupBuilder.GroupTable finalGroups = groups;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onOldCallsGrouped(previous, page, finalOldCallsSummary, finalGroups);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Appends a page of old calls grouped by {@link #groupAndAppendOldCalls}. */
+    private synchronized void onOldCallsGrouped(CallsCursor previous, Cursor page,
+            CallsSummary oldCallsSummary, CallLogGroupBuilder.GroupTable groups) {
+        if (previous.fetchId != mFetchId || mDeliveredCursor == null) {
+            // A new fetch has started, or the calls are no longer shown.
+            mFetchingMoreOldCalls = false;
+            page.close();
+            return;
+        }
+        if (previous != mDeliveredCursor) {
+            // Calls were added by a refresh in the meantime: append the page to those instead.
+            groupAndAppendOldCalls(mDeliveredCursor, page);
+            return;
+        }
+        mFetchingMoreOldCalls = false;
+        updateOldCallsPaging(page, mMoreOldCallsLimit);
+        final List<Cursor> oldCalls = Lists.newArrayList(previous.oldCalls);
+        oldCalls.add(page);
+        final CallsCursor callsCursor = createCallsCursor(mFetchId, previous.newCalls, oldCalls);
+        callsCursor.newCallsSummary = previous.newCallsSummary;
+        callsCursor.oldCallsSummary = oldCallsSummary;
+        callsCursor.groups = groups;
+        // The page is appended after the rows of the previous cursor, which do not move.
+        updateAdapterData(callsCursor, groups, previous.getCount());
+    }
+
+    /**
+     * Groups the calls in the given cursor on the worker thread, then passes both the cursor and
+     * the groups to the listener on the main thread.
+     * <p>
+     * If another fetch starts in the meantime, the cursor is discarded.
+     */
+    private void groupAndUpdateAdapterData(final CallsCursor callsCursor) {
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                CallLogGroupBuilder.GroupTable groups;
+                try {
+                    callsCursor.newCallsSummary = CallsSummary.of(callsCursor.newCalls);
+                    callsCursor.oldCallsSummary = CallsSummary.of(callsCursor.oldCalls);
+                    groups = CallLogGroupBuilder.buildGroupTable(callsCursor);
+                } catch (SQLiteException e) {
+                    // The adapter will compute the groups itself.
+                    Log.w(TAG, "Exception on background worker thread", e);
+                    groups = null;
+                }
+                final CallLogGroupBuilder.GroupTable finalGroups = groups;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (callsCursor.fetchId != mFetchId) {
+                            // A new fetch has started, these calls are out of date.
+                            discard(callsCursor);
+                            return;
+                        }
+                        callsCursor.groups = finalGroups;
+                        updateAdapterData(callsCursor, finalGroups, 0);
+                    }
+                });
+            }
+        });
+    }
+
     /** Creates the merged cursor representing the data to show in the call log. */
     @GuardedBy("this")
-    private Cursor createMergedCursor() {
+    private CallsCursor createMergedCursor() {
         try {
-            final boolean hasNewCalls = mNewCallsCursor.getCount() != 0;
-            final boolean hasOldCalls = mOldCallsCursor.getCount() != 0;
-
-            if (!hasNewCalls) {
-                // Return only the old calls, without the header.
+            final List<Cursor> newCalls = Lists.newArrayList();
+            final List<Cursor> oldCalls = Lists.newArrayList();
+            if (mNewCallsCursor.getCount() != 0) {
+                newCalls.add(mNewCallsCursor);
+            } else {
                 MoreCloseables.closeQuietly(mNewCallsCursor);
-                return mOldCallsCursor;
             }
-
-            if (!hasOldCalls) {
-                // Return only the new calls.
+            if (mOldCallsCursor.getCount() != 0) {
+                oldCalls.add(mOldCallsCursor);
+            } else {
                 MoreCloseables.closeQuietly(mOldCallsCursor);
-                return new MergeCursor(
-                        new Cursor[]{ createNewCallsHeaderCursor(), mNewCallsCursor });
             }
-
-            return new MergeCursor(new Cursor[]{
-                    createNewCallsHeaderCursor(), mNewCallsCursor,
-                    createOldCallsHeaderCursor(), mOldCallsCursor});
+            return createCallsCursor(mFetchId, newCalls, oldCalls);
         } finally {
             // Any cursor still open is now owned, directly or indirectly, by the caller.
             mNewCallsCursor = null;
@@ -303,13 +977,76 @@ import javax.annotation.concurrent.GuardedBy;
         }
     }
 
+    /**
+     * Creates the cursor made of the given pages of new and old calls, with the section headers.
+     * <p>
+     * If there are no new calls, the old calls are shown without a header.
+     */
+    private CallsCursor createCallsCursor(int fetchId, List<Cursor> newCalls,
+            List<Cursor> oldCalls) {
+        final int newCallCount = getCount(newCalls);
+        final int oldCallCount = getCount(oldCalls);
+        final List<Cursor> parts = Lists.newArrayList();
+        if (newCallCount != 0) {
+            parts.add(createNewCallsHeaderCursor());
+            parts.addAll(newCalls);
+            if (oldCallCount != 0) {
+                parts.add(createOldCallsHeaderCursor());
+            }
+        }
+        parts.addAll(oldCalls);
+        return new CallsCursor(fetchId, newCalls, oldCalls, newCallCount, oldCallCount, parts);
+    }
+
     /**
      * Updates the adapter in the call log fragment to show the new cursor data.
+     *
+     * @param unchangedRowCount the number of rows at the start of the cursor which are the same
+     *        as in the cursor last passed to the listener
      */
-    private void updateAdapterData(Cursor combinedCursor) {
+    private void updateAdapterData(CallsCursor callsCursor,
+            CallLogGroupBuilder.GroupTable groups, int unchangedRowCount) {
         final Listener listener = mListener.get();
-        if (listener != null) {
-            listener.onCallsFetched(combinedCursor);
+        if (listener == null) {
+            discard(callsCursor);
+            return;
+        }
+        final CallsCursor previous;
+        synchronized (this) {
+            previous = mDeliveredCursor;
+            mDeliveredCursor = callsCursor;
+        }
+        // The listener closes the previous cursor, which does not release the parts it shares
+        // with the new one since it is no longer the delivered one.
+        listener.onCallsFetched(callsCursor, groups, unchangedRowCount);
+        if (previous != null) {
+            closePartsNotIn(previous.parts, callsCursor.parts);
+        }
+    }
+
+    /** Closes a cursor which was never passed to the listener. */
+    private synchronized void discard(CallsCursor callsCursor) {
+        closePartsNotIn(callsCursor.parts,
+                mDeliveredCursor == null ? null : mDeliveredCursor.parts);
+    }
+
+    /**
+     * Called when a {@link CallsCursor} is closed: if it is the last one passed to the listener,
+     * none of its parts are used anymore.
+     */
+    private synchronized void onCallsCursorClosed(CallsCursor callsCursor) {
+        if (callsCursor == mDeliveredCursor) {
+            mDeliveredCursor = null;
+            closePartsNotIn(callsCursor.parts, null);
+        }
+    }
+
+    /** Closes the given cursors, except those also in {@code inUse}, which can be null. */
+    private static void closePartsNotIn(List<Cursor> parts, List<Cursor> inUse) {
+        for (Cursor part : parts) {
+            if (inUse == null || !inUse.contains(part)) {
+                MoreCloseables.closeQuietly(part);
+            }
         }
     }
 
@@ -327,8 +1064,17 @@ import javax.annotation.concurrent.GuardedBy;
 
         /**
          * Called when {@link CallLogQueryHandler#fetchAllCalls()} or
-         * {@link CallLogQueryHandler#fetchVoicemailOnly()} complete.
+         * {@link CallLogQueryHandler#fetchVoicemailOnly()} complete, every time
+         * {@link CallLogQueryHandler#fetchMoreOldCalls()} appends a page of calls, and every time
+         * {@link CallLogQueryHandler#refreshCalls()} finds calls which changed.
+         *
+         * @param combinedCursor the calls to show
+         * @param groups the groups in the cursor, computed in the background, or null if they
+         *        could not be computed
+         * @param unchangedRowCount the number of rows at the start of the cursor which are the
+         *        same as in the previous cursor, e.g., when a page of old calls was appended
          */
-        void onCallsFetched(Cursor combinedCursor);
+        void onCallsFetched(Cursor combinedCursor, CallLogGroupBuilder.GroupTable groups,
+                int unchangedRowCount);
     }
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import com.google.common.collect.Maps;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An in-memory index of the calls shown in the call log, used to search them.
+ * <p>
+ * A call matches a query if a word of its cached name or of its date starts with the query, or
+ * if the digits of the query are part of its number.
+ * <p>
+ * The index is updated with each cursor shown in the call log: the calls already in the index
+ * are only identified by their id, and the other ones are read and added. When rows were only
+ * appended to the cursor last indexed, e.g., a page of old calls, only those are read. Searching
+ * never accesses the cursor, and a query which extends the previous one only examines the calls
+ * that matched the previous one.
+ */
+@NotThreadSafe
+/*package*/ final class CallLogSearchIndex {
+    /** The flags used to format the date of the calls. */
+    private static final int DATE_FORMAT_FLAGS = DateUtils.FORMAT_SHOW_DATE
+            | DateUtils.FORMAT_SHOW_YEAR | DateUtils.FORMAT_ABBREV_MONTH
+            | DateUtils.FORMAT_SHOW_WEEKDAY | DateUtils.FORMAT_ABBREV_WEEKDAY;
+
+    /** The searchable values of a call. */
+    private static final class Entry {
+        /** The id of the call. */
+        public final long id;
+        /** The cached name, in lower case, or the empty string. */
+        public final String name;
+        /** The digits of the number. */
+        public final String numberDigits;
+        /** The digits of the normalized number, or the empty string. */
+        public final String normalizedNumberDigits;
+        /** The date, formatted and in lower case. */
+        public final String date;
+
+        public Entry(long id, String name, String numberDigits, String normalizedNumberDigits,
+                String date) {
+            this.id = id;
+            this.name = name;
+            this.numberDigits = numberDigits;
+            this.normalizedNumberDigits = normalizedNumberDigits;
+            this.date = date;
+        }
+    }
+
+    private final Context mContext;
+
+    /** The entry of each row of the cursor last indexed, null for the section headers. */
+    private Entry[] mEntries = new Entry[0];
+    /** The entries of the cursor last indexed, by call id. */
+    private HashMap<Long, Entry> mEntriesById = Maps.newHashMap();
+    /** The formatted dates, by Julian day: most calls share their day with other calls. */
+    private final HashMap<Integer, String> mDatesByDay = Maps.newHashMap();
+
+    /** The last query, normalized, or null if there was none since the last update. */
+    private String mLastQuery;
+    /** Whether {@link #mLastQuery} contains a letter. */
+    private boolean mLastQueryHasLetter;
+    /** The digits of {@link #mLastQuery}, if it is a fragment of a number. */
+    private String mLastQueryDigits;
+    /** The positions of the calls matching {@link #mLastQuery}. */
+    private int[] mLastMatches;
+
+    public CallLogSearchIndex(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Indexes the calls in the given cursor, which uses {@link CallLogQuery#EXTENDED_PROJECTION}.
+     * <p>
+     * The position of the cursor is preserved.
+     */
+    public void update(Cursor cursor) {
+        update(cursor, 0);
+    }
+
+    /**
+     * Indexes the calls in the given cursor, as {@link #update(Cursor)}, knowing that its first
+     * rows are the same as those of the cursor last indexed, so that they are not read again.
+     *
+     * @param unchangedCount the number of rows at the start of the cursor which are the same as
+     *        in the cursor last indexed
+     */
+    public void update(Cursor cursor, int unchangedCount) {
+        final int count = cursor.getCount();
+        final int keptCount = Math.min(Math.min(unchangedCount, mEntries.length), count);
+        final Entry[] entries = new Entry[count];
+        System.arraycopy(mEntries, 0, entries, 0, keptCount);
+        final HashMap<Long, Entry> entriesById;
+        if (keptCount == mEntries.length) {
+            // Rows were only appended: the calls indexed so far are all kept.
+            entriesById = mEntriesById;
+        } else {
+            entriesById = Maps.newHashMap();
+            for (int position = 0; position < keptCount; ++position) {
+                if (entries[position] != null) {
+                    entriesById.put(entries[position].id, entries[position]);
+                }
+            }
+        }
+        final int savedPosition = cursor.getPosition();
+        for (int position = keptCount; position < count; ++position) {
+            if (!cursor.moveToPosition(position)) {
+                break;
+            }
+            if (CallLogQuery.isSectionHeader(cursor)) {
+                continue;
+            }
+            final long id = cursor.getLong(CallLogQuery.ID);
+            Entry entry = mEntriesById.get(id);
+            if (entry == null) {
+                entry = createEntry(cursor);
+            }
+            entries[position] = entry;
+            entriesById.put(id, entry);
+        }
+        cursor.moveToPosition(savedPosition);
+        mEntries = entries;
+        mEntriesById = entriesById;
+        mLastQuery = null;
+        mLastMatches = null;
+    }
+
+    /** Returns the number of calls in the index. */
+    public int size() {
+        return mEntriesById.size();
+    }
+
+    /**
+     * Returns the positions in the cursor last indexed of the calls matching the query, in
+     * increasing order.
+     */
+    public int[] search(String query) {
+        final String normalizedQuery = query.trim().toLowerCase(Locale.getDefault());
+        // Only a query without letters is a fragment of a number.
+        final boolean hasLetter = containsLetter(normalizedQuery);
+        final String queryDigits = hasLetter ? "" : getDigits(normalizedQuery);
+
+        // If the query extends the previous one, only the calls which matched it can match.
+        final int[] candidates;
+        final int candidateCount;
+        if (canNarrow(normalizedQuery, hasLetter)) {
+            candidates = mLastMatches;
+            candidateCount = mLastMatches.length;
+        } else {
+            candidates = null;
+            candidateCount = mEntries.length;
+        }
+
+        final int[] matches = new int[candidateCount];
+        int matchCount = 0;
+        for (int index = 0; index < candidateCount; ++index) {
+            final int position = candidates == null ? index : candidates[index];
+            final Entry entry = mEntries[position];
+            if (entry != null && matches(entry, normalizedQuery, queryDigits)) {
+                matches[matchCount++] = position;
+            }
+        }
+
+        mLastQuery = normalizedQuery;
+        mLastQueryHasLetter = hasLetter;
+        mLastQueryDigits = queryDigits;
+        mLastMatches = Arrays.copyOf(matches, matchCount);
+        return mLastMatches;
+    }
+
+    /**
+     * Returns whether the calls matching the given query are among those which matched the
+     * previous one.
+     * <p>
+     * This is only the case if the query extends the previous one, and the previous one was of
+     * the same kind: a query with neither letters nor digits, e.g., "+" or "(", matches almost no
+     * call, while the number fragments which extend it do.
+     */
+    private boolean canNarrow(String query, boolean hasLetter) {
+        if (mLastQuery == null || !query.startsWith(mLastQuery)) {
+            return false;
+        }
+        return mLastQueryHasLetter ? hasLetter : !hasLetter && mLastQueryDigits.length() > 0;
+    }
+
+    private static boolean matches(Entry entry, String query, String queryDigits) {
+        if (query.length() == 0) {
+            return true;
+        }
+        if (queryDigits.length() > 0 && (entry.numberDigits.contains(queryDigits)
+                || entry.normalizedNumberDigits.contains(queryDigits))) {
+            return true;
+        }
+        return containsWordStartingWith(entry.name, query)
+                || containsWordStartingWith(entry.date, query);
+    }
+
+    /** Returns whether the query is found at the start of one of the words of the text. */
+    private static boolean containsWordStartingWith(String text, String query) {
+        int index = text.indexOf(query);
+        while (index >= 0) {
+            if (index == 0 || !Character.isLetterOrDigit(text.charAt(index - 1))) {
+                return true;
+            }
+            index = text.indexOf(query, index + 1);
+        }
+        return false;
+    }
+
+    private Entry createEntry(Cursor cursor) {
+        final String name = cursor.getString(CallLogQuery.CACHED_NAME);
+        return new Entry(cursor.getLong(CallLogQuery.ID),
+                name == null ? "" : name.toLowerCase(Locale.getDefault()),
+                getDigits(cursor.getString(CallLogQuery.NUMBER)),
+                getDigits(cursor.getString(CallLogQuery.CACHED_NORMALIZED_NUMBER)),
+                getDate(cursor.getLong(CallLogQuery.DATE)));
+    }
+
+    /** Returns the formatted date of a call, formatting it once per day. */
+    private String getDate(long date) {
+        final long gmtOffsetSeconds = TimeZone.getDefault().getOffset(date) / 1000;
+        final int julianDay = Time.getJulianDay(date, gmtOffsetSeconds);
+        String formattedDate = mDatesByDay.get(julianDay);
+        if (formattedDate == null) {
+            formattedDate = DateUtils.formatDateTime(mContext, date, DATE_FORMAT_FLAGS)
+                    .toLowerCase(Locale.getDefault());
+            mDatesByDay.put(julianDay, formattedDate);
+        }
+        return formattedDate;
+    }
+
+    private static boolean containsLetter(String string) {
+        final int length = string.length();
+        for (int index = 0; index < length; ++index) {
+            if (Character.isLetter(string.charAt(index))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the digits in the given string, or the empty string if it is null. */
+    private static String getDigits(String string) {
+        if (string == null) {
+            return "";
+        }
+        final int length = string.length();
+        final StringBuilder digits = new StringBuilder(length);
+        for (int index = 0; index < length; ++index) {
+            final char c = string.charAt(index);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+}
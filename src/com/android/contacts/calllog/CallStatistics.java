@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import android.provider.CallLog.Calls;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The totals of the calls with a contact or a number.
+ */
+@Immutable
+public final class CallStatistics {
+    /** The number of incoming calls. */
+    public final int incomingCount;
+    /** The number of outgoing calls. */
+    public final int outgoingCount;
+    /** The number of missed calls. */
+    public final int missedCount;
+    /** The number of voicemails. */
+    public final int voicemailCount;
+    /** The total duration of the calls, in seconds. */
+    public final long totalDuration;
+    /** The number of calls which have a duration, i.e., the incoming and outgoing ones. */
+    public final int connectedCount;
+    /** The date of the last call, in millis since the epoch. */
+    public final long lastCallDate;
+
+    public CallStatistics(int incomingCount, int outgoingCount, int missedCount,
+            int voicemailCount, long totalDuration, long lastCallDate) {
+        this.incomingCount = incomingCount;
+        this.outgoingCount = outgoingCount;
+        this.missedCount = missedCount;
+        this.voicemailCount = voicemailCount;
+        this.totalDuration = totalDuration;
+        this.connectedCount = incomingCount + outgoingCount;
+        this.lastCallDate = lastCallDate;
+    }
+
+    /** Returns the number of calls of all types. */
+    public int getCallCount() {
+        return incomingCount + outgoingCount + missedCount + voicemailCount;
+    }
+
+    /** Returns the average duration of the incoming and outgoing calls, in seconds. */
+    public long getAverageDuration() {
+        return connectedCount == 0 ? 0 : totalDuration / connectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CallStatistics{incoming=" + incomingCount + ", outgoing=" + outgoingCount
+                + ", missed=" + missedCount + ", voicemail=" + voicemailCount
+                + ", totalDuration=" + totalDuration + ", lastCallDate=" + lastCallDate + "}";
+    }
+
+    /** Accumulates calls into {@link CallStatistics}. */
+    @NotThreadSafe
+    public static final class Builder {
+        private int mIncomingCount;
+        private int mOutgoingCount;
+        private int mMissedCount;
+        private int mVoicemailCount;
+        private long mTotalDuration;
+        private long mLastCallDate;
+
+        /**
+         * Adds a call.
+         *
+         * @param callType the type of the call, as in {@link Calls#TYPE}
+         * @param duration the duration of the call, in seconds
+         * @param date the date of the call, in millis since the epoch
+         */
+        public Builder addCall(int callType, long duration, long date) {
+            switch (callType) {
+                case Calls.INCOMING_TYPE:
+                    ++mIncomingCount;
+                    mTotalDuration += duration;
+                    break;
+                case Calls.OUTGOING_TYPE:
+                    ++mOutgoingCount;
+                    mTotalDuration += duration;
+                    break;
+                case Calls.MISSED_TYPE:
+                    ++mMissedCount;
+                    break;
+                case Calls.VOICEMAIL_TYPE:
+                    ++mVoicemailCount;
+                    break;
+                default:
+                    // An unknown type of call: it is not counted.
+                    return this;
+            }
+            mLastCallDate = Math.max(mLastCallDate, date);
+            return this;
+        }
+
+        /** Adds all the calls counted in the given statistics. */
+        public Builder addStatistics(CallStatistics statistics) {
+            mIncomingCount += statistics.incomingCount;
+            mOutgoingCount += statistics.outgoingCount;
+            mMissedCount += statistics.missedCount;
+            mVoicemailCount += statistics.voicemailCount;
+            mTotalDuration += statistics.totalDuration;
+            mLastCallDate = Math.max(mLastCallDate, statistics.lastCallDate);
+            return this;
+        }
+
+        public CallStatistics build() {
+            return new CallStatistics(mIncomingCount, mOutgoingCount, mMissedCount,
+                    mVoicemailCount, mTotalDuration, mLastCallDate);
+        }
+    }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import com.android.common.io.MoreCloseables;
+import com.android.contacts.util.Constants;
+import com.android.contacts.util.PhoneNumberFormatCache;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.CallLog.Calls;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Keeps the {@link CallStatistics} of each contact and each number in the call log.
+ * <p>
+ * The statistics are aggregated on a background thread. When the call log changes, only the calls
+ * added since the last update are read and added to the statistics; if calls were removed, e.g.,
+ * when the call log is cleared, all the calls are aggregated again.
+ * <p>
+ * The calls are aggregated by number; the statistics of a contact are those of the numbers whose
+ * calls are cached in the call log as calls with that contact. The cached contact of the calls
+ * already aggregated is read again on each update, together with their ids, which also tells
+ * whether calls were removed: the contact of a number is only determined again if the contact of
+ * one of its calls changed, e.g., when it was looked up and written back to the call log.
+ */
+@ThreadSafe
+public final class CallStatisticsEngine implements Handler.Callback {
+    private static final String TAG = "CallStatisticsEngine";
+
+    /** The delay in millis before updating the statistics after the call log changed. */
+    private static final long UPDATE_DELAY_MILLIS = 1000;
+
+    /** The message used to update the statistics. */
+    private static final int MESSAGE_UPDATE = 1;
+
+    private static final String[] PROJECTION = new String[] {
+            Calls._ID,
+            Calls.NUMBER,
+            Calls.COUNTRY_ISO,
+            Calls.TYPE,
+            Calls.DURATION,
+            Calls.DATE,
+            Calls.CACHED_LOOKUP_URI,
+    };
+    private static final int ID_COLUMN_INDEX = 0;
+    private static final int NUMBER_COLUMN_INDEX = 1;
+    private static final int COUNTRY_ISO_COLUMN_INDEX = 2;
+    private static final int TYPE_COLUMN_INDEX = 3;
+    private static final int DURATION_COLUMN_INDEX = 4;
+    private static final int DATE_COLUMN_INDEX = 5;
+    private static final int LOOKUP_URI_COLUMN_INDEX = 6;
+
+    private static final String[] CONTACT_PROJECTION = new String[] {
+            Calls._ID,
+            Calls.CACHED_LOOKUP_URI,
+    };
+    private static final int CONTACT_ID_COLUMN_INDEX = 0;
+    private static final int CONTACT_LOOKUP_URI_COLUMN_INDEX = 1;
+
+    /** Notified on the main thread when the statistics change. */
+    public interface Listener {
+        void onCallStatisticsChanged();
+    }
+
+    /** A call aggregated in the statistics. */
+    private static final class CallEntry {
+        /** The key of the number of the call, or null if it has no number. */
+        public final String numberKey;
+        /** The contact lookup URI cached in the call log for the call, or null. */
+        public String lookupUri;
+
+        public CallEntry(String numberKey, String lookupUri) {
+            this.numberKey = numberKey;
+            this.lookupUri = lookupUri;
+        }
+    }
+
+    /** The singleton instance of the engine. */
+    private static CallStatisticsEngine sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler;
+    private final CopyOnWriteArrayList<Listener> mListeners =
+            new CopyOnWriteArrayList<Listener>();
+
+    /** The statistics of each contact, by lookup key. */
+    @GuardedBy("this")
+    private HashMap<String, CallStatistics> mContactStatistics = Maps.newHashMap();
+    /** The statistics of each number, by number key. */
+    @GuardedBy("this")
+    private HashMap<String, CallStatistics> mNumberStatistics = Maps.newHashMap();
+
+    /** The calls of each number, by number key. Only accessed from the worker thread. */
+    private final HashMap<String, CallStatistics.Builder> mNumberBuilders = Maps.newHashMap();
+    /**
+     * The lookup key of the contact of each number, by number key. Only accessed from the worker
+     * thread.
+     */
+    private final HashMap<String, String> mLookupKeysByNumber = Maps.newHashMap();
+    /** The calls aggregated, by id. Only accessed from the worker thread. */
+    private final HashMap<Long, CallEntry> mCalls = Maps.newHashMap();
+    /** The id of the last call aggregated, or -1. Only accessed from the worker thread. */
+    private long mMaxCallId = -1;
+
+    private final Runnable mNotifyListeners = new Runnable() {
+        @Override
+        public void run() {
+            for (Listener listener : mListeners) {
+                listener.onCallStatisticsChanged();
+            }
+        }
+    };
+
+    /** Returns the process-wide instance of the engine. */
+    public static synchronized CallStatisticsEngine getInstance(Context context) {
+        if (sInstance == null) {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new CallStatisticsEngine(
+                    context.getApplicationContext().getContentResolver(), thread.getLooper());
+        }
+        return sInstance;
+    }
+
+    private CallStatisticsEngine(ContentResolver contentResolver, Looper looper) {
+        mContentResolver = contentResolver;
+        mWorkerHandler = new Handler(looper, this);
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mContentResolver.registerContentObserver(Calls.CONTENT_URI, true,
+                new ContentObserver(mWorkerHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        // Coalesce the changes of the call log which happen together.
+                        if (!mWorkerHandler.hasMessages(MESSAGE_UPDATE)) {
+                            mWorkerHandler.sendEmptyMessageDelayed(
+                                    MESSAGE_UPDATE, UPDATE_DELAY_MILLIS);
+                        }
+                    }
+                });
+        mWorkerHandler.sendEmptyMessage(MESSAGE_UPDATE);
+    }
+
+    /** Adds a listener notified on the main thread when the statistics change. */
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns the statistics of the calls with the given contact, or null if there are none or
+     * they have not been computed yet.
+     *
+     * @param contactLookupUri the lookup URI of the contact
+     */
+    public CallStatistics getStatisticsForContact(Uri contactLookupUri) {
+        final String lookupKey = getLookupKey(contactLookupUri);
+        if (lookupKey == null) {
+            return null;
+        }
+        synchronized (this) {
+            return mContactStatistics.get(lookupKey);
+        }
+    }
+
+    /**
+     * Returns the statistics of the calls with the given number, or null if there are none or
+     * they have not been computed yet.
+     */
+    public CallStatistics getStatisticsForNumber(String number, String countryIso) {
+        if (TextUtils.isEmpty(number)) {
+            return null;
+        }
+        final String key = getNumberKey(number, countryIso);
+        synchronized (this) {
+            return mNumberStatistics.get(key);
+        }
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        if (msg.what == MESSAGE_UPDATE) {
+            update();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the calls added to the call log since the last update to the statistics, and updates
+     * the contacts of the numbers whose calls are cached with a different contact.
+     */
+    private void update() {
+        final long startTime = SystemClock.elapsedRealtime();
+        // The numbers whose contact must be determined again.
+        final Set<String> contactNumbers = Sets.newHashSet();
+        final boolean reset;
+        if (mMaxCallId >= 0) {
+            final Boolean callsRemoved = updateCachedContacts(contactNumbers);
+            if (callsRemoved == null) {
+                return;
+            }
+            reset = callsRemoved;
+        } else {
+            reset = false;
+        }
+        if (reset) {
+            // Some calls were removed, aggregate all of them again.
+            mNumberBuilders.clear();
+            mLookupKeysByNumber.clear();
+            mCalls.clear();
+            mMaxCallId = -1;
+        }
+
+        final Set<String> changedNumbers = Sets.newHashSet();
+        Cursor cursor = null;
+        int addedCount = 0;
+        try {
+            cursor = mContentResolver.query(Calls.CONTENT_URI_WITH_VOICEMAIL, PROJECTION,
+                    Calls._ID + " > ?", new String[]{ Long.toString(mMaxCallId) },
+                    Calls._ID + " ASC");
+            if (cursor == null) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                addCall(cursor, changedNumbers, contactNumbers);
+                mMaxCallId = Math.max(mMaxCallId, cursor.getLong(ID_COLUMN_INDEX));
+                ++addedCount;
+            }
+        } finally {
+            MoreCloseables.closeQuietly(cursor);
+        }
+
+        final boolean contactsChanged = updateLookupKeys(contactNumbers);
+        if (reset || contactsChanged || !changedNumbers.isEmpty()) {
+            publish(reset, changedNumbers);
+            mMainHandler.post(mNotifyListeners);
+        }
+        if (Log.isLoggable(Constants.PERFORMANCE_TAG, Log.DEBUG)) {
+            Log.d(Constants.PERFORMANCE_TAG, "CallStatisticsEngine: added " + addedCount
+                    + " calls" + (reset ? " after reset" : "") + " in "
+                    + (SystemClock.elapsedRealtime() - startTime) + " ms");
+        }
+    }
+
+    /** Adds the call at the current position of the cursor to the builders. */
+    private void addCall(Cursor cursor, Set<String> changedNumbers, Set<String> contactNumbers) {
+        final int callType = cursor.getInt(TYPE_COLUMN_INDEX);
+        final long duration = cursor.getLong(DURATION_COLUMN_INDEX);
+        final long date = cursor.getLong(DATE_COLUMN_INDEX);
+        final String lookupUri = cursor.getString(LOOKUP_URI_COLUMN_INDEX);
+
+        final String number = cursor.getString(NUMBER_COLUMN_INDEX);
+        String key = null;
+        if (!TextUtils.isEmpty(number)) {
+            key = getNumberKey(number, cursor.getString(COUNTRY_ISO_COLUMN_INDEX));
+            getBuilder(mNumberBuilders, key).addCall(callType, duration, date);
+            changedNumbers.add(key);
+            if (lookupUri != null) {
+                contactNumbers.add(key);
+            }
+        }
+        mCalls.put(cursor.getLong(ID_COLUMN_INDEX), new CallEntry(key, lookupUri));
+    }
+
+    /**
+     * Reads the contact cached in the call log for the calls already aggregated, and adds the
+     * numbers of those whose contact changed to the given set.
+     *
+     * @return whether some of the calls were removed from the call log, or null if the call log
+     *         could not be read
+     */
+    private Boolean updateCachedContacts(Set<String> contactNumbers) {
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(Calls.CONTENT_URI_WITH_VOICEMAIL, CONTACT_PROJECTION,
+                    Calls._ID + " <= ?", new String[]{ Long.toString(mMaxCallId) }, null);
+            if (cursor == null) {
+                return null;
+            }
+            int remainingCount = 0;
+            while (cursor.moveToNext()) {
+                final CallEntry call = mCalls.get(cursor.getLong(CONTACT_ID_COLUMN_INDEX));
+                if (call == null) {
+                    continue;
+                }
+                ++remainingCount;
+                final String lookupUri = cursor.getString(CONTACT_LOOKUP_URI_COLUMN_INDEX);
+                if (!TextUtils.equals(lookupUri, call.lookupUri)) {
+                    call.lookupUri = lookupUri;
+                    if (call.numberKey != null) {
+                        contactNumbers.add(call.numberKey);
+                    }
+                }
+            }
+            return remainingCount != mCalls.size();
+        } finally {
+            MoreCloseables.closeQuietly(cursor);
+        }
+    }
+
+    /**
+     * Determines again the contact of the given numbers: if the calls with a number are cached
+     * with different contacts, the contact of the last call is used.
+     *
+     * @return whether the contact of any of the numbers changed
+     */
+    private boolean updateLookupKeys(Set<String> numbers) {
+        if (numbers.isEmpty()) {
+            return false;
+        }
+        final HashMap<String, String> lookupKeys = Maps.newHashMap();
+        final HashMap<String, Long> lastCallIds = Maps.newHashMap();
+        for (Map.Entry<Long, CallEntry> entry : mCalls.entrySet()) {
+            final CallEntry call = entry.getValue();
+            if (call.lookupUri == null || !numbers.contains(call.numberKey)) {
+                continue;
+            }
+            final Long lastCallId = lastCallIds.get(call.numberKey);
+            if (lastCallId != null && lastCallId > entry.getKey()) {
+                continue;
+            }
+            final String lookupKey = getLookupKey(Uri.parse(call.lookupUri));
+            if (lookupKey != null) {
+                lookupKeys.put(call.numberKey, lookupKey);
+                lastCallIds.put(call.numberKey, entry.getKey());
+            }
+        }
+        boolean changed = false;
+        for (String number : numbers) {
+            final String lookupKey = lookupKeys.get(number);
+            final String previousLookupKey = lookupKey == null
+                    ? mLookupKeysByNumber.remove(number)
+                    : mLookupKeysByNumber.put(number, lookupKey);
+            changed |= !TextUtils.equals(lookupKey, previousLookupKey);
+        }
+        return changed;
+    }
+
+    /**
+     * Makes the statistics of the given numbers, and of all the contacts, visible to the other
+     * threads.
+     */
+    private void publish(boolean reset, Set<String> changedNumbers) {
+        final HashMap<String, CallStatistics> numberStatistics;
+        synchronized (this) {
+            numberStatistics = reset
+                    ? Maps.<String, CallStatistics>newHashMap()
+                    : Maps.newHashMap(mNumberStatistics);
+        }
+        for (String key : changedNumbers) {
+            numberStatistics.put(key, mNumberBuilders.get(key).build());
+        }
+
+        // The contact of a number may have changed for all of its calls, so the statistics of the
+        // contacts are made again from those of their numbers.
+        final HashMap<String, CallStatistics.Builder> contactBuilders = Maps.newHashMap();
+        for (Map.Entry<String, String> entry : mLookupKeysByNumber.entrySet()) {
+            final CallStatistics statistics = numberStatistics.get(entry.getKey());
+            if (statistics != null) {
+                getBuilder(contactBuilders, entry.getValue()).addStatistics(statistics);
+            }
+        }
+        final HashMap<String, CallStatistics> contactStatistics = Maps.newHashMap();
+        for (Map.Entry<String, CallStatistics.Builder> entry : contactBuilders.entrySet()) {
+            contactStatistics.put(entry.getKey(), entry.getValue().build());
+        }
+
+        synchronized (this) {
+            mContactStatistics = contactStatistics;
+            mNumberStatistics = numberStatistics;
+        }
+    }
+
+    private static CallStatistics.Builder getBuilder(
+            Map<String, CallStatistics.Builder> builders, String key) {
+        CallStatistics.Builder builder = builders.get(key);
+        if (builder == null) {
+            builder = new CallStatistics.Builder();
+            builders.put(key, builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Returns the key of a number: its E164 form if known, so that the different ways of writing
+     * the same number are counted together, or the number itself.
+     * <p>
+     * The key only depends on the number and its country, and not on the cached columns of the
+     * call log, so that the calls with a number and the lookups by number agree on it.
+     */
+    private static String getNumberKey(String number, String countryIso) {
+        final String e164Number =
+                PhoneNumberFormatCache.getInstance().getE164Number(number, countryIso);
+        return e164Number == null ? number : e164Number;
+    }
+
+    /** Returns the lookup key in the given contact lookup URI, or null if there is none. */
+    private static String getLookupKey(Uri contactLookupUri) {
+        if (contactLookupUri == null) {
+            return null;
+        }
+        // The lookup URIs are of the form content://com.android.contacts/contacts/lookup/<key>/..
+        final List<String> segments = contactLookupUri.getPathSegments();
+        if (segments.size() < 3 || !"lookup".equals(segments.get(1))) {
+            return null;
+        }
+        return segments.get(2);
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import com.android.contacts.util.PhoneNumberFormatCache;
+import com.google.common.annotations.VisibleForTesting;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Process-wide counters and timers of the caller-id pipeline of the call log.
+ * <p>
+ * The rows bound by {@link CallLogAdapter} look up their contact in a memory cache and enqueue
+ * a request when it is missing or expired; the requests are resolved in the background by
+ * {@link ContactInfoHelper}, which queries the content providers, and the list is redrawn when
+ * the cache changed. This class keeps track of each of these steps so that the delay before names
+ * appear can be diagnosed in the field with {@code adb shell dumpsys activity}, see
+ * {@link CallLogFragment#dump}.
+ */
+@ThreadSafe
+/*package*/ final class CallerIdStatistics {
+    /** The upper bounds of the buckets of the latency histogram, in millis. */
+    private static final long[] LATENCY_BUCKETS_MILLIS = { 50, 100, 250, 500, 1000, 2000, 5000 };
+
+    /** The minimum time between two samples of the depth of the queue, in millis. */
+    private static final long QUEUE_DEPTH_SAMPLE_INTERVAL_MILLIS = 1000;
+    /** The number of samples of the depth of the queue which are kept. */
+    private static final int QUEUE_DEPTH_SAMPLES = 60;
+
+    private static CallerIdStatistics sInstance;
+
+    /** The rows which found a contact in the memory cache which was not expired. */
+    private final AtomicInteger mCacheHits = new AtomicInteger();
+    /** The rows which found an expired contact in the memory cache. */
+    private final AtomicInteger mCacheExpired = new AtomicInteger();
+    /** The rows which did not find a contact in the memory cache. */
+    private final AtomicInteger mCacheMisses = new AtomicInteger();
+
+    /** The requests offered to the queue, including the ones already pending. */
+    private final AtomicInteger mEnqueued = new AtomicInteger();
+    /** The requests resolved by the workers. */
+    private final AtomicInteger mResolved = new AtomicInteger();
+    /** The requests whose lookup failed. */
+    private final AtomicInteger mFailed = new AtomicInteger();
+    /** The total time between enqueuing and resolving the requests, in millis. */
+    private final AtomicLong mTotalLatencyMillis = new AtomicLong();
+    /** The longest time between enqueuing and resolving a request, in millis. */
+    @GuardedBy("this") private long mMaxLatencyMillis;
+    /** The number of requests for each bucket of {@link #LATENCY_BUCKETS_MILLIS}, and above. */
+    @GuardedBy("this")
+    private final int[] mLatencyHistogram = new int[LATENCY_BUCKETS_MILLIS.length + 1];
+
+    /** The calls to {@link ContactInfoHelper#lookupNumbers}. */
+    private final AtomicInteger mLookups = new AtomicInteger();
+    /** The numbers looked up by {@link ContactInfoHelper#lookupNumbers}. */
+    private final AtomicInteger mLookedUpNumbers = new AtomicInteger();
+    /** The queries sent to the content providers by {@link ContactInfoHelper}. */
+    private final AtomicInteger mProviderQueries = new AtomicInteger();
+
+    /** The times the call log was redrawn because the cache changed. */
+    private final AtomicInteger mRedraws = new AtomicInteger();
+
+    /** The depth of the queue when it was last sampled. */
+    @GuardedBy("this") private int mQueueDepth;
+    /** The deepest the queue has been. */
+    @GuardedBy("this") private int mMaxQueueDepth;
+    /** The recent samples of the depth of the queue, as a circular buffer. */
+    @GuardedBy("this") private final int[] mQueueDepths = new int[QUEUE_DEPTH_SAMPLES];
+    /** The times of the samples in {@link #mQueueDepths}, in millis since boot. */
+    @GuardedBy("this") private final long[] mQueueDepthTimes = new long[QUEUE_DEPTH_SAMPLES];
+    /** The number of samples of the depth of the queue taken so far. */
+    @GuardedBy("this") private int mQueueDepthSampleCount;
+
+    /** Returns the process-wide instance. */
+    public static synchronized CallerIdStatistics getInstance() {
+        if (sInstance == null) {
+            sInstance = new CallerIdStatistics();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    /*package*/ CallerIdStatistics() {}
+
+    /** Records the state of the memory cache for a row being bound. */
+    public void onCacheLookup(boolean found, boolean expired) {
+        if (!found) {
+            mCacheMisses.incrementAndGet();
+        } else if (expired) {
+            mCacheExpired.incrementAndGet();
+        } else {
+            mCacheHits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a request was offered to the queue.
+     *
+     * @param queueDepth the number of pending requests after offering it
+     */
+    public void onRequestEnqueued(int queueDepth) {
+        mEnqueued.incrementAndGet();
+        sampleQueueDepth(queueDepth);
+    }
+
+    /**
+     * Records that a worker removed requests from the queue to resolve them.
+     *
+     * @param queueDepth the number of pending requests after removing them
+     */
+    public void onRequestsDequeued(int queueDepth) {
+        sampleQueueDepth(queueDepth);
+    }
+
+    /**
+     * Records the current depth of the queue.
+     * <p>
+     * A sample is kept for each {@link #QUEUE_DEPTH_SAMPLE_INTERVAL_MILLIS} in which requests were
+     * enqueued or dequeued, holding the deepest the queue has been during the interval; since the
+     * workers sample it too, the intervals in which the queue drains are recorded with their lower
+     * depth, and the dump shows the depth it was left at.
+     */
+    private void sampleQueueDepth(int queueDepth) {
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            mQueueDepth = queueDepth;
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, queueDepth);
+            final int last = (mQueueDepthSampleCount - 1) % QUEUE_DEPTH_SAMPLES;
+            if (mQueueDepthSampleCount == 0
+                    || now - mQueueDepthTimes[last] >= QUEUE_DEPTH_SAMPLE_INTERVAL_MILLIS) {
+                final int next = mQueueDepthSampleCount % QUEUE_DEPTH_SAMPLES;
+                mQueueDepths[next] = queueDepth;
+                mQueueDepthTimes[next] = now;
+                ++mQueueDepthSampleCount;
+            } else {
+                // Keep the deepest the queue has been during the interval.
+                mQueueDepths[last] = Math.max(mQueueDepths[last], queueDepth);
+            }
+        }
+    }
+
+    /**
+     * Records that a request has been resolved.
+     *
+     * @param enqueueTimeMillis the time the request was first enqueued, in millis since boot
+     * @param succeeded false if the lookup failed
+     */
+    public void onRequestResolved(long enqueueTimeMillis, boolean succeeded) {
+        if (!succeeded) {
+            mFailed.incrementAndGet();
+            return;
+        }
+        mResolved.incrementAndGet();
+        final long latency = SystemClock.elapsedRealtime() - enqueueTimeMillis;
+        mTotalLatencyMillis.addAndGet(latency);
+        synchronized (this) {
+            mMaxLatencyMillis = Math.max(mMaxLatencyMillis, latency);
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS_MILLIS.length
+                    && latency >= LATENCY_BUCKETS_MILLIS[bucket]) {
+                ++bucket;
+            }
+            ++mLatencyHistogram[bucket];
+        }
+    }
+
+    /** Records a call to {@link ContactInfoHelper#lookupNumbers} for the given numbers. */
+    public void onLookup(int numberCount) {
+        mLookups.incrementAndGet();
+        mLookedUpNumbers.addAndGet(numberCount);
+    }
+
+    /** Records a query sent to a content provider to look up a contact. */
+    public void onProviderQuery() {
+        mProviderQueries.incrementAndGet();
+    }
+
+    /** Records that the call log was redrawn to show updated contacts. */
+    public void onRedraw() {
+        mRedraws.incrementAndGet();
+    }
+
+    /** Returns the number of queries sent to the content providers. */
+    public int getProviderQueryCount() {
+        return mProviderQueries.get();
+    }
+
+    /** Returns the number of requests resolved. */
+    public int getResolvedCount() {
+        return mResolved.get();
+    }
+
+    /** Returns the number of times the call log was redrawn to show updated contacts. */
+    public int getRedrawCount() {
+        return mRedraws.get();
+    }
+
+    /** Prints the statistics, as well as the ones of the caches and writer the pipeline uses. */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.println("Caller-id pipeline:");
+        final String inner = prefix + "  ";
+        writer.print(inner); writer.print("memory cache: hits="); writer.print(mCacheHits.get());
+        writer.print(" expired="); writer.print(mCacheExpired.get());
+        writer.print(" misses="); writer.println(mCacheMisses.get());
+
+        final int resolved = mResolved.get();
+        writer.print(inner); writer.print("requests: enqueued="); writer.print(mEnqueued.get());
+        writer.print(" resolved="); writer.print(resolved);
+        writer.print(" failed="); writer.println(mFailed.get());
+
+        final int lookups = mLookups.get();
+        final int queries = mProviderQueries.get();
+        writer.print(inner); writer.print("lookups: batches="); writer.print(lookups);
+        writer.print(" numbers="); writer.print(mLookedUpNumbers.get());
+        writer.print(" providerQueries="); writer.print(queries);
+        writer.print(" queriesPerBatch=");
+        writer.println(lookups == 0 ? 0 : (float) queries / lookups);
+
+        writer.print(inner); writer.print("redraws="); writer.println(mRedraws.get());
+
+        synchronized (this) {
+            writer.print(inner); writer.print("latency: mean=");
+            writer.print(resolved == 0 ? 0 : mTotalLatencyMillis.get() / resolved);
+            writer.print("ms max="); writer.print(mMaxLatencyMillis); writer.println("ms");
+            writer.print(inner); writer.print("  histogram:");
+            for (int i = 0; i < mLatencyHistogram.length; ++i) {
+                writer.print(i < LATENCY_BUCKETS_MILLIS.length
+                        ? " <" + LATENCY_BUCKETS_MILLIS[i] + "ms="
+                        : " >=" + LATENCY_BUCKETS_MILLIS[i - 1] + "ms=");
+                writer.print(mLatencyHistogram[i]);
+            }
+            writer.println();
+
+            writer.print(inner); writer.print("queue depth: max="); writer.print(mMaxQueueDepth);
+            writer.print(" current="); writer.println(mQueueDepth);
+            writer.print(inner); writer.print("  recent (seconds ago=depth):");
+            final long now = SystemClock.elapsedRealtime();
+            final int samples = Math.min(mQueueDepthSampleCount, QUEUE_DEPTH_SAMPLES);
+            for (int i = 1; i <= samples; ++i) {
+                final int index = (mQueueDepthSampleCount - i) % QUEUE_DEPTH_SAMPLES;
+                writer.print(" ");
+                writer.print((now - mQueueDepthTimes[index]) / 1000);
+                writer.print("=");
+                writer.print(mQueueDepths[index]);
+            }
+            writer.println();
+        }
+
+        final CallLogContactInfoWriter callLogWriter = CallLogContactInfoWriter.peekInstance();
+        if (callLogWriter != null) {
+            writer.print(inner); writer.print("call log writes: requested=");
+            writer.print(callLogWriter.getRequestedUpdateCount());
+            writer.print(" coalesced="); writer.print(callLogWriter.getCoalescedUpdateCount());
+            writer.print(" writes="); writer.print(callLogWriter.getWriteCount());
+            writer.print(" batches="); writer.print(callLogWriter.getBatchCount());
+            writer.print(" failedBatches="); writer.println(callLogWriter.getFailedBatchCount());
+        }
+
+        final PhoneNumberFormatCache formatCache = PhoneNumberFormatCache.getInstance();
+        writer.print(inner); writer.print("number formats: hits=");
+        writer.print(formatCache.getHitCount());
+        writer.print(" misses="); writer.print(formatCache.getMissCount());
+        writer.print(" evictions="); writer.println(formatCache.getEvictionCount());
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import com.android.common.io.MoreCloseables;
+import com.android.contacts.util.UriUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.RawContacts;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Pair;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A persistent cache of the {@link ContactInfo} for the numbers in the call log.
+ * <p>
+ * The cache survives process restarts, so that the names of the callers do not have to be looked
+ * up again every time the call log is shown after a cold start.
+ * <p>
+ * Entries are tagged with the generation of the cache at the time the lookup started. The
+ * generation is increased whenever the contacts have changed, which is detected by a fingerprint
+ * of the raw contacts versions. The fingerprint is checked when the cache is first used, and then
+ * again on the next use after a change notified by the contacts provider, so that the changes
+ * which do not affect the raw contacts, e.g., presence updates, do not invalidate the cache.
+ * Since the provider notifies every change, presence updates included, computing the fingerprint
+ * is debounced: it is computed at most once every {@link #CONTACTS_CHECK_INTERVAL_MILLIS}, so a
+ * change to the contacts may take that long to invalidate the cache. Entries from a previous
+ * generation are never returned.
+ * <p>
+ * The least recently used entries are removed when there are too many of them. The time an entry
+ * was last used is updated on each hit, in batches, so that looking up cached numbers does not
+ * write to the database every time.
+ * <p>
+ * All the methods of this class perform disk I/O and should not be called from the main thread.
+ */
+@ThreadSafe
+/*package*/ final class ContactInfoCache {
+    private static final String TAG = "ContactInfoCache";
+
+    private static final String DATABASE_NAME = "caller_id_cache.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String PREFERENCES_NAME = "caller_id_cache";
+    private static final String PREF_GENERATION = "generation";
+    private static final String PREF_CONTACTS_FINGERPRINT = "contacts_fingerprint";
+
+    /** The maximum number of entries kept in the cache. */
+    private static final int MAX_ENTRIES = 2000;
+
+    /** The number of entries stored between two removals of the old and least used entries. */
+    @VisibleForTesting
+    /*package*/ static final int PUTS_BETWEEN_TRIMS = 100;
+
+    /** The minimum time between two checks of the contacts for changes, in millis. */
+    private static final long CONTACTS_CHECK_INTERVAL_MILLIS = 15 * 1000;
+
+    /** The number of hits after which the time the entries were last used is written. */
+    private static final int LAST_USED_BATCH_SIZE = 20;
+
+    /** The columns of the table storing the cached entries. */
+    private static final class Columns {
+        public static final String NUMBER = "number";
+        public static final String COUNTRY_ISO = "country_iso";
+        public static final String GENERATION = "generation";
+        public static final String LAST_USED = "last_used";
+        public static final String LOOKUP_URI = "lookup_uri";
+        public static final String NAME = "name";
+        public static final String TYPE = "type";
+        public static final String LABEL = "label";
+        public static final String MATCHED_NUMBER = "matched_number";
+        public static final String FORMATTED_NUMBER = "formatted_number";
+        public static final String NORMALIZED_NUMBER = "normalized_number";
+        public static final String PHOTO_ID = "photo_id";
+        public static final String PHOTO_URI = "photo_uri";
+    }
+
+    private static final String TABLE = "contact_info";
+
+    /** The query used to read an entry from the cache. */
+    private static final class EntryQuery {
+        public static final String[] _PROJECTION = new String[] {
+                Columns.GENERATION,
+                Columns.LOOKUP_URI,
+                Columns.NAME,
+                Columns.TYPE,
+                Columns.LABEL,
+                Columns.MATCHED_NUMBER,
+                Columns.FORMATTED_NUMBER,
+                Columns.NORMALIZED_NUMBER,
+                Columns.PHOTO_ID,
+                Columns.PHOTO_URI,
+        };
+
+        public static final int GENERATION = 0;
+        public static final int LOOKUP_URI = 1;
+        public static final int NAME = 2;
+        public static final int TYPE = 3;
+        public static final int LABEL = 4;
+        public static final int MATCHED_NUMBER = 5;
+        public static final int FORMATTED_NUMBER = 6;
+        public static final int NORMALIZED_NUMBER = 7;
+        public static final int PHOTO_ID = 8;
+        public static final int PHOTO_URI = 9;
+
+        public static final String SELECTION =
+                Columns.NUMBER + " = ? AND " + Columns.COUNTRY_ISO + " = ?";
+    }
+
+    /** The statement used to update the time an entry was last used. */
+    private static final String UPDATE_LAST_USED_SQL = "UPDATE " + TABLE
+            + " SET " + Columns.LAST_USED + " = MAX(" + Columns.LAST_USED + ", ?)"
+            + " WHERE " + EntryQuery.SELECTION;
+
+    private static final class DatabaseHelper extends SQLiteOpenHelper {
+        public DatabaseHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " ("
+                    + Columns.NUMBER + " TEXT NOT NULL, "
+                    + Columns.COUNTRY_ISO + " TEXT NOT NULL, "
+                    + Columns.GENERATION + " INTEGER NOT NULL, "
+                    + Columns.LAST_USED + " INTEGER NOT NULL, "
+                    + Columns.LOOKUP_URI + " TEXT, "
+                    + Columns.NAME + " TEXT, "
+                    + Columns.TYPE + " INTEGER NOT NULL DEFAULT 0, "
+                    + Columns.LABEL + " TEXT, "
+                    + Columns.MATCHED_NUMBER + " TEXT, "
+                    + Columns.FORMATTED_NUMBER + " TEXT, "
+                    + Columns.NORMALIZED_NUMBER + " TEXT, "
+                    + Columns.PHOTO_ID + " INTEGER NOT NULL DEFAULT 0, "
+                    + Columns.PHOTO_URI + " TEXT, "
+                    + "PRIMARY KEY (" + Columns.NUMBER + ", " + Columns.COUNTRY_ISO + "))");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // This is only a cache: just start again from scratch.
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+            onCreate(db);
+        }
+    }
+
+    /** The singleton instance of the cache. */
+    private static ContactInfoCache sInstance;
+
+    private final Context mContext;
+    private final DatabaseHelper mDatabaseHelper;
+    private final SharedPreferences mPrefs;
+    private final int mMaxEntries;
+    private final long mContactsCheckIntervalMillis;
+
+    /** The current generation of the cache. */
+    private final AtomicInteger mGeneration;
+
+    /** The number of entries stored since the cache was last trimmed. */
+    private final AtomicInteger mPutsSinceTrim = new AtomicInteger();
+
+    /** Whether the observer of the contacts has been registered. */
+    @GuardedBy("this") private boolean mObserving;
+
+    /**
+     * Whether the contacts may have changed since their fingerprint was last checked. It is set
+     * until the cache is first used, to detect the changes that happened while the process was not
+     * running.
+     */
+    private volatile boolean mContactsMayHaveChanged = true;
+
+    /** The earliest time the contacts can be checked for changes again, in millis since boot. */
+    @GuardedBy("this") private long mNextContactsCheckMillis;
+
+    /**
+     * The time each entry which was hit was last used, by number and country, until it is written
+     * to the database.
+     */
+    @GuardedBy("mPendingLastUsed")
+    private final HashMap<Pair<String, String>, Long> mPendingLastUsed = Maps.newHashMap();
+
+    /** The last value used for the time an entry was last used. */
+    @GuardedBy("this") private long mLastUsed;
+
+    /** Checks the contacts for changes on the next use of the cache whenever they may change. */
+    private final ContentObserver mContactsObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onContactsChanged();
+        }
+    };
+
+    /** Returns the process-wide instance of the cache. */
+    public static synchronized ContactInfoCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ContactInfoCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ContactInfoCache(Context context) {
+        this(context, DATABASE_NAME, PREFERENCES_NAME, MAX_ENTRIES,
+                CONTACTS_CHECK_INTERVAL_MILLIS);
+    }
+
+    @VisibleForTesting
+    /*package*/ ContactInfoCache(Context context, String databaseName, String preferencesName,
+            int maxEntries, long contactsCheckIntervalMillis) {
+        mContext = context;
+        mDatabaseHelper = new DatabaseHelper(context, databaseName);
+        mPrefs = context.getSharedPreferences(preferencesName, Context.MODE_PRIVATE);
+        mMaxEntries = maxEntries;
+        mContactsCheckIntervalMillis = contactsCheckIntervalMillis;
+        mGeneration = new AtomicInteger(mPrefs.getInt(PREF_GENERATION, 0));
+    }
+
+    /**
+     * Returns the current generation of the cache.
+     * <p>
+     * The generation should be read before starting a lookup and passed to
+     * {@link #put(String, String, ContactInfo, int)} with its result, so that a result that may
+     * predate a change to the contacts is not considered up-to-date.
+     */
+    public int getGeneration() {
+        ensureValidated();
+        return mGeneration.get();
+    }
+
+    /**
+     * Returns the cached contact info for the given number, or null if there is no entry for it
+     * in the current generation.
+     */
+    public ContactInfo get(String number, String countryIso) {
+        final int generation = getGeneration();
+        Cursor cursor = null;
+        try {
+            cursor = mDatabaseHelper.getReadableDatabase().query(TABLE, EntryQuery._PROJECTION,
+                    EntryQuery.SELECTION, new String[]{ number, nullToEmpty(countryIso) },
+                    null, null, null);
+            if (!cursor.moveToFirst() || cursor.getInt(EntryQuery.GENERATION) != generation) {
+                return null;
+            }
+            touch(number, countryIso);
+            ContactInfo info = new ContactInfo();
+            info.lookupUri = UriUtils.parseUriOrNull(cursor.getString(EntryQuery.LOOKUP_URI));
+            info.name = cursor.getString(EntryQuery.NAME);
+            info.type = cursor.getInt(EntryQuery.TYPE);
+            info.label = cursor.getString(EntryQuery.LABEL);
+            info.number = cursor.getString(EntryQuery.MATCHED_NUMBER);
+            info.formattedNumber = cursor.getString(EntryQuery.FORMATTED_NUMBER);
+            info.normalizedNumber = cursor.getString(EntryQuery.NORMALIZED_NUMBER);
+            info.photoId = cursor.getLong(EntryQuery.PHOTO_ID);
+            info.photoUri = UriUtils.parseUriOrNull(cursor.getString(EntryQuery.PHOTO_URI));
+            return info;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Failed to read from the cache", e);
+            return null;
+        } finally {
+            MoreCloseables.closeQuietly(cursor);
+        }
+    }
+
+    /**
+     * Stores the contact info for the given number.
+     *
+     * @param generation the generation of the cache when the lookup for this info started
+     */
+    public void put(String number, String countryIso, ContactInfo info, int generation) {
+        ContentValues values = new ContentValues();
+        values.put(Columns.NUMBER, number);
+        values.put(Columns.COUNTRY_ISO, nullToEmpty(countryIso));
+        values.put(Columns.GENERATION, generation);
+        values.put(Columns.LAST_USED, nextLastUsed());
+        values.put(Columns.LOOKUP_URI, UriUtils.uriToString(info.lookupUri));
+        values.put(Columns.NAME, info.name);
+        values.put(Columns.TYPE, info.type);
+        values.put(Columns.LABEL, info.label);
+        values.put(Columns.MATCHED_NUMBER, info.number);
+        values.put(Columns.FORMATTED_NUMBER, info.formattedNumber);
+        values.put(Columns.NORMALIZED_NUMBER, info.normalizedNumber);
+        values.put(Columns.PHOTO_ID, info.photoId);
+        values.put(Columns.PHOTO_URI, UriUtils.uriToString(info.photoUri));
+        try {
+            mDatabaseHelper.getWritableDatabase().replace(TABLE, null, values);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Failed to write to the cache", e);
+        }
+        if (mPutsSinceTrim.incrementAndGet() >= PUTS_BETWEEN_TRIMS) {
+            trim();
+        }
+    }
+
+    /** Marks all the entries currently in the cache as out of date. */
+    public void invalidate() {
+        mPrefs.edit().putInt(PREF_GENERATION, mGeneration.incrementAndGet()).apply();
+    }
+
+    /**
+     * Called when the contacts provider notifies a change: the contacts are checked for changes
+     * on the next use of the cache.
+     */
+    @VisibleForTesting
+    /*package*/ void onContactsChanged() {
+        mContactsMayHaveChanged = true;
+    }
+
+    /**
+     * Registers for changes to the contacts the first time it is called and, if the contacts may
+     * have changed since they were last checked and they were not checked too recently, moves to a
+     * new generation if they did.
+     */
+    private void ensureValidated() {
+        if (!mContactsMayHaveChanged) {
+            return;
+        }
+        synchronized (this) {
+            if (!mObserving) {
+                mObserving = true;
+                mContext.getContentResolver().registerContentObserver(
+                        ContactsContract.AUTHORITY_URI, true, mContactsObserver);
+            }
+            if (!mContactsMayHaveChanged) {
+                return;
+            }
+            final long now = SystemClock.elapsedRealtime();
+            if (now < mNextContactsCheckMillis) {
+                // Checked too recently: leave the flag set, so that they are checked on the first
+                // use once the interval has elapsed.
+                return;
+            }
+            mNextContactsCheckMillis = now + mContactsCheckIntervalMillis;
+            // Cleared before reading the contacts, so that a change notified meanwhile is checked
+            // on the next use.
+            mContactsMayHaveChanged = false;
+
+            final String fingerprint = computeContactsFingerprint();
+            if (fingerprint != null
+                    && fingerprint.equals(mPrefs.getString(PREF_CONTACTS_FINGERPRINT, null))) {
+                return;
+            }
+            mPrefs.edit()
+                    .putInt(PREF_GENERATION, mGeneration.incrementAndGet())
+                    .putString(PREF_CONTACTS_FINGERPRINT, fingerprint)
+                    .apply();
+        }
+        trim();
+    }
+
+    /**
+     * Returns a value which changes whenever a raw contact, or any of its data, is inserted,
+     * updated or deleted, or a raw contact is joined to or split from a contact, or null if it
+     * cannot be determined.
+     * <p>
+     * It is made of the number of raw contacts, the highest id and the sums of their versions and
+     * contact ids, since the provider increments the version of a raw contact on every change to
+     * it or its data. Presence and status updates do not change it.
+     */
+    private String computeContactsFingerprint() {
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(RawContacts.CONTENT_URI,
+                    new String[]{ RawContacts._ID, RawContacts.VERSION, RawContacts.CONTACT_ID },
+                    null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            long maxId = 0;
+            long versionSum = 0;
+            long contactIdSum = 0;
+            while (cursor.moveToNext()) {
+                maxId = Math.max(maxId, cursor.getLong(0));
+                versionSum += cursor.getLong(1);
+                contactIdSum += cursor.getLong(2);
+            }
+            return cursor.getCount() + ":" + maxId + ":" + versionSum + ":" + contactIdSum;
+        } finally {
+            MoreCloseables.closeQuietly(cursor);
+        }
+    }
+
+    /**
+     * Records that the entry for the given number was used, and writes the times the entries were
+     * last used once enough of them were.
+     */
+    private void touch(String number, String countryIso) {
+        final long lastUsed = nextLastUsed();
+        final int pendingCount;
+        synchronized (mPendingLastUsed) {
+            mPendingLastUsed.put(Pair.create(number, nullToEmpty(countryIso)), lastUsed);
+            pendingCount = mPendingLastUsed.size();
+        }
+        if (pendingCount >= LAST_USED_BATCH_SIZE) {
+            flushLastUsed();
+        }
+    }
+
+    /** Writes the times the entries were last used which have not been written yet. */
+    @VisibleForTesting
+    /*package*/ void flushLastUsed() {
+        final HashMap<Pair<String, String>, Long> pendingLastUsed;
+        synchronized (mPendingLastUsed) {
+            if (mPendingLastUsed.isEmpty()) {
+                return;
+            }
+            pendingLastUsed = Maps.newHashMap(mPendingLastUsed);
+            mPendingLastUsed.clear();
+        }
+        try {
+            final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            final SQLiteStatement statement = db.compileStatement(UPDATE_LAST_USED_SQL);
+            db.beginTransaction();
+            try {
+                for (Map.Entry<Pair<String, String>, Long> entry : pendingLastUsed.entrySet()) {
+                    statement.bindLong(1, entry.getValue());
+                    statement.bindString(2, entry.getKey().first);
+                    statement.bindString(3, entry.getKey().second);
+                    statement.execute();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                statement.close();
+            }
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Failed to update the cache", e);
+        }
+    }
+
+    /**
+     * Returns the time to record as the time an entry was last used, which is later than the ones
+     * returned before so that the entries used in the same millisecond are still ordered.
+     */
+    private synchronized long nextLastUsed() {
+        mLastUsed = Math.max(System.currentTimeMillis(), mLastUsed + 1);
+        return mLastUsed;
+    }
+
+    /** Removes the entries from old generations and the least recently used ones. */
+    @VisibleForTesting
+    /*package*/ void trim() {
+        mPutsSinceTrim.set(0);
+        flushLastUsed();
+        try {
+            SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            db.delete(TABLE, Columns.GENERATION + " != ?",
+                    new String[]{ Integer.toString(mGeneration.get()) });
+            db.delete(TABLE, "rowid NOT IN (SELECT rowid FROM " + TABLE
+                    + " ORDER BY " + Columns.LAST_USED + " DESC LIMIT " + mMaxEntries + ")", null);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Failed to trim the cache", e);
+        }
+    }
+
+    /** Closes the database of the cache and stops observing the contacts. */
+    @VisibleForTesting
+    /*package*/ synchronized void close() {
+        if (mObserving) {
+            mContext.getContentResolver().unregisterContentObserver(mContactsObserver);
+            mObserving = false;
+        }
+        mDatabaseHelper.close();
+    }
+
+    private static String nullToEmpty(String value) {
+        return TextUtils.isEmpty(value) ? "" : value;
+    }
+}
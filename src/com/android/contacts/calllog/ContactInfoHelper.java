@@ -16,28 +16,56 @@
 
 package com.android.contacts.calllog;
 
+import com.android.contacts.util.PhoneNumberFormatCache;
 import com.android.contacts.util.UriUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.CallLog;
 import android.provider.CallLog.Calls;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Utility class to look up the contact information for a given number.
+ * <p>
+ * The results of the lookups are stored in a persistent cache shared by all the instances of this
+ * class, see {@link ContactInfoCache}.
  */
 public class ContactInfoHelper {
+    /** The maximum number of normalized numbers to look up in a single query. */
+    private static final int MAX_NUMBERS_PER_QUERY = 200;
+
     private final Context mContext;
     private final String mCurrentCountryIso;
+    private final ContactInfoCache mCache;
+    private final PhoneNumberFormatCache mFormatCache;
+    private final CallerIdStatistics mStatistics;
 
     public ContactInfoHelper(Context context, String currentCountryIso) {
+        this(context, currentCountryIso, ContactInfoCache.getInstance(context));
+    }
+
+    @VisibleForTesting
+    /*package*/ ContactInfoHelper(Context context, String currentCountryIso,
+            ContactInfoCache cache) {
         mContext = context;
         mCurrentCountryIso = currentCountryIso;
+        mCache = cache;
+        mFormatCache = PhoneNumberFormatCache.getInstance();
+        mStatistics = CallerIdStatistics.getInstance();
     }
 
     /**
@@ -52,6 +80,24 @@ public class ContactInfoHelper {
      * @param countryIso the country associated with this number
      */
     public ContactInfo lookupNumber(String number, String countryIso) {
+        final int generation = mCache.getGeneration();
+        ContactInfo info = mCache.get(number, countryIso);
+        if (info == null) {
+            info = queryContactInfo(number, countryIso);
+            if (info != null) {
+                mCache.put(number, countryIso, info, generation);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Looks up the contact information for the given number in the content providers, bypassing
+     * the cache.
+     *
+     * @see #lookupNumber(String, String)
+     */
+    private ContactInfo queryContactInfo(String number, String countryIso) {
         final ContactInfo info;
 
         // Determine the contact info.
@@ -91,9 +137,7 @@ public class ContactInfoHelper {
             // If we did not find a matching contact, generate an empty contact info for the number.
             if (info == ContactInfo.EMPTY) {
                 // Did not find a matching contact.
-                updatedInfo = new ContactInfo();
-                updatedInfo.number = number;
-                updatedInfo.formattedNumber = formatPhoneNumber(number, null, countryIso);
+                updatedInfo = createUnknownContactInfo(number, countryIso);
             } else {
                 updatedInfo = info;
             }
@@ -101,6 +145,131 @@ public class ContactInfoHelper {
         return updatedInfo;
     }
 
+    /** Returns the contact info of a number which does not match any contact. */
+    private ContactInfo createUnknownContactInfo(String number, String countryIso) {
+        ContactInfo info = new ContactInfo();
+        info.number = number;
+        info.formattedNumber = formatPhoneNumber(number, null, countryIso);
+        return info;
+    }
+
+    /**
+     * Returns the contact information for each of the given numbers.
+     * <p>
+     * Numbers found in the cache are not looked up again. The other phone numbers which can be
+     * normalized to E164 are resolved together, with a single query on the normalized numbers of
+     * the phone data rows: those which do not match any of them are unknown, and are not looked up
+     * any further. The remaining numbers, i.e., SIP addresses and numbers which cannot be
+     * normalized, are looked up one at a time using {@link #lookupNumber(String, String)}.
+     * <p>
+     * The returned map does not contain the numbers for which the lookup failed.
+     *
+     * @param numbers the numbers to look up, each with the country associated with it
+     */
+    public Map<NumberWithCountryIso, ContactInfo> lookupNumbers(
+            Collection<NumberWithCountryIso> numbers) {
+        mStatistics.onLookup(numbers.size());
+        final int generation = mCache.getGeneration();
+        final Map<NumberWithCountryIso, ContactInfo> result = Maps.newHashMap();
+        // The numbers to look up individually.
+        final List<NumberWithCountryIso> remaining = Lists.newArrayList();
+        // Maps each normalized number to the numbers that normalize to it.
+        final Map<String, List<NumberWithCountryIso>> numbersByE164 = Maps.newHashMap();
+        for (NumberWithCountryIso number : numbers) {
+            ContactInfo cachedInfo = mCache.get(number.number, number.countryIso);
+            if (cachedInfo != null) {
+                result.put(number, cachedInfo);
+                continue;
+            }
+            String numberE164 = PhoneNumberUtils.isUriNumber(number.number)
+                    ? null : getE164Number(number.number, number.countryIso);
+            if (numberE164 == null) {
+                remaining.add(number);
+                continue;
+            }
+            List<NumberWithCountryIso> sameE164 = numbersByE164.get(numberE164);
+            if (sameE164 == null) {
+                sameE164 = Lists.newArrayList();
+                numbersByE164.put(numberE164, sameE164);
+            }
+            sameE164.add(number);
+        }
+
+        final Map<String, ContactInfo> matches = numbersByE164.isEmpty()
+                ? null : queryContactInfoForNormalizedNumbers(numbersByE164.keySet());
+        // If the query failed, the lookup of these numbers failed.
+        if (matches != null) {
+            for (Map.Entry<String, List<NumberWithCountryIso>> entry : numbersByE164.entrySet()) {
+                ContactInfo match = matches.get(entry.getKey());
+                for (NumberWithCountryIso number : entry.getValue()) {
+                    final ContactInfo info;
+                    if (match == null) {
+                        info = createUnknownContactInfo(number.number, number.countryIso);
+                    } else {
+                        info = copyOf(match);
+                        info.formattedNumber =
+                                formatPhoneNumber(number.number, null, number.countryIso);
+                    }
+                    mCache.put(number.number, number.countryIso, info, generation);
+                    result.put(number, info);
+                }
+            }
+        }
+
+        for (NumberWithCountryIso number : remaining) {
+            ContactInfo info = lookupNumber(number.number, number.countryIso);
+            if (info != null) {
+                result.put(number, info);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the contacts for the given E164 numbers among the phone data rows.
+     * <p>
+     * It returns null if an error occurs, otherwise a map from each normalized number that
+     * matched a contact to the {@link ContactInfo} for it. If several contacts share the same
+     * number, one of them is returned.
+     * <p>
+     * The {@link ContactInfo#formattedNumber} field is always set to {@code null} in the returned
+     * values.
+     */
+    private Map<String, ContactInfo> queryContactInfoForNormalizedNumbers(
+            Collection<String> numbersE164) {
+        final Map<String, ContactInfo> result = Maps.newHashMap();
+        final String[] allNumbers = numbersE164.toArray(new String[numbersE164.size()]);
+        for (int start = 0; start < allNumbers.length; start += MAX_NUMBERS_PER_QUERY) {
+            final String[] selectionArgs = Arrays.copyOfRange(allNumbers, start,
+                    Math.min(allNumbers.length, start + MAX_NUMBERS_PER_QUERY));
+            final StringBuilder selection = new StringBuilder();
+            selection.append(Phone.NORMALIZED_NUMBER).append(" IN (");
+            for (int i = 0; i < selectionArgs.length; ++i) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(")");
+
+            mStatistics.onProviderQuery();
+            Cursor phonesCursor = mContext.getContentResolver().query(Phone.CONTENT_URI,
+                    PhoneQuery._DATA_PROJECTION, selection.toString(), selectionArgs, null);
+            if (phonesCursor == null) {
+                // Failed to fetch the data.
+                return null;
+            }
+            try {
+                while (phonesCursor.moveToNext()) {
+                    String numberE164 = phonesCursor.getString(PhoneQuery.NORMALIZED_NUMBER);
+                    if (!result.containsKey(numberE164)) {
+                        result.put(numberE164, createContactInfo(phonesCursor));
+                    }
+                }
+            } finally {
+                phonesCursor.close();
+            }
+        }
+        return result;
+    }
+
     /**
      * Looks up a contact using the given URI.
      * <p>
@@ -112,6 +281,7 @@ public class ContactInfoHelper {
      */
     private ContactInfo lookupContactFromUri(Uri uri) {
         final ContactInfo info;
+        mStatistics.onProviderQuery();
         Cursor phonesCursor =
                 mContext.getContentResolver().query(
                         uri, PhoneQuery._PROJECTION, null, null, null);
@@ -119,19 +289,7 @@ public class ContactInfoHelper {
         if (phonesCursor != null) {
             try {
                 if (phonesCursor.moveToFirst()) {
-                    info = new ContactInfo();
-                    long contactId = phonesCursor.getLong(PhoneQuery.PERSON_ID);
-                    String lookupKey = phonesCursor.getString(PhoneQuery.LOOKUP_KEY);
-                    info.lookupUri = Contacts.getLookupUri(contactId, lookupKey);
-                    info.name = phonesCursor.getString(PhoneQuery.NAME);
-                    info.type = phonesCursor.getInt(PhoneQuery.PHONE_TYPE);
-                    info.label = phonesCursor.getString(PhoneQuery.LABEL);
-                    info.number = phonesCursor.getString(PhoneQuery.MATCHED_NUMBER);
-                    info.normalizedNumber = phonesCursor.getString(PhoneQuery.NORMALIZED_NUMBER);
-                    info.photoId = phonesCursor.getLong(PhoneQuery.PHOTO_ID);
-                    info.photoUri =
-                            UriUtils.parseUriOrNull(phonesCursor.getString(PhoneQuery.PHOTO_URI));
-                    info.formattedNumber = null;
+                    info = createContactInfo(phonesCursor);
                 } else {
                     info = ContactInfo.EMPTY;
                 }
@@ -145,6 +303,43 @@ public class ContactInfoHelper {
         return info;
     }
 
+    /**
+     * Creates the {@link ContactInfo} for the current row of a cursor using either the
+     * {@link PhoneQuery#_PROJECTION} or the {@link PhoneQuery#_DATA_PROJECTION}.
+     * <p>
+     * The {@link ContactInfo#formattedNumber} field is set to {@code null}.
+     */
+    private ContactInfo createContactInfo(Cursor phonesCursor) {
+        ContactInfo info = new ContactInfo();
+        long contactId = phonesCursor.getLong(PhoneQuery.PERSON_ID);
+        String lookupKey = phonesCursor.getString(PhoneQuery.LOOKUP_KEY);
+        info.lookupUri = Contacts.getLookupUri(contactId, lookupKey);
+        info.name = phonesCursor.getString(PhoneQuery.NAME);
+        info.type = phonesCursor.getInt(PhoneQuery.PHONE_TYPE);
+        info.label = phonesCursor.getString(PhoneQuery.LABEL);
+        info.number = phonesCursor.getString(PhoneQuery.MATCHED_NUMBER);
+        info.normalizedNumber = phonesCursor.getString(PhoneQuery.NORMALIZED_NUMBER);
+        info.photoId = phonesCursor.getLong(PhoneQuery.PHOTO_ID);
+        info.photoUri = UriUtils.parseUriOrNull(phonesCursor.getString(PhoneQuery.PHOTO_URI));
+        info.formattedNumber = null;
+        return info;
+    }
+
+    /** Returns a copy of the given {@link ContactInfo}. */
+    private static ContactInfo copyOf(ContactInfo info) {
+        ContactInfo copy = new ContactInfo();
+        copy.lookupUri = info.lookupUri;
+        copy.name = info.name;
+        copy.type = info.type;
+        copy.label = info.label;
+        copy.number = info.number;
+        copy.formattedNumber = info.formattedNumber;
+        copy.normalizedNumber = info.normalizedNumber;
+        copy.photoId = info.photoId;
+        copy.photoUri = info.photoUri;
+        return copy;
+    }
+
     /**
      * Determines the contact information for the given SIP address.
      * <p>
@@ -174,15 +369,12 @@ public class ContactInfoHelper {
      * If the lookup fails for some other reason, it returns null.
      */
     private ContactInfo queryContactInfoForPhoneNumber(String number, String countryIso) {
-        String contactNumber = number;
-        if (!TextUtils.isEmpty(countryIso)) {
-            // Normalize the number: this is needed because the PhoneLookup query below does not
-            // accept a country code as an input.
-            String numberE164 = PhoneNumberUtils.formatNumberToE164(number, countryIso);
-            if (!TextUtils.isEmpty(numberE164)) {
-                // Only use it if the number could be formatted to E164.
-                contactNumber = numberE164;
-            }
+        // Normalize the number: this is needed because the PhoneLookup query below does not
+        // accept a country code as an input.
+        String contactNumber = getE164Number(number, countryIso);
+        if (contactNumber == null) {
+            // Only use it if the number could be formatted to E164.
+            contactNumber = number;
         }
 
         // The "contactNumber" is a regular phone number, so use the PhoneLookup table.
@@ -206,15 +398,12 @@ public class ContactInfoHelper {
      */
     private ContactInfo queryContactInfoForPhoneNumberFromCallLog(String number, String countryIso) {
         final ContactInfo info;
-        String contactNumber = number;
-        if (!TextUtils.isEmpty(countryIso)) {
-            // Normalize the number: this is needed because the PhoneLookup query below does not
-            // accept a country code as an input.
-            String numberE164 = PhoneNumberUtils.formatNumberToE164(number, countryIso);
-            if (!TextUtils.isEmpty(numberE164)) {
-                // Only use it if the number could be formatted to E164.
-                contactNumber = numberE164;
-            }
+        // Normalize the number: this is needed because the PhoneLookup query below does not
+        // accept a country code as an input.
+        String contactNumber = getE164Number(number, countryIso);
+        if (contactNumber == null) {
+            // Only use it if the number could be formatted to E164.
+            contactNumber = number;
         }
 
         /*
@@ -225,6 +414,7 @@ public class ContactInfoHelper {
         //if we ought to find something it would be in incmoning/missed calls
         String selectionClause = " " + CallLog.Calls.TYPE + " = " + CallLog.Calls.INCOMING_TYPE +
                                  " OR " + CallLog.Calls.TYPE + " = " + CallLog.Calls.MISSED_TYPE;
+        mStatistics.onProviderQuery();
         Cursor c = mContext.getContentResolver().query(
                 uri,
                 CallLogQuery._PROJECTION,
@@ -260,6 +450,14 @@ public class ContactInfoHelper {
         }
         return info;
     }
+    /**
+     * Returns the E164 representation of the given number, or null if the number cannot be
+     * formatted to E164 in the given country.
+     */
+    private String getE164Number(String number, String countryIso) {
+        return mFormatCache.getE164Number(number, countryIso);
+    }
+
     /**
      * Format the given phone number
      *
@@ -283,6 +481,9 @@ public class ContactInfoHelper {
         if (TextUtils.isEmpty(countryIso)) {
             countryIso = mCurrentCountryIso;
         }
+        if (normalizedNumber == null) {
+            return mFormatCache.getFormattedNumber(number, countryIso);
+        }
         return PhoneNumberUtils.formatNumber(number, normalizedNumber, countryIso);
     }
 }
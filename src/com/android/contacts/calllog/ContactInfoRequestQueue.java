@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The queue of {@link ContactInfoRequest}s waiting to be processed by the caller-id workers of
+ * the {@link CallLogAdapter}.
+ * <p>
+ * Requests are indexed, so that adding a request which is already pending takes constant time:
+ * instead of adding a duplicate, the pending request is moved to the front of the queue.
+ * <p>
+ * Requests are served in the following order:
+ * <ul>
+ * <li>immediate requests, i.e., those for rows for which no contact details are known yet, are
+ * served before requests that merely refresh expired details;</li>
+ * <li>within the same priority, the most recently added request is served first: since
+ * requests are added when binding a row, this means rows currently on screen are looked up
+ * before rows that have already been scrolled away.</li>
+ * </ul>
+ * <p>
+ * The queue is bounded: when it is full, the request added the longest time ago, which is most
+ * likely for a row no longer visible, is dropped.
+ */
+@ThreadSafe
+/*package*/ final class ContactInfoRequestQueue {
+    /** A node in one of the doubly-linked lists of pending requests. */
+    private static final class Node {
+        public final ContactInfoRequest request;
+        public boolean immediate;
+        public Node previous;
+        public Node next;
+
+        public Node(ContactInfoRequest request, boolean immediate) {
+            this.request = request;
+            this.immediate = immediate;
+        }
+    }
+
+    /** A doubly-linked list of pending requests, most recently added first. */
+    private static final class NodeList {
+        public Node head;
+        public Node tail;
+
+        public void addFirst(Node node) {
+            node.previous = null;
+            node.next = head;
+            if (head != null) {
+                head.previous = node;
+            } else {
+                tail = node;
+            }
+            head = node;
+        }
+
+        public void remove(Node node) {
+            if (node.previous != null) {
+                node.previous.next = node.next;
+            } else {
+                head = node.next;
+            }
+            if (node.next != null) {
+                node.next.previous = node.previous;
+            } else {
+                tail = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+
+        public boolean isEmpty() {
+            return head == null;
+        }
+    }
+
+    /** The maximum number of pending requests. */
+    private final int mCapacity;
+
+    /** The index of all pending requests. */
+    @GuardedBy("this") private final HashMap<ContactInfoRequest, Node> mIndex = Maps.newHashMap();
+    /** The pending requests for rows without any contact details. */
+    @GuardedBy("this") private final NodeList mImmediate = new NodeList();
+    /** The pending requests for rows whose contact details need to be refreshed. */
+    @GuardedBy("this") private final NodeList mDeferred = new NodeList();
+    /** The requests which have been taken from the queue but are not yet completed. */
+    @GuardedBy("this") private final HashSet<ContactInfoRequest> mInFlight = Sets.newHashSet();
+
+    /**
+     * @param capacity the maximum number of pending requests, beyond which the least recently
+     *        added requests are dropped
+     */
+    public ContactInfoRequestQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+    }
+
+    /**
+     * Adds a request to the front of the queue.
+     * <p>
+     * If the same request is already pending it is moved to the front instead, and its priority
+     * is raised if {@code immediate} is true. If the same request is being processed, this
+     * method does nothing.
+     *
+     * @return true if the request was added or moved, false if it is being processed
+     */
+    public synchronized boolean offer(ContactInfoRequest request, boolean immediate) {
+        if (mInFlight.contains(request)) {
+            return false;
+        }
+        Node node = mIndex.get(request);
+        if (node != null) {
+            listFor(node).remove(node);
+            node.immediate |= immediate;
+        } else {
+            node = new Node(request, immediate);
+            mIndex.put(request, node);
+            trimToCapacity();
+        }
+        listFor(node).addFirst(node);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Returns the next request to process, without blocking.
+     * <p>
+     * The returned request is considered in flight until {@link #finish(ContactInfoRequest)} is
+     * called for it.
+     *
+     * @return the next request, or null if there are no pending requests
+     */
+    public synchronized ContactInfoRequest poll() {
+        final Node node;
+        if (!mImmediate.isEmpty()) {
+            node = mImmediate.head;
+        } else if (!mDeferred.isEmpty()) {
+            node = mDeferred.head;
+        } else {
+            return null;
+        }
+        listFor(node).remove(node);
+        mIndex.remove(node.request);
+        mInFlight.add(node.request);
+        return node.request;
+    }
+
+    /**
+     * Removes up to {@code maxRequests} requests from the queue, in the order they would be
+     * returned by {@link #poll()}, and adds them to the given collection.
+     *
+     * @return the number of requests added
+     */
+    public synchronized int drainTo(Collection<ContactInfoRequest> requests, int maxRequests) {
+        int count = 0;
+        ContactInfoRequest request;
+        while (count < maxRequests && (request = poll()) != null) {
+            requests.add(request);
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the next request to process, waiting for one to be added if necessary.
+     *
+     * @return the next request, or null if the calling thread was interrupted while waiting
+     * @see #poll()
+     */
+    public synchronized ContactInfoRequest take() {
+        ContactInfoRequest request;
+        while ((request = poll()) == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return request;
+    }
+
+    /** Marks a request returned by {@link #poll()} or {@link #take()} as completed. */
+    public synchronized void finish(ContactInfoRequest request) {
+        mInFlight.remove(request);
+    }
+
+    /** Returns true if the given request is either waiting or being processed. */
+    public synchronized boolean isPending(ContactInfoRequest request) {
+        return mIndex.containsKey(request) || mInFlight.contains(request);
+    }
+
+    /** Returns the number of requests waiting to be processed. */
+    public synchronized int size() {
+        return mIndex.size();
+    }
+
+    /** Returns true if there are no requests waiting to be processed. */
+    public synchronized boolean isEmpty() {
+        return mIndex.isEmpty();
+    }
+
+    /** Drops all the requests waiting to be processed. */
+    public synchronized void clear() {
+        mIndex.clear();
+        mImmediate.head = mImmediate.tail = null;
+        mDeferred.head = mDeferred.tail = null;
+    }
+
+    @GuardedBy("this")
+    private NodeList listFor(Node node) {
+        return node.immediate ? mImmediate : mDeferred;
+    }
+
+    /** Drops the least recently added requests, refresh requests first, to make room. */
+    @GuardedBy("this")
+    private void trimToCapacity() {
+        while (mIndex.size() > mCapacity) {
+            final NodeList list = mDeferred.isEmpty() ? mImmediate : mDeferred;
+            final Node stale = list.tail;
+            list.remove(stale);
+            mIndex.remove(stale.request);
+        }
+    }
+}
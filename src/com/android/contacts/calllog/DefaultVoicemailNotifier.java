@@ -18,8 +18,10 @@ package com.android.contacts.calllog;
 
 import com.android.common.io.MoreCloseables;
 import com.android.contacts.CallDetailActivity;
+import com.android.contacts.ContactsUtils;
 import com.android.contacts.R;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import android.app.Notification;
 import android.app.NotificationManager;
@@ -32,11 +34,11 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.CallLog.Calls;
-import android.provider.ContactsContract.PhoneLookup;
 import android.text.TextUtils;
 import android.util.Log;
 
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Implementation of {@link VoicemailNotifier} that shows a notification in the
@@ -67,7 +69,7 @@ public class DefaultVoicemailNotifier implements VoicemailNotifier {
             ContentResolver contentResolver = context.getContentResolver();
             sInstance = new DefaultVoicemailNotifier(context, notificationManager,
                     createNewCallsQuery(contentResolver),
-                    createNameLookupQuery(contentResolver),
+                    createNameLookupQuery(context),
                     createPhoneNumberHelper(context));
         }
         return sInstance;
@@ -83,11 +85,15 @@ public class DefaultVoicemailNotifier implements VoicemailNotifier {
         mPhoneNumberHelper = phoneNumberHelper;
     }
 
-    /** Updates the notification and notifies of the call with the given URI. */
+    /**
+     * Updates the notification and notifies of the call with the given URI.
+     * <p>
+     * This queries the call log and the contacts, so it must not be called from the main thread:
+     * it is called from {@link CallLogNotificationsService}.
+     */
     @Override
     public void updateNotification(Uri newCallUri) {
         // Lookup the list of new voicemails to include in the notification.
-        // TODO: Move this into a service, to avoid holding the receiver up.
         final NewCall[] newCalls = mNewCallsQuery.query();
 
         if (newCalls.length == 0) {
@@ -101,6 +107,13 @@ public class DefaultVoicemailNotifier implements VoicemailNotifier {
         // This represents a list of names to include in the notification.
         String callers = null;
 
+        // Look up the names of all the callers at once.
+        final Set<NumberWithCountryIso> numbers = Sets.newLinkedHashSet();
+        for (NewCall newCall : newCalls) {
+            numbers.add(new NumberWithCountryIso(newCall.number, newCall.countryIso));
+        }
+        final Map<NumberWithCountryIso, String> contactNames = mNameLookupQuery.query(numbers);
+
         // Maps each number into a name: if a number is in the map, it has already left a more
         // recent voicemail.
         final Map<String, String> names = Maps.newHashMap();
@@ -113,8 +126,8 @@ public class DefaultVoicemailNotifier implements VoicemailNotifier {
             // Check if we already know the name associated with this number.
             String name = names.get(newCall.number);
             if (name == null) {
-                // Look it up in the database.
-                name = mNameLookupQuery.query(newCall.number);
+                name = contactNames.get(
+                        new NumberWithCountryIso(newCall.number, newCall.countryIso));
                 // If we cannot lookup the contact, use the number instead.
                 if (name == null) {
                     name = mPhoneNumberHelper.getDisplayNumber(newCall.number, "").toString();
@@ -196,11 +209,13 @@ public class DefaultVoicemailNotifier implements VoicemailNotifier {
         public final Uri callsUri;
         public final Uri voicemailUri;
         public final String number;
+        public final String countryIso;
 
-        public NewCall(Uri callsUri, Uri voicemailUri, String number) {
+        public NewCall(Uri callsUri, Uri voicemailUri, String number, String countryIso) {
             this.callsUri = callsUri;
             this.voicemailUri = voicemailUri;
             this.number = number;
+            this.countryIso = countryIso;
         }
     }
 
@@ -223,11 +238,12 @@ public class DefaultVoicemailNotifier implements VoicemailNotifier {
      */
     private static final class DefaultNewCallsQuery implements NewCallsQuery {
         private static final String[] PROJECTION = {
-            Calls._ID, Calls.NUMBER, Calls.VOICEMAIL_URI
+            Calls._ID, Calls.NUMBER, Calls.VOICEMAIL_URI, Calls.COUNTRY_ISO
         };
         private static final int ID_COLUMN_INDEX = 0;
         private static final int NUMBER_COLUMN_INDEX = 1;
         private static final int VOICEMAIL_URI_COLUMN_INDEX = 2;
+        private static final int COUNTRY_ISO_COLUMN_INDEX = 3;
 
         private final ContentResolver mContentResolver;
 
@@ -259,55 +275,51 @@ public class DefaultVoicemailNotifier implements VoicemailNotifier {
             Uri callsUri = ContentUris.withAppendedId(
                     Calls.CONTENT_URI_WITH_VOICEMAIL, cursor.getLong(ID_COLUMN_INDEX));
             Uri voicemailUri = voicemailUriString == null ? null : Uri.parse(voicemailUriString);
-            return new NewCall(callsUri, voicemailUri, cursor.getString(NUMBER_COLUMN_INDEX));
+            return new NewCall(callsUri, voicemailUri, cursor.getString(NUMBER_COLUMN_INDEX),
+                    cursor.getString(COUNTRY_ISO_COLUMN_INDEX));
         }
     }
 
-    /** Allows determining the name associated with a given phone number. */
+    /** Allows determining the names associated with a set of phone numbers. */
     public interface NameLookupQuery {
         /**
-         * Returns the name associated with the given number in the contacts database, or null if
-         * the number does not correspond to any of the contacts.
+         * Returns the names associated with the given numbers in the contacts database.
          * <p>
-         * If there are multiple contacts with the same phone number, it will return the name of one
-         * of the matching contacts.
+         * Numbers which do not correspond to any of the contacts are not included in the returned
+         * map. If there are multiple contacts with the same phone number, the name of one of the
+         * matching contacts is returned.
          */
-        public String query(String number);
+        public Map<NumberWithCountryIso, String> query(Set<NumberWithCountryIso> numbers);
     }
 
     /** Create a new instance of {@link NameLookupQuery}. */
-    public static NameLookupQuery createNameLookupQuery(ContentResolver contentResolver) {
-        return new DefaultNameLookupQuery(contentResolver);
+    public static NameLookupQuery createNameLookupQuery(Context context) {
+        return new DefaultNameLookupQuery(
+                new ContactInfoHelper(context, ContactsUtils.getCurrentCountryIso(context)));
     }
 
     /**
-     * Default implementation of {@link NameLookupQuery} that looks up the name of a contact in the
-     * contacts database.
+     * Default implementation of {@link NameLookupQuery} that looks up the names of the contacts
+     * in the contacts database, resolving all the numbers together.
      */
     private static final class DefaultNameLookupQuery implements NameLookupQuery {
-        private static final String[] PROJECTION = { PhoneLookup.DISPLAY_NAME };
-        private static final int DISPLAY_NAME_COLUMN_INDEX = 0;
+        private final ContactInfoHelper mContactInfoHelper;
 
-        private final ContentResolver mContentResolver;
-
-        private DefaultNameLookupQuery(ContentResolver contentResolver) {
-            mContentResolver = contentResolver;
+        private DefaultNameLookupQuery(ContactInfoHelper contactInfoHelper) {
+            mContactInfoHelper = contactInfoHelper;
         }
 
         @Override
-        public String query(String number) {
-            Cursor cursor = null;
-            try {
-                cursor = mContentResolver.query(
-                        Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number)),
-                        PROJECTION, null, null, null);
-                if (!cursor.moveToFirst()) return null;
-                return cursor.getString(DISPLAY_NAME_COLUMN_INDEX);
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
+        public Map<NumberWithCountryIso, String> query(Set<NumberWithCountryIso> numbers) {
+            final Map<NumberWithCountryIso, String> names = Maps.newHashMap();
+            for (Map.Entry<NumberWithCountryIso, ContactInfo> entry
+                    : mContactInfoHelper.lookupNumbers(numbers).entrySet()) {
+                String name = entry.getValue().name;
+                if (!TextUtils.isEmpty(name)) {
+                    names.put(entry.getKey(), name);
                 }
             }
+            return names;
         }
     }
 
@@ -16,10 +16,14 @@
 
 package com.android.contacts.calllog;
 
+import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.PhoneLookup;
 
 /**
  * The query to look up the {@link ContactInfo} for a given number in the Call Log.
+ * <p>
+ * {@link #_DATA_PROJECTION} is the equivalent projection on the phone data rows, used to look up
+ * several numbers at once: both projections share the same column indexes.
  */
 final class PhoneQuery {
     public static final String[] _PROJECTION = new String[] {
@@ -33,6 +37,17 @@ final class PhoneQuery {
             PhoneLookup.LOOKUP_KEY,
             PhoneLookup.PHOTO_URI};
 
+    public static final String[] _DATA_PROJECTION = new String[] {
+            Phone.CONTACT_ID,
+            Phone.DISPLAY_NAME,
+            Phone.TYPE,
+            Phone.LABEL,
+            Phone.NUMBER,
+            Phone.NORMALIZED_NUMBER,
+            Phone.PHOTO_ID,
+            Phone.LOOKUP_KEY,
+            Phone.PHOTO_URI};
+
     public static final int PERSON_ID = 0;
     public static final int NAME = 1;
     public static final int PHONE_TYPE = 2;
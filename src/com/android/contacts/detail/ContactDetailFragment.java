@@ -17,7 +17,7 @@
 package com.android.contacts.detail;
 
 import com.android.contacts.Collapser;
-import com.android.contacts.Collapser.Collapsible;
+import com.android.contacts.Collapser.KeyedCollapsible;
 import com.android.contacts.ContactLoader;
 import com.android.contacts.ContactPresenceIconUtil;
 import com.android.contacts.ContactSaveService;
@@ -45,6 +45,7 @@ import com.android.contacts.util.PhoneCapabilityTester;
 import com.android.contacts.widget.TransitionAnimationView;
 import com.android.internal.telephony.ITelephony;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
 
 import android.app.Activity;
 import android.app.Fragment;
@@ -62,6 +63,7 @@ import android.graphics.drawable.Drawable;
 import android.net.ParseException;
 import android.net.Uri;
 import android.net.WebAddress;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.os.RemoteException;
@@ -114,6 +116,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -155,7 +158,6 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
 
     private Button mQuickFixButton;
     private QuickFix mQuickFix;
-    private int mNumPhoneNumbers = 0;
     private String mDefaultCountryIso;
     private boolean mContactHasSocialUpdates;
     private boolean mShowStaticPhoto = true;
@@ -164,21 +166,6 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
             new MakeLocalCopyQuickFix(),
             new AddToMyContactsQuickFix() };
 
-    /**
-     * Device capability: Set during buildEntries and used in the long-press context menu
-     */
-    private boolean mHasPhone;
-
-    /**
-     * Device capability: Set during buildEntries and used in the long-press context menu
-     */
-    private boolean mHasSms;
-
-    /**
-     * Device capability: Set during buildEntries and used in the long-press context menu
-     */
-    private boolean mHasSip;
-
     /**
      * The view shown if the detail list is empty.
      * We set this to the list view when first bind the adapter, so that it won't be shown while
@@ -209,24 +196,15 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
     private Parcelable mListState;
 
     /**
-     * A list of distinct contact IDs included in the current contact.
+     * The entries shown in the list, which are built in the background by
+     * {@link BuildEntriesTask}.
      */
-    private ArrayList<Long> mRawContactIds = new ArrayList<Long>();
-    private ArrayList<DetailViewEntry> mPhoneEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mSmsEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mEmailEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mPostalEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mImEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mNicknameEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mGroupEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mRelationEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mNoteEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mWebsiteEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mSipEntries = new ArrayList<DetailViewEntry>();
-    private ArrayList<DetailViewEntry> mEventEntries = new ArrayList<DetailViewEntry>();
-    private final Map<AccountType, List<DetailViewEntry>> mOtherEntriesMap =
-            new HashMap<AccountType, List<DetailViewEntry>>();
     private ArrayList<ViewEntry> mAllEntries = new ArrayList<ViewEntry>();
+    /** The lookup URI of the contact {@link #mAllEntries} were built for, or null if none. */
+    private Uri mEntriesLookupUri;
+
+    /** The task building the entries of the current contact, if it has not completed yet. */
+    private BuildEntriesTask mBuildEntriesTask;
     private LayoutInflater mInflater;
 
     private boolean mTransitionAnimationRequested;
@@ -429,15 +407,23 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
             mTransitionAnimationRequested = false;
         }
 
+        if (mBuildEntriesTask != null) {
+            mBuildEntriesTask.cancel(false);
+            mBuildEntriesTask = null;
+        }
+
         if (mContactData == null) {
             mView.setVisibility(View.INVISIBLE);
-            mAllEntries.clear();
-            if (mAdapter != null) {
-                mAdapter.notifyDataSetChanged();
-            }
+            clearEntries();
             return;
         }
 
+        if (!Objects.equal(mLookupUri, mEntriesLookupUri)) {
+            // The entries of the previous contact must not be shown, or clicked, until the ones of
+            // this contact are built. Only the entries of the same contact are updated in place.
+            clearEntries();
+        }
+
         // Figure out if the contact has social updates or not
         mContactHasSocialUpdates = !mContactData.getStreamItems().isEmpty();
 
@@ -455,25 +441,45 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
             }
         }
 
-        // Build up the contact entries
-        buildEntries();
+        configureQuickFix();
 
-        // Collapse similar data items for select {@link DataKind}s.
-        Collapser.collapseList(mPhoneEntries);
-        Collapser.collapseList(mSmsEntries);
-        Collapser.collapseList(mEmailEntries);
-        Collapser.collapseList(mPostalEntries);
-        Collapser.collapseList(mImEntries);
+        // Build up the contact entries in the background, they are bound once they are ready.
+        mBuildEntriesTask = new BuildEntriesTask(new ViewEntryBuilder(mContext, mContactData,
+                mDefaultCountryIso, createMoreNetworksClickListener(mContactData)));
+        mBuildEntriesTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
+    }
 
-        mIsUniqueNumber = mPhoneEntries.size() == 1;
-        mIsUniqueEmail = mEmailEntries.size() == 1;
+    /**
+     * Removes the entries shown in the list, without showing the empty view until the entries of
+     * the current contact are bound.
+     */
+    private void clearEntries() {
+        mAllEntries = new ArrayList<ViewEntry>();
+        mEntriesLookupUri = null;
+        mPrimaryPhoneUri = null;
+        mIsUniqueNumber = false;
+        mIsUniqueEmail = false;
+        if (mAdapter != null) {
+            mListView.setEmptyView(null);
+            mAdapter.notifyDataSetChanged();
+        }
+    }
 
-        // Make one aggregated list of all entries for display to the user.
-        setupFlattenedList();
+    /**
+     * Binds the entries built for the current contact.
+     */
+    private void bindEntries(ViewEntryModel model) {
+        mEntriesLookupUri = mLookupUri;
+        mPrimaryPhoneUri = model.primaryPhoneUri;
+        mIsUniqueNumber = model.isUniqueNumber;
+        mIsUniqueEmail = model.isUniqueEmail;
 
         if (mAdapter == null) {
+            mAllEntries = model.entries;
             mAdapter = new ViewAdapter();
             mListView.setAdapter(mAdapter);
+        } else {
+            updateEntries(model.entries);
         }
 
         // Restore {@link ListView} state if applicable because the adapter is now populated.
@@ -482,15 +488,86 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
             mListState = null;
         }
 
-        mAdapter.notifyDataSetChanged();
-
         mListView.setEmptyView(mEmptyView);
 
-        configureQuickFix();
-
         mView.setVisibility(View.VISIBLE);
     }
 
+    /**
+     * Replaces the entries shown in the list with the given ones.
+     * <p>
+     * If each row keeps the same type and data id, e.g., when the same contact is reloaded, the
+     * current entries of the rows which did not change are kept and only the visible rows which
+     * did change are bound again. Otherwise the whole list is refreshed.
+     */
+    private void updateEntries(ArrayList<ViewEntry> entries) {
+        final ArrayList<ViewEntry> oldEntries = mAllEntries;
+        mAllEntries = entries;
+
+        final int count = entries.size();
+        boolean sameRows = oldEntries.size() == count;
+        for (int i = 0; sameRows && i < count; i++) {
+            sameRows = entries.get(i).hasSameKeyAs(oldEntries.get(i));
+        }
+        if (!sameRows) {
+            mAdapter.notifyDataSetChanged();
+            return;
+        }
+
+        final boolean[] changed = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            final ViewEntry oldEntry = oldEntries.get(i);
+            if (entries.get(i).hasSameContentAs(oldEntry)) {
+                // Keep the entry the views of the row are tagged with.
+                entries.set(i, oldEntry);
+            } else {
+                changed[i] = true;
+            }
+        }
+
+        // The rows which are not visible are bound when they are scrolled into view.
+        final int firstPosition = mListView.getFirstVisiblePosition();
+        final int childCount = mListView.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            final int position = firstPosition + i;
+            if (position >= count || !changed[position]) {
+                continue;
+            }
+            final View child = mListView.getChildAt(i);
+            if (mAdapter.getView(position, child, mListView) != child) {
+                // The row now needs a different layout.
+                mAdapter.notifyDataSetChanged();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Builds the entries of a contact in the background, and then binds them unless another
+     * contact has been set since.
+     */
+    private final class BuildEntriesTask extends AsyncTask<Void, Void, ViewEntryModel> {
+        private final ViewEntryBuilder mBuilder;
+
+        public BuildEntriesTask(ViewEntryBuilder builder) {
+            mBuilder = builder;
+        }
+
+        @Override
+        protected ViewEntryModel doInBackground(Void... params) {
+            return mBuilder.build();
+        }
+
+        @Override
+        protected void onPostExecute(ViewEntryModel model) {
+            if (mBuildEntriesTask != this) {
+                return;
+            }
+            mBuildEntriesTask = null;
+            bindEntries(model);
+        }
+    }
+
     /*
      * Sets {@link #mQuickFix} to a useful action and configures the visibility of
      * {@link #mQuickFixButton}
@@ -528,420 +605,513 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
     }
 
     /**
-     * Build up the entries to display on the screen.
+     * The entries to display for a contact, as built by {@link ViewEntryBuilder}. Once it has been
+     * handed to the UI thread, it is only used there.
      */
-    private final void buildEntries() {
-        mHasPhone = PhoneCapabilityTester.isPhone(mContext);
-        mHasSms = PhoneCapabilityTester.isSmsIntentRegistered(mContext);
-        mHasSip = PhoneCapabilityTester.isSipPhone(mContext);
+    private static final class ViewEntryModel {
+        public final ArrayList<ViewEntry> entries;
+        public final Uri primaryPhoneUri;
+        public final boolean isUniqueNumber;
+        public final boolean isUniqueEmail;
 
-        // Clear out the old entries
-        mAllEntries.clear();
+        public ViewEntryModel(ArrayList<ViewEntry> entries, Uri primaryPhoneUri,
+                boolean isUniqueNumber, boolean isUniqueEmail) {
+            this.entries = entries;
+            this.primaryPhoneUri = primaryPhoneUri;
+            this.isUniqueNumber = isUniqueNumber;
+            this.isUniqueEmail = isUniqueEmail;
+        }
+    }
 
-        mRawContactIds.clear();
+    /**
+     * Builds the entries to display for a contact. It may run on any thread: it only uses the
+     * state it is created with, and it does not modify the contact.
+     */
+    private static final class ViewEntryBuilder {
+        private final Context mContext;
+        private final ContactLoader.Result mContactData;
+        private final String mDefaultCountryIso;
+        private final View.OnClickListener mMoreNetworksClickListener;
 
-        mPrimaryPhoneUri = null;
-        mNumPhoneNumbers = 0;
+        /**
+         * Device capability: Set during buildEntries and used to configure the actions
+         */
+        private boolean mHasPhone;
 
-        final AccountTypeManager accountTypes = AccountTypeManager.getInstance(mContext);
+        /**
+         * Device capability: Set during buildEntries and used to configure the actions
+         */
+        private boolean mHasSms;
 
-        // Build up method entries
-        if (mContactData == null) {
-            return;
+        /**
+         * Device capability: Set during buildEntries and used to configure the actions
+         */
+        private boolean mHasSip;
+
+        private Uri mPrimaryPhoneUri = null;
+
+        /**
+         * A list of distinct contact IDs included in the current contact.
+         */
+        private ArrayList<Long> mRawContactIds = new ArrayList<Long>();
+        private ArrayList<DetailViewEntry> mPhoneEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mSmsEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mEmailEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mPostalEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mImEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mNicknameEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mGroupEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mRelationEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mNoteEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mWebsiteEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mSipEntries = new ArrayList<DetailViewEntry>();
+        private ArrayList<DetailViewEntry> mEventEntries = new ArrayList<DetailViewEntry>();
+        private final Map<AccountType, List<DetailViewEntry>> mOtherEntriesMap =
+                new HashMap<AccountType, List<DetailViewEntry>>();
+        private ArrayList<ViewEntry> mAllEntries = new ArrayList<ViewEntry>();
+
+        /**
+         * @param moreNetworksClickListener called when the "More networks" entry is clicked
+         */
+        public ViewEntryBuilder(Context context, ContactLoader.Result contactData,
+                String defaultCountryIso, View.OnClickListener moreNetworksClickListener) {
+            mContext = context;
+            mContactData = contactData;
+            mDefaultCountryIso = defaultCountryIso;
+            mMoreNetworksClickListener = moreNetworksClickListener;
         }
 
-        ArrayList<String> groups = new ArrayList<String>();
-        for (Entity entity: mContactData.getEntities()) {
-            final ContentValues entValues = entity.getEntityValues();
-            final String accountType = entValues.getAsString(RawContacts.ACCOUNT_TYPE);
-            final String dataSet = entValues.getAsString(RawContacts.DATA_SET);
-            final long rawContactId = entValues.getAsLong(RawContacts._ID);
+        /**
+         * Builds the entries. This must be called only once.
+         */
+        public ViewEntryModel build() {
+            // Build up the contact entries
+            buildEntries();
 
-            if (!mRawContactIds.contains(rawContactId)) {
-                mRawContactIds.add(rawContactId);
-            }
+            // Collapse similar data items for select {@link DataKind}s.
+            Collapser.collapseList(mPhoneEntries);
+            Collapser.collapseList(mSmsEntries);
+            Collapser.collapseList(mEmailEntries);
+            Collapser.collapseList(mPostalEntries);
+            Collapser.collapseList(mImEntries);
 
-            AccountType type = accountTypes.getAccountType(accountType, dataSet);
+            final boolean isUniqueNumber = mPhoneEntries.size() == 1;
+            final boolean isUniqueEmail = mEmailEntries.size() == 1;
 
-            for (NamedContentValues subValue : entity.getSubValues()) {
-                final ContentValues entryValues = subValue.values;
-                entryValues.put(Data.RAW_CONTACT_ID, rawContactId);
+            // Make one aggregated list of all entries for display to the user.
+            setupFlattenedList();
 
-                final long dataId = entryValues.getAsLong(Data._ID);
-                final String mimeType = entryValues.getAsString(Data.MIMETYPE);
-                if (mimeType == null) continue;
+            return new ViewEntryModel(mAllEntries, mPrimaryPhoneUri, isUniqueNumber, isUniqueEmail);
+        }
 
-                if (GroupMembership.CONTENT_ITEM_TYPE.equals(mimeType)) {
-                    Long groupId = entryValues.getAsLong(GroupMembership.GROUP_ROW_ID);
-                    if (groupId != null) {
-                        handleGroupMembership(groups, mContactData.getGroupMetaData(), groupId);
-                    }
-                    continue;
+        /**
+         * Build up the entries to display on the screen.
+         */
+        private final void buildEntries() {
+            mHasPhone = PhoneCapabilityTester.isPhone(mContext);
+            mHasSms = PhoneCapabilityTester.isSmsIntentRegistered(mContext);
+            mHasSip = PhoneCapabilityTester.isSipPhone(mContext);
+
+            final AccountTypeManager accountTypes = AccountTypeManager.getInstance(mContext);
+
+            // Build up method entries
+            if (mContactData == null) {
+                return;
+            }
+
+            ArrayList<String> groups = new ArrayList<String>();
+            for (Entity entity: mContactData.getEntities()) {
+                final ContentValues entValues = entity.getEntityValues();
+                final String accountType = entValues.getAsString(RawContacts.ACCOUNT_TYPE);
+                final String dataSet = entValues.getAsString(RawContacts.DATA_SET);
+                final long rawContactId = entValues.getAsLong(RawContacts._ID);
+
+                if (!mRawContactIds.contains(rawContactId)) {
+                    mRawContactIds.add(rawContactId);
                 }
 
-                final DataKind kind = accountTypes.getKindOrFallback(
-                        accountType, dataSet, mimeType);
-                if (kind == null) continue;
-
-                final DetailViewEntry entry = DetailViewEntry.fromValues(mContext, mimeType, kind,
-                        dataId, entryValues, mContactData.isDirectoryEntry(),
-                        mContactData.getDirectoryId());
-
-                final boolean hasData = !TextUtils.isEmpty(entry.data);
-                Integer superPrimary = entryValues.getAsInteger(Data.IS_SUPER_PRIMARY);
-                final boolean isSuperPrimary = superPrimary != null && superPrimary != 0;
-
-                if (StructuredName.CONTENT_ITEM_TYPE.equals(mimeType)) {
-                    // Always ignore the name. It is shown in the header if set
-                } else if (Phone.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                    // Build phone entries
-                    mNumPhoneNumbers++;
-                    String phoneNumberE164 =
-                            entryValues.getAsString(PhoneLookup.NORMALIZED_NUMBER);
-                    entry.data = PhoneNumberUtils.formatNumber(
-                            entry.data, phoneNumberE164, mDefaultCountryIso);
-                    final Intent phoneIntent = mHasPhone ? new Intent(Intent.ACTION_CALL_PRIVILEGED,
-                            Uri.fromParts(Constants.SCHEME_TEL, entry.data, null)) : null;
-                    final Intent smsIntent = mHasSms ? new Intent(Intent.ACTION_SENDTO,
-                            Uri.fromParts(Constants.SCHEME_SMSTO, entry.data, null)) : null;
-
-                    // Configure Icons and Intents.
-                    if (mHasPhone && mHasSms) {
-                        entry.intent = phoneIntent;
-                        entry.secondaryIntent = smsIntent;
-                        entry.secondaryActionIcon = kind.iconAltRes;
-                        entry.secondaryActionDescription = kind.iconAltDescriptionRes;
-                    } else if (mHasPhone) {
-                        entry.intent = phoneIntent;
-                    } else if (mHasSms) {
-                        entry.intent = smsIntent;
-                    } else {
-                        entry.intent = null;
-                    }
+                AccountType type = accountTypes.getAccountType(accountType, dataSet);
 
-                    // Remember super-primary phone
-                    if (isSuperPrimary) mPrimaryPhoneUri = entry.uri;
-
-                    entry.isPrimary = isSuperPrimary;
-                    mPhoneEntries.add(entry);
-                } else if (Email.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                    // Build email entries
-                    entry.intent = new Intent(Intent.ACTION_SENDTO,
-                            Uri.fromParts(Constants.SCHEME_MAILTO, entry.data, null));
-                    entry.isPrimary = isSuperPrimary;
-                    mEmailEntries.add(entry);
-
-                    // When Email rows have status, create additional Im row
-                    final DataStatus status = mContactData.getStatuses().get(entry.id);
-                    if (status != null) {
-                        final String imMime = Im.CONTENT_ITEM_TYPE;
-                        final DataKind imKind = accountTypes.getKindOrFallback(accountType, dataSet,
-                                imMime);
-                        final DetailViewEntry imEntry = DetailViewEntry.fromValues(mContext, imMime,
-                                imKind, dataId, entryValues, mContactData.isDirectoryEntry(),
-                                mContactData.getDirectoryId());
-                        buildImActions(mContext, imEntry, entryValues);
-                        imEntry.applyStatus(status, false);
-                        mImEntries.add(imEntry);
-                    }
-                } else if (StructuredPostal.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                    // Build postal entries
-                    entry.maxLines = POSTAL_ADDRESS_MAX_LINES;
-                    entry.intent = StructuredPostalUtils.getViewPostalAddressIntent(entry.data);
-                    mPostalEntries.add(entry);
-                } else if (Im.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                    // Build IM entries
-                    buildImActions(mContext, entry, entryValues);
-
-                    // Apply presence and status details when available
-                    final DataStatus status = mContactData.getStatuses().get(entry.id);
-                    if (status != null) {
-                        entry.applyStatus(status, false);
+                for (NamedContentValues subValue : entity.getSubValues()) {
+                    final ContentValues entryValues = subValue.values;
+
+                    final long dataId = entryValues.getAsLong(Data._ID);
+                    final String mimeType = entryValues.getAsString(Data.MIMETYPE);
+                    if (mimeType == null) continue;
+
+                    if (GroupMembership.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                        Long groupId = entryValues.getAsLong(GroupMembership.GROUP_ROW_ID);
+                        if (groupId != null) {
+                            handleGroupMembership(groups, mContactData.getGroupMetaData(), groupId);
+                        }
+                        continue;
                     }
-                    mImEntries.add(entry);
-                } else if (Organization.CONTENT_ITEM_TYPE.equals(mimeType)) {
-                    // Organizations are not shown. The first one is shown in the header
-                    // and subsequent ones are not supported anymore
-                } else if (Nickname.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                    // Build nickname entries
-                    final boolean isNameRawContact =
-                        (mContactData.getNameRawContactId() == rawContactId);
-
-                    final boolean duplicatesTitle =
-                        isNameRawContact
-                        && mContactData.getDisplayNameSource() == DisplayNameSources.NICKNAME;
-
-                    if (!duplicatesTitle) {
+
+                    final DataKind kind = accountTypes.getKindOrFallback(
+                            accountType, dataSet, mimeType);
+                    if (kind == null) continue;
+
+                    final DetailViewEntry entry = DetailViewEntry.fromValues(mContext, mimeType,
+                            kind, dataId, entryValues, mContactData.isDirectoryEntry(),
+                            mContactData.getDirectoryId());
+
+                    final boolean hasData = !TextUtils.isEmpty(entry.data);
+                    Integer superPrimary = entryValues.getAsInteger(Data.IS_SUPER_PRIMARY);
+                    final boolean isSuperPrimary = superPrimary != null && superPrimary != 0;
+
+                    if (StructuredName.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                        // Always ignore the name. It is shown in the header if set
+                    } else if (Phone.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                        // Build phone entries
+                        String phoneNumberE164 =
+                                entryValues.getAsString(PhoneLookup.NORMALIZED_NUMBER);
+                        entry.data = PhoneNumberUtils.formatNumber(
+                                entry.data, phoneNumberE164, mDefaultCountryIso);
+                        final Intent phoneIntent = mHasPhone
+                                ? new Intent(Intent.ACTION_CALL_PRIVILEGED,
+                                        Uri.fromParts(Constants.SCHEME_TEL, entry.data, null))
+                                : null;
+                        final Intent smsIntent = mHasSms ? new Intent(Intent.ACTION_SENDTO,
+                                Uri.fromParts(Constants.SCHEME_SMSTO, entry.data, null)) : null;
+
+                        // Configure Icons and Intents.
+                        if (mHasPhone && mHasSms) {
+                            entry.intent = phoneIntent;
+                            entry.secondaryIntent = smsIntent;
+                            entry.secondaryActionIcon = kind.iconAltRes;
+                            entry.secondaryActionDescription = kind.iconAltDescriptionRes;
+                        } else if (mHasPhone) {
+                            entry.intent = phoneIntent;
+                        } else if (mHasSms) {
+                            entry.intent = smsIntent;
+                        } else {
+                            entry.intent = null;
+                        }
+
+                        // Remember super-primary phone
+                        if (isSuperPrimary) mPrimaryPhoneUri = entry.uri;
+
+                        entry.isPrimary = isSuperPrimary;
+                        mPhoneEntries.add(entry);
+                    } else if (Email.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                        // Build email entries
+                        entry.intent = new Intent(Intent.ACTION_SENDTO,
+                                Uri.fromParts(Constants.SCHEME_MAILTO, entry.data, null));
+                        entry.isPrimary = isSuperPrimary;
+                        mEmailEntries.add(entry);
+
+                        // When Email rows have status, create additional Im row
+                        final DataStatus status = mContactData.getStatuses().get(entry.id);
+                        if (status != null) {
+                            final String imMime = Im.CONTENT_ITEM_TYPE;
+                            final DataKind imKind = accountTypes.getKindOrFallback(accountType,
+                                    dataSet, imMime);
+                            final DetailViewEntry imEntry = DetailViewEntry.fromValues(mContext,
+                                    imMime, imKind, dataId, entryValues,
+                                    mContactData.isDirectoryEntry(),
+                                    mContactData.getDirectoryId());
+                            buildImActions(mContext, imEntry, entryValues);
+                            imEntry.applyStatus(status, false);
+                            mImEntries.add(imEntry);
+                        }
+                    } else if (StructuredPostal.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                        // Build postal entries
+                        entry.maxLines = POSTAL_ADDRESS_MAX_LINES;
+                        entry.intent = StructuredPostalUtils.getViewPostalAddressIntent(entry.data);
+                        mPostalEntries.add(entry);
+                    } else if (Im.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                        // Build IM entries
+                        buildImActions(mContext, entry, entryValues);
+
+                        // Apply presence and status details when available
+                        final DataStatus status = mContactData.getStatuses().get(entry.id);
+                        if (status != null) {
+                            entry.applyStatus(status, false);
+                        }
+                        mImEntries.add(entry);
+                    } else if (Organization.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                        // Organizations are not shown. The first one is shown in the header
+                        // and subsequent ones are not supported anymore
+                    } else if (Nickname.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                        // Build nickname entries
+                        final boolean isNameRawContact =
+                            (mContactData.getNameRawContactId() == rawContactId);
+
+                        final boolean duplicatesTitle =
+                            isNameRawContact
+                            && mContactData.getDisplayNameSource() == DisplayNameSources.NICKNAME;
+
+                        if (!duplicatesTitle) {
+                            entry.uri = null;
+                            mNicknameEntries.add(entry);
+                        }
+                    } else if (Note.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                        // Build note entries
                         entry.uri = null;
-                        mNicknameEntries.add(entry);
-                    }
-                } else if (Note.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                    // Build note entries
-                    entry.uri = null;
-                    entry.maxLines = NOTE_MAX_LINES;
-                    mNoteEntries.add(entry);
-                } else if (Website.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                    // Build Website entries
-                    entry.uri = null;
-                    entry.maxLines = WEBSITE_MAX_LINES;
-                    try {
-                        WebAddress webAddress = new WebAddress(entry.data);
-                        entry.intent = new Intent(Intent.ACTION_VIEW,
-                                Uri.parse(webAddress.toString()));
-                    } catch (ParseException e) {
-                        Log.e(TAG, "Couldn't parse website: " + entry.data);
-                    }
-                    mWebsiteEntries.add(entry);
-                } else if (SipAddress.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                    // Build SipAddress entries
-                    entry.uri = null;
-                    entry.maxLines = SIP_ADDRESS_MAX_LINES;
-                    if (mHasSip) {
-                        entry.intent = new Intent(Intent.ACTION_CALL_PRIVILEGED,
-                                Uri.fromParts(Constants.SCHEME_SIP, entry.data, null));
+                        entry.maxLines = NOTE_MAX_LINES;
+                        mNoteEntries.add(entry);
+                    } else if (Website.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                        // Build Website entries
+                        entry.uri = null;
+                        entry.maxLines = WEBSITE_MAX_LINES;
+                        try {
+                            WebAddress webAddress = new WebAddress(entry.data);
+                            entry.intent = new Intent(Intent.ACTION_VIEW,
+                                    Uri.parse(webAddress.toString()));
+                        } catch (ParseException e) {
+                            Log.e(TAG, "Couldn't parse website: " + entry.data);
+                        }
+                        mWebsiteEntries.add(entry);
+                    } else if (SipAddress.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                        // Build SipAddress entries
+                        entry.uri = null;
+                        entry.maxLines = SIP_ADDRESS_MAX_LINES;
+                        if (mHasSip) {
+                            entry.intent = new Intent(Intent.ACTION_CALL_PRIVILEGED,
+                                    Uri.fromParts(Constants.SCHEME_SIP, entry.data, null));
+                        } else {
+                            entry.intent = null;
+                        }
+                        mSipEntries.add(entry);
+                        // TODO: Now that SipAddress is in its own list of entries
+                        // (instead of grouped in mOtherEntries), consider
+                        // repositioning it right under the phone number.
+                        // (Then, we'd also update FallbackAccountType.java to set
+                        // secondary=false for this field, and tweak the weight
+                        // of its DataKind.)
+                    } else if (Event.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                        entry.data = DateUtils.formatDate(mContext, entry.data);
+                        entry.uri = null;
+                        mEventEntries.add(entry);
+                    } else if (Relation.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                        entry.intent = new Intent(Intent.ACTION_SEARCH);
+                        entry.intent.putExtra(SearchManager.QUERY, entry.data);
+                        entry.intent.setType(Contacts.CONTENT_TYPE);
+                        mRelationEntries.add(entry);
                     } else {
-                        entry.intent = null;
-                    }
-                    mSipEntries.add(entry);
-                    // TODO: Now that SipAddress is in its own list of entries
-                    // (instead of grouped in mOtherEntries), consider
-                    // repositioning it right under the phone number.
-                    // (Then, we'd also update FallbackAccountType.java to set
-                    // secondary=false for this field, and tweak the weight
-                    // of its DataKind.)
-                } else if (Event.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                    entry.data = DateUtils.formatDate(mContext, entry.data);
-                    entry.uri = null;
-                    mEventEntries.add(entry);
-                } else if (Relation.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                    entry.intent = new Intent(Intent.ACTION_SEARCH);
-                    entry.intent.putExtra(SearchManager.QUERY, entry.data);
-                    entry.intent.setType(Contacts.CONTENT_TYPE);
-                    mRelationEntries.add(entry);
-                } else {
-                    // Handle showing custom rows
-                    entry.intent = new Intent(Intent.ACTION_VIEW);
-                    entry.intent.setDataAndType(entry.uri, entry.mimetype);
-
-                    if (kind.actionBody != null) {
-                         CharSequence body = kind.actionBody.inflateUsing(mContext, entryValues);
-                         entry.data = (body == null) ? null : body.toString();
-                    }
+                        // Handle showing custom rows
+                        entry.intent = new Intent(Intent.ACTION_VIEW);
+                        entry.intent.setDataAndType(entry.uri, entry.mimetype);
+
+                        if (kind.actionBody != null) {
+                             CharSequence body =
+                                     kind.actionBody.inflateUsing(mContext, entryValues);
+                             entry.data = (body == null) ? null : body.toString();
+                        }
 
-                    if (!TextUtils.isEmpty(entry.data)) {
-                        // If the account type exists in the hash map, add it as another entry for
-                        // that account type
-                        if (mOtherEntriesMap.containsKey(type)) {
-                            List<DetailViewEntry> listEntries = mOtherEntriesMap.get(type);
-                            listEntries.add(entry);
-                        } else {
-                            // Otherwise create a new list with the entry and add it to the hash map
-                            List<DetailViewEntry> listEntries = new ArrayList<DetailViewEntry>();
-                            listEntries.add(entry);
-                            mOtherEntriesMap.put(type, listEntries);
+                        if (!TextUtils.isEmpty(entry.data)) {
+                            // If the account type exists in the hash map, add it as another entry
+                            // for that account type
+                            if (mOtherEntriesMap.containsKey(type)) {
+                                List<DetailViewEntry> listEntries = mOtherEntriesMap.get(type);
+                                listEntries.add(entry);
+                            } else {
+                                // Otherwise create a new list with the entry and add it to the
+                                // hash map
+                                List<DetailViewEntry> listEntries =
+                                        new ArrayList<DetailViewEntry>();
+                                listEntries.add(entry);
+                                mOtherEntriesMap.put(type, listEntries);
+                            }
                         }
                     }
                 }
             }
-        }
 
-        if (!groups.isEmpty()) {
-            DetailViewEntry entry = new DetailViewEntry();
-            Collections.sort(groups);
-            StringBuilder sb = new StringBuilder();
-            int size = groups.size();
-            for (int i = 0; i < size; i++) {
-                if (i != 0) {
-                    sb.append(", ");
+            if (!groups.isEmpty()) {
+                DetailViewEntry entry = new DetailViewEntry();
+                Collections.sort(groups);
+                StringBuilder sb = new StringBuilder();
+                int size = groups.size();
+                for (int i = 0; i < size; i++) {
+                    if (i != 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(groups.get(i));
                 }
-                sb.append(groups.get(i));
+                entry.mimetype = GroupMembership.MIMETYPE;
+                entry.kind = mContext.getString(R.string.groupsLabel);
+                entry.data = sb.toString();
+                entry.maxLines = GROUP_MAX_LINES;
+                mGroupEntries.add(entry);
             }
-            entry.mimetype = GroupMembership.MIMETYPE;
-            entry.kind = mContext.getString(R.string.groupsLabel);
-            entry.data = sb.toString();
-            entry.maxLines = GROUP_MAX_LINES;
-            mGroupEntries.add(entry);
         }
-    }
-
-    /**
-     * Collapse all contact detail entries into one aggregated list with a {@link HeaderViewEntry}
-     * at the top.
-     */
-    private void setupFlattenedList() {
-        // All contacts should have a header view (even if there is no data for the contact).
-        mAllEntries.add(new HeaderViewEntry());
 
-        addPhoneticName();
+        /**
+         * Collapse all contact detail entries into one aggregated list with a
+         * {@link HeaderViewEntry} at the top.
+         */
+        private void setupFlattenedList() {
+            // All contacts should have a header view (even if there is no data for the contact).
+            mAllEntries.add(new HeaderViewEntry());
 
-        flattenList(mPhoneEntries);
-        flattenList(mSmsEntries);
-        flattenList(mEmailEntries);
-        flattenList(mImEntries);
-        flattenList(mNicknameEntries);
-        flattenList(mWebsiteEntries);
+            addPhoneticName();
 
-        addNetworks();
+            flattenList(mPhoneEntries);
+            flattenList(mSmsEntries);
+            flattenList(mEmailEntries);
+            flattenList(mImEntries);
+            flattenList(mNicknameEntries);
+            flattenList(mWebsiteEntries);
 
-        flattenList(mSipEntries);
-        flattenList(mPostalEntries);
-        flattenList(mEventEntries);
-        flattenList(mGroupEntries);
-        flattenList(mRelationEntries);
-        flattenList(mNoteEntries);
-    }
+            addNetworks();
 
-    /**
-     * Add phonetic name (if applicable) to the aggregated list of contact details. This has to be
-     * done manually because phonetic name doesn't have a mimetype or action intent.
-     */
-    private void addPhoneticName() {
-        String phoneticName = ContactDetailDisplayUtils.getPhoneticName(mContext, mContactData);
-        if (TextUtils.isEmpty(phoneticName)) {
-            return;
+            flattenList(mSipEntries);
+            flattenList(mPostalEntries);
+            flattenList(mEventEntries);
+            flattenList(mGroupEntries);
+            flattenList(mRelationEntries);
+            flattenList(mNoteEntries);
         }
 
-        // Add a title
-        String phoneticNameKindTitle = mContext.getString(R.string.name_phonetic);
-        mAllEntries.add(new KindTitleViewEntry(phoneticNameKindTitle.toUpperCase()));
+        /**
+         * Add phonetic name (if applicable) to the aggregated list of contact details. This has to
+         * be done manually because phonetic name doesn't have a mimetype or action intent.
+         */
+        private void addPhoneticName() {
+            String phoneticName = ContactDetailDisplayUtils.getPhoneticName(mContext, mContactData);
+            if (TextUtils.isEmpty(phoneticName)) {
+                return;
+            }
 
-        // Add the phonetic name
-        final DetailViewEntry entry = new DetailViewEntry();
-        entry.kind = phoneticNameKindTitle;
-        entry.data = phoneticName;
-        mAllEntries.add(entry);
-    }
+            // Add a title
+            String phoneticNameKindTitle = mContext.getString(R.string.name_phonetic);
+            mAllEntries.add(new KindTitleViewEntry(phoneticNameKindTitle.toUpperCase()));
 
-    /**
-     * Add attribution and other third-party entries (if applicable) under the "networks" section
-     * of the aggregated list of contact details. This has to be done manually because the
-     * attribution does not have a mimetype and the third-party entries don't have actually belong
-     * to the same {@link DataKind}.
-     */
-    private void addNetworks() {
-        String attribution = ContactDetailDisplayUtils.getAttribution(mContext, mContactData);
-        boolean hasAttribution = !TextUtils.isEmpty(attribution);
-        int networksCount = mOtherEntriesMap.keySet().size();
-
-        // Note: invitableCount will always be 0 for me profile.  (ContactLoader won't set
-        // invitable types for me profile.)
-        int invitableCount = mContactData.getInvitableAccountTypes().size();
-        if (!hasAttribution && networksCount == 0 && invitableCount == 0) {
-            return;
+            // Add the phonetic name
+            final DetailViewEntry entry = new DetailViewEntry();
+            entry.kind = phoneticNameKindTitle;
+            entry.data = phoneticName;
+            mAllEntries.add(entry);
         }
 
-        // Add a title
-        String networkKindTitle = mContext.getString(R.string.connections);
-        mAllEntries.add(new KindTitleViewEntry(networkKindTitle.toUpperCase()));
+        /**
+         * Add attribution and other third-party entries (if applicable) under the "networks"
+         * section of the aggregated list of contact details. This has to be done manually because
+         * the attribution does not have a mimetype and the third-party entries don't have actually
+         * belong to the same {@link DataKind}.
+         */
+        private void addNetworks() {
+            String attribution = ContactDetailDisplayUtils.getAttribution(mContext, mContactData);
+            boolean hasAttribution = !TextUtils.isEmpty(attribution);
+            int networksCount = mOtherEntriesMap.keySet().size();
+
+            // Note: invitableCount will always be 0 for me profile.  (ContactLoader won't set
+            // invitable types for me profile.)
+            int invitableCount = mContactData.getInvitableAccountTypes().size();
+            if (!hasAttribution && networksCount == 0 && invitableCount == 0) {
+                return;
+            }
 
-        // Add the attribution if applicable
-        if (hasAttribution) {
-            final DetailViewEntry entry = new DetailViewEntry();
-            entry.kind = networkKindTitle;
-            entry.data = attribution;
-            mAllEntries.add(entry);
+            // Add a title
+            String networkKindTitle = mContext.getString(R.string.connections);
+            mAllEntries.add(new KindTitleViewEntry(networkKindTitle.toUpperCase()));
+
+            // Add the attribution if applicable
+            if (hasAttribution) {
+                final DetailViewEntry entry = new DetailViewEntry();
+                entry.kind = networkKindTitle;
+                entry.data = attribution;
+                mAllEntries.add(entry);
 
-            // Add a divider below the attribution if there are network details that will follow
-            if (networksCount > 0) {
-                mAllEntries.add(new SeparatorViewEntry());
+                // Add a divider below the attribution if there are network details that will follow
+                if (networksCount > 0) {
+                    mAllEntries.add(new SeparatorViewEntry());
+                }
             }
-        }
 
-        // Add the other entries from third parties
-        for (AccountType accountType : mOtherEntriesMap.keySet()) {
+            // Add the other entries from third parties
+            for (AccountType accountType : mOtherEntriesMap.keySet()) {
 
-            // Add a title for each third party app
-            mAllEntries.add(NetworkTitleViewEntry.fromAccountType(mContext, accountType));
+                // Add a title for each third party app
+                mAllEntries.add(NetworkTitleViewEntry.fromAccountType(mContext, accountType));
 
-            for (DetailViewEntry detailEntry : mOtherEntriesMap.get(accountType)) {
-                // Add indented separator
-                SeparatorViewEntry separatorEntry = new SeparatorViewEntry();
-                separatorEntry.setIsInSubSection(true);
-                mAllEntries.add(separatorEntry);
+                for (DetailViewEntry detailEntry : mOtherEntriesMap.get(accountType)) {
+                    // Add indented separator
+                    SeparatorViewEntry separatorEntry = new SeparatorViewEntry();
+                    separatorEntry.setIsInSubSection(true);
+                    mAllEntries.add(separatorEntry);
 
-                // Add indented detail
-                detailEntry.setIsInSubSection(true);
-                mAllEntries.add(detailEntry);
+                    // Add indented detail
+                    detailEntry.setIsInSubSection(true);
+                    mAllEntries.add(detailEntry);
+                }
             }
-        }
 
-        mOtherEntriesMap.clear();
+            mOtherEntriesMap.clear();
 
-        // Add the "More networks" button, which opens the invitable account type list popup.
-        if (invitableCount > 0) {
-            addMoreNetworks();
+            // Add the "More networks" button, which opens the invitable account type list popup.
+            if (invitableCount > 0) {
+                mAllEntries.add(NetworkTitleViewEntry.forMoreNetworks(
+                        mContext, mMoreNetworksClickListener));
+            }
         }
-    }
-
-    /**
-     * Add the "More networks" entry.  When clicked, show a popup containing a list of invitable
-     * account types.
-     */
-    private void addMoreNetworks() {
-        // First, prepare for the popup.
 
-        // Adapter for the list popup.
-        final InvitableAccountTypesAdapter popupAdapter = new InvitableAccountTypesAdapter(mContext,
-                mContactData);
+        /**
+         * Iterate through {@link DetailViewEntry} in the given list and add it to a list of all
+         * entries. Add a {@link KindTitleViewEntry} at the start if the length of the list is not
+         * 0. Add {@link SeparatorViewEntry}s as dividers as appropriate. Clear the original list.
+         */
+        private void flattenList(ArrayList<DetailViewEntry> entries) {
+            int count = entries.size();
 
-        // Listener called when a popup item is clicked.
-        final AdapterView.OnItemClickListener popupItemListener
-                = new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position,
-                    long id) {
-                if (mListener != null && mContactData != null) {
-                    mListener.onItemClicked(ContactsUtils.getInvitableIntent(
-                            popupAdapter.getItem(position) /* account type */,
-                            mContactData.getLookupUri()));
-                }
+            // Add a title for this kind by extracting the kind from the first entry
+            if (count > 0) {
+                String kind = entries.get(0).kind;
+                mAllEntries.add(new KindTitleViewEntry(kind.toUpperCase()));
             }
-        };
 
-        // Then create the click listener for the "More network" entry.  Open the popup.
-        View.OnClickListener onClickListener = new OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                showListPopup(v, popupAdapter, popupItemListener);
+            // Add all the data entries for this kind
+            for (int i = 0; i < count; i++) {
+                // For all entries except the first one, add a divider above the entry
+                if (i != 0) {
+                    mAllEntries.add(new SeparatorViewEntry());
+                }
+                mAllEntries.add(entries.get(i));
             }
-        };
 
-        // Finally create the entry.
-        mAllEntries.add(NetworkTitleViewEntry.forMoreNetworks(mContext, onClickListener));
+            // Clear old list because it's not needed anymore.
+            entries.clear();
+        }
     }
 
     /**
-     * Iterate through {@link DetailViewEntry} in the given list and add it to a list of all
-     * entries. Add a {@link KindTitleViewEntry} at the start if the length of the list is not 0.
-     * Add {@link SeparatorViewEntry}s as dividers as appropriate. Clear the original list.
+     * Returns the click listener of the "More networks" entry of the given contact, which shows a
+     * popup containing a list of invitable account types.
      */
-    private void flattenList(ArrayList<DetailViewEntry> entries) {
-        int count = entries.size();
+    private View.OnClickListener createMoreNetworksClickListener(
+            final ContactLoader.Result contactData) {
+        return new OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                // Adapter for the list popup.
+                final InvitableAccountTypesAdapter popupAdapter =
+                        new InvitableAccountTypesAdapter(mContext, contactData);
 
-        // Add a title for this kind by extracting the kind from the first entry
-        if (count > 0) {
-            String kind = entries.get(0).kind;
-            mAllEntries.add(new KindTitleViewEntry(kind.toUpperCase()));
-        }
+                // Listener called when a popup item is clicked.
+                final AdapterView.OnItemClickListener popupItemListener
+                        = new AdapterView.OnItemClickListener() {
+                    @Override
+                    public void onItemClick(AdapterView<?> parent, View view, int position,
+                            long id) {
+                        if (mListener != null) {
+                            mListener.onItemClicked(ContactsUtils.getInvitableIntent(
+                                    popupAdapter.getItem(position) /* account type */,
+                                    contactData.getLookupUri()));
+                        }
+                    }
+                };
 
-        // Add all the data entries for this kind
-        for (int i = 0; i < count; i++) {
-            // For all entries except the first one, add a divider above the entry
-            if (i != 0) {
-                mAllEntries.add(new SeparatorViewEntry());
+                showListPopup(v, popupAdapter, popupItemListener);
             }
-            mAllEntries.add(entries.get(i));
-        }
-
-        // Clear old list because it's not needed anymore.
-        entries.clear();
+        };
     }
 
     /**
      * Maps group ID to the corresponding group name, collapses all synonymous groups.
      * Ignores default groups (e.g. My Contacts) and favorites groups.
      */
-    private void handleGroupMembership(
+    private static void handleGroupMembership(
             ArrayList<String> groups, List<GroupMetaData> groupMetaData, long groupId) {
         if (groupMetaData == null) {
             return;
@@ -1099,6 +1269,23 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
          */
         public void click(View clickedView, Listener fragmentListener) {
         }
+
+        /**
+         * Returns true if this entry is for the same row as the given one, i.e., if both have the
+         * same type and id.
+         */
+        boolean hasSameKeyAs(ViewEntry entry) {
+            return viewTypeForAdapter == entry.viewTypeForAdapter && id == entry.id;
+        }
+
+        /**
+         * Returns true if this entry is displayed, and behaves, like the given one, so that a row
+         * bound to the given entry does not need to be bound again.
+         */
+        boolean hasSameContentAs(ViewEntry entry) {
+            return getClass() == entry.getClass() && id == entry.id
+                    && isEnabled == entry.isEnabled;
+        }
     }
 
     /**
@@ -1110,6 +1297,11 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
             super(ViewAdapter.VIEW_TYPE_HEADER_ENTRY);
         }
 
+        @Override
+        boolean hasSameContentAs(ViewEntry entry) {
+            // The header shows the contact itself, which is bound again whenever it is set.
+            return false;
+        }
     }
 
     /**
@@ -1135,6 +1327,12 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
         public boolean isInSubSection() {
             return mIsInSubSection;
         }
+
+        @Override
+        boolean hasSameContentAs(ViewEntry entry) {
+            return super.hasSameContentAs(entry)
+                    && mIsInSubSection == ((SeparatorViewEntry) entry).mIsInSubSection;
+        }
     }
 
     /**
@@ -1153,6 +1351,12 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
         public String getTitle() {
             return mTitle;
         }
+
+        @Override
+        boolean hasSameContentAs(ViewEntry entry) {
+            return super.hasSameContentAs(entry)
+                    && TextUtils.equals(mTitle, ((KindTitleViewEntry) entry).mTitle);
+        }
     }
 
     /**
@@ -1200,13 +1404,24 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
         public CharSequence getLabel() {
             return mLabel;
         }
+
+        @Override
+        boolean hasSameContentAs(ViewEntry entry) {
+            if (!super.hasSameContentAs(entry)) {
+                return false;
+            }
+            // The icon is the one of the account type, which the label identifies.
+            final NetworkTitleViewEntry other = (NetworkTitleViewEntry) entry;
+            return TextUtils.equals(mLabel, other.mLabel)
+                    && mOnClickListener == other.mOnClickListener;
+        }
     }
 
     /**
      * An item with a single detail for a contact in the {@link ViewAdapter}
      * list of data.
      */
-    static class DetailViewEntry extends ViewEntry implements Collapsible<DetailViewEntry> {
+    static class DetailViewEntry extends ViewEntry implements KeyedCollapsible<DetailViewEntry> {
         // TODO: Make getters/setters for these fields
         public int type = -1;
         public String kind;
@@ -1335,12 +1550,26 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
 
             // uri, and contactdId, shouldn't make a difference. Just keep the original.
 
-            // Keep track of all the ids that have been collapsed with this one.
+            // Keep track of all the ids that have been collapsed with this one, including the ones
+            // already collapsed with the given entry.
             ids.add(entry.getId());
-            collapseCount++;
+            ids.addAll(entry.ids);
+            collapseCount += entry.collapseCount + 1;
             return true;
         }
 
+        @Override
+        public Object getCollapseKey() {
+            return Arrays.asList(mimetype, data,
+                    intent == null ? null : intent.getAction(),
+                    secondaryIntent == null ? null : secondaryIntent.getAction());
+        }
+
+        @Override
+        public boolean isCollapseKeyExact() {
+            return !Phone.CONTENT_ITEM_TYPE.equals(mimetype);
+        }
+
         @Override
         public boolean shouldCollapseWith(DetailViewEntry entry) {
             if (entry == null) {
@@ -1366,6 +1595,41 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
             if (fragmentListener == null || intent == null) return;
             fragmentListener.onItemClicked(intent);
         }
+
+        @Override
+        boolean hasSameContentAs(ViewEntry entry) {
+            if (!super.hasSameContentAs(entry)) {
+                return false;
+            }
+            final DetailViewEntry other = (DetailViewEntry) entry;
+            return type == other.type
+                    && TextUtils.equals(kind, other.kind)
+                    && TextUtils.equals(typeString, other.typeString)
+                    && TextUtils.equals(data, other.data)
+                    && Objects.equal(uri, other.uri)
+                    && maxLines == other.maxLines
+                    && TextUtils.equals(mimetype, other.mimetype)
+                    && TextUtils.equals(resPackageName, other.resPackageName)
+                    && isPrimary == other.isPrimary
+                    && secondaryActionIcon == other.secondaryActionIcon
+                    && secondaryActionDescription == other.secondaryActionDescription
+                    && areIntentsEqual(intent, other.intent)
+                    && areIntentsEqual(secondaryIntent, other.secondaryIntent)
+                    && ids.equals(other.ids)
+                    && collapseCount == other.collapseCount
+                    && presence == other.presence
+                    && chatCapability == other.chatCapability
+                    && TextUtils.equals(footerLine, other.footerLine)
+                    && mIsInSubSection == other.mIsInSubSection;
+        }
+
+        private static boolean areIntentsEqual(Intent a, Intent b) {
+            if (a == null || b == null) {
+                return a == b;
+            }
+            // The extras of the intents only depend on the data, which is compared separately.
+            return a.filterEquals(b);
+        }
     }
 
     /**
@@ -1559,10 +1823,10 @@ public class ContactDetailFragment extends Fragment implements FragmentKeyListen
                         parent, false);
                 viewCache = new NetworkTitleViewCache(result);
                 result.setTag(viewCache);
-                result.findViewById(R.id.primary_action_view).setOnClickListener(
-                        entry.mOnClickListener);
             }
 
+            result.findViewById(R.id.primary_action_view).setOnClickListener(
+                    entry.mOnClickListener);
             viewCache.name.setText(entry.getLabel());
             viewCache.icon.setImageDrawable(entry.getIcon());
 
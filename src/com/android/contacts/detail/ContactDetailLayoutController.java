@@ -235,9 +235,24 @@ public class ContactDetailLayoutController {
         }
     }
 
+    /**
+     * Sets the listener notified when more stream items of the contact should be loaded.
+     */
+    public void setUpdatesFragmentListener(ContactDetailUpdatesFragment.Listener listener) {
+        if (mUpdatesFragment != null) {
+            mUpdatesFragment.setListener(listener);
+        }
+    }
+
     public void setContactData(ContactLoader.Result data) {
+        // The stream items of a partial contact might still be loading: keep the current layout
+        // of the same contact until they are known.
+        final boolean sameContact = mContactData != null
+                && UriUtils.areEqual(mContactData.getLookupUri(), data.getLookupUri());
+        if (!data.isPartial() || !data.getStreamItems().isEmpty() || !sameContact) {
+            mContactHasUpdates = !data.getStreamItems().isEmpty();
+        }
         mContactData = data;
-        mContactHasUpdates = !data.getStreamItems().isEmpty();
         if (mContactHasUpdates) {
             showContactWithUpdates();
         } else {
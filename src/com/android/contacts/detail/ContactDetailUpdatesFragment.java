@@ -34,6 +34,7 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AbsListView.OnScrollListener;
 import android.widget.ListView;
 
@@ -42,6 +43,19 @@ public class ContactDetailUpdatesFragment extends ListFragment
 
     private static final String TAG = "ContactDetailUpdatesFragment";
 
+    /**
+     * The number of stream items left below the last visible one when more of them are requested.
+     */
+    private static final int LOAD_MORE_THRESHOLD = 5;
+
+    public interface Listener {
+        /**
+         * Called when the list gets close to its end while the contact has more stream items
+         * than the ones shown, see {@link ContactLoader.Result#hasMoreStreamItems()}.
+         */
+        public void onLoadMoreStreamItems();
+    }
+
     private ContactLoader.Result mContactData;
     private Uri mLookupUri;
 
@@ -63,6 +77,35 @@ public class ContactDetailUpdatesFragment extends ListFragment
 
     private OnScrollListener mVerticalScrollListener;
 
+    private Listener mListener;
+
+    /**
+     * Requests more stream items as the end of the list gets close, and forwards the scroll
+     * events to {@link #mVerticalScrollListener}.
+     */
+    private final OnScrollListener mScrollListener = new OnScrollListener() {
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                int totalItemCount) {
+            if (mVerticalScrollListener != null) {
+                mVerticalScrollListener.onScroll(
+                        view, firstVisibleItem, visibleItemCount, totalItemCount);
+            }
+            if (mListener != null && mContactData != null && mContactData.hasMoreStreamItems()
+                    && firstVisibleItem + visibleItemCount + LOAD_MORE_THRESHOLD
+                            >= totalItemCount) {
+                mListener.onLoadMoreStreamItems();
+            }
+        }
+
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+            if (mVerticalScrollListener != null) {
+                mVerticalScrollListener.onScrollStateChanged(view, scrollState);
+            }
+        }
+    };
+
     /**
      * Listener on clicks on a stream item.
      * <p>
@@ -132,7 +175,7 @@ public class ContactDetailUpdatesFragment extends ListFragment
         mStreamItemAdapter = new StreamItemAdapter(getActivity(), mStreamItemClickListener,
                 mStreamItemPhotoItemClickListener);
         setListAdapter(mStreamItemAdapter);
-        getListView().setOnScrollListener(mVerticalScrollListener);
+        getListView().setOnScrollListener(mScrollListener);
 
         // It is possible that the contact data was set to the fragment when it was first attached
         // to the activity, but before this method was called because the fragment was not
@@ -201,6 +244,10 @@ public class ContactDetailUpdatesFragment extends ListFragment
         mVerticalScrollListener = listener;
     }
 
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
     /**
      * Returns the top coordinate of the first item in the {@link ListView}. If the first item
      * in the {@link ListView} is not visible or there are no children in the list, then return
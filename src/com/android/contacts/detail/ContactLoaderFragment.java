@@ -171,6 +171,19 @@ public class ContactLoaderFragment extends Fragment implements FragmentKeyListen
         mListener = value;
     }
 
+    /**
+     * Loads the next page of the stream items of the contact, if it has more.
+     *
+     * @see ContactLoader#loadMoreStreamItems()
+     */
+    public void loadMoreStreamItems() {
+        final Loader<ContactLoader.Result> loader =
+                getLoaderManager().getLoader(LOADER_DETAILS);
+        if (loader != null) {
+            ((ContactLoader) loader).loadMoreStreamItems();
+        }
+    }
+
     /**
      * The listener for the detail loader
      */
@@ -180,7 +193,8 @@ public class ContactLoaderFragment extends Fragment implements FragmentKeyListen
         public Loader<ContactLoader.Result> onCreateLoader(int id, Bundle args) {
             Uri lookupUri = args.getParcelable(LOADER_ARG_CONTACT_URI);
             return new ContactLoader(mContext, lookupUri, true /* loadGroupMetaData */,
-                    true /* loadStreamItems */, true /* load invitable account types */);
+                    true /* loadStreamItems */, true /* load invitable account types */,
+                    true /* deliverPartialResults */, true /* useCache */);
         }
 
         @Override
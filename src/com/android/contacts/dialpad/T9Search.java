@@ -28,7 +28,6 @@ import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Contacts;
-import android.telephony.PhoneNumberUtils;
 import android.text.Spannable;
 import android.text.style.ForegroundColorSpan;
 import android.view.LayoutInflater;
@@ -42,6 +41,7 @@ import com.android.contacts.ContactPhotoManager;
 import com.android.contacts.R;
 import com.android.contacts.dialpad.util.NameToNumber;
 import com.android.contacts.dialpad.util.NameToNumberFactory;
+import com.android.contacts.util.PhoneNumberFormatCache;
 
 /**
  * @author shade, Danesh, pawitp
@@ -81,6 +81,7 @@ class T9Search {
         initT9Map();
 
         NameToNumber normalizer = NameToNumberFactory.create(mContext, sT9Chars, sT9Digits);
+        PhoneNumberFormatCache formatCache = PhoneNumberFormatCache.getDialpadInstance();
 
         Cursor contact = mContext.getContentResolver().query(Contacts.CONTENT_URI, CONTACT_PROJECTION, CONTACT_QUERY, null, CONTACT_SORT);
         Cursor phone = mContext.getContentResolver().query(Phone.CONTENT_URI, PHONE_PROJECTION, PHONE_ID_SELECTION, PHONE_ID_SELECTION_ARGS, PHONE_SORT);
@@ -96,7 +97,7 @@ class T9Search {
                 ContactItem contactInfo = new ContactItem();
                 contactInfo.id = contactId;
                 contactInfo.name = contact.getString(1);
-                contactInfo.number = PhoneNumberUtils.formatNumber(num);
+                contactInfo.number = formatCache.getFormattedNumber(num, null);
                 contactInfo.normalNumber = removeNonDigits(num);
                 contactInfo.normalName = normalizer.convert(contact.getString(1));
                 contactInfo.timesContacted = contact.getInt(2);
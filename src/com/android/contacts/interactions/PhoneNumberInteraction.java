@@ -16,7 +16,7 @@
 package com.android.contacts.interactions;
 
 import com.android.contacts.Collapser;
-import com.android.contacts.Collapser.Collapsible;
+import com.android.contacts.Collapser.KeyedCollapsible;
 import com.android.contacts.ContactSaveService;
 import com.android.contacts.ContactsUtils;
 import com.android.contacts.R;
@@ -79,7 +79,7 @@ public class PhoneNumberInteraction implements OnLoadCompleteListener<Cursor> {
      * A model object for capturing a phone number for a given contact.
      */
     @VisibleForTesting
-    /* package */ static class PhoneItem implements Parcelable, Collapsible<PhoneItem> {
+    /* package */ static class PhoneItem implements Parcelable, KeyedCollapsible<PhoneItem> {
         long id;
         String phoneNumber;
         String accountType;
@@ -125,6 +125,17 @@ public class PhoneNumberInteraction implements OnLoadCompleteListener<Cursor> {
                     Phone.CONTENT_ITEM_TYPE, phoneItem.phoneNumber);
         }
 
+        @Override
+        public Object getCollapseKey() {
+            return phoneNumber;
+        }
+
+        @Override
+        public boolean isCollapseKeyExact() {
+            // The same number may also be written in other formats.
+            return false;
+        }
+
         @Override
         public String toString() {
             return phoneNumber;
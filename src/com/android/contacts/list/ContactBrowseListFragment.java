@@ -16,9 +16,11 @@
 package com.android.contacts.list;
 
 import com.android.common.widget.CompositeCursorAdapter.Partition;
+import com.android.contacts.ContactPrefetcher;
 import com.android.contacts.R;
 import com.android.contacts.util.ContactLoaderUtils;
 import com.android.contacts.widget.AutoScrollListView;
+import com.google.common.collect.Lists;
 
 import android.app.Activity;
 import android.content.ContentResolver;
@@ -38,6 +40,13 @@ import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Directory;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.AdapterView;
+import android.widget.AdapterView.OnItemSelectedListener;
 
 import java.util.List;
 
@@ -74,6 +83,23 @@ public abstract class ContactBrowseListFragment extends
      */
     private static final int AUTOSELECT_FIRST_FOUND_CONTACT_MIN_QUERY_LENGTH = 2;
 
+    /**
+     * The message used to prefetch the contact the user dwells on with the keyboard, see
+     * {@link #setPrefetchEnabled(boolean)}.
+     */
+    private static final int MESSAGE_PREFETCH_DWELLED_CONTACT = 2;
+
+    /**
+     * The time in millis a row must stay selected with the keyboard before the contact is
+     * prefetched.
+     */
+    private static final int DELAY_PREFETCH_DWELLED_CONTACT_MILLIS = 300;
+
+    /**
+     * The number of contacts prefetched on each side of the selected one.
+     */
+    private static final int PREFETCH_NEIGHBOR_COUNT = 2;
+
     private SharedPreferences mPrefs;
     private Handler mHandler;
 
@@ -94,6 +120,8 @@ public abstract class ContactBrowseListFragment extends
 
     protected OnContactBrowserActionListener mListener;
     private ContactLookupTask mContactLookupTask;
+    private boolean mPrefetchEnabled;
+    private ContactPrefetcher mPrefetcher;
 
     private final class ContactLookupTask extends AsyncTask<Void, Void, Uri> {
 
@@ -163,6 +191,9 @@ public abstract class ContactBrowseListFragment extends
                         case MESSAGE_AUTOSELECT_FIRST_FOUND_CONTACT:
                             selectDefaultContact();
                             break;
+                        case MESSAGE_PREFETCH_DWELLED_CONTACT:
+                            prefetchAround(msg.arg1, true);
+                            break;
                     }
                 }
             };
@@ -513,6 +544,8 @@ public abstract class ContactBrowseListFragment extends
         mSelectionRequired = false;
         mSelectionVerified = true;
 
+        prefetchAround(selectedPosition, false);
+
         if (mSelectionPersistenceRequested) {
             saveSelectedUri(mSelectedContactUri);
             mSelectionPersistenceRequested = false;
@@ -567,6 +600,101 @@ public abstract class ContactBrowseListFragment extends
         setSelectedContactUri(contactUri, false, mSmoothScrollRequested, false, false);
     }
 
+    /**
+     * Sets whether the contacts next to the selected one, and the ones the user dwells on with
+     * the keyboard, are loaded ahead of being opened, so that they show without a loading state.
+     */
+    public void setPrefetchEnabled(boolean enabled) {
+        mPrefetchEnabled = enabled;
+        if (!enabled) {
+            cancelPrefetch();
+        }
+    }
+
+    /**
+     * Prefetches the contacts next to the given position, and the one at the position itself if
+     * requested, nearest and next ones first.
+     */
+    private void prefetchAround(int position, boolean includePosition) {
+        final ContactListAdapter adapter = getAdapter();
+        if (!mPrefetchEnabled || position == -1 || adapter == null || getContext() == null) {
+            return;
+        }
+        if (mPrefetcher == null) {
+            mPrefetcher = new ContactPrefetcher(getContext());
+        }
+
+        final List<Uri> lookupUris = Lists.newArrayList();
+        if (includePosition) {
+            addContactUri(lookupUris, adapter, position);
+        }
+        for (int i = 1; i <= PREFETCH_NEIGHBOR_COUNT; i++) {
+            addContactUri(lookupUris, adapter, position + i);
+            addContactUri(lookupUris, adapter, position - i);
+        }
+        mPrefetcher.prefetch(lookupUris);
+    }
+
+    private static void addContactUri(List<Uri> lookupUris, ContactListAdapter adapter,
+            int position) {
+        if (position < 0 || position >= adapter.getCount()) {
+            return;
+        }
+        final Uri lookupUri = adapter.getContactUri(position);
+        if (lookupUri != null) {
+            lookupUris.add(lookupUri);
+        }
+    }
+
+    private void cancelPrefetch() {
+        if (mHandler != null) {
+            mHandler.removeMessages(MESSAGE_PREFETCH_DWELLED_CONTACT);
+        }
+        if (mPrefetcher != null) {
+            mPrefetcher.cancel();
+        }
+    }
+
+    @Override
+    protected void onCreateView(LayoutInflater inflater, ViewGroup container) {
+        super.onCreateView(inflater, container);
+        getListView().setOnItemSelectedListener(new OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (!mPrefetchEnabled) {
+                    return;
+                }
+                final Handler handler = getHandler();
+                handler.removeMessages(MESSAGE_PREFETCH_DWELLED_CONTACT);
+                handler.sendMessageDelayed(handler.obtainMessage(MESSAGE_PREFETCH_DWELLED_CONTACT,
+                        position - getListView().getHeaderViewsCount(), 0),
+                        DELAY_PREFETCH_DWELLED_CONTACT_MILLIS);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+                if (mHandler != null) {
+                    mHandler.removeMessages(MESSAGE_PREFETCH_DWELLED_CONTACT);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        super.onScrollStateChanged(view, scrollState);
+        // The contacts around the selection are not the ones the user is heading to anymore.
+        if (scrollState != OnScrollListener.SCROLL_STATE_IDLE) {
+            cancelPrefetch();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        cancelPrefetch();
+    }
+
     protected void requestSelectionToScreen(int selectedPosition) {
         if (selectedPosition != -1) {
             AutoScrollListView listView = (AutoScrollListView)getListView();
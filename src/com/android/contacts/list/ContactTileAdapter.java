@@ -23,6 +23,8 @@ import com.android.contacts.ContactsUtils;
 import com.android.contacts.GroupMemberLoader;
 import com.android.contacts.GroupMemberLoader.GroupDetailQuery;
 import com.android.contacts.R;
+import com.android.contacts.calllog.CallStatistics;
+import com.android.contacts.calllog.CallStatisticsEngine;
 import com.android.contacts.list.ContactTileAdapter.DisplayType;
 
 import android.content.ContentUris;
@@ -251,6 +253,9 @@ public class ContactTileAdapter extends BaseAdapter {
             contact.phoneLabel = (String) Phone.getTypeLabel(mResources, phoneNumberType,
                     phoneNumberCustomLabel);
             contact.phoneNumber = cursor.getString(mPhoneNumberIndex);
+            contact.callStatistics =
+                    CallStatisticsEngine.getInstance(mContext).getStatisticsForContact(
+                            contact.lookupKey);
         } else {
             // Set presence icon and status message
             Drawable icon = null;
@@ -658,6 +663,8 @@ public class ContactTileAdapter extends BaseAdapter {
         public Uri photoUri;
         public Uri lookupKey;
         public Drawable presenceIcon;
+        /** The totals of the calls with the contact, only set for the phone-only tiles. */
+        public CallStatistics callStatistics;
     }
 
     private static class ViewTypes {
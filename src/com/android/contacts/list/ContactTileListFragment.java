@@ -18,6 +18,7 @@ package com.android.contacts.list;
 import com.android.contacts.ContactPhotoManager;
 import com.android.contacts.ContactTileLoaderFactory;
 import com.android.contacts.R;
+import com.android.contacts.calllog.CallStatisticsEngine;
 import com.android.contacts.list.ContactTileAdapter.DisplayType;
 
 import android.app.Activity;
@@ -59,6 +60,8 @@ public class ContactTileListFragment extends Fragment {
     private DisplayType mDisplayType;
     private TextView mEmptyView;
     private ListView mListView;
+    /** The engine the call statistics listener was added to, or null if it was not added. */
+    private CallStatisticsEngine mCallStatisticsEngine;
 
     @Override
     public void onAttach(Activity activity) {
@@ -96,6 +99,20 @@ public class ContactTileListFragment extends Fragment {
         super.onStart();
         // TODO: Use initLoader?
         getLoaderManager().restartLoader(LOADER_CONTACTS, null, mContactTileLoaderListener);
+        if (mDisplayType == DisplayType.STREQUENT_PHONE_ONLY) {
+            // The phone-only tiles show the number of calls with each contact.
+            mCallStatisticsEngine = CallStatisticsEngine.getInstance(getActivity());
+            mCallStatisticsEngine.addListener(mCallStatisticsListener);
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        if (mCallStatisticsEngine != null) {
+            mCallStatisticsEngine.removeListener(mCallStatisticsListener);
+            mCallStatisticsEngine = null;
+        }
     }
 
     public void setColumnCount(int columnCount) {
@@ -111,6 +128,14 @@ public class ContactTileListFragment extends Fragment {
         mAdapter.enableQuickContact(enableQuickContact);
     }
 
+    private final CallStatisticsEngine.Listener mCallStatisticsListener =
+            new CallStatisticsEngine.Listener() {
+        @Override
+        public void onCallStatisticsChanged() {
+            mAdapter.notifyDataSetChanged();
+        }
+    };
+
     private final LoaderManager.LoaderCallbacks<Cursor> mContactTileLoaderListener =
             new LoaderCallbacks<Cursor>() {
 
@@ -42,6 +42,7 @@ public class ContactTileView extends FrameLayout {
     private TextView mStatus;
     private TextView mPhoneLabel;
     private TextView mPhoneNumber;
+    private TextView mCallStatistics;
     private ContactPhotoManager mPhotoManager = null;
     private View mPushState;
     private View mHorizontalDivider;
@@ -61,6 +62,7 @@ public class ContactTileView extends FrameLayout {
         mStatus = (TextView) findViewById(R.id.contact_tile_status);
         mPhoneLabel = (TextView) findViewById(R.id.contact_tile_phone_type);
         mPhoneNumber = (TextView) findViewById(R.id.contact_tile_phone_number);
+        mCallStatistics = (TextView) findViewById(R.id.contact_tile_call_statistics);
         mPushState = findViewById(R.id.contact_tile_push_state);
         mHorizontalDivider = findViewById(R.id.contact_tile_horizontal_divider);
 
@@ -114,6 +116,17 @@ public class ContactTileView extends FrameLayout {
                 mPhoneNumber.setText(entry.phoneNumber);
             }
 
+            if (mCallStatistics != null) {
+                if (entry.callStatistics == null) {
+                    mCallStatistics.setVisibility(View.GONE);
+                } else {
+                    final int callCount = entry.callStatistics.getCallCount();
+                    mCallStatistics.setText(getResources().getQuantityString(
+                            R.plurals.call_statistics_count, callCount, callCount));
+                    mCallStatistics.setVisibility(View.VISIBLE);
+                }
+            }
+
             setVisibility(View.VISIBLE);
 
             if (mPhotoManager != null) {
@@ -16,6 +16,7 @@
 
 package com.android.contacts.quickcontact;
 
+import com.android.contacts.Collapser;
 import com.android.contacts.ContactsUtils;
 import com.android.contacts.R;
 import com.android.contacts.model.AccountType.EditType;
@@ -42,11 +43,13 @@ import android.provider.ContactsContract.Data;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.util.Arrays;
+
 /**
  * Description of a specific {@link Data#_ID} item, with style information
  * defined by a {@link DataKind}.
  */
-public class DataAction implements Action {
+public class DataAction implements Action, Collapser.KeyedCollapsible<Action> {
     private static final String TAG = "DataAction";
 
     private final Context mContext;
@@ -319,6 +322,17 @@ public class DataAction implements Action {
         return true;
     }
 
+    @Override
+    public Object getCollapseKey() {
+        return Arrays.asList(mMimeType, mBody == null ? null : mBody.toString(),
+                mIntent == null ? null : mIntent.getAction());
+    }
+
+    @Override
+    public boolean isCollapseKeyExact() {
+        return !Phone.CONTENT_ITEM_TYPE.equals(mMimeType);
+    }
+
     @Override
     public boolean shouldCollapseWith(Action t) {
         if (t == null) {
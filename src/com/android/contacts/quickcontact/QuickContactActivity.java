@@ -22,8 +22,6 @@ import com.android.contacts.R;
 import com.android.contacts.model.AccountTypeManager;
 import com.android.contacts.model.DataKind;
 import com.android.contacts.util.DataStatus;
-import com.android.contacts.util.NotifyingAsyncQueryHandler;
-import com.android.contacts.util.NotifyingAsyncQueryHandler.AsyncQueryListener;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
@@ -96,7 +94,10 @@ public class QuickContactActivity extends Activity {
     @SuppressWarnings("deprecation")
     private static final String LEGACY_AUTHORITY = android.provider.Contacts.AUTHORITY;
 
-    private NotifyingAsyncQueryHandler mHandler;
+    private final Handler mHandler = new Handler();
+
+    /** The task loading the data of the contact, if it has not completed yet. */
+    private LoadDataTask mLoadDataTask;
 
     private Uri mLookupUri;
     private String[] mExcludeMimes;
@@ -147,9 +148,6 @@ public class QuickContactActivity extends Activity {
     private static final List<String> TRAILING_MIMETYPES = Lists.newArrayList(
             StructuredPostal.CONTENT_ITEM_TYPE, Website.CONTENT_ITEM_TYPE);
 
-    /** Id for the background handler that loads the data */
-    private static final int HANDLER_ID_DATA = 1;
-
     @Override
     protected void onCreate(Bundle icicle) {
         super.onCreate(icicle);
@@ -190,8 +188,6 @@ public class QuickContactActivity extends Activity {
         mListPager.setAdapter(new ViewPagerAdapter(getFragmentManager()));
         mListPager.setOnPageChangeListener(new PageChangeListener());
 
-        mHandler = new NotifyingAsyncQueryHandler(this, mQueryListener);
-
         show();
     }
 
@@ -225,16 +221,18 @@ public class QuickContactActivity extends Activity {
         mPhotoContainer = findViewById(R.id.photo_container);
         setHeaderNameText(R.id.name, R.string.missing_name);
 
-        // Start background query for data, but only select photo rows when they
-        // directly match the super-primary PHOTO_ID.
+        // Start background query for data, which also builds the actions from it
         final Uri dataUri = Uri.withAppendedPath(lookupUri, Contacts.Data.CONTENT_DIRECTORY);
-        mHandler.cancelOperation(HANDLER_ID_DATA);
+        cancelLoadData();
+        mLoadDataTask = new LoadDataTask(dataUri, mExcludeMimes);
+        mLoadDataTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
+    }
 
-        // Select all data items of the contact (except for photos, where we only select the display
-        // photo)
-        mHandler.startQuery(HANDLER_ID_DATA, lookupUri, dataUri, DataQuery.PROJECTION, Data.MIMETYPE
-                + "!=? OR (" + Data.MIMETYPE + "=? AND " + Data._ID + "=" + Contacts.PHOTO_ID
-                + ")", new String[] { Photo.CONTENT_ITEM_TYPE, Photo.CONTENT_ITEM_TYPE }, null);
+    private void cancelLoadData() {
+        if (mLoadDataTask != null) {
+            mLoadDataTask.cancel(false);
+            mLoadDataTask = null;
+        }
     }
 
     private boolean handleOutsideTouch() {
@@ -248,7 +246,7 @@ public class QuickContactActivity extends Activity {
 
     private void hide(boolean withAnimation) {
         // cancel any pending queries
-        mHandler.cancelOperation(HANDLER_ID_DATA);
+        cancelLoadData();
 
         if (withAnimation) {
             mFloatingLayout.hideChild(new Runnable() {
@@ -268,46 +266,78 @@ public class QuickContactActivity extends Activity {
         hide(true);
     }
 
-    private final AsyncQueryListener mQueryListener = new AsyncQueryListener() {
+    /**
+     * Loads the data of the contact, and builds the {@link ActionModel} from it, in the
+     * background. The dialog is then shown with it.
+     */
+    private final class LoadDataTask extends AsyncTask<Void, Void, ActionModel> {
+        private final Uri mDataUri;
+        private final String[] mTaskExcludeMimes;
+
+        public LoadDataTask(Uri dataUri, String[] excludeMimes) {
+            mDataUri = dataUri;
+            mTaskExcludeMimes = excludeMimes;
+        }
+
         @Override
-        public synchronized void onQueryComplete(int token, Object cookie, Cursor cursor) {
+        protected ActionModel doInBackground(Void... params) {
+            // Select all data items of the contact (except for photos, where we only select the
+            // display photo)
+            final Cursor cursor = getContentResolver().query(mDataUri, DataQuery.PROJECTION,
+                    Data.MIMETYPE + "!=? OR (" + Data.MIMETYPE + "=? AND " + Data._ID + "="
+                    + Contacts.PHOTO_ID + ")",
+                    new String[] { Photo.CONTENT_ITEM_TYPE, Photo.CONTENT_ITEM_TYPE }, null);
+            if (cursor == null) {
+                return null;
+            }
             try {
-                if (isFinishing()) {
-                    hide(false);
-                    return;
-                } else if (cursor == null || cursor.getCount() == 0) {
-                    Toast.makeText(QuickContactActivity.this, R.string.invalidContactMessage,
-                            Toast.LENGTH_LONG).show();
-                    hide(false);
-                    return;
+                if (cursor.getCount() == 0 || isCancelled()) {
+                    return null;
                 }
+                return buildActionModel(QuickContactActivity.this, cursor, mTaskExcludeMimes);
+            } finally {
+                cursor.close();
+            }
+        }
 
-                bindData(cursor);
+        @Override
+        protected void onPostExecute(ActionModel model) {
+            if (mLoadDataTask != this) {
+                return;
+            }
+            mLoadDataTask = null;
 
-                if (TRACE_LAUNCH) {
-                    android.os.Debug.stopMethodTracing();
-                }
+            if (isFinishing()) {
+                hide(false);
+                return;
+            } else if (model == null) {
+                Toast.makeText(QuickContactActivity.this, R.string.invalidContactMessage,
+                        Toast.LENGTH_LONG).show();
+                hide(false);
+                return;
+            }
 
-                // Data bound and ready, pull curtain to show. Put this on the Handler to ensure
-                // that the layout passes are completed
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        mFloatingLayout.showChild(new Runnable() {
-                            @Override
-                            public void run() {
-                                mHasFinishedAnimatingIn = true;
-                            }
-                        });
-                    }
-                });
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
+            bindData(model);
+
+            if (TRACE_LAUNCH) {
+                android.os.Debug.stopMethodTracing();
             }
+
+            // Data bound and ready, pull curtain to show. Put this on the Handler to ensure
+            // that the layout passes are completed
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mFloatingLayout.showChild(new Runnable() {
+                        @Override
+                        public void run() {
+                            mHasFinishedAnimatingIn = true;
+                        }
+                    });
+                }
+            });
         }
-    };
+    }
 
     /** Assign this string to the view if it is not empty. */
     private void setHeaderNameText(int id, int resId) {
@@ -358,8 +388,12 @@ public class QuickContactActivity extends Activity {
      * that the most-recent caller requested.
      */
     private boolean isMimeExcluded(String mimeType) {
-        if (mExcludeMimes == null) return false;
-        for (String excludedMime : mExcludeMimes) {
+        return isMimeExcluded(mExcludeMimes, mimeType);
+    }
+
+    private static boolean isMimeExcluded(String[] excludeMimes, String mimeType) {
+        if (excludeMimes == null) return false;
+        for (String excludedMime : excludeMimes) {
             if (TextUtils.equals(excludedMime, mimeType)) {
                 return true;
             }
@@ -368,23 +402,42 @@ public class QuickContactActivity extends Activity {
     }
 
     /**
-     * Handle the result from the {@link #TOKEN_DATA} query.
+     * The actions of the contact, and everything else the dialog shows, built from its data in the
+     * background so that it can be bound in a single pass.
      */
-    private void bindData(Cursor cursor) {
-        final ResolveCache cache = ResolveCache.getInstance(this);
-        final Context context = this;
-
-        mOpenDetailsButton.setVisibility(isMimeExcluded(Contacts.CONTENT_ITEM_TYPE) ? View.GONE
-                : View.VISIBLE);
+    private static final class ActionModel {
+        /** The display name of the contact, or null. */
+        public String name;
+        /** The thumbnail of the contact, or null if it has none. */
+        public Bitmap photo;
+        /** The URI of the display photo of the contact, or null if it has none. */
+        public Uri displayPhotoUri;
+        /** The collapsed actions, by MIME-type. */
+        public final ActionMultiMap actions = new ActionMultiMap();
+        /** The default action per MIME-type. */
+        public final HashMap<String, Action> defaults = new HashMap<String, Action>();
+        /** The MIME-types of the actions, in the order they are shown. */
+        public final List<String> sortedMimeTypes = Lists.newArrayList();
+        /** The icons of the MIME-types in {@link #sortedMimeTypes}. */
+        public final List<Drawable> icons = Lists.newArrayList();
+        /** The descriptions of the MIME-types in {@link #sortedMimeTypes}. */
+        public final List<CharSequence> descriptions = Lists.newArrayList();
+    }
 
-        mDefaultsMap.clear();
+    /**
+     * Builds the {@link ActionModel} from the result of the data query, resolving and collapsing
+     * the actions. This runs in the background.
+     */
+    private static ActionModel buildActionModel(Context context, Cursor cursor,
+            String[] excludeMimes) {
+        final ActionModel model = new ActionModel();
+        final ResolveCache cache = ResolveCache.getInstance(context);
 
         final DataStatus status = new DataStatus();
         final AccountTypeManager accountTypes = AccountTypeManager.getInstance(
                 context.getApplicationContext());
-        final ImageView photoView = (ImageView) mPhotoContainer.findViewById(R.id.photo);
 
-        Bitmap photoBitmap = null;
+        cursor.moveToPosition(-1);
         while (cursor.moveToNext()) {
             // Handle any social status updates from this row
             status.possibleUpdate(cursor);
@@ -392,7 +445,7 @@ public class QuickContactActivity extends Activity {
             final String mimeType = cursor.getString(DataQuery.MIMETYPE);
 
             // Skip this data item if MIME-type excluded
-            if (isMimeExcluded(mimeType)) continue;
+            if (isMimeExcluded(excludeMimes, mimeType)) continue;
 
             final long dataId = cursor.getLong(DataQuery._ID);
             final String accountType = cursor.getString(DataQuery.ACCOUNT_TYPE);
@@ -403,37 +456,14 @@ public class QuickContactActivity extends Activity {
             // Handle photos included as data row
             if (Photo.CONTENT_ITEM_TYPE.equals(mimeType)) {
                 final int displayPhotoColumnIndex = cursor.getColumnIndex(Photo.PHOTO_FILE_ID);
-                final boolean hasDisplayPhoto = !cursor.isNull(displayPhotoColumnIndex);
-                if (hasDisplayPhoto) {
-                    final long displayPhotoId = cursor.getLong(displayPhotoColumnIndex);
-                    final Uri displayPhotoUri = ContentUris.withAppendedId(
-                            DisplayPhoto.CONTENT_URI, displayPhotoId);
-                    // Fetch and JPEG uncompress on the background thread
-                    new AsyncTask<Void, Void, Bitmap>() {
-                        @Override
-                        protected Bitmap doInBackground(Void... params) {
-                            try {
-                                AssetFileDescriptor fd = getContentResolver()
-                                        .openAssetFileDescriptor(displayPhotoUri, "r");
-                                return BitmapFactory.decodeStream(fd.createInputStream());
-                            } catch (IOException e) {
-                                Log.e(TAG, "Error getting display photo. Ignoring, as we already " +
-                                        "have the thumbnail", e);
-                                return null;
-                            }
-                        }
-
-                        @Override
-                        protected void onPostExecute(Bitmap result) {
-                            if (result == null) return;
-                            photoView.setImageBitmap(result);
-                        }
-                    }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
+                if (!cursor.isNull(displayPhotoColumnIndex)) {
+                    model.displayPhotoUri = ContentUris.withAppendedId(
+                            DisplayPhoto.CONTENT_URI, cursor.getLong(displayPhotoColumnIndex));
                 }
                 final int photoColumnIndex = cursor.getColumnIndex(Photo.PHOTO);
                 final byte[] photoBlob = cursor.getBlob(photoColumnIndex);
                 if (photoBlob != null) {
-                    photoBitmap = BitmapFactory.decodeByteArray(photoBlob, 0, photoBlob.length);
+                    model.photo = BitmapFactory.decodeByteArray(photoBlob, 0, photoBlob.length);
                 }
                 continue;
             }
@@ -445,11 +475,12 @@ public class QuickContactActivity extends Activity {
                 // element, build its summary from the cursor, and collect it
                 // along with all others of this MIME-type.
                 final Action action = new DataAction(context, mimeType, kind, dataId, cursor);
-                final boolean wasAdded = considerAdd(action, cache);
+                final boolean wasAdded = considerAdd(model.actions, action, cache);
                 if (wasAdded) {
                     // Remember the default
-                    if (isSuperPrimary || (isPrimary && (mDefaultsMap.get(mimeType) == null))) {
-                        mDefaultsMap.put(mimeType, action);
+                    if (isSuperPrimary
+                            || (isPrimary && (model.defaults.get(mimeType) == null))) {
+                        model.defaults.put(mimeType, action);
                     }
                 }
             }
@@ -462,38 +493,28 @@ public class QuickContactActivity extends Activity {
                 if (imKind != null) {
                     final DataAction action = new DataAction(context, Im.CONTENT_ITEM_TYPE, imKind,
                             dataId, cursor);
-                    considerAdd(action, cache);
+                    considerAdd(model.actions, action, cache);
                 }
             }
         }
 
         // Collapse Action Lists (remove e.g. duplicate e-mail addresses from different sources)
-        for (List<Action> actionChildren : mActions.values()) {
+        for (List<Action> actionChildren : model.actions.values()) {
             Collapser.collapseList(actionChildren);
         }
 
         if (cursor.moveToLast()) {
             // Read contact name from last data row
-            final String name = cursor.getString(DataQuery.DISPLAY_NAME);
-            setHeaderNameText(R.id.name, name);
-        }
-
-        if (photoView != null) {
-            // Place photo when discovered in data, otherwise show generic avatar
-            if (photoBitmap != null) {
-                photoView.setImageBitmap(photoBitmap);
-            } else {
-                photoView.setImageResource(ContactPhotoManager.getDefaultAvatarResId(true, false));
-            }
+            model.name = cursor.getString(DataQuery.DISPLAY_NAME);
         }
 
         // All the mime-types to add.
-        final Set<String> containedTypes = new HashSet<String>(mActions.keySet());
-        mSortedActionMimeTypes.clear();
+        final Set<String> containedTypes = new HashSet<String>(model.actions.keySet());
+        final List<String> sortedMimeTypes = model.sortedMimeTypes;
         // First, add LEADING_MIMETYPES, which are most common.
         for (String mimeType : LEADING_MIMETYPES) {
             if (containedTypes.contains(mimeType)) {
-                mSortedActionMimeTypes.add(mimeType);
+                sortedMimeTypes.add(mimeType);
                 containedTypes.remove(mimeType);
             }
         }
@@ -501,7 +522,7 @@ public class QuickContactActivity extends Activity {
         // Add all the remaining ones that are not TRAILING
         for (String mimeType : containedTypes.toArray(new String[containedTypes.size()])) {
             if (!TRAILING_MIMETYPES.contains(mimeType)) {
-                mSortedActionMimeTypes.add(mimeType);
+                sortedMimeTypes.add(mimeType);
                 containedTypes.remove(mimeType);
             }
         }
@@ -510,13 +531,51 @@ public class QuickContactActivity extends Activity {
         for (String mimeType : TRAILING_MIMETYPES) {
             if (containedTypes.contains(mimeType)) {
                 containedTypes.remove(mimeType);
-                mSortedActionMimeTypes.add(mimeType);
+                sortedMimeTypes.add(mimeType);
+            }
+        }
+
+        // Resolve the icon and description of the button of each mimetype
+        for (String mimeType : sortedMimeTypes) {
+            final Action firstInfo = model.actions.get(mimeType).get(0);
+            model.icons.add(cache.getIcon(firstInfo));
+            model.descriptions.add(cache.getDescription(firstInfo));
+        }
+
+        return model;
+    }
+
+    /**
+     * Binds the {@link ActionModel} built from the data of the contact.
+     */
+    private void bindData(ActionModel model) {
+        mOpenDetailsButton.setVisibility(isMimeExcluded(Contacts.CONTENT_ITEM_TYPE) ? View.GONE
+                : View.VISIBLE);
+
+        mActions = model.actions;
+        mDefaultsMap = model.defaults;
+        mSortedActionMimeTypes.clear();
+        mSortedActionMimeTypes.addAll(model.sortedMimeTypes);
+
+        setHeaderNameText(R.id.name, model.name);
+
+        final ImageView photoView = (ImageView) mPhotoContainer.findViewById(R.id.photo);
+        if (photoView != null) {
+            // Place photo when discovered in data, otherwise show generic avatar
+            if (model.photo != null) {
+                photoView.setImageBitmap(model.photo);
+            } else {
+                photoView.setImageResource(ContactPhotoManager.getDefaultAvatarResId(true, false));
+            }
+            if (model.displayPhotoUri != null) {
+                loadDisplayPhoto(model.displayPhotoUri, photoView);
             }
         }
 
         // Add buttons for each mimetype
-        for (String mimeType : mSortedActionMimeTypes) {
-            final View actionView = inflateAction(mimeType, cache, mTrack);
+        for (int i = 0; i < mSortedActionMimeTypes.size(); i++) {
+            final View actionView = inflateAction(mSortedActionMimeTypes.get(i),
+                    model.icons.get(i), model.descriptions.get(i), mTrack);
             mTrack.addView(actionView);
         }
 
@@ -527,37 +586,60 @@ public class QuickContactActivity extends Activity {
         mListPager.setVisibility(hasData ? View.VISIBLE : View.GONE);
     }
 
+    /** Fetches the display photo of the contact, and replaces the thumbnail with it. */
+    private void loadDisplayPhoto(final Uri displayPhotoUri, final ImageView photoView) {
+        // Fetch and JPEG uncompress on the background thread
+        new AsyncTask<Void, Void, Bitmap>() {
+            @Override
+            protected Bitmap doInBackground(Void... params) {
+                try {
+                    AssetFileDescriptor fd = getContentResolver()
+                            .openAssetFileDescriptor(displayPhotoUri, "r");
+                    return BitmapFactory.decodeStream(fd.createInputStream());
+                } catch (IOException e) {
+                    Log.e(TAG, "Error getting display photo. Ignoring, as we already " +
+                            "have the thumbnail", e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Bitmap result) {
+                if (result == null) return;
+                photoView.setImageBitmap(result);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
+    }
+
     /**
      * Consider adding the given {@link Action}, which will only happen if
      * {@link PackageManager} finds an application to handle
      * {@link Action#getIntent()}.
      * @return true if action has been added
      */
-    private boolean considerAdd(Action action, ResolveCache resolveCache) {
+    private static boolean considerAdd(ActionMultiMap actions, Action action,
+            ResolveCache resolveCache) {
         if (resolveCache.hasResolve(action)) {
-            mActions.put(action.getMimeType(), action);
+            actions.put(action.getMimeType(), action);
             return true;
         }
         return false;
     }
 
     /**
-     * Inflate the in-track view for the action of the given MIME-type, collapsing duplicate values.
-     * Will use the icon provided by the {@link DataKind}.
+     * Inflate the in-track view for the action of the given MIME-type, with the icon and
+     * description resolved for its first action.
      */
-    private View inflateAction(String mimeType, ResolveCache resolveCache, ViewGroup root) {
+    private View inflateAction(String mimeType, Drawable icon, CharSequence description,
+            ViewGroup root) {
         final CheckableImageView typeView = (CheckableImageView) getLayoutInflater().inflate(
                 R.layout.quickcontact_track_button, root, false);
 
-        List<Action> children = mActions.get(mimeType);
         typeView.setTag(mimeType);
-        final Action firstInfo = children.get(0);
 
         // Set icon and listen for clicks
-        final CharSequence descrip = resolveCache.getDescription(firstInfo);
-        final Drawable icon = resolveCache.getIcon(firstInfo);
         typeView.setChecked(false);
-        typeView.setContentDescription(descrip);
+        typeView.setContentDescription(description);
         typeView.setImageDrawable(icon);
         typeView.setOnClickListener(mTypeViewClickListener);
 
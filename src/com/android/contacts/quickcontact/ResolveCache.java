@@ -18,28 +18,52 @@ package com.android.contacts.quickcontact;
 
 import com.android.contacts.util.PhoneCapabilityTester;
 import com.google.android.collect.Sets;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.provider.ContactsContract.CommonDataKinds.SipAddress;
 import android.text.TextUtils;
+import android.util.Log;
 
-import java.lang.ref.SoftReference;
+import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * Internally hold a cache of scaled icons based on {@link PackageManager}
  * queries, keyed internally on MIME-type.
+ * <p>
+ * The intents resolved for each MIME-type are remembered across process restarts, without the
+ * details of the data item they were built for, so that {@link #warmUpInBackground()} can resolve
+ * them again before they are needed. The entries resolved this way are resolved again, in the
+ * background, with the real intent of the first action which needs them. When a package changes,
+ * only the MIME-types it handles, or handled, are resolved again.
  */
+@ThreadSafe
 public class ResolveCache {
+    private static final String TAG = "ResolveCache";
+
+    /** The name of the preferences holding the intent resolved for each MIME-type. */
+    private static final String PREFERENCES_NAME = "quickcontact_resolve_cache";
+
     /**
      * Specific list {@link ApplicationInfo#packageName} of apps that are
      * prefered <strong>only</strong> for the purposes of default icons when
@@ -58,6 +82,9 @@ public class ResolveCache {
     private final Context mContext;
     private final PackageManager mPackageManager;
 
+    /** The handler of the background thread which warms up and updates the cache. */
+    private final Handler mHandler;
+
     private static ResolveCache sInstance;
 
     /**
@@ -67,9 +94,12 @@ public class ResolveCache {
     public synchronized static ResolveCache getInstance(Context context) {
         if (sInstance == null) {
             final Context applicationContext = context.getApplicationContext();
-            sInstance = new ResolveCache(applicationContext);
+            final HandlerThread thread =
+                    new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new ResolveCache(applicationContext, new Handler(thread.getLooper()));
 
-            // Register for package-changes so that we can flush our cache
+            // Register for package-changes so that we can update our cache
             final IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
             filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
             filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
@@ -80,35 +110,141 @@ public class ResolveCache {
         return sInstance;
     }
 
-    private synchronized static void flush() {
-        sInstance = null;
-    }
-
     /**
-     * Called anytime a package is installed, uninstalled etc, so that we can wipe our cache
+     * Called anytime a package is installed, uninstalled etc, so that we can update the entries
+     * of the MIME-types it handles
      */
     private BroadcastReceiver mPackageIntentReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            flush();
+            final Uri data = intent.getData();
+            final String packageName = data == null ? null : data.getSchemeSpecificPart();
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    updateEntries(packageName);
+                }
+            });
         }
     };
 
     /**
      * Cached entry holding the best {@link ResolveInfo} for a specific
-     * MIME-type, along with a {@link SoftReference} to its icon.
+     * MIME-type, along with its icon and label.
      */
-    private static class Entry {
+    @VisibleForTesting
+    /*package*/ static class Entry {
+        /** The intent which was resolved. */
+        public final Intent intent;
+        /** Whether {@link #intent} is a prototype intent, see {@link #getPrototypeIntent}. */
+        public final boolean isPrototype;
+        /** The packages of all the activities which handle {@link #intent}. */
+        public final HashSet<String> packageNames = Sets.newHashSet();
         public ResolveInfo bestResolve;
         public Drawable icon;
+        public CharSequence label;
+        /** Whether this entry is being resolved again with a real intent. */
+        @GuardedBy("ResolveCache.this")
+        public boolean isRefreshing;
+
+        public Entry(Intent intent, boolean isPrototype) {
+            this.intent = intent;
+            this.isPrototype = isPrototype;
+        }
     }
 
+    @GuardedBy("this")
     private HashMap<String, Entry> mCache = new HashMap<String, Entry>();
 
 
-    private ResolveCache(Context context) {
+    @VisibleForTesting
+    /*package*/ ResolveCache(Context context, Handler handler) {
         mContext = context;
         mPackageManager = context.getPackageManager();
+        mHandler = handler;
+    }
+
+    /**
+     * Resolves again, on a background thread, the intents of all the MIME-types which have been
+     * resolved before, so that they are cached by the time they are needed.
+     */
+    public void warmUpInBackground() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                warmUp();
+            }
+        });
+    }
+
+    private void warmUp() {
+        for (Map.Entry<String, ?> pref : getPreferences().getAll().entrySet()) {
+            final String mimeType = pref.getKey();
+            synchronized (this) {
+                if (mCache.containsKey(mimeType)) continue;
+            }
+            final Intent intent;
+            try {
+                intent = Intent.parseUri((String) pref.getValue(), 0);
+            } catch (URISyntaxException e) {
+                Log.w(TAG, "Failed to parse the intent of " + mimeType, e);
+                continue;
+            }
+            putEntry(mimeType, resolve(mimeType, intent, true));
+        }
+    }
+
+    /**
+     * Resolves again the MIME-types which are handled by the given package, or were handled by it
+     * before it changed. If the package is not known, all the MIME-types are resolved again.
+     */
+    private void updateEntries(String packageName) {
+        final HashMap<String, Entry> entries;
+        synchronized (this) {
+            entries = Maps.newHashMap(mCache);
+        }
+        for (Map.Entry<String, Entry> cached : entries.entrySet()) {
+            final String mimeType = cached.getKey();
+            final Entry entry = cached.getValue();
+            if (packageName != null && !entry.packageNames.contains(packageName)
+                    && !isHandledByPackage(entry.intent, packageName)) {
+                continue;
+            }
+            replaceEntry(mimeType, entry, resolve(mimeType, entry.intent, entry.isPrototype));
+        }
+    }
+
+    /**
+     * Caches the given entry of the given MIME-type, unless another entry was cached in the
+     * meantime, which is then kept as it is at least as recent. Only an entry resolved with a
+     * prototype intent is replaced by one resolved with a real intent.
+     *
+     * @return the entry cached for the MIME-type
+     */
+    @VisibleForTesting
+    /*package*/ synchronized Entry putEntry(String mimeType, Entry entry) {
+        final Entry cached = mCache.get(mimeType);
+        if (cached != null && (!cached.isPrototype || entry.isPrototype)) {
+            return cached;
+        }
+        mCache.put(mimeType, entry);
+        return entry;
+    }
+
+    /**
+     * Caches the given new entry of the given MIME-type, if the given old entry is still cached.
+     */
+    private synchronized void replaceEntry(String mimeType, Entry oldEntry, Entry newEntry) {
+        if (mCache.get(mimeType) == oldEntry) {
+            mCache.put(mimeType, newEntry);
+        }
+    }
+
+    private boolean isHandledByPackage(Intent intent, String packageName) {
+        if (intent == null) return false;
+        final Intent packageIntent = new Intent(intent).setPackage(packageName);
+        return !mPackageManager.queryIntentActivities(packageIntent,
+                PackageManager.MATCH_DEFAULT_ONLY).isEmpty();
     }
 
     /**
@@ -117,11 +253,54 @@ public class ResolveCache {
      */
     protected Entry getEntry(Action action) {
         final String mimeType = action.getMimeType();
-        Entry entry = mCache.get(mimeType);
-        if (entry != null) return entry;
-        entry = new Entry();
+        final Intent intent = action.getIntent();
+        synchronized (this) {
+            final Entry cached = mCache.get(mimeType);
+            if (cached != null) {
+                if (cached.isPrototype && intent != null && !cached.isRefreshing) {
+                    cached.isRefreshing = true;
+                    refreshInBackground(mimeType, cached, intent);
+                }
+                return cached;
+            }
+        }
+
+        final Entry entry = putEntry(mimeType, resolve(mimeType, intent, false));
+        if (entry.intent != null && !entry.isPrototype) {
+            final Intent prototype = getPrototypeIntent(entry.intent);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    getPreferences().edit()
+                            .putString(mimeType, prototype.toUri(0))
+                            .apply();
+                }
+            });
+        }
+        return entry;
+    }
+
+    /**
+     * Resolves again, on the background thread, the given entry of the given MIME-type, which was
+     * resolved with a prototype intent, with the given real intent.
+     */
+    private void refreshInBackground(final String mimeType, final Entry entry,
+            final Intent intent) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                replaceEntry(mimeType, entry, resolve(mimeType, intent, false));
+            }
+        });
+    }
+
+    /**
+     * Creates the {@link Entry} of the given MIME-type, by querying {@link PackageManager} for the
+     * given intent.
+     */
+    private Entry resolve(String mimeType, Intent intent, boolean isPrototype) {
+        final Entry entry = new Entry(intent, isPrototype);
 
-        Intent intent = action.getIntent();
         if (SipAddress.CONTENT_ITEM_TYPE.equals(mimeType)
                 && !PhoneCapabilityTester.isSipPhone(mContext)) {
             intent = null;
@@ -130,6 +309,9 @@ public class ResolveCache {
         if (intent != null) {
             final List<ResolveInfo> matches = mPackageManager.queryIntentActivities(intent,
                     PackageManager.MATCH_DEFAULT_ONLY);
+            for (ResolveInfo match : matches) {
+                entry.packageNames.add(match.activityInfo.packageName);
+            }
 
             // Pick first match, otherwise best found
             ResolveInfo bestResolve = null;
@@ -141,17 +323,33 @@ public class ResolveCache {
             }
 
             if (bestResolve != null) {
-                final Drawable icon = bestResolve.loadIcon(mPackageManager);
-
                 entry.bestResolve = bestResolve;
-                entry.icon = icon;
+                entry.icon = bestResolve.loadIcon(mPackageManager);
+                entry.label = bestResolve.loadLabel(mPackageManager);
             }
         }
 
-        mCache.put(mimeType, entry);
         return entry;
     }
 
+    /**
+     * Returns a copy of the given intent without the details of the data item it was built for,
+     * i.e., with only the action, the MIME-type, and the scheme of the data.
+     */
+    @VisibleForTesting
+    /*package*/ static Intent getPrototypeIntent(Intent intent) {
+        final Uri data = intent.getData();
+        final String scheme = data == null ? null : data.getScheme();
+        final Uri prototypeData = scheme == null ? null : Uri.fromParts(scheme, "", null);
+        final Intent prototype = new Intent(intent.getAction());
+        prototype.setDataAndType(prototypeData, intent.getType());
+        return prototype;
+    }
+
+    private SharedPreferences getPreferences() {
+        return mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
     /**
      * Best {@link ResolveInfo} when multiple found. Ties are broken by
      * selecting first from the {@link QuickContactActivity#sPreferResolve} list of
@@ -203,9 +401,9 @@ public class ResolveCache {
      */
     public CharSequence getDescription(Action action) {
         final CharSequence actionSubtitle = action.getSubtitle();
-        final ResolveInfo info = getEntry(action).bestResolve;
-        if (info != null) {
-            return info.loadLabel(mPackageManager);
+        final Entry entry = getEntry(action);
+        if (entry.bestResolve != null) {
+            return entry.label;
         } else if (!TextUtils.isEmpty(actionSubtitle)) {
             return actionSubtitle;
         } else {
@@ -222,7 +420,7 @@ public class ResolveCache {
         return getEntry(action).icon;
     }
 
-    public void clear() {
+    public synchronized void clear() {
         mCache.clear();
     }
 }
@@ -18,10 +18,16 @@ package com.android.contacts.util;
 
 import com.android.contacts.test.NeededForTesting;
 
+import com.google.common.collect.Maps;
+
+import android.os.SystemClock;
 import android.util.LruCache;
 
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -78,6 +84,19 @@ import javax.annotation.concurrent.ThreadSafe;
  * and which are not, allowing for an implementation that evicts expired items before non expired
  * ones.
  * <p>
+ * Values can also expire on their own after a given time, either passed to
+ * {@link #put(Object, Object, long)} or set for the whole cache with
+ * {@link #create(int, long)}.
+ * <p>
+ * Values which are expensive to compute can be loaded with {@link #getOrLoad(Object, Loader)},
+ * which only loads a given key once even if several threads request it at the same time.
+ * <p>
+ * A cache used by several threads at once can be split into independently locked segments with
+ * {@link #createStriped(int, int, long)}. Each segment evicts its own least recently used items,
+ * so the eviction order of the whole cache is only approximately LRU.
+ * <p>
+ * The cache counts the hits, expired hits, misses, loads and evictions, see {@link #getStats()}.
+ * <p>
  * This class is thread-safe.
  *
  * @param <K> the type of the keys
@@ -85,6 +104,9 @@ import javax.annotation.concurrent.ThreadSafe;
  */
 @ThreadSafe
 public class ExpirableCache<K, V> {
+    /** The expiry time of the values which do not expire on their own. */
+    public static final long NO_TIME_TO_LIVE = -1;
+
     /**
      * A cached value stored inside the cache.
      * <p>
@@ -106,7 +128,53 @@ public class ExpirableCache<K, V> {
     }
 
     /**
-     * Cached values storing the generation at which they were added.
+     * Loads the values missing from the cache, see {@link ExpirableCache#getOrLoad}.
+     *
+     * @param <K> the type of the keys
+     * @param <V> the type of the values
+     */
+    public interface Loader<K, V> {
+        /** Returns the value for the given key, or null if there is none. */
+        public V load(K key);
+    }
+
+    /** A snapshot of the statistics of a cache. */
+    @Immutable
+    public static final class Stats {
+        /** The lookups which found a value which was not expired. */
+        public final int hitCount;
+        /** The lookups which found an expired value. */
+        public final int expiredHitCount;
+        /** The lookups which did not find any value. */
+        public final int missCount;
+        /** The values loaded by {@link ExpirableCache#getOrLoad}. */
+        public final int loadCount;
+        /** The calls to {@link ExpirableCache#getOrLoad} which waited for a load in progress. */
+        public final int sharedLoadCount;
+        /** The values evicted to make room for others. */
+        public final int evictionCount;
+
+        public Stats(int hitCount, int expiredHitCount, int missCount, int loadCount,
+                int sharedLoadCount, int evictionCount) {
+            this.hitCount = hitCount;
+            this.expiredHitCount = expiredHitCount;
+            this.missCount = missCount;
+            this.loadCount = loadCount;
+            this.sharedLoadCount = sharedLoadCount;
+            this.evictionCount = evictionCount;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hitCount + " expired=" + expiredHitCount + " misses=" + missCount
+                    + " loads=" + loadCount + " sharedLoads=" + sharedLoadCount
+                    + " evictions=" + evictionCount;
+        }
+    }
+
+    /**
+     * Cached values storing the generation at which they were added, and the time at which they
+     * expire, if any.
      */
     @Immutable
     private static class GenerationalCachedValue<V> implements ExpirableCache.CachedValue<V> {
@@ -116,16 +184,33 @@ public class ExpirableCache<K, V> {
         private final int mGeneration;
         /** The atomic integer storing the current generation of the cache it belongs to. */
         private final AtomicInteger mCacheGeneration;
+        /** The time at which the value expires, in millis since boot, or Long.MAX_VALUE. */
+        private final long mExpiryTimeMillis;
 
         /**
          * @param cacheGeneration the atomic integer storing the generation of the cache in which
          *        this value will be stored
+         * @param timeToLiveMillis the time after which the value expires, or
+         *        {@link ExpirableCache#NO_TIME_TO_LIVE}
+         */
+        public GenerationalCachedValue(V value, AtomicInteger cacheGeneration,
+                long timeToLiveMillis) {
+            // Snapshot the current generation.
+            this(value, cacheGeneration, cacheGeneration.get(), timeToLiveMillis);
+        }
+
+        /**
+         * @param generation the generation the value belongs to: it is expired if it is not the
+         *        current generation of the cache
+         * @see #GenerationalCachedValue(Object, AtomicInteger, long)
          */
-        public GenerationalCachedValue(V value, AtomicInteger cacheGeneration) {
+        public GenerationalCachedValue(V value, AtomicInteger cacheGeneration, int generation,
+                long timeToLiveMillis) {
             mValue = value;
             mCacheGeneration = cacheGeneration;
-            // Snapshot the current generation.
-            mGeneration = mCacheGeneration.get();
+            mGeneration = generation;
+            mExpiryTimeMillis = timeToLiveMillis == NO_TIME_TO_LIVE
+                    ? Long.MAX_VALUE : SystemClock.elapsedRealtime() + timeToLiveMillis;
         }
 
         @Override
@@ -135,12 +220,39 @@ public class ExpirableCache<K, V> {
 
         @Override
         public boolean isExpired() {
-            return mGeneration != mCacheGeneration.get();
+            return mGeneration != mCacheGeneration.get()
+                    || (mExpiryTimeMillis != Long.MAX_VALUE
+                            && SystemClock.elapsedRealtime() >= mExpiryTimeMillis);
         }
     }
 
-    /** The underlying cache used to stored the cached values. */
-    private LruCache<K, CachedValue<V>> mCache;
+    /** A load in progress, which the other threads requesting the same key wait for. */
+    private static final class PendingLoad<V> {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile V mValue;
+
+        public void complete(V value) {
+            mValue = value;
+            mDone.countDown();
+        }
+
+        /** Returns the loaded value, or null if interrupted while waiting. */
+        public V await() {
+            try {
+                mDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return mValue;
+        }
+    }
+
+    /** The underlying caches used to stored the cached values, each locked independently. */
+    private final LruCache<K, CachedValue<V>>[] mSegments;
+
+    /** The time after which the values expire, unless one is given when putting them. */
+    private final long mTimeToLiveMillis;
 
     /**
      * The current generation of items added to the cache.
@@ -152,11 +264,35 @@ public class ExpirableCache<K, V> {
      */
     private final AtomicInteger mGeneration;
 
-    private ExpirableCache(LruCache<K, CachedValue<V>> cache) {
-        mCache = cache;
+    /** The loads in progress, by key. */
+    @GuardedBy("mPendingLoads")
+    private final Map<K, PendingLoad<V>> mPendingLoads = Maps.newHashMap();
+
+    private final AtomicInteger mExpiredHits = new AtomicInteger();
+    private final AtomicInteger mLoads = new AtomicInteger();
+    private final AtomicInteger mSharedLoads = new AtomicInteger();
+
+    private ExpirableCache(LruCache<K, CachedValue<V>>[] segments, long timeToLiveMillis) {
+        if (timeToLiveMillis < 0 && timeToLiveMillis != NO_TIME_TO_LIVE) {
+            throw new IllegalArgumentException("invalid time to live: " + timeToLiveMillis);
+        }
+        mSegments = segments;
+        mTimeToLiveMillis = timeToLiveMillis;
         mGeneration = new AtomicInteger(0);
     }
 
+    /** Returns the segment which stores the given key. */
+    private LruCache<K, CachedValue<V>> segmentFor(K key) {
+        if (mSegments.length == 1) {
+            return mSegments[0];
+        }
+        // Spread the bits of the hash code, as HashMap does, before picking the segment.
+        int hash = key.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return mSegments[(hash & Integer.MAX_VALUE) % mSegments.length];
+    }
+
     /**
      * Returns the cached value for the given key, or null if no value exists.
      * <p>
@@ -171,7 +307,11 @@ public class ExpirableCache<K, V> {
      * @param key the key to look up
      */
     public CachedValue<V> getCachedValue(K key) {
-        return mCache.get(key);
+        final CachedValue<V> cachedValue = segmentFor(key).get(key);
+        if (cachedValue != null && cachedValue.isExpired()) {
+            mExpiredHits.incrementAndGet();
+        }
+        return cachedValue;
     }
 
     /**
@@ -206,16 +346,107 @@ public class ExpirableCache<K, V> {
         return cachedValue == null || cachedValue.isExpired() ? null : cachedValue.getValue();
     }
 
+    /**
+     * Returns the value for the given key if it is not expired, otherwise loads it with the given
+     * loader and stores it in the cache.
+     * <p>
+     * If another thread is already loading the same key, this method waits for it to complete
+     * and returns the value it loaded instead of loading it again. The value is not stored if the
+     * loader returns null.
+     * <p>
+     * Only the loads in progress are shared: a thread which found the key missing just before
+     * another one completed its load loads the value again.
+     * <p>
+     * The loader is called on the calling thread, without holding any lock. If it throws, the
+     * exception is propagated to the caller and the threads waiting for the same key get null.
+     * <p>
+     * If {@link #expireAll()} is called while the value is loading, the value is still returned
+     * but it is stored as expired, since it may have been loaded from out of date data.
+     *
+     * @param key the key to look up
+     * @param loader loads the value if it is missing or expired
+     * @return the value, or null if the loader returned null or the calling thread was
+     *         interrupted while waiting for another thread to load it
+     */
+    public V getOrLoad(K key, Loader<? super K, ? extends V> loader) {
+        final CachedValue<V> cachedValue = getCachedValue(key);
+        if (cachedValue != null && !cachedValue.isExpired()) {
+            return cachedValue.getValue();
+        }
+
+        final PendingLoad<V> pendingLoad;
+        final boolean loading;
+        synchronized (mPendingLoads) {
+            final PendingLoad<V> existingLoad = mPendingLoads.get(key);
+            loading = existingLoad == null;
+            pendingLoad = loading ? new PendingLoad<V>() : existingLoad;
+            if (loading) {
+                mPendingLoads.put(key, pendingLoad);
+            }
+        }
+        if (!loading) {
+            mSharedLoads.incrementAndGet();
+            return pendingLoad.await();
+        }
+
+        V value = null;
+        try {
+            mLoads.incrementAndGet();
+            final int generation = mGeneration.get();
+            value = loader.load(key);
+            if (value != null) {
+                segmentFor(key).put(key, new GenerationalCachedValue<V>(
+                        value, mGeneration, generation, mTimeToLiveMillis));
+            }
+        } finally {
+            synchronized (mPendingLoads) {
+                mPendingLoads.remove(key);
+            }
+            pendingLoad.complete(value);
+        }
+        return value;
+    }
+
     /**
      * Puts an item in the cache.
      * <p>
-     * Newly added item will not be expired until {@link #expireAll()} is next called.
+     * Newly added item will not be expired until {@link #expireAll()} is next called, or until
+     * the time to live of the cache, if any, has elapsed.
      *
      * @param key the key to look up
      * @param value the value to associate with the key
      */
     public void put(K key, V value) {
-        mCache.put(key, newCachedValue(value));
+        segmentFor(key).put(key, newCachedValue(value));
+    }
+
+    /**
+     * Puts an item in the cache which expires after the given time.
+     * <p>
+     * The item is also expired if {@link #expireAll()} is called before that.
+     *
+     * @param key the key to look up
+     * @param value the value to associate with the key
+     * @param timeToLiveMillis the time after which the value expires, in millis, or
+     *        {@link #NO_TIME_TO_LIVE}
+     * @throws IllegalArgumentException if the time to live is negative
+     */
+    public void put(K key, V value, long timeToLiveMillis) {
+        if (timeToLiveMillis < 0 && timeToLiveMillis != NO_TIME_TO_LIVE) {
+            throw new IllegalArgumentException("invalid time to live: " + timeToLiveMillis);
+        }
+        segmentFor(key).put(key,
+                new GenerationalCachedValue<V>(value, mGeneration, timeToLiveMillis));
+    }
+
+    /**
+     * Removes the item for the given key from the cache, if any.
+     *
+     * @return the value which was removed, expired or not, or null if there was none
+     */
+    public V remove(K key) {
+        final CachedValue<V> cachedValue = segmentFor(key).remove(key);
+        return cachedValue == null ? null : cachedValue.getValue();
     }
 
     /**
@@ -229,13 +460,37 @@ public class ExpirableCache<K, V> {
         mGeneration.incrementAndGet();
     }
 
+    /** Returns the number of items in the cache, expired or not. */
+    public int size() {
+        int size = 0;
+        for (LruCache<K, CachedValue<V>> segment : mSegments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /** Returns a snapshot of the statistics of the cache since it was created. */
+    public Stats getStats() {
+        int hits = 0;
+        int misses = 0;
+        int evictions = 0;
+        for (LruCache<K, CachedValue<V>> segment : mSegments) {
+            hits += segment.hitCount();
+            misses += segment.missCount();
+            evictions += segment.evictionCount();
+        }
+        final int expiredHits = mExpiredHits.get();
+        return new Stats(Math.max(0, hits - expiredHits), expiredHits, misses, mLoads.get(),
+                mSharedLoads.get(), evictions);
+    }
+
     /**
      * Creates a new {@link CachedValue} instance to be stored in this cache.
      * <p>
      * Implementation of {@link LruCache#create(K)} can use this method to create a new entry.
      */
     public CachedValue<V> newCachedValue(V value) {
-        return new GenerationalCachedValue<V>(value, mGeneration);
+        return new GenerationalCachedValue<V>(value, mGeneration, mTimeToLiveMillis);
     }
 
     /**
@@ -250,7 +505,9 @@ public class ExpirableCache<K, V> {
      * @throws IllegalArgumentException if the cache is not empty
      */
     public static <K, V> ExpirableCache<K, V> create(LruCache<K, CachedValue<V>> cache) {
-        return new ExpirableCache<K, V>(cache);
+        @SuppressWarnings("unchecked")
+        final LruCache<K, CachedValue<V>>[] segments = new LruCache[] { cache };
+        return new ExpirableCache<K, V>(segments, NO_TIME_TO_LIVE);
     }
 
     /**
@@ -261,6 +518,49 @@ public class ExpirableCache<K, V> {
      * @return the newly created expirable cache
      */
     public static <K, V> ExpirableCache<K, V> create(int maxSize) {
-        return create(new LruCache<K, CachedValue<V>>(maxSize));
+        return create(maxSize, NO_TIME_TO_LIVE);
+    }
+
+    /**
+     * Creates a new {@link ExpirableCache} with the given maximum size, in which the values
+     * expire after the given time unless another one is given to
+     * {@link #put(Object, Object, long)}.
+     *
+     * @param <K> the type of the keys
+     * @param <V> the type of the values
+     * @param timeToLiveMillis the time after which the values expire, in millis, or
+     *        {@link #NO_TIME_TO_LIVE}
+     * @return the newly created expirable cache
+     */
+    public static <K, V> ExpirableCache<K, V> create(int maxSize, long timeToLiveMillis) {
+        return createStriped(maxSize, 1, timeToLiveMillis);
+    }
+
+    /**
+     * Creates a new {@link ExpirableCache} split into the given number of segments, each locked
+     * independently, for caches accessed by several threads at once.
+     * <p>
+     * Each segment holds up to {@code maxSize / segmentCount} items, rounded up, and evicts its
+     * own least recently used items.
+     *
+     * @param <K> the type of the keys
+     * @param <V> the type of the values
+     * @param timeToLiveMillis the time after which the values expire, in millis, or
+     *        {@link #NO_TIME_TO_LIVE}
+     * @return the newly created expirable cache
+     */
+    public static <K, V> ExpirableCache<K, V> createStriped(int maxSize, int segmentCount,
+            long timeToLiveMillis) {
+        if (segmentCount <= 0 || segmentCount > maxSize) {
+            throw new IllegalArgumentException(
+                    "invalid segment count " + segmentCount + " for size " + maxSize);
+        }
+        final int segmentSize = (maxSize + segmentCount - 1) / segmentCount;
+        @SuppressWarnings("unchecked")
+        final LruCache<K, CachedValue<V>>[] segments = new LruCache[segmentCount];
+        for (int i = 0; i < segmentCount; ++i) {
+            segments[i] = new LruCache<K, CachedValue<V>>(segmentSize);
+        }
+        return new ExpirableCache<K, V>(segments, timeToLiveMillis);
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A process-wide cache of the E164 and display forms of phone numbers.
+ * <p>
+ * Formatting a phone number with {@link PhoneNumberUtils} parses it with the phone number
+ * library every time, while the same numbers are formatted over and over by the call log, its
+ * caller-id lookups and the dialpad search. This cache computes both forms of a number once per
+ * country and keeps the most recently used ones.
+ * <p>
+ * The dialpad search formats every phone number of every contact each time it builds its index,
+ * which would evict the numbers of the call log from a shared cache, so it uses its own instance,
+ * see {@link #getDialpadInstance()}.
+ * <p>
+ * Numbers are formatted in the given country; if no country is given, the display form is the
+ * one returned by {@link PhoneNumberUtils#formatNumber(String)} and there is no E164 form.
+ * SIP addresses are never formatted.
+ */
+@ThreadSafe
+public final class PhoneNumberFormatCache {
+    /** The maximum number of numbers in the cache. */
+    private static final int MAX_SIZE = 1000;
+    /** The maximum number of numbers in the cache of the dialpad search. */
+    private static final int DIALPAD_MAX_SIZE = 2000;
+
+    private static PhoneNumberFormatCache sInstance;
+    private static PhoneNumberFormatCache sDialpadInstance;
+
+    /** The key of the cache: a number and the country it is formatted in. */
+    @Immutable
+    private static final class Key {
+        public final String number;
+        public final String countryIso;
+
+        public Key(String number, String countryIso) {
+            this.number = number;
+            this.countryIso = countryIso;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return number.equals(other.number) && TextUtils.equals(countryIso, other.countryIso);
+        }
+
+        @Override
+        public int hashCode() {
+            return number.hashCode() * 31 + (countryIso == null ? 0 : countryIso.hashCode());
+        }
+    }
+
+    /** The forms of a number. */
+    @Immutable
+    private static final class Forms {
+        /** The E164 form, or null if the number cannot be formatted to E164. */
+        public final String e164;
+        /** The form to display. */
+        public final String formatted;
+
+        public Forms(String e164, String formatted) {
+            this.e164 = e164;
+            this.formatted = formatted;
+        }
+    }
+
+    /** Formats the missing numbers; {@link LruCache} does the locking and counts the hits. */
+    private final LruCache<Key, Forms> mCache;
+
+    /** Returns the process-wide instance of the cache. */
+    public static synchronized PhoneNumberFormatCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new PhoneNumberFormatCache(MAX_SIZE);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the process-wide instance of the cache used to index the contacts for the dialpad
+     * search, which is kept separate from the one of {@link #getInstance()}.
+     */
+    public static synchronized PhoneNumberFormatCache getDialpadInstance() {
+        if (sDialpadInstance == null) {
+            sDialpadInstance = new PhoneNumberFormatCache(DIALPAD_MAX_SIZE);
+        }
+        return sDialpadInstance;
+    }
+
+    @VisibleForTesting
+    /*package*/ PhoneNumberFormatCache(int maxSize) {
+        mCache = new LruCache<Key, Forms>(maxSize) {
+            @Override
+            protected Forms create(Key key) {
+                return format(key.number, key.countryIso);
+            }
+        };
+    }
+
+    /**
+     * Returns the E164 form of the number, or null if it cannot be formatted to E164 in the given
+     * country, or no country is given.
+     */
+    public String getE164Number(String number, String countryIso) {
+        if (TextUtils.isEmpty(number) || TextUtils.isEmpty(countryIso)) {
+            return null;
+        }
+        return mCache.get(new Key(number, countryIso)).e164;
+    }
+
+    /**
+     * Returns the form of the number to display, or the number itself if it cannot be formatted.
+     *
+     * @param countryIso the country to format the number in, may be null
+     */
+    public String getFormattedNumber(String number, String countryIso) {
+        if (TextUtils.isEmpty(number)) {
+            return "";
+        }
+        return mCache.get(new Key(number, TextUtils.isEmpty(countryIso) ? null : countryIso))
+                .formatted;
+    }
+
+    /** Returns the number of lookups which found the number in the cache. */
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    /** Returns the number of lookups which had to format the number. */
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /** Returns the number of numbers dropped from the cache to make room for others. */
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return mCache.toString();
+    }
+
+    private static Forms format(String number, String countryIso) {
+        if (PhoneNumberUtils.isUriNumber(number)) {
+            // A SIP address, don't try to do any formatting at all.
+            return new Forms(null, number);
+        }
+        if (countryIso == null) {
+            return new Forms(null, PhoneNumberUtils.formatNumber(number));
+        }
+        final String e164 = PhoneNumberUtils.formatNumberToE164(number, countryIso);
+        final String formatted = PhoneNumberUtils.formatNumber(number, null, countryIso);
+        return new Forms(TextUtils.isEmpty(e164) ? null : e164, formatted);
+    }
+}
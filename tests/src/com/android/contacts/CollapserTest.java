@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import com.android.contacts.Collapser.Collapsible;
+import com.android.contacts.Collapser.KeyedCollapsible;
+import com.google.common.collect.Lists;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link Collapser}.
+ */
+@SmallTest
+public class CollapserTest extends TestCase {
+    public void testCollapseList_Pairwise() {
+        ArrayList<TestItem> list = Lists.newArrayList(
+                new TestItem("a"), new TestItem("b"), new TestItem("A"), new TestItem("a"));
+        Collapser.collapseList(list);
+        assertEquals(2, list.size());
+        assertEquals("a", list.get(0).value);
+        assertEquals(2, list.get(0).collapsed);
+        assertEquals("b", list.get(1).value);
+    }
+
+    public void testCollapseList_ExactKeys() {
+        ArrayList<TestItem> list = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            list.add(new TestKeyedItem(String.valueOf(i % 10), true));
+        }
+        Collapser.collapseList(list);
+        assertEquals(10, list.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(String.valueOf(i), list.get(i).value);
+            assertEquals(9, list.get(i).collapsed);
+        }
+        // The items were not compared with each other
+        assertEquals(0, TestItem.sComparisons);
+    }
+
+    public void testCollapseList_InexactKeys() {
+        ArrayList<TestItem> list = Lists.newArrayList(
+                new TestKeyedItem("a", false), new TestKeyedItem("b", false),
+                new TestKeyedItem("A", false), new TestKeyedItem("a", false),
+                new TestItem("B"));
+        Collapser.collapseList(list);
+        assertEquals(2, list.size());
+        assertEquals("a", list.get(0).value);
+        assertEquals(2, list.get(0).collapsed);
+        assertEquals("b", list.get(1).value);
+        assertEquals(1, list.get(1).collapsed);
+    }
+
+    public void testCollapseList_NoKey() {
+        ArrayList<TestItem> list = Lists.newArrayList(
+                new TestKeyedItem(null, true), new TestKeyedItem("b", false),
+                new TestKeyedItem(null, true));
+        Collapser.collapseList(list);
+        assertEquals(2, list.size());
+        assertEquals(null, list.get(0).value);
+        assertEquals(1, list.get(0).collapsed);
+        assertEquals("b", list.get(1).value);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestItem.sComparisons = 0;
+    }
+
+    /** An item which collapses with the items with the same value, ignoring case. */
+    private static class TestItem implements Collapsible<TestItem> {
+        public static int sComparisons;
+
+        public final String value;
+        public int collapsed;
+
+        public TestItem(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean collapseWith(TestItem t) {
+            if (!shouldCollapseWith(t)) {
+                return false;
+            }
+            collapsed += t.collapsed + 1;
+            return true;
+        }
+
+        @Override
+        public boolean shouldCollapseWith(TestItem t) {
+            sComparisons++;
+            return value == null ? t.value == null : value.equalsIgnoreCase(t.value);
+        }
+    }
+
+    /** A {@link TestItem} whose collapse key is its value. */
+    private static class TestKeyedItem extends TestItem implements KeyedCollapsible<TestItem> {
+        private final boolean mExact;
+
+        public TestKeyedItem(String value, boolean exact) {
+            super(value);
+            mExact = exact;
+        }
+
+        @Override
+        public Object getCollapseKey() {
+            return value;
+        }
+
+        @Override
+        public boolean isCollapseKeyExact() {
+            return mExact;
+        }
+
+        @Override
+        public boolean collapseWith(TestItem t) {
+            // Do not count the comparisons of the items with the same key.
+            final int comparisons = sComparisons;
+            final boolean result = super.collapseWith(t);
+            sComparisons = comparisons;
+            return result;
+        }
+    }
+}
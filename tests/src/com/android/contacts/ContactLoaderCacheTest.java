@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.contacts;
+
+import com.android.contacts.util.ExpirableCache.CachedValue;
+import com.google.common.collect.Lists;
+
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Directory;
+import android.provider.ContactsContract.RawContacts;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ContactLoaderCache}.
+ */
+@SmallTest
+public class ContactLoaderCacheTest extends TestCase {
+    private static final Uri LOOKUP_URI_A = createLookupUri("lookupA", 1);
+    private static final Uri LOOKUP_URI_B = createLookupUri("lookupB", 2);
+
+    /** The object under test. */
+    private ContactLoaderCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new ContactLoaderCache();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache = null;
+        super.tearDown();
+    }
+
+    public void testGetLookupKey_LookupUri() {
+        assertEquals("lookupA", ContactLoaderCache.getLookupKey(LOOKUP_URI_A));
+        assertEquals("lookupA", ContactLoaderCache.getLookupKey(
+                Uri.withAppendedPath(Contacts.CONTENT_LOOKUP_URI, "lookupA")));
+        assertNull(ContactLoaderCache.getLookupKey(Contacts.CONTENT_LOOKUP_URI));
+        assertNull(ContactLoaderCache.getLookupKey(null));
+    }
+
+    public void testGetLookupKey_Directory() {
+        assertEquals("lookupA", ContactLoaderCache.getLookupKey(
+                withDirectory(LOOKUP_URI_A, Directory.DEFAULT)));
+        assertNull(ContactLoaderCache.getLookupKey(withDirectory(LOOKUP_URI_A, 5)));
+    }
+
+    public void testGetLookupKey_NotLookupUri() {
+        assertNull(ContactLoaderCache.getLookupKey(
+                Uri.withAppendedPath(Contacts.CONTENT_URI, "1")));
+        assertNull(ContactLoaderCache.getLookupKey(
+                Uri.withAppendedPath(RawContacts.CONTENT_URI, "1")));
+        assertNull(ContactLoaderCache.getLookupKey(
+                Uri.parse("content://contacts/contacts/lookup/lookupA/1")));
+    }
+
+    public void testGet_CachedContact() {
+        mCache.put(createResult(LOOKUP_URI_A, Directory.DEFAULT, false, 1), true, true, true);
+
+        // The contact is found with any URI of the same lookup key.
+        final CachedValue<ContactLoaderCache.Entry> cachedValue = mCache.get(
+                Uri.withAppendedPath(Contacts.CONTENT_LOOKUP_URI, "lookupA"), true, true, true);
+        assertNotNull(cachedValue);
+        assertFalse(cachedValue.isExpired());
+        assertEquals(LOOKUP_URI_A, cachedValue.getValue().result.getLookupUri());
+        assertNull(mCache.get(LOOKUP_URI_B, true, true, true));
+    }
+
+    public void testPut_CopiesEntitiesAndStatuses() {
+        final ContactLoader.Result result = createResult(LOOKUP_URI_A, Directory.DEFAULT, false, 1);
+        mCache.put(result, true, true, true);
+        final ContactLoader.Result cachedResult =
+                mCache.get(LOOKUP_URI_A, true, true, true).getValue().result;
+        assertNotSame(result.getEntities(), cachedResult.getEntities());
+        assertNotSame(result.getStatuses(), cachedResult.getStatuses());
+
+        // Changes to the result of the loader do not affect the cached one.
+        result.getEntities().clear();
+        assertEquals(1, cachedResult.getEntities().size());
+    }
+
+    public void testGet_MissingParts() {
+        mCache.put(createResult(LOOKUP_URI_A, Directory.DEFAULT, false, 1), true, false, true);
+        assertNotNull(mCache.get(LOOKUP_URI_A, true, false, false));
+        assertNull(mCache.get(LOOKUP_URI_A, true, true, true));
+    }
+
+    public void testPut_PartialResultNotCached() {
+        mCache.put(createResult(LOOKUP_URI_A, Directory.DEFAULT, true, 1), true, true, true);
+        assertNull(mCache.get(LOOKUP_URI_A, false, false, false));
+    }
+
+    public void testPut_DirectoryResultNotCached() {
+        mCache.put(createResult(LOOKUP_URI_A, 5, false, 1), true, true, true);
+        assertNull(mCache.get(LOOKUP_URI_A, false, false, false));
+    }
+
+    public void testPut_NotLookupUriNotCached() {
+        final Uri contactUri = Uri.withAppendedPath(Contacts.CONTENT_URI, "1");
+        mCache.put(createResult(contactUri, Directory.DEFAULT, false, 1), true, true, true);
+        assertNull(mCache.get(contactUri, false, false, false));
+    }
+
+    public void testInvalidateRawContacts_Join() {
+        mCache.put(createResult(LOOKUP_URI_A, Directory.DEFAULT, false, 1), true, true, true);
+        mCache.put(createResult(LOOKUP_URI_B, Directory.DEFAULT, false, 2), true, true, true);
+
+        // The loader of the first contact is notified once it is joined with the second one.
+        mCache.invalidateRawContacts(Lists.newArrayList(1L, 2L));
+        assertNull(mCache.get(LOOKUP_URI_A, false, false, false));
+        assertNull(mCache.get(LOOKUP_URI_B, false, false, false));
+    }
+
+    public void testInvalidateRawContacts_OtherContactKept() {
+        mCache.put(createResult(LOOKUP_URI_A, Directory.DEFAULT, false, 1), true, true, true);
+        mCache.put(createResult(LOOKUP_URI_B, Directory.DEFAULT, false, 2), true, true, true);
+
+        mCache.invalidateRawContacts(Lists.newArrayList(1L));
+        assertNull(mCache.get(LOOKUP_URI_A, false, false, false));
+        assertNotNull(mCache.get(LOOKUP_URI_B, false, false, false));
+    }
+
+    public void testInvalidateRawContacts_Split() {
+        mCache.put(createResult(LOOKUP_URI_A, Directory.DEFAULT, false, 1, 2), true, true, true);
+
+        // The second raw contact is split into a contact of its own, and both are loaded again.
+        mCache.put(createResult(LOOKUP_URI_A, Directory.DEFAULT, false, 1), true, true, true);
+        mCache.put(createResult(LOOKUP_URI_B, Directory.DEFAULT, false, 2), true, true, true);
+
+        // Only the contact which has the raw contact now is removed.
+        mCache.invalidateRawContacts(Lists.newArrayList(2L));
+        assertNotNull(mCache.get(LOOKUP_URI_A, false, false, false));
+        assertNull(mCache.get(LOOKUP_URI_B, false, false, false));
+    }
+
+    private static ContactLoader.Result createResult(Uri lookupUri, long directoryId,
+            boolean partial, long... rawContactIds) {
+        return ContactLoader.Result.createForTesting(
+                lookupUri, directoryId, partial, rawContactIds);
+    }
+
+    private static Uri createLookupUri(String lookupKey, long contactId) {
+        return Contacts.CONTENT_LOOKUP_URI.buildUpon()
+                .appendPath(lookupKey)
+                .appendPath(Long.toString(contactId))
+                .build();
+    }
+
+    private static Uri withDirectory(Uri uri, long directoryId) {
+        return uri.buildUpon()
+                .appendQueryParameter(ContactsContract.DIRECTORY_PARAM_KEY,
+                        Long.toString(directoryId))
+                .build();
+    }
+}
@@ -25,7 +25,12 @@ import com.android.contacts.tests.mocks.MockAccountTypeManager;
 import com.android.contacts.tests.mocks.MockContentProvider;
 
 import android.content.ContentUris;
+import android.content.Loader;
+import android.content.Loader.OnLoadCompleteListener;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
 import android.provider.ContactsContract.CommonDataKinds.StructuredName;
 import android.provider.ContactsContract.Contacts;
@@ -33,9 +38,13 @@ import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.DisplayNameSources;
 import android.provider.ContactsContract.RawContacts;
 import android.provider.ContactsContract.StatusUpdates;
+import android.provider.ContactsContract.StreamItemPhotos;
+import android.provider.ContactsContract.StreamItems;
 import android.test.LoaderTestCase;
 import android.test.suitebuilder.annotation.LargeTest;
 
+import java.util.concurrent.ArrayBlockingQueue;
+
 /**
  * Runs ContactLoader tests for the the contact-detail and editor view.
  */
@@ -79,6 +88,38 @@ public class ContactLoaderTest extends LoaderTestCase {
         return getLoaderResultSynchronously(loader);
     }
 
+    /**
+     * Loads the contact with the given loader, notifies the loader that the contact changed, and
+     * returns the first and the second result it delivered.
+     */
+    private ContactLoader.Result[] loadContactAndReloadAfterChange(final ContactLoader loader)
+            throws InterruptedException {
+        final ArrayBlockingQueue<ContactLoader.Result> queue =
+                new ArrayBlockingQueue<ContactLoader.Result>(2);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                loader.registerListener(0, new OnLoadCompleteListener<ContactLoader.Result>() {
+                    private int mLoadCount;
+
+                    @Override
+                    public void onLoadComplete(Loader<ContactLoader.Result> completedLoader,
+                            ContactLoader.Result data) {
+                        queue.add(data);
+                        if (++mLoadCount == 1) {
+                            completedLoader.onContentChanged();
+                        } else {
+                            completedLoader.unregisterListener(this);
+                            completedLoader.reset();
+                        }
+                    }
+                });
+                loader.startLoading();
+            }
+        });
+        return new ContactLoader.Result[] { queue.take(), queue.take() };
+    }
+
     public void testNullUri() {
         ContactLoader.Result result = assertLoadContact(null);
         assertTrue(result.isError());
@@ -123,6 +164,77 @@ public class ContactLoaderTest extends LoaderTestCase {
         mContactsProvider.verify();
     }
 
+    public void testLoadContact_DeliversPartialResultFirst() {
+        final long contactId = 1;
+        final long rawContactId = 11;
+        final long dataId = 21;
+
+        final String lookupKey = "aa%12%@!";
+        final Uri baseUri = ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId);
+        final Uri entityUri = Uri.withAppendedPath(baseUri, Contacts.Entity.CONTENT_DIRECTORY);
+
+        ContactQueries queries = new ContactQueries();
+        mContactsProvider.expectTypeQuery(baseUri, Contacts.CONTENT_ITEM_TYPE);
+        queries.fetchAllData(entityUri, contactId, rawContactId, dataId, lookupKey);
+
+        final ContactLoader loader = new ContactLoader(mMockContext, baseUri, false, false, false,
+                true /* deliverPartialResults */, false /* useCache */);
+        ContactLoader.Result contact = getLoaderResultSynchronously(loader);
+
+        // The header and the entities are delivered before the other parts of the contact.
+        assertTrue(contact.isPartial());
+        assertTrue(contact.isLoadingPhoto());
+        assertEquals(contactId, contact.getId());
+        assertEquals(1, contact.getEntities().size());
+        mContactsProvider.verify();
+    }
+
+    public void testLoadContact_LoadsFirstPageOfStreamItems() {
+        final long contactId = 1;
+        final long rawContactId = 11;
+        final long dataId = 21;
+
+        final String lookupKey = "aa%12%@!";
+        final Uri baseUri = ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId);
+        final Uri entityUri = Uri.withAppendedPath(baseUri, Contacts.Entity.CONTENT_DIRECTORY);
+        final Uri streamItemsUri = Contacts.CONTENT_LOOKUP_URI.buildUpon()
+                .appendPath(lookupKey)
+                .appendPath(Contacts.StreamItems.CONTENT_DIRECTORY)
+                .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY, "21")
+                .build();
+
+        ContactQueries queries = new ContactQueries();
+        mContactsProvider.expectTypeQuery(baseUri, Contacts.CONTENT_ITEM_TYPE);
+        queries.fetchAllData(entityUri, contactId, rawContactId, dataId, lookupKey);
+        mContactsProvider.expectQuery(streamItemsUri)
+                .withSortOrder(StreamItems.TIMESTAMP + " DESC, " + StreamItems._ID + " DESC")
+                .withDefaultProjection(StreamItems._ID, StreamItems.TEXT, StreamItems.COMMENTS,
+                        StreamItems.TIMESTAMP, StreamItems.ACCOUNT_TYPE, StreamItems.ACCOUNT_NAME,
+                        StreamItems.DATA_SET, StreamItems.RES_PACKAGE, StreamItems.RES_ICON,
+                        StreamItems.RES_LABEL)
+                .returnRow(102, "newer", null, 2000, "mockAccountType", "mockAccountName", null,
+                        null, null, null)
+                .returnRow(101, "older", null, 1000, "mockAccountType", "mockAccountName", null,
+                        null, null, null);
+        // The photos of all the stream items are loaded at once.
+        mContactsProvider.expectQuery(StreamItems.CONTENT_PHOTO_URI)
+                .withAnyProjection()
+                .withSelection(StreamItemPhotos.STREAM_ITEM_ID + " IN (?,?)", "102", "101")
+                .withSortOrder(StreamItemPhotos.STREAM_ITEM_ID)
+                .returnEmptyCursor();
+
+        final ContactLoader loader = new ContactLoader(mMockContext, baseUri,
+                false /* loadGroupMetaData */, true /* loadStreamItems */,
+                false /* loadInvitableAccountTypes */);
+        ContactLoader.Result contact = getLoaderResultSynchronously(loader);
+
+        assertEquals(2, contact.getStreamItems().size());
+        assertEquals(102, contact.getStreamItems().get(0).getId());
+        assertEquals(101, contact.getStreamItems().get(1).getId());
+        assertFalse(contact.hasMoreStreamItems());
+        mContactsProvider.verify();
+    }
+
     public void testLoadContactWithOldStyleUri() {
         // Use content Uris that only contain the ID but use the format used in Donut
         final long contactId = 1;
@@ -284,9 +396,80 @@ public class ContactLoaderTest extends LoaderTestCase {
         mContactsProvider.verify();
     }
 
+    public void testReloadContact_PatchesPresenceOnlyChange() throws Exception {
+        final long contactId = 1;
+        final long rawContactId = 11;
+        final long dataId = 21;
+
+        final String lookupKey = "aa%12%@!";
+        final Uri baseUri = ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId);
+        final Uri entityUri = Uri.withAppendedPath(baseUri, Contacts.Entity.CONTENT_DIRECTORY);
+
+        ContactQueries queries = new ContactQueries();
+        mContactsProvider.expectTypeQuery(baseUri, Contacts.CONTENT_ITEM_TYPE);
+        queries.fetchAllData(entityUri, contactId, rawContactId, dataId, lookupKey, null);
+        queries.fetchContactChange(contactId, rawContactId, lookupKey, StatusUpdates.AWAY);
+        queries.fetchRawContactVersion(contactId, rawContactId, 1);
+        mContactsProvider.expectQuery(Data.CONTENT_URI)
+                .withProjection(Data._ID, Data.PRESENCE, Data.STATUS, Data.STATUS_TIMESTAMP,
+                        Data.STATUS_RES_PACKAGE, Data.STATUS_ICON, Data.STATUS_LABEL)
+                .withSelection(Data.CONTACT_ID + "=?", String.valueOf(contactId))
+                .returnRow(dataId, StatusUpdates.AWAY, "Back soon", 30, "mockPkg3", 0, 0);
+
+        ContactLoader.Result[] results = loadContactAndReloadAfterChange(
+                new ContactLoader(mMockContext, baseUri));
+
+        // Only the presence and the statuses are loaded again, the entities are kept.
+        final ContactLoader.Result contact = results[1];
+        assertSame(results[0].getEntities(), contact.getEntities());
+        assertEquals(Integer.valueOf(StatusUpdates.AWAY), contact.getPresence());
+        assertEquals(1, contact.getStatuses().size());
+        assertEquals("Back soon", contact.getStatuses().get(dataId).getStatus());
+        mContactsProvider.verify();
+    }
+
+    public void testReloadContact_LoadsEntirelyWhenVersionChanged() throws Exception {
+        final long contactId = 1;
+        final long rawContactId = 11;
+        final long dataId = 21;
+
+        final String lookupKey = "aa%12%@!";
+        final Uri baseUri = ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId);
+        final Uri entityUri = Uri.withAppendedPath(baseUri, Contacts.Entity.CONTENT_DIRECTORY);
+        final Uri lookupUri = ContentUris.withAppendedId(
+                Uri.withAppendedPath(Contacts.CONTENT_LOOKUP_URI, lookupKey),
+                contactId);
+        final Uri lookupEntityUri =
+                Uri.withAppendedPath(lookupUri, Contacts.Entity.CONTENT_DIRECTORY);
+
+        ContactQueries queries = new ContactQueries();
+        mContactsProvider.expectTypeQuery(baseUri, Contacts.CONTENT_ITEM_TYPE);
+        queries.fetchAllData(entityUri, contactId, rawContactId, dataId, lookupKey, null);
+        queries.fetchContactChange(contactId, rawContactId, lookupKey, StatusUpdates.AVAILABLE);
+        // The data of the raw contact changed.
+        queries.fetchRawContactVersion(contactId, rawContactId, 2);
+        mContactsProvider.expectTypeQuery(lookupUri, Contacts.CONTENT_ITEM_TYPE);
+        queries.fetchAllData(lookupEntityUri, contactId, rawContactId, dataId, lookupKey, null);
+
+        ContactLoader.Result[] results = loadContactAndReloadAfterChange(
+                new ContactLoader(mMockContext, baseUri));
+
+        final ContactLoader.Result contact = results[1];
+        assertNotSame(results[0].getEntities(), contact.getEntities());
+        assertEquals(1, contact.getEntities().size());
+        assertEquals(lookupUri, contact.getLookupUri());
+        mContactsProvider.verify();
+    }
+
     class ContactQueries {
         public void fetchAllData(
                 Uri baseUri, long contactId, long rawContactId, long dataId, String encodedLookup) {
+            fetchAllData(baseUri, contactId, rawContactId, dataId, encodedLookup,
+                    "content:some.photo.uri");
+        }
+
+        public void fetchAllData(Uri baseUri, long contactId, long rawContactId, long dataId,
+                String encodedLookup, String photoUri) {
             mContactsProvider.expectQuery(baseUri)
                     .withProjection(new String[] {
                         Contacts.NAME_RAW_CONTACT_ID, Contacts.DISPLAY_NAME_SOURCE,
@@ -358,7 +541,7 @@ public class ContactLoaderTest extends LoaderTestCase {
                         "Having dinner", "mockPkg3", 0,
                         20, 0,
 
-                        "content:some.photo.uri",
+                        photoUri,
 
                         0,
                         null,
@@ -366,6 +549,27 @@ public class ContactLoaderTest extends LoaderTestCase {
                     );
         }
 
+        /** Expects the query of the columns of the contact which are compared on a change. */
+        void fetchContactChange(long contactId, long nameRawContactId, String lookupKey,
+                int presence) {
+            mContactsProvider.expectQuery(
+                    ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId))
+                    .withProjection(Contacts.LOOKUP_KEY, Contacts.NAME_RAW_CONTACT_ID,
+                            Contacts.DISPLAY_NAME, Contacts.PHOTO_ID, Contacts.PHOTO_URI,
+                            Contacts.STARRED, Contacts.SEND_TO_VOICEMAIL, Contacts.CUSTOM_RINGTONE,
+                            Contacts.CONTACT_PRESENCE)
+                    .returnRow(lookupKey, nameRawContactId, "John Doe", 0, null, 0, 0, null,
+                            presence);
+        }
+
+        void fetchRawContactVersion(long contactId, long rawContactId, long version) {
+            mContactsProvider.expectQuery(RawContacts.CONTENT_URI)
+                    .withProjection(RawContacts._ID, RawContacts.VERSION)
+                    .withSelection(RawContacts.CONTACT_ID + "=? AND " + RawContacts.DELETED + "=0",
+                            String.valueOf(contactId))
+                    .returnRow(rawContactId, version);
+        }
+
         void fetchLookupAndId(final Uri sourceUri, final long expectedContactId,
                 final String expectedEncodedLookup) {
             mContactsProvider.expectQuery(sourceUri)
@@ -17,6 +17,7 @@
 package com.android.contacts.calllog;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import android.content.Context;
 import android.database.MatrixCursor;
@@ -24,7 +25,9 @@ import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.view.View;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Unit tests for {@link CallLogAdapter}.
@@ -61,6 +64,16 @@ public class CallLogAdapterTest extends AndroidTestCase {
                         info.formattedNumber = number;
                         return info;
                     }
+
+                    @Override
+                    public Map<NumberWithCountryIso, ContactInfo> lookupNumbers(
+                            Collection<NumberWithCountryIso> numbers) {
+                        Map<NumberWithCountryIso, ContactInfo> infos = Maps.newHashMap();
+                        for (NumberWithCountryIso number : numbers) {
+                            infos.put(number, lookupNumber(number.number, number.countryIso));
+                        }
+                        return infos;
+                    }
                 };
 
         mAdapter = new TestCallLogAdapter(getContext(), fakeCallFetcher, fakeContactInfoHelper);
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.CallLog;
+import android.provider.CallLog.Calls;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link CallLogContactInfoWriter}.
+ */
+@MediumTest
+public class CallLogContactInfoWriterTest extends AndroidTestCase {
+    private static final String TEST_COUNTRY_ISO = "US";
+    /** How long to wait for a batch, which is less than the delay before a flush. */
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    private HandlerThread mThread;
+    private FakeCallLogProvider mProvider;
+    /** The object under test. */
+    private CallLogContactInfoWriter mWriter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("CallLogContactInfoWriterTest");
+        mThread.start();
+        mProvider = new FakeCallLogProvider();
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CallLog.AUTHORITY, mProvider);
+        mWriter = new CallLogContactInfoWriter(resolver, mThread);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        mThread = null;
+        mWriter = null;
+        mProvider = null;
+        super.tearDown();
+    }
+
+    public void testUpdate_CoalescedPerNumber() throws Exception {
+        mWriter.update("1", TEST_COUNTRY_ISO, createValues("Alice", null));
+        mWriter.update("2", TEST_COUNTRY_ISO, createValues("Bob", null));
+        mWriter.update("1", TEST_COUNTRY_ISO, createValues(null, "content://lookup/1"));
+        mWriter.flushSoon();
+
+        ArrayList<ContentProviderOperation> batch = awaitBatch();
+        assertEquals(2, batch.size());
+        waitForWriter();
+        assertNull(mProvider.mBatches.poll());
+        assertEquals(3, mWriter.getRequestedUpdateCount());
+        assertEquals(1, mWriter.getCoalescedUpdateCount());
+        assertEquals(2, mWriter.getWriteCount());
+        assertEquals(1, mWriter.getBatchCount());
+        assertEquals(0, mWriter.getFailedBatchCount());
+    }
+
+    public void testUpdate_FlushesWhenEnoughPending() throws Exception {
+        for (int i = 0; i < CallLogContactInfoWriter.MAX_PENDING_UPDATES; i++) {
+            mWriter.update(Integer.toString(i), TEST_COUNTRY_ISO, createValues("Name", null));
+        }
+        // Written without waiting for the flush delay.
+        ArrayList<ContentProviderOperation> batch = awaitBatch();
+        assertEquals(CallLogContactInfoWriter.MAX_PENDING_UPDATES, batch.size());
+        waitForWriter();
+        assertEquals(CallLogContactInfoWriter.MAX_PENDING_UPDATES, mWriter.getWriteCount());
+        assertEquals(1, mWriter.getBatchCount());
+    }
+
+    public void testUpdate_FailedBatchNotCounted() throws Exception {
+        mProvider.mFail = true;
+        mWriter.update("1", TEST_COUNTRY_ISO, createValues("Alice", null));
+        mWriter.flushSoon();
+
+        awaitBatch();
+        waitForWriter();
+        assertEquals(0, mWriter.getWriteCount());
+        assertEquals(0, mWriter.getBatchCount());
+        assertEquals(1, mWriter.getFailedBatchCount());
+    }
+
+    private ArrayList<ContentProviderOperation> awaitBatch() throws InterruptedException {
+        ArrayList<ContentProviderOperation> batch =
+                mProvider.mBatches.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull("No batch written", batch);
+        return batch;
+    }
+
+    /** Waits for the writer to be done with the messages it has already received. */
+    private void waitForWriter() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private static ContentValues createValues(String name, String lookupUri) {
+        ContentValues values = new ContentValues();
+        if (name != null) {
+            values.put(Calls.CACHED_NAME, name);
+        }
+        if (lookupUri != null) {
+            values.put(Calls.CACHED_LOOKUP_URI, lookupUri);
+        }
+        return values;
+    }
+
+    /** Records the batches applied to the call log. */
+    private static final class FakeCallLogProvider extends MockContentProvider {
+        public final ArrayBlockingQueue<ArrayList<ContentProviderOperation>> mBatches =
+                new ArrayBlockingQueue<ArrayList<ContentProviderOperation>>(10);
+        public volatile boolean mFail;
+
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            mBatches.add(operations);
+            if (mFail) {
+                throw new OperationApplicationException("failed");
+            }
+            return new ContentProviderResult[operations.size()];
+        }
+    }
+}
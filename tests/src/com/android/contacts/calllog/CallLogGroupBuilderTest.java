@@ -18,8 +18,11 @@ package com.android.contacts.calllog;
 
 import static com.google.android.collect.Lists.newArrayList;
 
+import android.database.Cursor;
 import android.database.MatrixCursor;
+import android.database.MergeCursor;
 import android.provider.CallLog.Calls;
+import android.telephony.PhoneNumberUtils;
 import android.test.AndroidTestCase;
 
 import java.util.List;
@@ -167,6 +170,118 @@ public class CallLogGroupBuilderTest extends AndroidTestCase {
         assertGroupIs(7, 3, false, mFakeGroupCreator.groups.get(2));
     }
 
+    public void testExtendGroupTable_ContinuesLastGroup() {
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.OUTGOING_TYPE);
+        addOldCallLogEntry(TEST_NUMBER2, Calls.INCOMING_TYPE);
+        CallLogGroupBuilder.GroupTable firstPage = CallLogGroupBuilder.buildGroupTable(mCursor);
+        // Only the added rows are passed.
+        createCursor();
+        addMultipleOldCallLogEntries(TEST_NUMBER2, Calls.OUTGOING_TYPE, Calls.INCOMING_TYPE);
+        addOldCallLogEntry(TEST_NUMBER1, Calls.MISSED_TYPE);
+        CallLogGroupBuilder.GroupTable groups =
+                CallLogGroupBuilder.extendGroupTable(firstPage, mCursor);
+        assertEquals(6, groups.getRowCount());
+        groups.addTo(mFakeGroupCreator);
+        assertEquals(2, mFakeGroupCreator.groups.size());
+        assertGroupIs(0, 2, false, mFakeGroupCreator.groups.get(0));
+        assertGroupIs(2, 3, false, mFakeGroupCreator.groups.get(1));
+        // The groups of the first page are not modified.
+        assertEquals(3, firstPage.getRowCount());
+        assertEquals(1, firstPage.getGroupCount());
+    }
+
+    public void testExtendGroupTable_ExtendsTrailingGroup() {
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.MISSED_TYPE, Calls.MISSED_TYPE);
+        CallLogGroupBuilder.GroupTable firstPage = CallLogGroupBuilder.buildGroupTable(mCursor);
+        createCursor();
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.MISSED_TYPE, Calls.INCOMING_TYPE);
+        CallLogGroupBuilder.GroupTable groups =
+                CallLogGroupBuilder.extendGroupTable(firstPage, mCursor);
+        groups.addTo(mFakeGroupCreator);
+        assertEquals(1, mFakeGroupCreator.groups.size());
+        assertGroupIs(0, 3, false, mFakeGroupCreator.groups.get(0));
+    }
+
+    public void testExtendGroupTable_NoPreviousRows() {
+        CallLogGroupBuilder.GroupTable firstPage = CallLogGroupBuilder.buildGroupTable(mCursor);
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.INCOMING_TYPE);
+        CallLogGroupBuilder.GroupTable groups =
+                CallLogGroupBuilder.extendGroupTable(firstPage, mCursor);
+        assertSameGroups(CallLogGroupBuilder.buildGroupTable(mCursor), groups);
+    }
+
+    public void testExtendGroupTable_NoAddedRows() {
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.INCOMING_TYPE);
+        CallLogGroupBuilder.GroupTable firstPage = CallLogGroupBuilder.buildGroupTable(mCursor);
+        createCursor();
+        CallLogGroupBuilder.GroupTable groups =
+                CallLogGroupBuilder.extendGroupTable(firstPage, mCursor);
+        assertSameGroups(firstPage, groups);
+    }
+
+    public void testInsertRows_AtTopOfSections() {
+        addNewCallLogHeader();
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.OUTGOING_TYPE);
+        addOldCallLogHeader();
+        addMultipleOldCallLogEntries(TEST_NUMBER2, Calls.MISSED_TYPE, Calls.MISSED_TYPE);
+        addOldCallLogEntry(TEST_NUMBER1, Calls.INCOMING_TYPE);
+        CallLogGroupBuilder.GroupTable previous = CallLogGroupBuilder.buildGroupTable(mCursor);
+
+        createCursor();
+        addNewCallLogHeader();
+        addOldCallLogEntry(TEST_NUMBER1, Calls.OUTGOING_TYPE);  // Inserted.
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.OUTGOING_TYPE);
+        addOldCallLogHeader();
+        addOldCallLogEntry(TEST_NUMBER2, Calls.VOICEMAIL_TYPE);  // Inserted.
+        addMultipleOldCallLogEntries(TEST_NUMBER2, Calls.MISSED_TYPE, Calls.MISSED_TYPE);
+        addOldCallLogEntry(TEST_NUMBER1, Calls.INCOMING_TYPE);
+        CallLogGroupBuilder.GroupTable groups = CallLogGroupBuilder.insertRows(
+                previous, mCursor, new int[]{ 1, 5 }, new int[]{ 1, 1 });
+
+        assertSameGroups(CallLogGroupBuilder.buildGroupTable(mCursor), groups);
+        assertEquals(9, groups.getRowCount());
+        groups.addTo(mFakeGroupCreator);
+        assertEquals(2, mFakeGroupCreator.groups.size());
+        assertGroupIs(1, 3, false, mFakeGroupCreator.groups.get(0));
+        assertGroupIs(5, 3, false, mFakeGroupCreator.groups.get(1));
+    }
+
+    public void testInsertRows_SplitsGroup() {
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.MISSED_TYPE, Calls.MISSED_TYPE,
+                Calls.MISSED_TYPE);
+        addMultipleOldCallLogEntries(TEST_NUMBER2, Calls.INCOMING_TYPE, Calls.INCOMING_TYPE);
+        CallLogGroupBuilder.GroupTable previous = CallLogGroupBuilder.buildGroupTable(mCursor);
+
+        createCursor();
+        addOldCallLogEntry(TEST_NUMBER1, Calls.INCOMING_TYPE);  // Inserted.
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.MISSED_TYPE, Calls.MISSED_TYPE,
+                Calls.MISSED_TYPE);
+        addMultipleOldCallLogEntries(TEST_NUMBER2, Calls.INCOMING_TYPE, Calls.INCOMING_TYPE);
+        CallLogGroupBuilder.GroupTable groups = CallLogGroupBuilder.insertRows(
+                previous, mCursor, new int[]{ 0 }, new int[]{ 1 });
+
+        assertSameGroups(CallLogGroupBuilder.buildGroupTable(mCursor), groups);
+    }
+
+    public void testInsertRows_ThenExtend() {
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.INCOMING_TYPE);
+        CallLogGroupBuilder.GroupTable previous = CallLogGroupBuilder.buildGroupTable(mCursor);
+
+        createCursor();
+        addOldCallLogEntry(TEST_NUMBER2, Calls.INCOMING_TYPE);  // Inserted.
+        addMultipleOldCallLogEntries(TEST_NUMBER1, Calls.INCOMING_TYPE, Calls.INCOMING_TYPE);
+        CallLogGroupBuilder.GroupTable groups = CallLogGroupBuilder.insertRows(
+                previous, mCursor, new int[]{ 0 }, new int[]{ 1 });
+        // The last run is still open.
+        final Cursor firstPage = mCursor;
+        createCursor();
+        addOldCallLogEntry(TEST_NUMBER1, Calls.OUTGOING_TYPE);
+        groups = CallLogGroupBuilder.extendGroupTable(groups, mCursor);
+
+        assertSameGroups(CallLogGroupBuilder.buildGroupTable(
+                new MergeCursor(new Cursor[]{ firstPage, mCursor })), groups);
+    }
+
     public void testEqualPhoneNumbers() {
         // Identical.
         assertTrue(mBuilder.equalNumbers("6505555555", "6505555555"));
@@ -205,6 +320,47 @@ public class CallLogGroupBuilderTest extends AndroidTestCase {
         assertFalse(mBuilder.equalNumbers("6505555555@host.com", null));
     }
 
+    public void testEqualPhoneNumbers_PostDial() {
+        assertTrue(mBuilder.equalNumbers("6505555555,123", "6505555555"));
+        assertEqualNumbersLikeCompare("6505555555,123", "6505555555");
+        assertEqualNumbersLikeCompare("6505555555;123", "6505555555");
+        assertEqualNumbersLikeCompare("6505555555,123", "6505555555,456");
+        assertEqualNumbersLikeCompare("6505555555,123", "(650) 555-5555;123");
+        assertEqualNumbersLikeCompare("650555,5555", "6505555555");
+        assertEqualNumbersLikeCompare("5555555,1", "55555551");
+    }
+
+    public void testEqualPhoneNumbers_Wildcard() {
+        assertEqualNumbersLikeCompare("650555555N", "6505555555");
+        assertEqualNumbersLikeCompare("650555N555", "6505555555");
+        assertEqualNumbersLikeCompare("650555N555", "6505551234");
+        assertEqualNumbersLikeCompare("NNNNNNNNNN", "6505555555");
+    }
+
+    public void testEqualPhoneNumbers_Empty() {
+        assertEqualNumbersLikeCompare("", "");
+        assertEqualNumbersLikeCompare("", "6505555555");
+    }
+
+    public void testAddGroups_EmptyNumbers() {
+        addMultipleOldCallLogEntries("", Calls.INCOMING_TYPE, Calls.INCOMING_TYPE);
+        mBuilder.addGroups(mCursor);
+        // Calls without a number are not grouped, as with PhoneNumberUtils#compare.
+        assertEquals(0, mFakeGroupCreator.groups.size());
+    }
+
+    public void testAddGroups_PostDialNumbers() {
+        final String number = "6505555555";
+        final String postDialNumber = number + ",123";
+        addOldCallLogEntry(number, Calls.OUTGOING_TYPE);
+        addOldCallLogEntry(postDialNumber, Calls.OUTGOING_TYPE);
+        addOldCallLogEntry(postDialNumber, Calls.OUTGOING_TYPE);
+        mBuilder.addGroups(mCursor);
+        // The post-dial digits are ignored when comparing numbers.
+        assertEquals(1, mFakeGroupCreator.groups.size());
+        assertGroupIs(0, 3, false, mFakeGroupCreator.groups.get(0));
+    }
+
     public void testCompareSipAddresses() {
         // Identical.
         assertTrue(mBuilder.compareSipAddresses("6505555555@host.com", "6505555555@host.com"));
@@ -309,6 +465,31 @@ public class CallLogGroupBuilderTest extends AndroidTestCase {
         mCursor.addRow(values);
     }
 
+    /** Asserts that two numbers are grouped together if and only if they compare as equal. */
+    private void assertEqualNumbersLikeCompare(String number1, String number2) {
+        final boolean expected = PhoneNumberUtils.compare(number1, number2);
+        assertEquals(number1 + " vs " + number2, expected,
+                mBuilder.equalNumbers(number1, number2));
+        assertEquals(number2 + " vs " + number1, expected,
+                mBuilder.equalNumbers(number2, number1));
+    }
+
+    /** Asserts that the two tables contain the same groups. */
+    private void assertSameGroups(CallLogGroupBuilder.GroupTable expected,
+            CallLogGroupBuilder.GroupTable actual) {
+        assertEquals(expected.getRowCount(), actual.getRowCount());
+        FakeGroupCreator expectedGroups = new FakeGroupCreator();
+        expected.addTo(expectedGroups);
+        FakeGroupCreator actualGroups = new FakeGroupCreator();
+        actual.addTo(actualGroups);
+        assertEquals(expectedGroups.groups.size(), actualGroups.groups.size());
+        for (int i = 0; i < expectedGroups.groups.size(); ++i) {
+            GroupSpec group = expectedGroups.groups.get(i);
+            assertGroupIs(group.cursorPosition, group.size, group.expanded,
+                    actualGroups.groups.get(i));
+        }
+    }
+
     /** Asserts that the group matches the given values. */
     private void assertGroupIs(int cursorPosition, int size, boolean expanded, GroupSpec group) {
         assertEquals(cursorPosition, group.cursorPosition);
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import com.google.common.collect.Maps;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.provider.CallLog.Calls;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+import android.view.View;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks of the call log pipeline, run on synthetic call logs of increasing size.
+ * <p>
+ * The results are logged and written as JSON to {@link #REPORT_FILE_NAME} in the files directory
+ * of the application, so that they can be pulled from the device and compared across builds:
+ * <pre>
+ * { "results": [ { "benchmark": "addGroups", "rows": 1000, "medianMillis": 1.5, ... }, ... ] }
+ * </pre>
+ */
+@LargeTest
+public class CallLogPerformanceTest extends AndroidTestCase {
+    private static final String TAG = "CallLogPerformanceTest";
+
+    /** The name of the file the report is written to. */
+    private static final String REPORT_FILE_NAME = "call_log_benchmark.json";
+
+    /** The sizes of the call logs used in the benchmarks. */
+    private static final int[] ROW_COUNTS = { 1000, 10000, 50000 };
+    /** The number of times each benchmark is run before being measured. */
+    private static final int WARM_UP_ITERATIONS = 2;
+    /** The number of measured runs of each benchmark. */
+    private static final int ITERATIONS = 5;
+    /** The number of rows bound when the call log is first shown. */
+    private static final int FIRST_SCREEN_ROWS = 10;
+    /** The number of rows bound when measuring allocations. */
+    private static final int ALLOCATION_BINDS = 200;
+    /** The number of distinct numbers looked up at a time, i.e., the capacity of the queue. */
+    private static final int LOOKUP_ROUND_SIZE = 200;
+    private static final String TEST_COUNTRY_ISO = "US";
+
+    /** The results of all the benchmarks run so far, shared by the test instances. */
+    private static final JSONArray sResults = new JSONArray();
+
+    private CallLogAdapter.CallFetcher mFakeCallFetcher;
+    /** Counts the numbers looked up by the adapters. */
+    private int mLookedUpNumbers;
+    private ContactInfoHelper mFakeContactInfoHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFakeCallFetcher = new CallLogAdapter.CallFetcher() {
+            @Override
+            public void fetchCalls() {}
+        };
+        // Resolves each number to the info already cached in the call log, so that looking it up
+        // does not write to the call log.
+        mFakeContactInfoHelper = new ContactInfoHelper(getContext(), TEST_COUNTRY_ISO) {
+            @Override
+            public ContactInfo lookupNumber(String number, String countryIso) {
+                ++mLookedUpNumbers;
+                return createContactInfo(number);
+            }
+
+            @Override
+            public Map<NumberWithCountryIso, ContactInfo> lookupNumbers(
+                    Collection<NumberWithCountryIso> numbers) {
+                final Map<NumberWithCountryIso, ContactInfo> infos = Maps.newHashMap();
+                for (NumberWithCountryIso number : numbers) {
+                    infos.put(number, lookupNumber(number.number, number.countryIso));
+                }
+                return infos;
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFakeContactInfoHelper = null;
+        mFakeCallFetcher = null;
+        super.tearDown();
+    }
+
+    public void testAddGroups() throws Exception {
+        final CallLogGroupBuilder builder = new CallLogGroupBuilder(
+                new CallLogGroupBuilder.GroupCreator() {
+                    @Override
+                    public void addGroup(int cursorPosition, int size, boolean expanded) {}
+                });
+        for (int rowCount : ROW_COUNTS) {
+            final Cursor cursor = createCallLogCursor(rowCount);
+            try {
+                final long[] nanos = new long[ITERATIONS];
+                for (int i = -WARM_UP_ITERATIONS; i < ITERATIONS; ++i) {
+                    final long start = System.nanoTime();
+                    builder.addGroups(cursor);
+                    if (i >= 0) {
+                        nanos[i] = System.nanoTime() - start;
+                    }
+                }
+                addResult(createResult("addGroups", rowCount, nanos));
+            } finally {
+                cursor.close();
+            }
+        }
+        writeReport();
+    }
+
+    public void testFirstBind() throws Exception {
+        final View view = createListItemView();
+        for (int rowCount : ROW_COUNTS) {
+            final Cursor cursor = createCallLogCursor(rowCount);
+            try {
+                final long[] nanos = new long[ITERATIONS];
+                for (int i = -WARM_UP_ITERATIONS; i < ITERATIONS; ++i) {
+                    final CallLogAdapter adapter = createAdapter();
+                    // The adapter closes the cursors it is done with: give it a view of ours.
+                    final Cursor adapterCursor = new CallLogFilterCursor(cursor, null);
+                    final long start = System.nanoTime();
+                    adapter.changeCursor(adapterCursor);
+                    bindRows(adapter, adapterCursor, view, 0, FIRST_SCREEN_ROWS);
+                    if (i >= 0) {
+                        nanos[i] = System.nanoTime() - start;
+                    }
+                    adapter.changeCursor(null);
+                }
+                addResult(createResult("firstBind", rowCount, nanos));
+            } finally {
+                cursor.close();
+            }
+        }
+        writeReport();
+    }
+
+    public void testCallerIdLookupThroughput() throws Exception {
+        for (int rowCount : ROW_COUNTS) {
+            final CallLogAdapter adapter = createAdapter();
+            final long[] nanos = new long[ITERATIONS];
+            for (int i = -WARM_UP_ITERATIONS; i < ITERATIONS; ++i) {
+                mLookedUpNumbers = 0;
+                final long start = System.nanoTime();
+                for (int first = 0; first < rowCount; first += LOOKUP_ROUND_SIZE) {
+                    final int last = Math.min(first + LOOKUP_ROUND_SIZE, rowCount);
+                    for (int n = first; n < last; ++n) {
+                        final String number = createNumber(n);
+                        adapter.enqueueRequest(
+                                number, TEST_COUNTRY_ISO, createContactInfo(number), false);
+                    }
+                    adapter.processPendingRequestsForTest();
+                }
+                if (i >= 0) {
+                    nanos[i] = System.nanoTime() - start;
+                }
+                assertEquals(rowCount, mLookedUpNumbers);
+            }
+            final JSONObject result = createResult("callerIdLookup", rowCount, nanos);
+            result.put("lookupsPerSecond", rowCount * 1e9 / median(nanos));
+            addResult(result);
+        }
+        writeReport();
+    }
+
+    public void testAllocationsPerBind() throws Exception {
+        final View view = createListItemView();
+        for (int rowCount : ROW_COUNTS) {
+            final Cursor cursor = createCallLogCursor(rowCount);
+            try {
+                final CallLogAdapter adapter = createAdapter();
+                final Cursor adapterCursor = new CallLogFilterCursor(cursor, null);
+                adapter.changeCursor(adapterCursor);
+                // Bind rows spread across the whole call log, after a first pass to warm up.
+                final int stride = Math.max(1, rowCount / ALLOCATION_BINDS);
+                bindRows(adapter, adapterCursor, view, 0, ALLOCATION_BINDS);
+                Debug.resetThreadAllocCount();
+                Debug.resetThreadAllocSize();
+                Debug.startAllocCounting();
+                final long start = System.nanoTime();
+                int binds = 0;
+                for (int position = 1; position < rowCount; position += stride) {
+                    bindRows(adapter, adapterCursor, view, position, 1);
+                    ++binds;
+                }
+                final long nanos = System.nanoTime() - start;
+                Debug.stopAllocCounting();
+                final JSONObject result = new JSONObject();
+                result.put("benchmark", "allocationsPerBind");
+                result.put("rows", rowCount);
+                result.put("binds", binds);
+                result.put("meanMillisPerBind", nanos / 1e6 / binds);
+                result.put("objectsPerBind", (double) Debug.getThreadAllocCount() / binds);
+                result.put("bytesPerBind", (double) Debug.getThreadAllocSize() / binds);
+                addResult(result);
+                adapter.changeCursor(null);
+            } finally {
+                cursor.close();
+            }
+        }
+        writeReport();
+    }
+
+    /** Returns a new adapter which does not look up numbers in the background. */
+    private CallLogAdapter createAdapter() {
+        final CallLogAdapter adapter =
+                new CallLogAdapter(getContext(), mFakeCallFetcher, mFakeContactInfoHelper);
+        adapter.disableRequestProcessingForTest();
+        return adapter;
+    }
+
+    /** Returns a view which can be bound to a row of the call log. */
+    private View createListItemView() {
+        final View view = new View(getContext());
+        view.setTag(CallLogListItemViews.createForTest(getContext()));
+        return view;
+    }
+
+    /** Binds the given rows of the cursor to the view, as the adapter does for each group. */
+    private void bindRows(CallLogAdapter adapter, Cursor cursor, View view, int first,
+            int count) {
+        final int last = Math.min(first + count, cursor.getCount());
+        for (int position = first; position < last; ++position) {
+            cursor.moveToPosition(position);
+            if (cursor.getInt(CallLogQuery.SECTION) == CallLogQuery.SECTION_OLD_ITEM) {
+                adapter.bindStandAloneView(view, getContext(), cursor);
+            }
+        }
+    }
+
+    /**
+     * Returns a call log with the given number of calls, all of them old.
+     * <p>
+     * About a third of the calls are from the same number as the previous one, so that they are
+     * grouped, and half of the numbers have a contact cached in the call log.
+     */
+    private Cursor createCallLogCursor(int rowCount) {
+        final MatrixCursor cursor =
+                new MatrixCursor(CallLogQuery.EXTENDED_PROJECTION, rowCount + 1);
+        final Object[] header = CallLogQueryTestUtils.createTestExtendedValues();
+        header[CallLogQuery.SECTION] = CallLogQuery.SECTION_OLD_HEADER;
+        cursor.addRow(header);
+
+        // Always use the same seed so that all the runs use the same call log.
+        final Random random = new Random(rowCount);
+        final long now = System.currentTimeMillis();
+        final int distinctNumbers = Math.max(1, rowCount / 4);
+        String number = createNumber(0);
+        for (int i = 0; i < rowCount; ++i) {
+            if (random.nextInt(3) != 0) {
+                number = createNumber(random.nextInt(distinctNumbers));
+            }
+            final ContactInfo info = createContactInfo(number);
+            final Object[] values = CallLogQueryTestUtils.createTestExtendedValues();
+            values[CallLogQuery.ID] = (long) (rowCount - i);
+            values[CallLogQuery.NUMBER] = number;
+            values[CallLogQuery.DATE] = now - i * 3600000L;
+            values[CallLogQuery.DURATION] = (long) random.nextInt(600);
+            values[CallLogQuery.CALL_TYPE] = Calls.INCOMING_TYPE + random.nextInt(3);
+            values[CallLogQuery.COUNTRY_ISO] = TEST_COUNTRY_ISO;
+            values[CallLogQuery.CACHED_NAME] = info.name;
+            values[CallLogQuery.CACHED_MATCHED_NUMBER] = info.number;
+            values[CallLogQuery.CACHED_FORMATTED_NUMBER] = info.formattedNumber;
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /** Returns the phone number used for the given index. */
+    private static String createNumber(int index) {
+        return String.valueOf(6502530000L + index);
+    }
+
+    /** Returns the contact info of the given number: every other number belongs to a contact. */
+    private static ContactInfo createContactInfo(String number) {
+        final ContactInfo info = new ContactInfo();
+        info.number = number;
+        info.formattedNumber = number;
+        if ((number.charAt(number.length() - 1) - '0') % 2 == 0) {
+            info.name = "Contact " + number;
+        }
+        return info;
+    }
+
+    /** Returns the result of a timed benchmark. */
+    private static JSONObject createResult(String benchmark, int rowCount, long[] nanos)
+            throws JSONException {
+        final long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        final JSONObject result = new JSONObject();
+        result.put("benchmark", benchmark);
+        result.put("rows", rowCount);
+        result.put("iterations", sorted.length);
+        result.put("minMillis", sorted[0] / 1e6);
+        result.put("medianMillis", median(sorted) / 1e6);
+        result.put("maxMillis", sorted[sorted.length - 1] / 1e6);
+        return result;
+    }
+
+    /** Returns the median of the given durations. */
+    private static long median(long[] nanos) {
+        final long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void addResult(JSONObject result) {
+        Log.i(TAG, result.toString());
+        synchronized (sResults) {
+            sResults.put(result);
+        }
+    }
+
+    /** Writes the results of all the benchmarks run so far to the report. */
+    private void writeReport() throws JSONException, IOException {
+        final JSONObject report = new JSONObject();
+        report.put("timestamp", System.currentTimeMillis());
+        synchronized (sResults) {
+            report.put("results", sResults);
+        }
+        final File file = new File(getContext().getFilesDir(), REPORT_FILE_NAME);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(report.toString(2).getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        Log.i(TAG, "Report written to " + file);
+    }
+}
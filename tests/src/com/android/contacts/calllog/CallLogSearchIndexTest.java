@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Unit tests for {@link CallLogSearchIndex}.
+ */
+@SmallTest
+public class CallLogSearchIndexTest extends AndroidTestCase {
+    /** The object under test. */
+    private CallLogSearchIndex mIndex;
+    /** Cursor to store the values. */
+    private MatrixCursor mCursor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = new CallLogSearchIndex(getContext());
+        mCursor = new MatrixCursor(CallLogQuery.EXTENDED_PROJECTION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCursor = null;
+        mIndex = null;
+        super.tearDown();
+    }
+
+    public void testSearch_ByNamePrefix() {
+        addCallLogHeader(CallLogQuery.SECTION_OLD_HEADER);
+        addCallLogEntry(1, "Bob Smith", "6502530000", null);
+        addCallLogEntry(2, "Ben Doe", "6502530001", null);
+        addCallLogEntry(3, null, "6502530002", null);
+        mIndex.update(mCursor);
+
+        assertPositions(mIndex.search("b"), 1, 2);
+        assertPositions(mIndex.search("bo"), 1);
+        assertPositions(mIndex.search("SMI"), 1);
+        assertPositions(mIndex.search("mith"));
+    }
+
+    public void testSearch_ByNumberFragment() {
+        addCallLogEntry(1, "Jane Smith", "650-253-0000", "+16502530000");
+        addCallLogEntry(2, null, "4125551234", "+14125551234");
+        mIndex.update(mCursor);
+
+        assertPositions(mIndex.search("253"), 0);
+        assertPositions(mIndex.search("(412) 555"), 1);
+        assertPositions(mIndex.search("1650"), 0);
+    }
+
+    public void testSearch_NumberTypedCharacterByCharacter() {
+        addCallLogEntry(1, "Jane Smith", "650-253-0000", "+16502530000");
+        addCallLogEntry(2, null, "4125551234", "+14125551234");
+        addCallLogEntry(3, null, "+442079460000", "+442079460000");
+        mIndex.update(mCursor);
+
+        // A query without digits nor letters matches no call, but the ones typed after it must
+        // still examine all the calls.
+        assertTypedPositions("(412) 555", 1);
+        assertTypedPositions("+44", 2);
+        assertTypedPositions("+1 650", 0);
+    }
+
+    public void testSearch_ByDate() {
+        // October 7, 2011.
+        final long date = 1318000000000L;
+        addCallLogEntry(1, null, "6502530000", null, date);
+        addCallLogEntry(2, null, "6502530001", null, 0L);
+        mIndex.update(mCursor);
+
+        final String month = DateUtils.formatDateTime(getContext(), date,
+                DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_NO_MONTH_DAY
+                | DateUtils.FORMAT_ABBREV_MONTH | DateUtils.FORMAT_NO_YEAR)
+                .toLowerCase(Locale.getDefault());
+        assertPositions(mIndex.search(month), 0);
+    }
+
+    public void testSearch_RefinesPreviousQuery() {
+        addCallLogEntry(1, "Ann Smith", "6502530000", null);
+        addCallLogEntry(2, "Anna Jones", "6502530001", null);
+        mIndex.update(mCursor);
+
+        assertPositions(mIndex.search("an"), 0, 1);
+        assertPositions(mIndex.search("ann"), 0, 1);
+        assertPositions(mIndex.search("anna"), 1);
+        // A shorter query examines all the calls again.
+        assertPositions(mIndex.search("a"), 0, 1);
+    }
+
+    public void testUpdate_KeepsIndexedCallsAndAddsNewOnes() {
+        addCallLogEntry(1, "Jane Smith", "6502530000", null);
+        mIndex.update(mCursor);
+        assertEquals(1, mIndex.size());
+
+        // A new call at the top of the list, and the previous one with a different cached name,
+        // which is not read again.
+        mCursor = new MatrixCursor(CallLogQuery.EXTENDED_PROJECTION);
+        addCallLogEntry(2, "John Doe", "6502530001", null);
+        addCallLogEntry(1, "Someone Else", "6502530000", null);
+        mIndex.update(mCursor);
+
+        assertEquals(2, mIndex.size());
+        assertPositions(mIndex.search("jane"), 1);
+        assertPositions(mIndex.search("john"), 0);
+        assertPositions(mIndex.search("someone"));
+    }
+
+    public void testUpdate_OnlyReadsAppendedRows() {
+        addCallLogEntry(1, "Jane Smith", "6502530000", null);
+        mIndex.update(mCursor);
+
+        // The first row is known to be unchanged, so its new cached name is not read.
+        mCursor = new MatrixCursor(CallLogQuery.EXTENDED_PROJECTION);
+        addCallLogEntry(1, "Someone Else", "6502530000", null);
+        addCallLogEntry(2, "John Doe", "6502530001", null);
+        mIndex.update(mCursor, 1);
+
+        assertEquals(2, mIndex.size());
+        assertPositions(mIndex.search("jane"), 0);
+        assertPositions(mIndex.search("john"), 1);
+        assertPositions(mIndex.search("someone"));
+    }
+
+    public void testUpdate_PreservesCursorPosition() {
+        addCallLogEntry(1, "Jane Smith", "6502530000", null);
+        addCallLogEntry(2, "John Doe", "6502530001", null);
+        mCursor.moveToPosition(1);
+        mIndex.update(mCursor);
+        assertEquals(1, mCursor.getPosition());
+    }
+
+    /** Asserts that the given positions are the expected ones. */
+    private void assertPositions(int[] actual, int... expected) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    /**
+     * Types the query one character at a time, and asserts that the positions found for the
+     * whole query are the expected ones, and the same as when it is searched at once.
+     */
+    private void assertTypedPositions(String query, int... expected) {
+        int[] actual = null;
+        for (int length = 1; length <= query.length(); ++length) {
+            actual = mIndex.search(query.substring(0, length));
+        }
+        assertPositions(actual, expected);
+        // Start from another query, so that the whole query examines all the calls.
+        mIndex.search("zzz");
+        assertPositions(mIndex.search(query), expected);
+    }
+
+    /** Adds a call log entry to the cursor. */
+    private void addCallLogEntry(long id, String name, String number, String normalizedNumber) {
+        addCallLogEntry(id, name, number, normalizedNumber, 0L);
+    }
+
+    /** Adds a call log entry with the given date to the cursor. */
+    private void addCallLogEntry(long id, String name, String number, String normalizedNumber,
+            long date) {
+        Object[] values = CallLogQueryTestUtils.createTestExtendedValues();
+        values[CallLogQuery.ID] = id;
+        values[CallLogQuery.CACHED_NAME] = name;
+        values[CallLogQuery.NUMBER] = number;
+        values[CallLogQuery.CACHED_NORMALIZED_NUMBER] = normalizedNumber;
+        values[CallLogQuery.DATE] = date;
+        values[CallLogQuery.SECTION] = CallLogQuery.SECTION_OLD_ITEM;
+        mCursor.addRow(values);
+    }
+
+    /** Adds a section header to the cursor. */
+    private void addCallLogHeader(int section) {
+        Object[] values = CallLogQueryTestUtils.createTestExtendedValues();
+        values[CallLogQuery.SECTION] = section;
+        mCursor.addRow(values);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import android.provider.CallLog.Calls;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link CallStatistics}.
+ */
+@SmallTest
+public class CallStatisticsTest extends TestCase {
+    public void testBuilder_Empty() {
+        CallStatistics statistics = new CallStatistics.Builder().build();
+        assertEquals(0, statistics.getCallCount());
+        assertEquals(0, statistics.totalDuration);
+        assertEquals(0, statistics.getAverageDuration());
+        assertEquals(0, statistics.lastCallDate);
+    }
+
+    public void testBuilder_CountsByType() {
+        CallStatistics statistics = new CallStatistics.Builder()
+                .addCall(Calls.INCOMING_TYPE, 60, 1000)
+                .addCall(Calls.OUTGOING_TYPE, 120, 3000)
+                .addCall(Calls.OUTGOING_TYPE, 30, 2000)
+                .addCall(Calls.MISSED_TYPE, 0, 4000)
+                .addCall(Calls.VOICEMAIL_TYPE, 25, 5000)
+                .build();
+        assertEquals(1, statistics.incomingCount);
+        assertEquals(2, statistics.outgoingCount);
+        assertEquals(1, statistics.missedCount);
+        assertEquals(1, statistics.voicemailCount);
+        assertEquals(5, statistics.getCallCount());
+        assertEquals(5000, statistics.lastCallDate);
+    }
+
+    public void testBuilder_DurationOfConnectedCallsOnly() {
+        CallStatistics statistics = new CallStatistics.Builder()
+                .addCall(Calls.INCOMING_TYPE, 60, 1000)
+                .addCall(Calls.OUTGOING_TYPE, 120, 2000)
+                .addCall(Calls.VOICEMAIL_TYPE, 25, 3000)
+                .build();
+        assertEquals(180, statistics.totalDuration);
+        assertEquals(90, statistics.getAverageDuration());
+    }
+
+    public void testBuilder_IgnoresUnknownType() {
+        CallStatistics statistics = new CallStatistics.Builder()
+                .addCall(-1, 60, 1000)
+                .build();
+        assertEquals(0, statistics.getCallCount());
+        assertEquals(0, statistics.lastCallDate);
+    }
+
+    public void testBuilder_AddStatistics() {
+        CallStatistics first = new CallStatistics.Builder()
+                .addCall(Calls.INCOMING_TYPE, 60, 1000)
+                .addCall(Calls.MISSED_TYPE, 0, 4000)
+                .build();
+        CallStatistics second = new CallStatistics.Builder()
+                .addCall(Calls.OUTGOING_TYPE, 120, 2000)
+                .addCall(Calls.VOICEMAIL_TYPE, 25, 3000)
+                .build();
+        CallStatistics statistics = new CallStatistics.Builder()
+                .addStatistics(first)
+                .addStatistics(second)
+                .build();
+        assertEquals(1, statistics.incomingCount);
+        assertEquals(1, statistics.outgoingCount);
+        assertEquals(1, statistics.missedCount);
+        assertEquals(1, statistics.voicemailCount);
+        assertEquals(180, statistics.totalDuration);
+        assertEquals(4000, statistics.lastCallDate);
+    }
+}
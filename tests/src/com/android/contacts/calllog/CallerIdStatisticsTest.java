@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link CallerIdStatistics}.
+ */
+@SmallTest
+public class CallerIdStatisticsTest extends TestCase {
+    /** The object under test. */
+    private CallerIdStatistics mStatistics;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStatistics = new CallerIdStatistics();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStatistics = null;
+        super.tearDown();
+    }
+
+    public void testDump_CacheLookups() {
+        mStatistics.onCacheLookup(true, false);
+        mStatistics.onCacheLookup(true, false);
+        mStatistics.onCacheLookup(true, true);
+        mStatistics.onCacheLookup(false, false);
+        assertDumpContains("memory cache: hits=2 expired=1 misses=1");
+    }
+
+    public void testDump_Requests() {
+        mStatistics.onRequestEnqueued(1);
+        mStatistics.onRequestEnqueued(2);
+        mStatistics.onRequestResolved(SystemClock.elapsedRealtime(), true);
+        mStatistics.onRequestResolved(SystemClock.elapsedRealtime(), false);
+        assertEquals(1, mStatistics.getResolvedCount());
+        assertDumpContains("requests: enqueued=2 resolved=1 failed=1");
+        assertDumpContains("queue depth: max=2");
+        // Both requests were enqueued within the same sampling interval.
+        assertDumpContains("recent (seconds ago=depth): 0=2");
+    }
+
+    public void testDump_RequestsDequeued() {
+        mStatistics.onRequestEnqueued(1);
+        mStatistics.onRequestEnqueued(2);
+        mStatistics.onRequestsDequeued(0);
+        assertDumpContains("queue depth: max=2 current=0");
+        // The drained queue is sampled in the same interval, which keeps its deepest depth.
+        assertDumpContains("recent (seconds ago=depth): 0=2");
+    }
+
+    public void testDump_ProviderQueriesPerLookup() {
+        mStatistics.onLookup(20);
+        mStatistics.onProviderQuery();
+        mStatistics.onLookup(5);
+        mStatistics.onProviderQuery();
+        mStatistics.onProviderQuery();
+        mStatistics.onProviderQuery();
+        assertEquals(4, mStatistics.getProviderQueryCount());
+        assertDumpContains("lookups: batches=2 numbers=25 providerQueries=4 queriesPerBatch=2.0");
+    }
+
+    public void testRedraws() {
+        mStatistics.onRedraw();
+        mStatistics.onRedraw();
+        assertEquals(2, mStatistics.getRedrawCount());
+        assertDumpContains("redraws=2");
+    }
+
+    /** Asserts that the output of {@link CallerIdStatistics#dump} contains the given text. */
+    private void assertDumpContains(String expected) {
+        final StringWriter output = new StringWriter();
+        final PrintWriter writer = new PrintWriter(output);
+        mStatistics.dump("", writer);
+        writer.flush();
+        assertTrue(output.toString(), output.toString().contains(expected));
+    }
+}
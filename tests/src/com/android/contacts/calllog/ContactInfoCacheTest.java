@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import com.android.contacts.tests.mocks.ContactsMockContext;
+import com.android.contacts.tests.mocks.MockContentProvider;
+
+import android.content.Context;
+import android.net.Uri;
+import android.provider.ContactsContract.RawContacts;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Unit tests for {@link ContactInfoCache}.
+ */
+@SmallTest
+public class ContactInfoCacheTest extends AndroidTestCase {
+    private static final String TEST_DATABASE_NAME = "test_caller_id_cache.db";
+    private static final String TEST_PREFERENCES_NAME = "test_caller_id_cache";
+    private static final String TEST_COUNTRY_ISO = "US";
+    private static final int TEST_MAX_ENTRIES = 2;
+
+    private ContactsMockContext mMockContext;
+    private MockContentProvider mContactsProvider;
+    /** The object under test. */
+    private ContactInfoCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(TEST_DATABASE_NAME);
+        getContext().getSharedPreferences(TEST_PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        mMockContext = new ContactsMockContext(getContext());
+        mContactsProvider = mMockContext.getContactsProvider();
+        mCache = createCache(0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.close();
+        mCache = null;
+        getContext().deleteDatabase(TEST_DATABASE_NAME);
+        mContactsProvider = null;
+        mMockContext = null;
+        super.tearDown();
+    }
+
+    public void testGet_NoEntry() {
+        expectRawContactsQuery(1, 1).anyNumberOfTimes();
+        assertNull(mCache.get("1", TEST_COUNTRY_ISO));
+    }
+
+    public void testGet_StoredEntry() {
+        expectRawContactsQuery(1, 1).anyNumberOfTimes();
+        put("1", "Alice");
+        ContactInfo info = mCache.get("1", TEST_COUNTRY_ISO);
+        assertNotNull(info);
+        assertEquals("Alice", info.name);
+        assertEquals(Uri.parse("content://contacts/lookup/1"), info.lookupUri);
+        assertNull(mCache.get("1", "GB"));
+    }
+
+    public void testGet_OlderGeneration() {
+        expectRawContactsQuery(1, 1).anyNumberOfTimes();
+        final int generation = mCache.getGeneration();
+        mCache.invalidate();
+        mCache.put("1", TEST_COUNTRY_ISO, createContactInfo("1", "Alice"), generation);
+        assertNull(mCache.get("1", TEST_COUNTRY_ISO));
+    }
+
+    public void testGet_ChangeWhichDoesNotAffectRawContacts() {
+        expectRawContactsQuery(1, 1);
+        put("1", "Alice");
+
+        // E.g., a presence update: the raw contacts are the same.
+        expectRawContactsQuery(1, 1);
+        mCache.onContactsChanged();
+        assertNotNull(mCache.get("1", TEST_COUNTRY_ISO));
+        // The raw contacts are not read again until the next change.
+        assertNotNull(mCache.get("1", TEST_COUNTRY_ISO));
+        mContactsProvider.verify();
+    }
+
+    public void testGet_ChangeToRawContacts() {
+        expectRawContactsQuery(1, 1);
+        put("1", "Alice");
+
+        expectRawContactsQuery(1, 2);
+        mCache.onContactsChanged();
+        assertNull(mCache.get("1", TEST_COUNTRY_ISO));
+        mContactsProvider.verify();
+    }
+
+    public void testGet_ChangesCheckedAtMostOncePerInterval() {
+        mCache.close();
+        mCache = createCache(60 * 1000);
+        expectRawContactsQuery(1, 1);
+        put("1", "Alice");
+
+        // E.g., a burst of presence updates: the raw contacts are not read again meanwhile.
+        mCache.onContactsChanged();
+        assertNotNull(mCache.get("1", TEST_COUNTRY_ISO));
+        mCache.onContactsChanged();
+        assertNotNull(mCache.get("1", TEST_COUNTRY_ISO));
+        mContactsProvider.verify();
+    }
+
+    public void testTrim_RemovesLeastRecentlyUsed() {
+        expectRawContactsQuery(1, 1).anyNumberOfTimes();
+        put("1", "Alice");
+        put("2", "Bob");
+        // Using the first entry makes the second one the least recently used.
+        assertNotNull(mCache.get("1", TEST_COUNTRY_ISO));
+        put("3", "Carol");
+
+        mCache.trim();
+        assertNotNull(mCache.get("1", TEST_COUNTRY_ISO));
+        assertNull(mCache.get("2", TEST_COUNTRY_ISO));
+        assertNotNull(mCache.get("3", TEST_COUNTRY_ISO));
+    }
+
+    public void testPut_TrimsPeriodically() {
+        expectRawContactsQuery(1, 1).anyNumberOfTimes();
+        for (int i = 0; i < ContactInfoCache.PUTS_BETWEEN_TRIMS - 1; i++) {
+            put(Integer.toString(i), "Name" + i);
+        }
+        assertNotNull(mCache.get("0", TEST_COUNTRY_ISO));
+
+        put("last", "Last");
+        // Only the most recently used entries are left.
+        assertNull(mCache.get("1", TEST_COUNTRY_ISO));
+        assertNull(mCache.get(Integer.toString(ContactInfoCache.PUTS_BETWEEN_TRIMS - 2),
+                TEST_COUNTRY_ISO));
+        assertNotNull(mCache.get("0", TEST_COUNTRY_ISO));
+        assertNotNull(mCache.get("last", TEST_COUNTRY_ISO));
+    }
+
+    private ContactInfoCache createCache(long contactsCheckIntervalMillis) {
+        return new ContactInfoCache(mMockContext, TEST_DATABASE_NAME, TEST_PREFERENCES_NAME,
+                TEST_MAX_ENTRIES, contactsCheckIntervalMillis);
+    }
+
+    private MockContentProvider.Query expectRawContactsQuery(int version, int contactId) {
+        return mContactsProvider.expectQuery(RawContacts.CONTENT_URI)
+                .withProjection(RawContacts._ID, RawContacts.VERSION, RawContacts.CONTACT_ID)
+                .returnRow(1, version, contactId);
+    }
+
+    private void put(String number, String name) {
+        mCache.put(number, TEST_COUNTRY_ISO, createContactInfo(number, name),
+                mCache.getGeneration());
+    }
+
+    private static ContactInfo createContactInfo(String number, String name) {
+        ContactInfo info = new ContactInfo();
+        info.lookupUri = Uri.parse("content://contacts/lookup/" + number);
+        info.name = name;
+        info.number = number;
+        return info;
+    }
+}
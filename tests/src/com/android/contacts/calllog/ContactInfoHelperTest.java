@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import com.android.contacts.tests.mocks.ContactsMockContext;
+import com.android.contacts.tests.mocks.MockContentProvider;
+import com.google.common.collect.Lists;
+
+import android.content.Context;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.RawContacts;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Map;
+
+/**
+ * Unit tests for {@link ContactInfoHelper}.
+ */
+@SmallTest
+public class ContactInfoHelperTest extends AndroidTestCase {
+    private static final String TEST_DATABASE_NAME = "test_contact_info_helper.db";
+    private static final String TEST_PREFERENCES_NAME = "test_contact_info_helper";
+    private static final String TEST_COUNTRY_ISO = "US";
+    private static final String TEST_NUMBER = "6502530000";
+    private static final String TEST_NUMBER_E164 = "+16502530000";
+    private static final String TEST_NAME = "Alice";
+
+    private ContactsMockContext mMockContext;
+    private MockContentProvider mContactsProvider;
+    private ContactInfoCache mCache;
+    /** The object under test. */
+    private ContactInfoHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(TEST_DATABASE_NAME);
+        getContext().getSharedPreferences(TEST_PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        mMockContext = new ContactsMockContext(getContext());
+        mContactsProvider = mMockContext.getContactsProvider();
+        mContactsProvider.expectQuery(RawContacts.CONTENT_URI)
+                .withProjection(RawContacts._ID, RawContacts.VERSION, RawContacts.CONTACT_ID)
+                .returnRow(1, 1, 1)
+                .anyNumberOfTimes();
+        mCache = new ContactInfoCache(mMockContext, TEST_DATABASE_NAME, TEST_PREFERENCES_NAME,
+                100, 0);
+        mHelper = new ContactInfoHelper(mMockContext, TEST_COUNTRY_ISO, mCache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper = null;
+        mCache.close();
+        mCache = null;
+        getContext().deleteDatabase(TEST_DATABASE_NAME);
+        mContactsProvider = null;
+        mMockContext = null;
+        super.tearDown();
+    }
+
+    public void testLookupNumbers_Match() {
+        expectPhoneQuery(TEST_NUMBER_E164)
+                .returnRow(1, TEST_NAME, Phone.TYPE_MOBILE, null, TEST_NUMBER, TEST_NUMBER_E164,
+                        0, "lookup", null);
+
+        ContactInfo info = lookupNumber(TEST_NUMBER);
+        assertNotNull(info);
+        assertEquals(TEST_NAME, info.name);
+        assertEquals(Phone.TYPE_MOBILE, info.type);
+        assertEquals(TEST_NUMBER_E164, info.normalizedNumber);
+        assertEquals("(650) 253-0000", info.formattedNumber);
+        mContactsProvider.verify();
+    }
+
+    public void testLookupNumbers_NumbersWithTheSameE164_QueriedOnce() {
+        expectPhoneQuery(TEST_NUMBER_E164)
+                .returnRow(1, TEST_NAME, Phone.TYPE_MOBILE, null, TEST_NUMBER, TEST_NUMBER_E164,
+                        0, "lookup", null);
+
+        NumberWithCountryIso number = new NumberWithCountryIso(TEST_NUMBER, TEST_COUNTRY_ISO);
+        NumberWithCountryIso sameNumber =
+                new NumberWithCountryIso("650-253-0000", TEST_COUNTRY_ISO);
+        Map<NumberWithCountryIso, ContactInfo> infos =
+                mHelper.lookupNumbers(Lists.newArrayList(number, sameNumber));
+        assertEquals(TEST_NAME, infos.get(number).name);
+        assertEquals(TEST_NAME, infos.get(sameNumber).name);
+        mContactsProvider.verify();
+    }
+
+    public void testLookupNumbers_NoMatch_NotLookedUpIndividually() {
+        // Any other query, e.g., to PhoneLookup, fails the test.
+        expectPhoneQuery(TEST_NUMBER_E164).returnEmptyCursor();
+
+        ContactInfo info = lookupNumber(TEST_NUMBER);
+        assertNotNull(info);
+        assertNull(info.name);
+        assertNull(info.lookupUri);
+        assertEquals(TEST_NUMBER, info.number);
+        assertEquals("(650) 253-0000", info.formattedNumber);
+        mContactsProvider.verify();
+    }
+
+    public void testLookupNumbers_Cached() {
+        expectPhoneQuery(TEST_NUMBER_E164)
+                .returnRow(1, TEST_NAME, Phone.TYPE_MOBILE, null, TEST_NUMBER, TEST_NUMBER_E164,
+                        0, "lookup", null);
+        lookupNumber(TEST_NUMBER);
+
+        // The phone data rows are only queried once.
+        ContactInfo info = lookupNumber(TEST_NUMBER);
+        assertNotNull(info);
+        assertEquals(TEST_NAME, info.name);
+        mContactsProvider.verify();
+    }
+
+    private MockContentProvider.Query expectPhoneQuery(String... numbersE164) {
+        StringBuilder selection = new StringBuilder();
+        selection.append(Phone.NORMALIZED_NUMBER).append(" IN (");
+        for (int i = 0; i < numbersE164.length; ++i) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(")");
+        return mContactsProvider.expectQuery(Phone.CONTENT_URI)
+                .withProjection(PhoneQuery._DATA_PROJECTION)
+                .withSelection(selection.toString(), numbersE164);
+    }
+
+    private ContactInfo lookupNumber(String number) {
+        NumberWithCountryIso numberWithCountryIso =
+                new NumberWithCountryIso(number, TEST_COUNTRY_ISO);
+        return mHelper.lookupNumbers(Lists.newArrayList(numberWithCountryIso))
+                .get(numberWithCountryIso);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.calllog;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Unit tests for {@link ContactInfoRequestQueue}.
+ */
+@SmallTest
+public class ContactInfoRequestQueueTest extends AndroidTestCase {
+    private static final String TEST_COUNTRY_ISO = "US";
+
+    /** The object under test. */
+    private ContactInfoRequestQueue mQueue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mQueue = new ContactInfoRequestQueue(3);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mQueue = null;
+        super.tearDown();
+    }
+
+    public void testPoll_Empty() {
+        assertNull(mQueue.poll());
+        assertTrue(mQueue.isEmpty());
+    }
+
+    public void testPoll_MostRecentFirst() {
+        mQueue.offer(createRequest("1"), false);
+        mQueue.offer(createRequest("2"), false);
+        assertEquals("2", mQueue.poll().number);
+        assertEquals("1", mQueue.poll().number);
+        assertNull(mQueue.poll());
+    }
+
+    public void testPoll_ImmediateFirst() {
+        mQueue.offer(createRequest("1"), true);
+        mQueue.offer(createRequest("2"), false);
+        assertEquals("1", mQueue.poll().number);
+        assertEquals("2", mQueue.poll().number);
+    }
+
+    public void testOffer_Duplicate_MovesToFront() {
+        mQueue.offer(createRequest("1"), false);
+        mQueue.offer(createRequest("2"), false);
+        mQueue.offer(createRequest("1"), false);
+        assertEquals(2, mQueue.size());
+        assertEquals("1", mQueue.poll().number);
+        assertEquals("2", mQueue.poll().number);
+    }
+
+    public void testOffer_Duplicate_RaisesPriority() {
+        mQueue.offer(createRequest("1"), false);
+        mQueue.offer(createRequest("2"), true);
+        mQueue.offer(createRequest("1"), true);
+        assertEquals("1", mQueue.poll().number);
+        assertEquals("2", mQueue.poll().number);
+    }
+
+    public void testOffer_InFlight_Ignored() {
+        mQueue.offer(createRequest("1"), true);
+        ContactInfoRequest request = mQueue.poll();
+        assertFalse(mQueue.offer(createRequest("1"), true));
+        assertTrue(mQueue.isPending(request));
+        assertTrue(mQueue.isEmpty());
+        mQueue.finish(request);
+        assertFalse(mQueue.isPending(request));
+        assertTrue(mQueue.offer(createRequest("1"), true));
+    }
+
+    public void testOffer_OverCapacity_DropsStaleRequests() {
+        mQueue.offer(createRequest("1"), true);
+        mQueue.offer(createRequest("2"), false);
+        mQueue.offer(createRequest("3"), false);
+        mQueue.offer(createRequest("4"), false);
+        assertEquals(3, mQueue.size());
+        // The oldest refresh request is dropped before any immediate one.
+        assertFalse(mQueue.isPending(createRequest("2")));
+        assertEquals("1", mQueue.poll().number);
+        assertEquals("4", mQueue.poll().number);
+        assertEquals("3", mQueue.poll().number);
+    }
+
+    public void testClear() {
+        mQueue.offer(createRequest("1"), true);
+        mQueue.offer(createRequest("2"), false);
+        mQueue.clear();
+        assertTrue(mQueue.isEmpty());
+        assertNull(mQueue.poll());
+        // The queue is still usable afterwards.
+        mQueue.offer(createRequest("3"), false);
+        assertEquals("3", mQueue.poll().number);
+    }
+
+    private ContactInfoRequest createRequest(String number) {
+        return new ContactInfoRequest(number, TEST_COUNTRY_ISO, null);
+    }
+}
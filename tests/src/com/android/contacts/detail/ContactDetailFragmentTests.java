@@ -23,6 +23,7 @@ import android.content.Intent;
 import android.net.Uri;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.Im;
+import android.provider.ContactsContract.StatusUpdates;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
@@ -128,4 +129,28 @@ public class ContactDetailFragmentTests extends AndroidTestCase {
         assertEquals(Intent.ACTION_SENDTO, entry.secondaryIntent.getAction());
         assertEquals("xmpp:" + TEST_ADDRESS + "?call", entry.secondaryIntent.getData().toString());
     }
+
+    public void testHasSameContentAs() throws Exception {
+        final ContentValues values = new ContentValues();
+        values.put(Im.MIMETYPE, Im.CONTENT_ITEM_TYPE);
+        values.put(Im.PROTOCOL, Im.PROTOCOL_GOOGLE_TALK);
+        values.put(Im.DATA, TEST_ADDRESS);
+
+        DetailViewEntry entry = new ContactDetailFragment.DetailViewEntry();
+        ContactDetailFragment.buildImActions(mContext, entry, values);
+        DetailViewEntry sameEntry = new ContactDetailFragment.DetailViewEntry();
+        ContactDetailFragment.buildImActions(mContext, sameEntry, values);
+        assertTrue(entry.hasSameKeyAs(sameEntry));
+        assertTrue(entry.hasSameContentAs(sameEntry));
+
+        // Only the presence changed
+        sameEntry.presence = StatusUpdates.AVAILABLE;
+        assertTrue(entry.hasSameKeyAs(sameEntry));
+        assertFalse(entry.hasSameContentAs(sameEntry));
+
+        values.put(Im.CHAT_CAPABILITY, Im.CAPABILITY_HAS_VOICE);
+        DetailViewEntry otherEntry = new ContactDetailFragment.DetailViewEntry();
+        ContactDetailFragment.buildImActions(mContext, otherEntry, values);
+        assertFalse(entry.hasSameContentAs(otherEntry));
+    }
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.quickcontact;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link ResolveCache}.
+ */
+@SmallTest
+public class ResolveCacheTest extends AndroidTestCase {
+    /** A MIME-type which no activity handles. */
+    private static final String TEST_MIME_TYPE = "vnd.android.cursor.item/vnd.resolvecachetest";
+    private static final String TEST_PREFERENCES_NAME = "ResolveCacheTest";
+
+    /** The thread on which the object under test warms up and updates its entries. */
+    private HandlerThread mThread;
+    private Handler mHandler;
+    /** The object under test. */
+    private ResolveCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("ResolveCacheTest");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        // Keeps the preferences of the test apart from the real ones.
+        final Context context = new ContextWrapper(getContext()) {
+            @Override
+            public SharedPreferences getSharedPreferences(String name, int mode) {
+                return super.getSharedPreferences(TEST_PREFERENCES_NAME, mode);
+            }
+        };
+        mCache = new ResolveCache(context, mHandler);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        waitForHandler();
+        mThread.quit();
+        getContext().getSharedPreferences(TEST_PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+                .clear().apply();
+        mCache = null;
+        mHandler = null;
+        mThread = null;
+        super.tearDown();
+    }
+
+    public void testGetPrototypeIntent_HierarchicalUri() {
+        final Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setDataAndType(Uri.parse("content://com.android.contacts/data/1"), TEST_MIME_TYPE);
+        final Intent prototype = ResolveCache.getPrototypeIntent(intent);
+        assertEquals(Intent.ACTION_VIEW, prototype.getAction());
+        assertEquals(Uri.fromParts("content", "", null), prototype.getData());
+        assertNull(prototype.getData().getAuthority());
+        assertNull(prototype.getData().getPath());
+        assertEquals(TEST_MIME_TYPE, prototype.getType());
+    }
+
+    public void testGetPrototypeIntent_OpaqueUri() {
+        final Intent intent = new Intent(Intent.ACTION_CALL, Uri.parse("tel:6502530000"));
+        final Intent prototype = ResolveCache.getPrototypeIntent(intent);
+        assertEquals(Intent.ACTION_CALL, prototype.getAction());
+        assertEquals(Uri.fromParts("tel", "", null), prototype.getData());
+        assertNull(prototype.getType());
+    }
+
+    public void testGetPrototypeIntent_NoData() {
+        final Intent intent = new Intent(Intent.ACTION_SEND).setType("text/plain");
+        final Intent prototype = ResolveCache.getPrototypeIntent(intent);
+        assertNull(prototype.getData());
+        assertEquals("text/plain", prototype.getType());
+    }
+
+    public void testPutEntry_KeepsCachedEntry() {
+        final ResolveCache.Entry entry = createEntry(false);
+        assertSame(entry, mCache.putEntry(TEST_MIME_TYPE, entry));
+        assertSame(entry, mCache.putEntry(TEST_MIME_TYPE, createEntry(false)));
+        assertSame(entry, mCache.putEntry(TEST_MIME_TYPE, createEntry(true)));
+    }
+
+    public void testPutEntry_ReplacesPrototypeEntry() {
+        final ResolveCache.Entry prototypeEntry = createEntry(true);
+        assertSame(prototypeEntry, mCache.putEntry(TEST_MIME_TYPE, prototypeEntry));
+        assertSame(prototypeEntry, mCache.putEntry(TEST_MIME_TYPE, createEntry(true)));
+        final ResolveCache.Entry entry = createEntry(false);
+        assertSame(entry, mCache.putEntry(TEST_MIME_TYPE, entry));
+    }
+
+    public void testGetEntry() {
+        final TestAction action = new TestAction();
+        final ResolveCache.Entry entry = mCache.getEntry(action);
+        assertFalse(entry.isPrototype);
+        assertSame(action.getIntent(), entry.intent);
+        assertNull(entry.bestResolve);
+        assertSame(entry, mCache.getEntry(new TestAction()));
+    }
+
+    public void testGetEntry_PrototypeEntryResolvedAgain() throws Exception {
+        final ResolveCache.Entry prototypeEntry = createEntry(true);
+        mCache.putEntry(TEST_MIME_TYPE, prototypeEntry);
+        final TestAction action = new TestAction();
+        assertSame(prototypeEntry, mCache.getEntry(action));
+
+        waitForHandler();
+        final ResolveCache.Entry entry = mCache.getEntry(action);
+        assertFalse(entry.isPrototype);
+        assertSame(action.getIntent(), entry.intent);
+    }
+
+    private ResolveCache.Entry createEntry(boolean isPrototype) {
+        final Intent intent = new TestAction().getIntent();
+        return new ResolveCache.Entry(
+                isPrototype ? ResolveCache.getPrototypeIntent(intent) : intent, isPrototype);
+    }
+
+    /** Waits until the handler of the object under test has run all the posted tasks. */
+    private void waitForHandler() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    /** An action on a data item of {@link #TEST_MIME_TYPE}. */
+    private static class TestAction implements Action {
+        private final Intent mIntent = new Intent(Intent.ACTION_VIEW).setDataAndType(
+                Uri.parse("content://com.android.contacts/data/1"), TEST_MIME_TYPE);
+
+        @Override
+        public CharSequence getBody() {
+            return null;
+        }
+
+        @Override
+        public CharSequence getSubtitle() {
+            return null;
+        }
+
+        @Override
+        public String getMimeType() {
+            return TEST_MIME_TYPE;
+        }
+
+        @Override
+        public Drawable getAlternateIcon() {
+            return null;
+        }
+
+        @Override
+        public String getAlternateIconDescription() {
+            return null;
+        }
+
+        @Override
+        public Intent getIntent() {
+            return mIntent;
+        }
+
+        @Override
+        public Intent getAlternateIntent() {
+            return null;
+        }
+
+        @Override
+        public Boolean isPrimary() {
+            return null;
+        }
+
+        @Override
+        public Uri getDataUri() {
+            return null;
+        }
+
+        @Override
+        public long getDataId() {
+            return -1;
+        }
+
+        @Override
+        public boolean collapseWith(Action t) {
+            return false;
+        }
+
+        @Override
+        public boolean shouldCollapseWith(Action t) {
+            return false;
+        }
+    }
+}
@@ -17,11 +17,15 @@
 package com.android.contacts.util;
 
 import com.android.contacts.util.ExpirableCache.CachedValue;
+import com.android.contacts.util.ExpirableCache.Loader;
 
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.util.LruCache;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Unit tests for {@link ExpirableCache}.
  */
@@ -53,6 +57,13 @@ public class ExpirableCacheTest extends AndroidTestCase {
         assertEquals(3, mCache.getPossiblyExpired("a").intValue());
     }
 
+    public void testRemove() {
+        mCache.put("a", 1);
+        assertEquals(1, mCache.remove("a").intValue());
+        assertNull(mCache.getCachedValue("a"));
+        assertNull(mCache.remove("a"));
+    }
+
     public void testGet_NotExisting() {
         assertNull(mCache.getPossiblyExpired("a"));
         mCache.put("b", 1);
@@ -122,4 +133,162 @@ public class ExpirableCacheTest extends AndroidTestCase {
         assertEquals(0, expiredCachedValue.getValue().intValue());
         assertTrue("Should be expired", expiredCachedValue.isExpired());
     }
+
+    public void testPut_TimeToLive() {
+        mCache.put("a", 1, 0);
+        mCache.put("b", 2, 60000);
+        assertTrue("Should be expired", mCache.getCachedValue("a").isExpired());
+        assertEquals(1, mCache.getPossiblyExpired("a").intValue());
+        assertEquals(2, mCache.get("b").intValue());
+        // Expiring the cache also expires the values with a time to live.
+        mCache.expireAll();
+        assertNull(mCache.get("b"));
+    }
+
+    public void testPut_InvalidTimeToLive() {
+        try {
+            mCache.put("a", 1, -2);
+            fail("Should have thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testCreate_DefaultTimeToLive() {
+        mCache = ExpirableCache.create(10, 0);
+        mCache.put("a", 1);
+        assertNull(mCache.get("a"));
+        mCache.put("b", 2, ExpirableCache.NO_TIME_TO_LIVE);
+        assertEquals(2, mCache.get("b").intValue());
+    }
+
+    public void testGetOrLoad() {
+        final AtomicInteger loads = new AtomicInteger();
+        Loader<String, Integer> loader = new Loader<String, Integer>() {
+            @Override
+            public Integer load(String key) {
+                return loads.incrementAndGet();
+            }
+        };
+        assertEquals(1, mCache.getOrLoad("a", loader).intValue());
+        // Not loaded again while it is not expired.
+        assertEquals(1, mCache.getOrLoad("a", loader).intValue());
+        mCache.expireAll();
+        assertEquals(2, mCache.getOrLoad("a", loader).intValue());
+        assertEquals(2, mCache.getStats().loadCount);
+    }
+
+    public void testGetOrLoad_ExpiredWhileLoading() {
+        Loader<String, Integer> loader = new Loader<String, Integer>() {
+            @Override
+            public Integer load(String key) {
+                // The data the value is loaded from changes during the load.
+                mCache.expireAll();
+                return 1;
+            }
+        };
+        assertEquals(1, mCache.getOrLoad("a", loader).intValue());
+        assertTrue(mCache.getCachedValue("a").isExpired());
+    }
+
+    public void testGetOrLoad_NullNotCached() {
+        Loader<String, Integer> loader = new Loader<String, Integer>() {
+            @Override
+            public Integer load(String key) {
+                return null;
+            }
+        };
+        assertNull(mCache.getOrLoad("a", loader));
+        assertNull(mCache.getCachedValue("a"));
+    }
+
+    public void testGetOrLoad_SharesConcurrentLoads() throws Exception {
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch finishLoad = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final Loader<String, Integer> loader = new Loader<String, Integer>() {
+            @Override
+            public Integer load(String key) {
+                loads.incrementAndGet();
+                loadStarted.countDown();
+                try {
+                    finishLoad.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 42;
+            }
+        };
+        final Integer[] results = new Integer[2];
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                results[0] = mCache.getOrLoad("a", loader);
+            }
+        };
+        first.start();
+        loadStarted.await();
+        Thread second = new Thread() {
+            @Override
+            public void run() {
+                results[1] = mCache.getOrLoad("a", loader);
+            }
+        };
+        second.start();
+        // Let the second thread start waiting for the first load.
+        while (mCache.getStats().sharedLoadCount == 0) {
+            Thread.sleep(10);
+        }
+        finishLoad.countDown();
+        first.join();
+        second.join();
+
+        assertEquals(1, loads.get());
+        assertEquals(42, results[0].intValue());
+        assertEquals(42, results[1].intValue());
+    }
+
+    public void testGetStats() {
+        mCache.put("a", 1);
+        mCache.getPossiblyExpired("a");
+        mCache.getPossiblyExpired("b");
+        mCache.expireAll();
+        mCache.getPossiblyExpired("a");
+        ExpirableCache.Stats stats = mCache.getStats();
+        assertEquals(1, stats.hitCount);
+        assertEquals(1, stats.expiredHitCount);
+        assertEquals(1, stats.missCount);
+    }
+
+    public void testGetStats_Evictions() {
+        mCache = ExpirableCache.create(2);
+        mCache.put("a", 1);
+        mCache.put("b", 2);
+        mCache.put("c", 3);
+        assertEquals(2, mCache.size());
+        assertEquals(1, mCache.getStats().evictionCount);
+        assertNull(mCache.getPossiblyExpired("a"));
+    }
+
+    public void testCreateStriped() {
+        mCache = ExpirableCache.createStriped(40, 4, ExpirableCache.NO_TIME_TO_LIVE);
+        for (int i = 0; i < 20; ++i) {
+            mCache.put("key" + i, i);
+        }
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(i, mCache.get("key" + i).intValue());
+        }
+        assertEquals(20, mCache.size());
+        mCache.expireAll();
+        for (int i = 0; i < 20; ++i) {
+            assertTrue("Should be expired", mCache.getCachedValue("key" + i).isExpired());
+        }
+    }
+
+    public void testCreateStriped_InvalidSegmentCount() {
+        try {
+            ExpirableCache.createStriped(4, 8, ExpirableCache.NO_TIME_TO_LIVE);
+            fail("Should have thrown");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
 }
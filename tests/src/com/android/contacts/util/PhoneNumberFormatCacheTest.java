@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Unit tests for {@link PhoneNumberFormatCache}.
+ */
+@SmallTest
+public class PhoneNumberFormatCacheTest extends AndroidTestCase {
+    /** The object under test. */
+    private PhoneNumberFormatCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new PhoneNumberFormatCache(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache = null;
+        super.tearDown();
+    }
+
+    public void testGetE164Number() {
+        assertEquals("+16502530000", mCache.getE164Number("650-253-0000", "US"));
+        assertNull(mCache.getE164Number("650-253-0000", null));
+        assertNull(mCache.getE164Number("", "US"));
+    }
+
+    public void testGetFormattedNumber() {
+        assertEquals("(650) 253-0000", mCache.getFormattedNumber("6502530000", "US"));
+        assertEquals("", mCache.getFormattedNumber(null, "US"));
+    }
+
+    public void testGetFormattedNumber_SipAddress() {
+        assertEquals("user@example.com", mCache.getFormattedNumber("user@example.com", "US"));
+        assertNull(mCache.getE164Number("user@example.com", "US"));
+    }
+
+    public void testGetDialpadInstance() {
+        assertSame(PhoneNumberFormatCache.getDialpadInstance(),
+                PhoneNumberFormatCache.getDialpadInstance());
+        assertNotSame(PhoneNumberFormatCache.getInstance(),
+                PhoneNumberFormatCache.getDialpadInstance());
+    }
+
+    public void testCounters() {
+        mCache.getFormattedNumber("6502530000", "US");
+        mCache.getE164Number("6502530000", "US");
+        mCache.getFormattedNumber("6502530000", "GB");
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+        mCache.getFormattedNumber("6502530001", "US");
+        assertEquals(1, mCache.getEvictionCount());
+    }
+}